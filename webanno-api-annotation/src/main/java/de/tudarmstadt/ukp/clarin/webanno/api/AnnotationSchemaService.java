@@ -477,6 +477,19 @@ public interface AnnotationSchemaService
 
     TypeAdapter getAdapter(AnnotationLayer aLayer);
 
+    /**
+     * Returns a snapshot of the current schema of the given project. The snapshot is cached until
+     * the layers, features or tagsets of the project change, so it should be preferred over
+     * {@link #listAnnotationLayer(Project)}, {@link #listAnnotationFeature(AnnotationLayer)} and
+     * {@link #getAdapter(AnnotationLayer)} in code which only reads the schema, e.g. during
+     * rendering. The entities contained in the snapshot are shared and must not be modified.
+     *
+     * @param aProject
+     *            the project.
+     * @return the schema snapshot.
+     */
+    ProjectSchema getProjectSchema(Project aProject);
+
     /**
      * Performs a CAS upgrade and removes all internal feature structures from the CAS. The 
      * resulting CAS should be <b>only</b> used for export and never be persisted within the
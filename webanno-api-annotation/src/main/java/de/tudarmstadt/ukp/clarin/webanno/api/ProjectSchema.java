@@ -0,0 +1,178 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.unmodifiableList;
+import static java.util.Collections.unmodifiableMap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter.TypeAdapter;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.Renderer;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.TagSet;
+
+/**
+ * Snapshot of the layers, features and tagsets of a project at a given schema version. The
+ * adapters and renderers of all layers are built when the snapshot is created, so code which
+ * only reads the schema (e.g. rendering or diffing) does not need to access the database.
+ * <p>
+ * A snapshot is shared between all users of the project. The entities, adapters and renderers
+ * it contains must not be modified (this includes silencing the events of an adapter). Code
+ * which needs to modify the schema must obtain fresh entities from the
+ * {@link AnnotationSchemaService}.
+ */
+public class ProjectSchema
+{
+    private final Project project;
+    private final long version;
+    private final List<AnnotationLayer> layers;
+    private final List<AnnotationFeature> features;
+    private final List<TagSet> tagSets;
+    private final Map<String, AnnotationLayer> layersByName;
+    private final Map<Long, List<AnnotationFeature>> featuresByLayer;
+    private final Map<Long, TypeAdapter> adapters;
+    private final Map<Long, Renderer> renderers;
+    private final Function<AnnotationLayer, TypeAdapter> adapterFactory;
+    private final Function<AnnotationLayer, Renderer> rendererFactory;
+
+    /**
+     * @param aProject
+     *            the project.
+     * @param aVersion
+     *            the schema version of the project from which the snapshot was built.
+     * @param aLayers
+     *            the layers of the project.
+     * @param aFeatures
+     *            the features of all layers of the project.
+     * @param aTagSets
+     *            the tagsets of the project.
+     * @param aAdapterFactory
+     *            creates the adapter of a layer.
+     * @param aRendererFactory
+     *            creates the renderer of a layer.
+     */
+    public ProjectSchema(Project aProject, long aVersion, List<AnnotationLayer> aLayers,
+            List<AnnotationFeature> aFeatures, List<TagSet> aTagSets,
+            Function<AnnotationLayer, TypeAdapter> aAdapterFactory,
+            Function<AnnotationLayer, Renderer> aRendererFactory)
+    {
+        project = aProject;
+        version = aVersion;
+        layers = unmodifiableList(new ArrayList<>(aLayers));
+        features = unmodifiableList(new ArrayList<>(aFeatures));
+        tagSets = unmodifiableList(new ArrayList<>(aTagSets));
+        adapterFactory = aAdapterFactory;
+        rendererFactory = aRendererFactory;
+
+        Map<Long, List<AnnotationFeature>> featureIndex = new HashMap<>();
+        for (AnnotationFeature feature : features) {
+            featureIndex.computeIfAbsent(feature.getLayer().getId(), k -> new ArrayList<>())
+                    .add(feature);
+        }
+        featureIndex.replaceAll((k, v) -> unmodifiableList(v));
+        featuresByLayer = unmodifiableMap(featureIndex);
+
+        Map<String, AnnotationLayer> layerIndex = new LinkedHashMap<>();
+        Map<Long, TypeAdapter> adapterIndex = new HashMap<>();
+        Map<Long, Renderer> rendererIndex = new HashMap<>();
+        for (AnnotationLayer layer : layers) {
+            layerIndex.put(layer.getName(), layer);
+            adapterIndex.put(layer.getId(), aAdapterFactory.apply(layer));
+            rendererIndex.put(layer.getId(), aRendererFactory.apply(layer));
+        }
+        layersByName = unmodifiableMap(layerIndex);
+        adapters = unmodifiableMap(adapterIndex);
+        renderers = unmodifiableMap(rendererIndex);
+    }
+
+    public Project getProject()
+    {
+        return project;
+    }
+
+    public long getVersion()
+    {
+        return version;
+    }
+
+    /**
+     * @return the layers of the project ordered by their UI name.
+     */
+    public List<AnnotationLayer> getLayers()
+    {
+        return layers;
+    }
+
+    public Optional<AnnotationLayer> findLayer(String aName)
+    {
+        return Optional.ofNullable(layersByName.get(aName));
+    }
+
+    /**
+     * @return the features of all layers ordered by the UI name of their layer and their own
+     *         UI name.
+     */
+    public List<AnnotationFeature> getFeatures()
+    {
+        return features;
+    }
+
+    /**
+     * @return the features of the given layer ordered by their UI name. If the layer is not part
+     *         of the snapshot, an empty list is returned.
+     */
+    public List<AnnotationFeature> getFeatures(AnnotationLayer aLayer)
+    {
+        return featuresByLayer.getOrDefault(aLayer.getId(), emptyList());
+    }
+
+    public List<TagSet> getTagSets()
+    {
+        return tagSets;
+    }
+
+    /**
+     * @return the shared adapter of the given layer. If the layer is not part of the snapshot, a
+     *         new adapter is created.
+     */
+    public TypeAdapter getAdapter(AnnotationLayer aLayer)
+    {
+        TypeAdapter adapter = aLayer.getId() != null ? adapters.get(aLayer.getId()) : null;
+        return adapter != null ? adapter : adapterFactory.apply(aLayer);
+    }
+
+    /**
+     * @return the shared renderer of the given layer. If the layer is not part of the snapshot, a
+     *         new renderer is created.
+     */
+    public Renderer getRenderer(AnnotationLayer aLayer)
+    {
+        Renderer renderer = aLayer.getId() != null ? renderers.get(aLayer.getId()) : null;
+        return renderer != null ? renderer : rendererFactory.apply(aLayer);
+    }
+}
@@ -18,6 +18,7 @@
 package de.tudarmstadt.ukp.clarin.webanno.api.annotation;
 
 import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.CHAIN_TYPE;
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.CURATION_USER;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -39,6 +40,7 @@ import org.slf4j.LoggerFactory;
 import de.tudarmstadt.ukp.clarin.webanno.api.CasProvider;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.action.AnnotationActionHandler;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.AnnotatorState;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.LayerRenderCache;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.PreRenderer;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.event.RenderAnnotationsEvent;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.model.VAnnotationMarker;
@@ -63,6 +65,12 @@ public abstract class AnnotationEditorBase
     private CasProvider casProvider;
     private boolean enableHighlight = true;
     
+    /**
+     * The rendered annotations of the last render per layer. This is not serialized - if the editor
+     * has been deserialized, all layers are rendered again.
+     */
+    private transient LayerRenderCache renderCache;
+    
     public AnnotationEditorBase(final String aId, final IModel<AnnotatorState> aModel,
             final AnnotationActionHandler aActionHandler, final CasProvider aCasProvider)
     {
@@ -128,9 +136,20 @@ public abstract class AnnotationEditorBase
 
     protected VDocument render(CAS aCas, int aWindowBeginOffset, int aWindowEndOffset)
     {
+        AnnotatorState state = getModelObject();
+        
+        // In curation mode, the editor displays the CAS of the curation user. The
+        // LayerChangeTracker records the changes made by the curator under this user as well.
+        String casUser = Mode.CURATION.equals(state.getMode()) ? CURATION_USER
+                : state.getUser().getUsername();
+        
+        if (renderCache == null) {
+            renderCache = new LayerRenderCache();
+        }
+        
         VDocument vdoc = new VDocument();
-        preRenderer.render(vdoc, aWindowBeginOffset, aWindowEndOffset,
-                aCas, getLayersToRender());
+        preRenderer.render(vdoc, aWindowBeginOffset, aWindowEndOffset, aCas, getLayersToRender(),
+                state.getDocument(), casUser, renderCache);
 
         // Fire render event into backend
         extensionRegistry.fireRender(aCas, getModelObject(), vdoc,
@@ -152,8 +171,6 @@ public abstract class AnnotationEditorBase
                         getModelObject(), vdoc));
 
         if (isHighlightEnabled()) {
-            AnnotatorState state = getModelObject();
-
             // Disabling for 3.3.0 by default per #406
             // FIXME: should be enabled by default and made optional per #606
             // if (state.getFocusUnitIndex() > 0) {
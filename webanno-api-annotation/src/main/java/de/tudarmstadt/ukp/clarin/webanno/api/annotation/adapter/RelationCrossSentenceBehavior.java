@@ -30,8 +30,6 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.NavigableMap;
-import java.util.TreeMap;
 
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.uima.cas.CAS;
@@ -46,9 +44,8 @@ import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.VID;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.model.VArc;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.model.VComment;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.model.VDocument;
-import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.UnitIndex;
 import de.tudarmstadt.ukp.clarin.webanno.support.logging.LogMessage;
-import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
 
 /**
  * Ensure that annotations do not cross sentence boundaries.
@@ -118,31 +115,25 @@ public class RelationCrossSentenceBehavior
         // Prepare feedback messsage list
         List<Pair<LogMessage, AnnotationFS>> messages = new ArrayList<>();
 
-        // Build indexes to allow quickly looking up the sentence by its begin/end offsets. Since
-        // The indexes are navigable, we can also find the sentences starting/ending closes to a
-        // particular offset, even if it is not the start/end offset of a sentence.
-        NavigableMap<Integer, AnnotationFS> sentBeginIdx = new TreeMap<>();
-        NavigableMap<Integer, AnnotationFS> sentEndIdx = new TreeMap<>();
-        for (AnnotationFS sent : select(aCas, getType(aCas, Sentence.class))) {
-            sentBeginIdx.put(sent.getBegin(), sent);
-            sentEndIdx.put(sent.getEnd(), sent);
-        }
+        // The sentence index allows finding the sentences starting/ending closest to a particular
+        // offset, even if it is not the start/end offset of a sentence.
+        UnitIndex sentences = UnitIndex.sentences(aCas);
         
         for (AnnotationFS fs : annotations) {
             AnnotationFS sourceFs = (AnnotationFS) fs.getFeatureValue(sourceFeature);
             AnnotationFS targetFs = (AnnotationFS) fs.getFeatureValue(targetFeature);
 
-            Entry<Integer, AnnotationFS> s1 = sentBeginIdx.floorEntry(sourceFs.getBegin());
-            Entry<Integer, AnnotationFS> s2 = sentEndIdx.ceilingEntry(targetFs.getEnd());
+            int s1 = sentences.indexBeginningAtOrBefore(sourceFs.getBegin());
+            int s2 = sentences.indexEndingAtOrAfter(targetFs.getEnd());
             
-            if (s1 == null || s2 == null) {
+            if (s1 < 0 || s2 >= sentences.size()) {
                 messages.add(Pair.of(LogMessage.error(this,
                         "Unable to determine any sentences overlapping with [%d-%d]",
                         sourceFs.getBegin(), targetFs.getEnd()), fs));
                 continue;
             }
             
-            if (!WebAnnoCasUtil.isSame(s1.getValue(), s2.getValue())) {
+            if (s1 != s2) {
                 messages.add(Pair.of(
                         LogMessage.error(this, "Crossing sentence boundaries is not permitted."),
                         fs));
@@ -42,10 +42,12 @@ import de.tudarmstadt.ukp.clarin.webanno.api.annotation.exception.AnnotationExce
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.exception.IllegalPlacementException;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.feature.FeatureSupportRegistry;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.VID;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.UnitIndex;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
 import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
 import de.tudarmstadt.ukp.clarin.webanno.support.logging.LogMessage;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
 
 /**
  * Manage interactions with annotations on a span layer.
@@ -107,6 +109,7 @@ public class SpanAdapter
 
         AnnotationFS newAnnotation = createSpanAnnotation(request.getCas(), request.getBegin(),
                 request.getEnd());
+        invalidateUnitIndex(request.getCas());
 
         publishEvent(new SpanCreatedEvent(this, request.getDocument(), request.getUsername(),
                 getLayer(), newAnnotation));
@@ -146,6 +149,7 @@ public class SpanAdapter
     {
         AnnotationFS fs = selectByAddr(aCas, AnnotationFS.class, aVid.getId());
         aCas.removeFsFromIndexes(fs);
+        invalidateUnitIndex(aCas);
 
         // delete associated attachFeature
         if (getAttachTypeName() != null) {
@@ -160,6 +164,16 @@ public class SpanAdapter
         publishEvent(new SpanDeletedEvent(this, aDocument, aUsername, getLayer(), fs));
     }
     
+    /**
+     * The sentence index cannot reliably detect sentences being added or removed.
+     */
+    private void invalidateUnitIndex(CAS aCas)
+    {
+        if (Sentence.class.getName().equals(getAnnotationTypeName())) {
+            UnitIndex.invalidate(aCas);
+        }
+    }
+    
     @Override
     public List<Pair<LogMessage, AnnotationFS>> validate(CAS aCas)
     {
@@ -32,8 +32,8 @@ import de.tudarmstadt.ukp.clarin.webanno.api.annotation.exception.AnnotationExce
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.exception.IllegalPlacementException;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.layer.ChainLayerSupport;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.layer.LayerSupport;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.UnitIndex;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnchoringMode;
-import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
 import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
 
 @Order(10)
@@ -107,18 +107,18 @@ public class SpanAnchoringModeBehavior
             return new int[] { begin, end };
         }
         case SENTENCES: {
-            Type sentenceType = getType(aCas, Sentence.class);
-            List<AnnotationFS> sentences = selectOverlapping(aCas, sentenceType, aRange[0],
-                    aRange[1]);
+            UnitIndex sentences = UnitIndex.sentences(aCas);
+            int first = sentences.indexFirstOverlapping(aRange[0], aRange[1]);
+            int last = sentences.indexLastOverlapping(aRange[0], aRange[1]);
             
-            if (sentences.isEmpty()) {
+            if (first < 0) {
                 throw new IllegalPlacementException(
                         "No sentences found int range [" + aRange[0] + "-" + aRange[1] + "]");
             }
             
             // update the begin and ends (no sub token selection)
-            int begin = sentences.get(0).getBegin();
-            int end = sentences.get(sentences.size() - 1).getEnd();
+            int begin = sentences.getBegin(first);
+            int end = sentences.getEnd(last);
             
             return new int[] { begin, end };
         }
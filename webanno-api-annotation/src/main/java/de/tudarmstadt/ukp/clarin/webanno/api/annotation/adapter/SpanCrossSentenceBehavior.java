@@ -19,7 +19,6 @@ package de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter;
 
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.model.VCommentType.ERROR;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.isBeginEndInSameSentence;
-import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.selectOverlapping;
 import static java.util.Collections.emptyList;
 import static org.apache.uima.fit.util.CasUtil.getType;
 import static org.apache.uima.fit.util.CasUtil.select;
@@ -28,9 +27,6 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.NavigableMap;
-import java.util.TreeMap;
 
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.uima.cas.CAS;
@@ -46,9 +42,8 @@ import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.VID;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.model.VComment;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.model.VDocument;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.model.VSpan;
-import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.UnitIndex;
 import de.tudarmstadt.ukp.clarin.webanno.support.logging.LogMessage;
-import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
 
 /**
  * Ensure that annotations do not cross sentence boundaries. For chain layers, this check applies
@@ -91,27 +86,20 @@ public class SpanCrossSentenceBehavior
         
         CAS cas = annoToSpanIdx.entrySet().iterator().next().getKey().getCAS();
         
-        // Build indexes to allow quickly looking up the sentence by its begin/end offsets. Since
-        // The indexes are navigable, we can also find the sentences starting/ending closes to a
-        // particular offset, even if it is not the start/end offset of a sentence.
-        NavigableMap<Integer, AnnotationFS> sentBeginIdx = new TreeMap<>();
-        NavigableMap<Integer, AnnotationFS> sentEndIdx = new TreeMap<>();
-        for (AnnotationFS sent : selectOverlapping(cas, getType(cas, Sentence.class), aPageBegin,
-                aPageEnd)) {
-            sentBeginIdx.put(sent.getBegin(), sent);
-            sentEndIdx.put(sent.getEnd(), sent);
-        }
+        // The sentence index allows finding the sentences starting/ending closest to a particular
+        // offset, even if it is not the start/end offset of a sentence.
+        UnitIndex sentences = UnitIndex.sentences(cas);
         
         for (AnnotationFS fs : annoToSpanIdx.keySet()) {
-            Entry<Integer, AnnotationFS> s1 = sentBeginIdx.floorEntry(fs.getBegin());
-            Entry<Integer, AnnotationFS> s2 = sentEndIdx.ceilingEntry(fs.getEnd());
+            int s1 = sentences.indexBeginningAtOrBefore(fs.getBegin());
+            int s2 = sentences.indexEndingAtOrAfter(fs.getEnd());
             
-            if (s1 == null || s2 == null) {
+            if (s1 < 0 || s2 >= sentences.size()) {
                 // Unable to determine any sentences overlapping with the annotation
                 continue;
             }
             
-            if (!WebAnnoCasUtil.isSame(s1.getValue(), s2.getValue())) {
+            if (s1 != s2) {
                 aResponse.add(new VComment(new VID(fs), ERROR,
                         "Crossing sentence boundaries is not permitted."));
             }
@@ -137,28 +125,22 @@ public class SpanCrossSentenceBehavior
         // Prepare feedback messsage list
         List<Pair<LogMessage, AnnotationFS>> messages = new ArrayList<>();
 
-        // Build indexes to allow quickly looking up the sentence by its begin/end offsets. Since
-        // The indexes are navigable, we can also find the sentences starting/ending closes to a
-        // particular offset, even if it is not the start/end offset of a sentence.
-        NavigableMap<Integer, AnnotationFS> sentBeginIdx = new TreeMap<>();
-        NavigableMap<Integer, AnnotationFS> sentEndIdx = new TreeMap<>();
-        for (AnnotationFS sent : select(aCas, getType(aCas, Sentence.class))) {
-            sentBeginIdx.put(sent.getBegin(), sent);
-            sentEndIdx.put(sent.getEnd(), sent);
-        }
+        // The sentence index allows finding the sentences starting/ending closest to a particular
+        // offset, even if it is not the start/end offset of a sentence.
+        UnitIndex sentences = UnitIndex.sentences(aCas);
         
         for (AnnotationFS fs : annotations) {
-            Entry<Integer, AnnotationFS> s1 = sentBeginIdx.floorEntry(fs.getBegin());
-            Entry<Integer, AnnotationFS> s2 = sentEndIdx.ceilingEntry(fs.getEnd());
+            int s1 = sentences.indexBeginningAtOrBefore(fs.getBegin());
+            int s2 = sentences.indexEndingAtOrAfter(fs.getEnd());
             
-            if (s1 == null || s2 == null) {
+            if (s1 < 0 || s2 >= sentences.size()) {
                 messages.add(Pair.of(LogMessage.error(this,
                         "Unable to determine any sentences overlapping with [%d-%d]", fs.getBegin(),
                         fs.getEnd()), fs));
                 continue;
             }
             
-            if (!WebAnnoCasUtil.isSame(s1.getValue(), s2.getValue())) {
+            if (s1 != s2) {
                 messages.add(Pair.of(
                         LogMessage.error(this, "Crossing sentence boundaries is not permitted."),
                         fs));
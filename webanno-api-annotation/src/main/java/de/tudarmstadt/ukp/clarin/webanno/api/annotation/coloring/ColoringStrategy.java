@@ -203,7 +203,9 @@ public abstract class ColoringStrategy
 
     private static boolean hasLinkFeature(AnnotationSchemaService aService, AnnotationLayer aLayer)
     {
-        for (AnnotationFeature feature : aService.listAnnotationFeature(aLayer)) {
+        List<AnnotationFeature> features = aService.getProjectSchema(aLayer.getProject())
+                .getFeatures(aLayer);
+        for (AnnotationFeature feature : features) {
             if (!LinkMode.NONE.equals(feature.getLinkMode())) {
                 return true;
             }
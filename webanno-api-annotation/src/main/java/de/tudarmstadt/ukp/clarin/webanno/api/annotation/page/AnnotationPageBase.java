@@ -39,6 +39,7 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.BeansException;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
 import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter.TypeAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.AnnotatorState;
@@ -61,6 +62,7 @@ public abstract class AnnotationPageBase
 
     private @SpringBean AnnotationSchemaService annotationService;
     private @SpringBean DocumentService documentService;
+    private @SpringBean CasStorageService casStorageService;
     private @SpringBean UserPreferencesService userPreferenceService;
     private @SpringBean UserDao userRepository;
     
@@ -132,6 +134,7 @@ public abstract class AnnotationPageBase
      */
     protected void actionShowPreviousDocument(AjaxRequestTarget aTarget)
     {
+        actionFlushDocument(aTarget);
         getModelObject().moveToPreviousDocument(getListOfDocs());
         actionLoadDocument(aTarget);
     }
@@ -141,10 +144,32 @@ public abstract class AnnotationPageBase
      */
     protected void actionShowNextDocument(AjaxRequestTarget aTarget)
     {
+        actionFlushDocument(aTarget);
         getModelObject().moveToNextDocument(getListOfDocs());
         actionLoadDocument(aTarget);
     }
 
+    /**
+     * Writes changes to the current document which are still held back by the CAS storage to disk.
+     * This is done before leaving a document such that the changes are durable even if the user
+     * does not return to the document.
+     */
+    protected void actionFlushDocument(AjaxRequestTarget aTarget)
+    {
+        SourceDocument document = getModelObject().getDocument();
+        if (document == null) {
+            return;
+        }
+        
+        try {
+            casStorageService.flushPendingWrites(document);
+        }
+        catch (IOException e) {
+            // The storage keeps the changes pending and retries later, so we can still move on
+            handleException(aTarget, e);
+        }
+    }
+
     protected void actionResetDocument(AjaxRequestTarget aTarget)
         throws Exception
     {
@@ -161,6 +186,7 @@ public abstract class AnnotationPageBase
     public boolean actionShowSelectedDocument(AjaxRequestTarget aTarget, SourceDocument aDocument)
     {
         if (!Objects.equals(aDocument.getId(), getModelObject().getDocument().getId())) {
+            actionFlushDocument(aTarget);
             getModelObject().setDocument(aDocument, getListOfDocs());
             actionLoadDocument(aTarget);
             return true;
@@ -21,6 +21,7 @@ import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.paging.FocusPosit
 
 import java.io.Serializable;
 import java.util.List;
+import java.util.Optional;
 import java.util.stream.Collectors;
 
 import org.apache.uima.cas.CAS;
@@ -54,19 +55,14 @@ public interface PagingStrategy
             break;
         }
         case CENTERED: {
-            List<Unit> units = units(aCas);
-            
             // Find the unit containing the given offset
-            Unit unit = units.stream()
-                    .filter(u -> u.getBegin() <= aOffset && aOffset <= u.getEnd())
-                    .findFirst()
+            Unit unit = unitAtOffset(aCas, aOffset)
                     .orElseThrow(() -> new IllegalArgumentException(
                             "No unit contains character offset [" + aOffset + "]") );
 
             // How many rows to display before the unit such that the unit is centered?
             int rowsInPageBeforeUnit = aState.getPreferences().getWindowSize() / 2;
-            // The -1 below is because unit.getIndex() is 1-based
-            Unit firstUnit = units.get(Math.max(0, unit.getIndex() - rowsInPageBeforeUnit - 1));
+            Unit firstUnit = unitAtIndex(aCas, unit.getIndex() - rowsInPageBeforeUnit);
             
             aState.setPageBegin(aCas, firstUnit.getBegin());
             aState.setFocusUnitIndex(unit.getIndex());
@@ -116,6 +112,17 @@ public interface PagingStrategy
         return units.get(index - 1);
     }
     
+    /**
+     * Get the first unit containing the given character offset (including the end offset of the
+     * unit).
+     */
+    default Optional<Unit> unitAtOffset(CAS aCas, int aOffset)
+    {
+        return units(aCas).stream()
+                .filter(u -> u.getBegin() <= aOffset && aOffset <= u.getEnd())
+                .findFirst();
+    }
+    
     default List<Unit> unitsStartingAtOffset(CAS aCas, int aOffset, int aCount)
     {
         return units(aCas).stream()
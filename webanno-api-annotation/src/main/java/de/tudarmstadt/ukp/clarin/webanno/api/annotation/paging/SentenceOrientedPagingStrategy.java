@@ -17,10 +17,11 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.api.annotation.paging;
 
-import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.selectSentences;
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.selectAnnotationByAddr;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 
 import org.apache.uima.cas.CAS;
 import org.apache.uima.cas.text.AnnotationFS;
@@ -32,6 +33,7 @@ import org.apache.wicket.model.IModel;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.AnnotatorState;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.page.AnnotationPageBase;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.UnitIndex;
 import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
 
 public class SentenceOrientedPagingStrategy
@@ -42,22 +44,39 @@ public class SentenceOrientedPagingStrategy
     @Override
     public List<Unit> units(CAS aCas, int aFirstIndex, int aLastIndex)
     {
+        UnitIndex sentences = UnitIndex.sentences(aCas);
         List<Unit> units = new ArrayList<>();
-        int i = 1;
-        for (AnnotationFS sentence : selectSentences(aCas)) {
-            if (i > aLastIndex) {
-                break;
-            }
-            
-            if (i >= aFirstIndex) {
-                units.add(toUnit(i, sentence));
-            }
-            
-            i++;
+        for (int i = Math.max(aFirstIndex, 1); i <= Math.min(aLastIndex, sentences.size()); i++) {
+            units.add(toUnit(aCas, sentences, i));
         }
         return units;
     }
     
+    @Override
+    public Unit unitAtIndex(CAS aCas, int aIndex)
+    {
+        UnitIndex sentences = UnitIndex.sentences(aCas);
+        return toUnit(aCas, sentences, Math.min(Math.max(aIndex, 1), sentences.size()));
+    }
+    
+    @Override
+    public Optional<Unit> unitAtOffset(CAS aCas, int aOffset)
+    {
+        UnitIndex sentences = UnitIndex.sentences(aCas);
+        int i = sentences.indexOf(aOffset);
+        return i >= 0 ? Optional.of(toUnit(aCas, sentences, i + 1)) : Optional.empty();
+    }
+    
+    @Override
+    public List<Unit> unitsStartingAtOffset(CAS aCas, int aOffset, int aCount)
+    {
+        UnitIndex sentences = UnitIndex.sentences(aCas);
+        int first = sentences.indexBeginningAtOrAfter(aOffset) + 1;
+        // Avoid an overflow if all units are requested
+        int last = first + Math.min(aCount, sentences.size()) - 1;
+        return units(aCas, first, last);
+    }
+    
     @Override
     public int unitCount(CAS aCas)
     {
@@ -65,12 +84,17 @@ public class SentenceOrientedPagingStrategy
         return aCas.getAnnotationIndex(CasUtil.getType(aCas, Sentence.class)).size(); 
     }
     
-    private Unit toUnit(int aIndex, AnnotationFS aSentence)
+    /**
+     * @param aIndex index of the sentence (1-based)
+     */
+    private Unit toUnit(CAS aCas, UnitIndex aSentences, int aIndex)
     {
+        AnnotationFS sentence = selectAnnotationByAddr(aCas, aSentences.getAddress(aIndex - 1));
+        
         // If there is a sentence ID, then make it accessible to the user via a sentence-level
         // comment.
-        String sentId = FSUtil.getFeature(aSentence, "id", String.class);
-        return new Unit(sentId, aIndex, aSentence.getBegin(), aSentence.getEnd());
+        String sentId = FSUtil.getFeature(sentence, "id", String.class);
+        return new Unit(sentId, aIndex, sentence.getBegin(), sentence.getEnd());
     }
     
     @Override
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.CURATION_USER;
+import static de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentState.CURATION_IN_PROGRESS;
+import static java.util.Arrays.asList;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.wicket.MetaDataKey;
+import org.apache.wicket.request.cycle.RequestCycle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.AnnotationEvent;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+/**
+ * Records which layers of which annotation documents have been changed during the current
+ * request based on the {@link AnnotationEvent annotation events}. Together with the timestamp
+ * of the CAS before the first change, this allows the {@link PreRenderer} to decide which of the
+ * layers cached in a {@link LayerRenderCache} are still valid.
+ * <p>
+ * Changes which happen outside of a request (e.g. in background tasks) are not recorded. They
+ * are detected by the changed CAS timestamp which causes all layers to be rendered again.
+ */
+@Component
+public class LayerChangeTracker
+{
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    
+    private static final MetaDataKey<Map<Pair<Long, String>, Changes>> CHANGES = 
+            new MetaDataKey<Map<Pair<Long, String>, Changes>>()
+    {
+        private static final long serialVersionUID = 2196283553741227431L;
+    };
+
+    private final CasStorageService casStorageService;
+
+    @Autowired
+    public LayerChangeTracker(CasStorageService aCasStorageService)
+    {
+        casStorageService = aCasStorageService;
+    }
+    
+    @EventListener
+    public void onAnnotationEvent(AnnotationEvent aEvent)
+    {
+        RequestCycle requestCycle = RequestCycle.get();
+        if (requestCycle == null || aEvent.getDocument() == null || aEvent.getUser() == null) {
+            return;
+        }
+        
+        Map<Pair<Long, String>, Changes> changes = requestCycle.getMetaData(CHANGES);
+        if (changes == null) {
+            changes = new HashMap<>();
+            requestCycle.setMetaData(CHANGES, changes);
+        }
+        
+        for (String casUser : getAffectedCasUsers(aEvent)) {
+            Pair<Long, String> key = Pair.of(aEvent.getDocument().getId(), casUser);
+            Changes documentChanges = changes.get(key);
+            if (documentChanges == null) {
+                // The CAS has not been written yet when the first event is fired, so this is the
+                // timestamp of the CAS before the changes
+                documentChanges = new Changes(
+                        getCasTimestamp(aEvent.getDocument(), casUser).orElse(null));
+                changes.put(key, documentChanges);
+            }
+            
+            if (aEvent.getLayer() == null || aEvent.getLayer().getId() == null) {
+                documentChanges.allLayers = true;
+            }
+            else {
+                documentChanges.layers.add(aEvent.getLayer().getId());
+            }
+        }
+    }
+    
+    /**
+     * In curation mode, the events carry the name of the curator while the changes are made to
+     * the CAS of the curation user which is also the user
+     * under which the editor renders. The event does not tell which of the two CASes has been
+     * changed, so while the document is being curated, the changes are recorded for both.
+     */
+    private List<String> getAffectedCasUsers(AnnotationEvent aEvent)
+    {
+        if (CURATION_IN_PROGRESS.equals(aEvent.getDocument().getState())
+                && !CURATION_USER.equals(aEvent.getUser())) {
+            return asList(aEvent.getUser(), CURATION_USER);
+        }
+        
+        return asList(aEvent.getUser());
+    }
+    
+    /**
+     * @return the changes to the annotations of the given user in the given document which have
+     *         happened so far in the current request.
+     */
+    public Optional<Changes> getChanges(SourceDocument aDocument, String aUser)
+    {
+        RequestCycle requestCycle = RequestCycle.get();
+        if (requestCycle == null) {
+            return Optional.empty();
+        }
+        
+        Map<Pair<Long, String>, Changes> changes = requestCycle.getMetaData(CHANGES);
+        if (changes == null) {
+            return Optional.empty();
+        }
+        
+        return Optional.ofNullable(changes.get(Pair.of(aDocument.getId(), aUser)));
+    }
+    
+    /**
+     * @return the timestamp of the CAS of the given user in the given document or nothing if
+     *         the CAS does not exist or the timestamp cannot be determined.
+     */
+    public Optional<Long> getCasTimestamp(SourceDocument aDocument, String aUser)
+    {
+        try {
+            return casStorageService.getCasTimestamp(aDocument, aUser);
+        }
+        catch (IOException e) {
+            log.error("Unable to determine timestamp of CAS [{},{}]", aDocument.getId(), aUser,
+                    e);
+            return Optional.empty();
+        }
+    }
+    
+    public static class Changes
+    {
+        private final Long casTimestamp;
+        private final Set<Long> layers = new HashSet<>();
+        private boolean allLayers;
+        
+        private Changes(Long aCasTimestamp)
+        {
+            casTimestamp = aCasTimestamp;
+        }
+        
+        /**
+         * @return the timestamp of the CAS before the changes or {@code null} if it is unknown.
+         */
+        public Long getCasTimestamp()
+        {
+            return casTimestamp;
+        }
+        
+        /**
+         * @return the IDs of the changed layers.
+         */
+        public Set<Long> getLayers()
+        {
+            return layers;
+        }
+        
+        /**
+         * @return whether changes have been made which are not attributed to a specific layer.
+         */
+        public boolean isAllLayers()
+        {
+            return allLayers;
+        }
+    }
+}
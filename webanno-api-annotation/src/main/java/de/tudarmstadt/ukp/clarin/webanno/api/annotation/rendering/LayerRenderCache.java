@@ -0,0 +1,101 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.model.VDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
+
+/**
+ * Keeps the rendered annotations of each layer of the last render of an annotation editor, so
+ * that the {@link PreRenderer} only needs to render the layers again which have been changed
+ * since. The cache is only valid for the document, user, window and schema version it has been
+ * filled for and must only be used by a single editor.
+ * 
+ * @see PreRenderer#render(VDocument, int, int, org.apache.uima.cas.CAS, java.util.List,
+ *      de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument, String, LayerRenderCache)
+ */
+public class LayerRenderCache
+{
+    private final Map<Long, VDocument> layers = new HashMap<>();
+    
+    private long documentId = -1;
+    private String user;
+    private int windowBegin = -1;
+    private int windowEnd = -1;
+    private long schemaVersion = -1;
+    private Long casTimestamp;
+
+    /**
+     * @return whether the cache has been filled for the given parameters from the version of the
+     *         CAS with the given timestamp.
+     */
+    boolean isValid(long aDocumentId, String aUser, int aWindowBegin, int aWindowEnd,
+            long aSchemaVersion, Long aCasTimestamp)
+    {
+        return casTimestamp != null && casTimestamp.equals(aCasTimestamp)
+                && documentId == aDocumentId && Objects.equals(user, aUser)
+                && windowBegin == aWindowBegin && windowEnd == aWindowEnd
+                && schemaVersion == aSchemaVersion;
+    }
+
+    /**
+     * Drops all cached layers and prepares the cache to be filled for the given parameters.
+     */
+    void reset(long aDocumentId, String aUser, int aWindowBegin, int aWindowEnd,
+            long aSchemaVersion)
+    {
+        layers.clear();
+        documentId = aDocumentId;
+        user = aUser;
+        windowBegin = aWindowBegin;
+        windowEnd = aWindowEnd;
+        schemaVersion = aSchemaVersion;
+        casTimestamp = null;
+    }
+    
+    void setCasTimestamp(Long aCasTimestamp)
+    {
+        casTimestamp = aCasTimestamp;
+    }
+    
+    VDocument get(AnnotationLayer aLayer)
+    {
+        return layers.get(aLayer.getId());
+    }
+
+    void put(AnnotationLayer aLayer, VDocument aRendered)
+    {
+        layers.put(aLayer.getId(), aRendered);
+    }
+
+    void remove(Collection<Long> aLayerIds)
+    {
+        layers.keySet().removeAll(aLayerIds);
+    }
+    
+    public void clear()
+    {
+        layers.clear();
+        casTimestamp = null;
+    }
+}
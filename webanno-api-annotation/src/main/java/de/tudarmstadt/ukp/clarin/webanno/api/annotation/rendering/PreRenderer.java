@@ -23,9 +23,27 @@ import org.apache.uima.cas.CAS;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.model.VDocument;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
 
 public interface PreRenderer
 {
     void render(VDocument aResponse, int windowBeginOffset, int windowEndOffset, CAS aCas,
             List<AnnotationLayer> aLayers);
+    
+    /**
+     * Render the given layers re-using the layers from the given cache which have not been changed
+     * since they have been cached. A layer counts as changed if an annotation event for the layer
+     * has been fired for the given document and user in the current request. If the CAS has been
+     * changed in any other way, all layers are rendered again.
+     * 
+     * @param aDocument
+     *            the document the CAS belongs to.
+     * @param aUser
+     *            the user the CAS belongs to.
+     * @param aCache
+     *            the cache of the editor which displays the rendered annotations.
+     */
+    void render(VDocument aResponse, int windowBeginOffset, int windowEndOffset, CAS aCas,
+            List<AnnotationLayer> aLayers, SourceDocument aDocument, String aUser,
+            LayerRenderCache aCache);
 }
@@ -17,41 +17,154 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering;
 
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.SPAN_TYPE;
+
+import java.util.HashSet;
 import java.util.List;
+import java.util.Optional;
+import java.util.Set;
 
 import org.apache.uima.cas.CAS;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.ProjectSchema;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.layer.LayerSupportRegistry;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.LayerChangeTracker.Changes;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.model.VDocument;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
+import de.tudarmstadt.ukp.clarin.webanno.model.LinkMode;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
 
 @Component
 public class PreRendererImpl implements PreRenderer
 {
     private final AnnotationSchemaService annotationService;
     private final LayerSupportRegistry layerSupportRegistry;
+    private final LayerChangeTracker changeTracker;
 
-    @Autowired
     public PreRendererImpl(LayerSupportRegistry aLayerSupportRegistry,
             AnnotationSchemaService aAnnotationService)
+    {
+        this(aLayerSupportRegistry, aAnnotationService, null);
+    }
+    
+    @Autowired
+    public PreRendererImpl(LayerSupportRegistry aLayerSupportRegistry,
+            AnnotationSchemaService aAnnotationService, LayerChangeTracker aChangeTracker)
     {
         layerSupportRegistry = aLayerSupportRegistry;
         annotationService = aAnnotationService;
+        changeTracker = aChangeTracker;
     }
     
     @Override
     public void render(VDocument aResponse, int windowBeginOffset, int windowEndOffset, CAS aCas,
             List<AnnotationLayer> aLayers)
     {
+        if (aLayers.isEmpty()) {
+            return;
+        }
+        
+        // All layers belong to the same project - use the cached schema of the project instead
+        // of loading the features and creating the renderers again for every rendering
+        ProjectSchema schema = annotationService.getProjectSchema(aLayers.get(0).getProject());
+        
         // Render (custom) layers
         for (AnnotationLayer layer : aLayers) {
-            List<AnnotationFeature> features = annotationService.listAnnotationFeature(layer);
-            Renderer renderer = layerSupportRegistry.getLayerSupport(layer).getRenderer(layer);
-            renderer.render(aCas, features, aResponse, windowBeginOffset, windowEndOffset);
+            render(schema, layer, aResponse, windowBeginOffset, windowEndOffset, aCas);
+        }
+    }
+    
+    @Override
+    public void render(VDocument aResponse, int windowBeginOffset, int windowEndOffset, CAS aCas,
+            List<AnnotationLayer> aLayers, SourceDocument aDocument, String aUser,
+            LayerRenderCache aCache)
+    {
+        if (aLayers.isEmpty()) {
+            return;
+        }
+        
+        ProjectSchema schema = annotationService.getProjectSchema(aLayers.get(0).getProject());
+        
+        invalidateChangedLayers(schema, windowBeginOffset, windowEndOffset, aDocument, aUser,
+                aCache);
+        
+        for (AnnotationLayer layer : aLayers) {
+            VDocument rendered = aCache.get(layer);
+            if (rendered == null) {
+                rendered = new VDocument();
+                render(schema, layer, rendered, windowBeginOffset, windowEndOffset, aCas);
+                aCache.put(layer, rendered);
+            }
+            aResponse.addAll(rendered);
+        }
+    }
+    
+    private void render(ProjectSchema aSchema, AnnotationLayer aLayer, VDocument aResponse,
+            int aWindowBegin, int aWindowEnd, CAS aCas)
+    {
+        List<AnnotationFeature> features = aSchema.getFeatures(aLayer);
+        Renderer renderer = aSchema.getRenderer(aLayer);
+        renderer.render(aCas, features, aResponse, aWindowBegin, aWindowEnd);
+    }
+    
+    private void invalidateChangedLayers(ProjectSchema aSchema, int aWindowBegin, int aWindowEnd,
+            SourceDocument aDocument, String aUser, LayerRenderCache aCache)
+    {
+        if (changeTracker == null) {
+            aCache.reset(aDocument.getId(), aUser, aWindowBegin, aWindowEnd, aSchema.getVersion());
+            return;
+        }
+        
+        Long casTimestamp = changeTracker.getCasTimestamp(aDocument, aUser).orElse(null);
+        Optional<Changes> changes = changeTracker.getChanges(aDocument, aUser);
+        
+        // If the CAS has been changed in the current request, the cache must have been filled
+        // from the version before the changes - otherwise it must be the current version
+        Long expectedTimestamp = changes.isPresent() ? changes.get().getCasTimestamp()
+                : casTimestamp;
+        
+        if (!aCache.isValid(aDocument.getId(), aUser, aWindowBegin, aWindowEnd,
+                aSchema.getVersion(), expectedTimestamp)
+                || (changes.isPresent() && changes.get().isAllLayers())) {
+            aCache.reset(aDocument.getId(), aUser, aWindowBegin, aWindowEnd,
+                    aSchema.getVersion());
+        }
+        else if (changes.isPresent()) {
+            Set<Long> changedLayers = new HashSet<>(changes.get().getLayers());
+            
+            // Layers which render annotations of other layers (e.g. relations or link features)
+            // may be affected by any change
+            if (!changedLayers.isEmpty()) {
+                for (AnnotationLayer layer : aSchema.getLayers()) {
+                    if (isDependent(aSchema, layer)) {
+                        changedLayers.add(layer.getId());
+                    }
+                }
+            }
+            
+            aCache.remove(changedLayers);
+        }
+        
+        aCache.setCasTimestamp(casTimestamp);
+    }
+    
+    private boolean isDependent(ProjectSchema aSchema, AnnotationLayer aLayer)
+    {
+        if (!SPAN_TYPE.equals(aLayer.getType())) {
+            return true;
+        }
+        
+        for (AnnotationFeature feature : aSchema.getFeatures(aLayer)) {
+            if (!LinkMode.NONE.equals(feature.getLinkMode())
+                    || !feature.getType().startsWith("uima.cas.")) {
+                return true;
+            }
         }
+        
+        return false;
     }
 }
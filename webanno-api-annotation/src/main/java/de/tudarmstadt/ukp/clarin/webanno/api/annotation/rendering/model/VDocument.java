@@ -72,6 +72,17 @@ public class VDocument
         markers.add(aMarker);
     }
     
+    /**
+     * Adds the annotations, comments and markers of the given document to this document.
+     */
+    public void addAll(VDocument aOther)
+    {
+        aOther.spans.values().forEach(this::add);
+        aOther.arcs.values().forEach(this::add);
+        aOther.comments.values().forEach(this::add);
+        aOther.markers.forEach(this::add);
+    }
+    
     public VSpan getSpan(VID aVid) {
         return spans.get(aVid);
     }
@@ -0,0 +1,426 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.annotation.util;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getAddr;
+import static java.util.Collections.synchronizedMap;
+import static org.apache.uima.fit.util.CasUtil.getType;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.WeakHashMap;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.FSIterator;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.cas.text.AnnotationIndex;
+
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+
+/**
+ * Offsets of the units (sentences or lines) of a CAS in document order. Looking up a unit by its
+ * number or by a character offset does not need to iterate over the CAS.
+ * <p>
+ * The index of a CAS is built on first use and kept until the CAS is garbage collected. It is
+ * built again if the document text or the first, last or number of sentences have changed. This
+ * check does not notice all changes, e.g. a sentence being moved in the middle of the document or
+ * a CAS being reset and filled again. Code which creates, deletes or moves sentences or which
+ * re-initializes a CAS in place must therefore {@link #invalidate(CAS) invalidate} the index.
+ * Indices are zero-based.
+ */
+public final class UnitIndex
+{
+    private static final Map<CAS, UnitIndex> SENTENCE_INDICES = synchronizedMap(
+            new WeakHashMap<>());
+    private static final Map<CAS, UnitIndex> LINE_INDICES = synchronizedMap(new WeakHashMap<>());
+
+    private final String text;
+    private final int size;
+    private final int[] begins;
+    private final int[] ends;
+    private final int[] addresses;
+    private final boolean endsSorted;
+
+    private UnitIndex(String aText, int aSize, int[] aBegins, int[] aEnds, int[] aAddresses)
+    {
+        text = aText;
+        size = aSize;
+        begins = aBegins;
+        ends = aEnds;
+        addresses = aAddresses;
+
+        // Overlapping units (e.g. nested sentences) do not permit a binary search by end offset
+        boolean sorted = true;
+        for (int i = 1; i < size && sorted; i++) {
+            sorted = ends[i - 1] <= ends[i];
+        }
+        endsSorted = sorted;
+    }
+
+    /**
+     * @return the index of the sentences of the given CAS.
+     */
+    public static UnitIndex sentences(CAS aCas)
+    {
+        UnitIndex index = SENTENCE_INDICES.get(aCas);
+        if (index == null || !index.isValidSentenceIndex(aCas)) {
+            index = buildSentenceIndex(aCas);
+            SENTENCE_INDICES.put(aCas, index);
+        }
+        return index;
+    }
+
+    /**
+     * @return the index of the lines of the given CAS. Lines are separated by {@code \n}. The line
+     *         break is not part of a line. If the text ends with a line break, the last line is
+     *         empty.
+     */
+    public static UnitIndex lines(CAS aCas)
+    {
+        UnitIndex index = LINE_INDICES.get(aCas);
+        if (index == null || !Objects.equals(index.text, aCas.getDocumentText())) {
+            index = buildLineIndex(aCas.getDocumentText());
+            LINE_INDICES.put(aCas, index);
+        }
+        return index;
+    }
+
+    /**
+     * Discards the indices of the given CAS. They are built again on their next use.
+     */
+    public static void invalidate(CAS aCas)
+    {
+        SENTENCE_INDICES.remove(aCas);
+        LINE_INDICES.remove(aCas);
+    }
+
+    private static UnitIndex buildSentenceIndex(CAS aCas)
+    {
+        AnnotationIndex<AnnotationFS> sentences = aCas
+                .getAnnotationIndex(getType(aCas, Sentence.class));
+        int size = sentences.size();
+        int[] begins = new int[size];
+        int[] ends = new int[size];
+        int[] addresses = new int[size];
+        int i = 0;
+        for (AnnotationFS sentence : sentences) {
+            begins[i] = sentence.getBegin();
+            ends[i] = sentence.getEnd();
+            addresses[i] = getAddr(sentence);
+            i++;
+        }
+        return new UnitIndex(aCas.getDocumentText(), size, begins, ends, addresses);
+    }
+
+    private static UnitIndex buildLineIndex(String aText)
+    {
+        if (aText == null || aText.isEmpty()) {
+            return new UnitIndex(aText, 0, new int[0], new int[0], null);
+        }
+
+        int[] begins = new int[16];
+        int[] ends = new int[16];
+        int size = 0;
+        int begin = 0;
+        while (true) {
+            if (size == begins.length) {
+                begins = Arrays.copyOf(begins, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+            }
+
+            int lineBreak = aText.indexOf('\n', begin);
+            begins[size] = begin;
+            ends[size] = lineBreak >= 0 ? lineBreak : aText.length();
+            size++;
+
+            if (lineBreak < 0) {
+                break;
+            }
+
+            // The line break itself belongs to neither line
+            begin = lineBreak + 1;
+        }
+        return new UnitIndex(aText, size, begins, ends, null);
+    }
+
+    private boolean isValidSentenceIndex(CAS aCas)
+    {
+        AnnotationIndex<AnnotationFS> sentences = aCas
+                .getAnnotationIndex(getType(aCas, Sentence.class));
+        if (sentences.size() != size || !Objects.equals(text, aCas.getDocumentText())) {
+            return false;
+        }
+
+        if (size == 0) {
+            return true;
+        }
+
+        FSIterator<AnnotationFS> i = sentences.iterator();
+        i.moveToFirst();
+        AnnotationFS first = i.get();
+        i.moveToLast();
+        AnnotationFS last = i.get();
+        return isAt(0, first) && isAt(size - 1, last);
+    }
+
+    private boolean isAt(int aIndex, AnnotationFS aSentence)
+    {
+        return begins[aIndex] == aSentence.getBegin() && ends[aIndex] == aSentence.getEnd()
+                && addresses[aIndex] == getAddr(aSentence);
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public int getBegin(int aIndex)
+    {
+        checkIndex(aIndex);
+        return begins[aIndex];
+    }
+
+    public int getEnd(int aIndex)
+    {
+        checkIndex(aIndex);
+        return ends[aIndex];
+    }
+
+    /**
+     * @return the CAS address of the unit. Only sentence indices provide addresses.
+     */
+    public int getAddress(int aIndex)
+    {
+        if (addresses == null) {
+            throw new UnsupportedOperationException("Units have no addresses");
+        }
+        checkIndex(aIndex);
+        return addresses[aIndex];
+    }
+
+    /**
+     * @return the index of the first unit with {@code begin <= aOffset <= end} or {@code -1} if
+     *         there is no such unit.
+     */
+    public int indexOf(int aOffset)
+    {
+        return find(aOffset, true);
+    }
+
+    /**
+     * @return the index of the first unit with {@code begin <= aOffset < end} or {@code -1} if
+     *         there is no such unit.
+     */
+    public int indexCovering(int aOffset)
+    {
+        return find(aOffset, false);
+    }
+
+    /**
+     * @return the index of the first unit beginning at or after the given offset or
+     *         {@link #size()} if there is no such unit.
+     */
+    public int indexBeginningAtOrAfter(int aOffset)
+    {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (begins[mid] < aOffset) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the index of the last unit beginning at or before the given offset or {@code -1}
+     *         if there is no such unit.
+     */
+    public int indexBeginningAtOrBefore(int aOffset)
+    {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (begins[mid] <= aOffset) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return low - 1;
+    }
+
+    /**
+     * @return the index of the unit with the smallest end offset at or after the given offset or
+     *         {@link #size()} if there is no such unit. If multiple units end at the same offset,
+     *         the last of them is returned.
+     */
+    public int indexEndingAtOrAfter(int aOffset)
+    {
+        if (!endsSorted) {
+            int best = size;
+            for (int i = 0; i < size; i++) {
+                if (ends[i] >= aOffset && (best == size || ends[i] <= ends[best])) {
+                    best = i;
+                }
+            }
+            return best;
+        }
+
+        int i = indexNotEndingBefore(aOffset, true);
+
+        // Skip to the last unit ending at the same offset
+        while (i + 1 < size && ends[i + 1] == ends[i]) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * @return the index of the first unit overlapping with the range {@code [aBegin,aEnd)} or
+     *         {@code -1} if there is no such unit.
+     */
+    public int indexFirstOverlapping(int aBegin, int aEnd)
+    {
+        if (!endsSorted) {
+            for (int i = 0; i < size && begins[i] < aEnd; i++) {
+                if (aBegin < ends[i]) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        int i = indexNotEndingBefore(aBegin, false);
+        return i < size && begins[i] < aEnd ? i : -1;
+    }
+
+    /**
+     * @return the index of the last unit overlapping with the range {@code [aBegin,aEnd)} or
+     *         {@code -1} if there is no such unit.
+     */
+    public int indexLastOverlapping(int aBegin, int aEnd)
+    {
+        int i = indexBeginningAtOrBefore(aEnd - 1);
+        if (!endsSorted) {
+            for (; i >= 0; i--) {
+                if (aBegin < ends[i]) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        return i >= 0 && aBegin < ends[i] ? i : -1;
+    }
+
+    /**
+     * Checks if there is a unit with {@code begin <= aBegin < end} which also contains the given
+     * offset.
+     *
+     * @param aBegin
+     *            the reference offset.
+     * @param aOffset
+     *            the comparison offset.
+     * @param aEndInclusive
+     *            whether the comparison offset may be the end offset of the unit.
+     * @return if the two offsets are within the same unit.
+     */
+    public boolean isInSameUnit(int aBegin, int aOffset, boolean aEndInclusive)
+    {
+        if (!endsSorted) {
+            for (int i = 0; i < size && begins[i] <= aBegin; i++) {
+                if (aBegin < ends[i] && begins[i] <= aOffset
+                        && endsAtOrAfter(i, aOffset, aEndInclusive)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        if (aOffset < aBegin) {
+            // The unit containing the reference offset with the smallest begin is the best
+            // candidate to also contain an earlier offset
+            int i = indexCovering(aBegin);
+            return i >= 0 && begins[i] <= aOffset;
+        }
+        else {
+            // The unit containing the reference offset with the largest end is the best
+            // candidate to also contain a later offset
+            int i = indexBeginningAtOrBefore(aBegin);
+            return i >= 0 && aBegin < ends[i] && endsAtOrAfter(i, aOffset, aEndInclusive);
+        }
+    }
+
+    private int find(int aOffset, boolean aEndInclusive)
+    {
+        if (!endsSorted) {
+            for (int i = 0; i < size; i++) {
+                if (begins[i] <= aOffset && endsAtOrAfter(i, aOffset, aEndInclusive)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        // All units before the first unit not ending before the offset do not contain the offset
+        // and all units after it do not begin before it
+        int i = indexNotEndingBefore(aOffset, aEndInclusive);
+        return i < size && begins[i] <= aOffset ? i : -1;
+    }
+
+    /**
+     * @return the first unit which does not end before the offset. Requires the units to be
+     *         sorted by their end offsets.
+     */
+    private int indexNotEndingBefore(int aOffset, boolean aEndInclusive)
+    {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (endsAtOrAfter(mid, aOffset, aEndInclusive)) {
+                high = mid;
+            }
+            else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    private boolean endsAtOrAfter(int aIndex, int aOffset, boolean aEndInclusive)
+    {
+        return aEndInclusive ? aOffset <= ends[aIndex] : aOffset < ends[aIndex];
+    }
+
+    private void checkIndex(int aIndex)
+    {
+        if (aIndex < 0 || aIndex >= size) {
+            throw new IndexOutOfBoundsException(
+                    "Unit index [" + aIndex + "] out of bounds for [" + size + "] units");
+        }
+    }
+}
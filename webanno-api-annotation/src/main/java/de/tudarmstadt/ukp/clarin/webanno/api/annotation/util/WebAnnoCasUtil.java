@@ -24,7 +24,6 @@ import static org.apache.uima.fit.util.CasUtil.getAnnotationType;
 import static org.apache.uima.fit.util.CasUtil.getType;
 import static org.apache.uima.fit.util.CasUtil.select;
 import static org.apache.uima.fit.util.CasUtil.selectCovered;
-import static org.apache.uima.fit.util.CasUtil.selectCovering;
 import static org.apache.uima.fit.util.CasUtil.selectFollowing;
 
 import java.util.ArrayList;
@@ -101,11 +100,7 @@ public class WebAnnoCasUtil
      */
     public static boolean isBeginInSameSentence(CAS aCas, int aBegin1, int aBegin2)
     {
-        return selectCovering(aCas, getType(aCas, Sentence.class), aBegin1, aBegin1).stream()
-            .filter(s -> s.getBegin() <= aBegin1 && aBegin1 < s.getEnd())
-            .filter(s -> s.getBegin() <= aBegin2 && aBegin2 < s.getEnd())
-            .findFirst()
-            .isPresent();
+        return UnitIndex.sentences(aCas).isInSameUnit(aBegin1, aBegin2, false);
     }
     
     /**
@@ -124,11 +119,7 @@ public class WebAnnoCasUtil
      */
     public static boolean isBeginEndInSameSentence(CAS aCas, int aBegin, int aEnd)
     {
-        return selectCovering(aCas, getType(aCas, Sentence.class), aBegin, aBegin).stream()
-                .filter(s -> s.getBegin() <= aBegin && aBegin < s.getEnd())
-                .filter(s -> s.getBegin() <= aEnd && aEnd <= s.getEnd())
-                .findFirst()
-                .isPresent();
+        return UnitIndex.sentences(aCas).isInSameUnit(aBegin, aEnd, true);
     }
 
     public static int getAddr(FeatureStructure aFS)
@@ -201,10 +192,12 @@ public class WebAnnoCasUtil
      */
     public static AnnotationFS selectSentenceAt(CAS aCas, int aBegin)
     {
-        return CasUtil.select(aCas, getType(aCas, Sentence.class)).stream()
-            .filter(s -> s.getBegin() == aBegin)
-            .findFirst()
-            .orElse(null);
+        UnitIndex sentences = UnitIndex.sentences(aCas);
+        int i = sentences.indexBeginningAtOrAfter(aBegin);
+        if (i < sentences.size() && sentences.getBegin(i) == aBegin) {
+            return selectAnnotationByAddr(aCas, sentences.getAddress(i));
+        }
+        return null;
     }
     
     /**
@@ -317,15 +310,19 @@ public class WebAnnoCasUtil
      */
     public static AnnotationFS getCurrentSentence(CAS aCas, int aBegin, int aEnd)
     {
-        AnnotationFS currentSentence = null;
-        for (AnnotationFS sentence : selectSentences(aCas)) {
-            if (sentence.getBegin() <= aBegin && sentence.getEnd() > aBegin
-                    && sentence.getEnd() <= aEnd) {
-                currentSentence = sentence;
-                break;
+        UnitIndex sentences = UnitIndex.sentences(aCas);
+        int i = sentences.indexCovering(aBegin);
+        if (i < 0) {
+            return null;
+        }
+        
+        // All sentences covering the begin offset follow the first one
+        for (; i < sentences.size() && sentences.getBegin(i) <= aBegin; i++) {
+            if (aBegin < sentences.getEnd(i) && sentences.getEnd(i) <= aEnd) {
+                return selectAnnotationByAddr(aCas, sentences.getAddress(i));
             }
         }
-        return currentSentence;
+        return null;
     }
 
     /**
@@ -339,14 +336,9 @@ public class WebAnnoCasUtil
      */
     public static AnnotationFS selectSentenceCovering(CAS aCas, int aBegin)
     {
-        AnnotationFS currentSentence = null;
-        for (AnnotationFS sentence : select(aCas, getType(aCas, Sentence.class))) {
-            if (sentence.getBegin() <= aBegin && sentence.getEnd() > aBegin) {
-                currentSentence = sentence;
-                break;
-            }
-        }
-        return currentSentence;
+        UnitIndex sentences = UnitIndex.sentences(aCas);
+        int i = sentences.indexCovering(aBegin);
+        return i >= 0 ? selectAnnotationByAddr(aCas, sentences.getAddress(i)) : null;
     }
 
     public static AnnotationFS getNextToken(CAS aCas, int aBegin, int aEnd)
@@ -535,16 +527,12 @@ public class WebAnnoCasUtil
     public static List<Integer> getDisplayWindowBeginningSentenceAddresses(CAS aCas,
             int aWindowSize)
     {
+        UnitIndex sentences = UnitIndex.sentences(aCas);
         List<Integer> beginningAddresses = new ArrayList<>();
-        int j = 0;
-        for (AnnotationFS sentence : select(aCas, getType(aCas, Sentence.class))) {
-            if (j % aWindowSize == 0) {
-                beginningAddresses.add(getAddr(sentence));
-            }
-            j++;
+        for (int i = 0; i < sentences.size(); i += aWindowSize) {
+            beginningAddresses.add(sentences.getAddress(i));
         }
         return beginningAddresses;
-
     }
 
     /**
@@ -558,22 +546,14 @@ public class WebAnnoCasUtil
      */
     public static int getSentenceNumber(CAS aCas, int aBeginOffset)
     {
-        int sentenceNumber = 0;
-        
-        Type sentenceType = getType(aCas, Sentence.class);
-        Collection<AnnotationFS> sentences = select(aCas, sentenceType);
-        if (sentences.isEmpty()) {
+        UnitIndex sentences = UnitIndex.sentences(aCas);
+        if (sentences.size() == 0) {
             throw new IndexOutOfBoundsException("No sentences");
         }
         
-        for (AnnotationFS sentence : select(aCas, sentenceType)) {
-            if (sentence.getBegin() <= aBeginOffset && aBeginOffset <= sentence.getEnd()) {
-                sentenceNumber++;
-                break;
-            }
-            sentenceNumber++;
-        }
-        return sentenceNumber;
+        // If no sentence contains the offset, the last sentence is used
+        int i = sentences.indexOf(aBeginOffset);
+        return i >= 0 ? i + 1 : sentences.size();
     }
 
     public static int getSentenceCount(CAS aCas)
@@ -613,23 +593,18 @@ public class WebAnnoCasUtil
      */
     public static int getSentenceAddress(CAS aCas, int aSentenceNumber)
     {
-        int i = 1;
-        int address = 0;
-        if (aSentenceNumber < 1) {
+        UnitIndex sentences = UnitIndex.sentences(aCas);
+        if (aSentenceNumber < 1 || sentences.size() == 0) {
             return 0;
         }
-        for (AnnotationFS sentence : selectSentences(aCas)) {
-            if (i == aSentenceNumber) {
-                address = getAddr(sentence);
-                break;
-            }
-            address = getAddr(sentence);
-            i++;
+        if (aSentenceNumber <= sentences.size()) {
+            return sentences.getAddress(aSentenceNumber - 1);
         }
-        if (aSentenceNumber > i) {
-            return 0;
+        // The sentence right after the last one is mapped to the last sentence
+        if (aSentenceNumber == sentences.size() + 1) {
+            return sentences.getAddress(sentences.size() - 1);
         }
-        return address;
+        return 0;
     }
 
     /**
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.CURATION_USER;
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.RELATION_TYPE;
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.SPAN_TYPE;
+import static de.tudarmstadt.ukp.clarin.webanno.model.AnchoringMode.TOKENS;
+import static de.tudarmstadt.ukp.clarin.webanno.model.OverlapMode.NO_OVERLAP;
+import static de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentState.CURATION_IN_PROGRESS;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.wicket.ThreadContext;
+import org.apache.wicket.request.IExceptionMapper;
+import org.apache.wicket.request.IRequestMapper;
+import org.apache.wicket.request.Request;
+import org.apache.wicket.request.Response;
+import org.apache.wicket.request.cycle.RequestCycle;
+import org.apache.wicket.request.cycle.RequestCycleContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
+import de.tudarmstadt.ukp.clarin.webanno.api.ProjectSchema;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.SpanCreatedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.model.VDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+public class PreRendererImplTest
+{
+    private static final String USER = "user";
+    private static final String CURATOR = "curator";
+
+    private @Mock AnnotationSchemaService annotationService;
+    private @Mock CasStorageService casStorageService;
+    private @Mock Renderer neRenderer;
+    private @Mock Renderer posRenderer;
+    private @Mock Renderer depRenderer;
+
+    private LayerChangeTracker changeTracker;
+    private PreRendererImpl sut;
+
+    private SourceDocument document;
+    private AnnotationLayer neLayer;
+    private AnnotationLayer posLayer;
+    private AnnotationLayer depLayer;
+    private List<AnnotationLayer> layers;
+    private Map<String, Long> timestamps;
+    private CAS cas;
+
+    @Before
+    public void setup() throws Exception
+    {
+        initMocks(this);
+
+        Project project = new Project();
+        project.setId(1l);
+
+        document = new SourceDocument();
+        document.setId(1l);
+        document.setProject(project);
+
+        neLayer = new AnnotationLayer("NamedEntity", "Named entity", SPAN_TYPE, project, true,
+                TOKENS, NO_OVERLAP);
+        neLayer.setId(1l);
+        posLayer = new AnnotationLayer("POS", "POS", SPAN_TYPE, project, true, TOKENS,
+                NO_OVERLAP);
+        posLayer.setId(2l);
+        depLayer = new AnnotationLayer("Dependency", "Dependency", RELATION_TYPE, project, true,
+                TOKENS, NO_OVERLAP);
+        depLayer.setId(3l);
+        layers = asList(neLayer, posLayer, depLayer);
+
+        Map<AnnotationLayer, Renderer> renderers = new HashMap<>();
+        renderers.put(neLayer, neRenderer);
+        renderers.put(posLayer, posRenderer);
+        renderers.put(depLayer, depRenderer);
+        ProjectSchema schema = new ProjectSchema(project, 0, layers,
+                asList(stringFeature(neLayer), stringFeature(posLayer)), emptyList(), l -> null,
+                renderers::get);
+        when(annotationService.getProjectSchema(project)).thenReturn(schema);
+
+        timestamps = new HashMap<>();
+        timestamps.put(USER, 1l);
+        timestamps.put(CURATION_USER, 1l);
+        when(casStorageService.getCasTimestamp(eq(document), anyString())).thenAnswer(
+            invocation -> Optional.ofNullable(timestamps.get(invocation.getArgument(1))));
+
+        changeTracker = new LayerChangeTracker(casStorageService);
+        sut = new PreRendererImpl(null, annotationService, changeTracker);
+
+        cas = JCasFactory.createJCas().getCas();
+    }
+
+    @After
+    public void tearDown()
+    {
+        ThreadContext.detach();
+    }
+
+    @Test
+    public void thatUnchangedLayersAreNotRenderedAgain()
+    {
+        LayerRenderCache cache = new LayerRenderCache();
+
+        newRequest();
+        render(USER, cache);
+        assertRenderCount(1, 1, 1);
+
+        newRequest();
+        render(USER, cache);
+        assertRenderCount(1, 1, 1);
+    }
+
+    @Test
+    public void thatChangedLayerIsRenderedAgain()
+    {
+        LayerRenderCache cache = new LayerRenderCache();
+
+        newRequest();
+        render(USER, cache);
+
+        newRequest();
+        changeLayer(USER, USER, neLayer);
+        render(USER, cache);
+
+        // The relation layer depends on the span layers, so it is rendered again as well
+        assertRenderCount(2, 1, 2);
+    }
+
+    @Test
+    public void thatDependentLayerIsRenderedAgain()
+    {
+        LayerRenderCache cache = new LayerRenderCache();
+
+        newRequest();
+        render(USER, cache);
+
+        newRequest();
+        changeLayer(USER, USER, posLayer);
+        render(USER, cache);
+
+        assertRenderCount(1, 2, 2);
+    }
+
+    @Test
+    public void thatChangeOutsideOfRequestRendersAllLayers()
+    {
+        LayerRenderCache cache = new LayerRenderCache();
+
+        newRequest();
+        render(USER, cache);
+
+        // E.g. a background task has changed the CAS without any events being recorded
+        newRequest();
+        timestamps.put(USER, 2l);
+        render(USER, cache);
+
+        assertRenderCount(2, 2, 2);
+    }
+
+    @Test
+    public void thatChangesOfCuratorAreTrackedForCurationUser()
+    {
+        document.setState(CURATION_IN_PROGRESS);
+        LayerRenderCache cache = new LayerRenderCache();
+
+        newRequest();
+        render(CURATION_USER, cache);
+
+        // The events of the curation editor carry the name of the curator
+        newRequest();
+        changeLayer(CURATOR, CURATION_USER, neLayer);
+        render(CURATION_USER, cache);
+
+        assertThat(changeTracker.getChanges(document, CURATOR)).isPresent();
+        assertRenderCount(2, 1, 2);
+    }
+
+    private void newRequest()
+    {
+        ThreadContext.setRequestCycle(new RequestCycle(new RequestCycleContext(
+                mock(Request.class), mock(Response.class), mock(IRequestMapper.class),
+                mock(IExceptionMapper.class))));
+    }
+
+    private void changeLayer(String aEventUser, String aCasUser, AnnotationLayer aLayer)
+    {
+        changeTracker.onAnnotationEvent(
+                new SpanCreatedEvent(this, document, aEventUser, aLayer, null));
+
+        // The CAS is written after the event has been fired
+        timestamps.compute(aCasUser, (k, v) -> v + 1);
+    }
+
+    private void render(String aUser, LayerRenderCache aCache)
+    {
+        sut.render(new VDocument(), 0, 100, cas, layers, document, aUser, aCache);
+    }
+
+    private void assertRenderCount(int aNe, int aPos, int aDep)
+    {
+        verify(neRenderer, times(aNe)).render(any(), any(), any(), anyInt(), anyInt());
+        verify(posRenderer, times(aPos)).render(any(), any(), any(), anyInt(), anyInt());
+        verify(depRenderer, times(aDep)).render(any(), any(), any(), anyInt(), anyInt());
+    }
+
+    private static AnnotationFeature stringFeature(AnnotationLayer aLayer)
+    {
+        AnnotationFeature feature = new AnnotationFeature();
+        feature.setName("value");
+        feature.setType(CAS.TYPE_NAME_STRING);
+        feature.setLayer(aLayer);
+        feature.setProject(aLayer.getProject());
+        return feature;
+    }
+}
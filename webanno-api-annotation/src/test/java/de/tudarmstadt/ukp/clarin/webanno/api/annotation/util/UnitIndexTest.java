@@ -0,0 +1,167 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.annotation.util;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getAddr;
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getSentenceNumber;
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.selectSentenceCovering;
+import static org.apache.uima.fit.util.JCasUtil.select;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.fit.testing.factory.TokenBuilder;
+import org.apache.uima.jcas.JCas;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+
+public class UnitIndexTest
+{
+    private JCas jcas;
+
+    @Before
+    public void setup() throws Exception
+    {
+        jcas = JCasFactory.createJCas();
+    }
+
+    @Test
+    public void thatSentencesCanBeFoundByOffset() throws Exception
+    {
+        TokenBuilder<Token, Sentence> builder = new TokenBuilder<>(Token.class, Sentence.class);
+        builder.buildTokens(jcas, "This is one .\nThis is two .\nThis is three .");
+        List<Sentence> sentences = new ArrayList<>(select(jcas, Sentence.class));
+
+        UnitIndex index = UnitIndex.sentences(jcas.getCas());
+
+        assertThat(index.size()).isEqualTo(3);
+        for (int i = 0; i < sentences.size(); i++) {
+            assertThat(index.getBegin(i)).isEqualTo(sentences.get(i).getBegin());
+            assertThat(index.getEnd(i)).isEqualTo(sentences.get(i).getEnd());
+            assertThat(index.getAddress(i)).isEqualTo(getAddr(sentences.get(i)));
+        }
+
+        Sentence second = sentences.get(1);
+        assertThat(index.indexOf(second.getBegin())).isEqualTo(1);
+        assertThat(index.indexOf(second.getEnd())).isEqualTo(1);
+        assertThat(index.indexCovering(second.getEnd())).isEqualTo(-1);
+        assertThat(index.indexBeginningAtOrAfter(second.getBegin() + 1)).isEqualTo(2);
+        assertThat(index.indexBeginningAtOrAfter(Integer.MAX_VALUE)).isEqualTo(3);
+
+        assertThat(getSentenceNumber(jcas.getCas(), second.getBegin())).isEqualTo(2);
+        assertThat(selectSentenceCovering(jcas.getCas(), second.getBegin())).isEqualTo(second);
+    }
+
+    @Test
+    public void thatSentencesCanBeFoundByRange() throws Exception
+    {
+        TokenBuilder<Token, Sentence> builder = new TokenBuilder<>(Token.class, Sentence.class);
+        builder.buildTokens(jcas, "This is one .\nThis is two .\nThis is three .");
+        List<Sentence> sentences = new ArrayList<>(select(jcas, Sentence.class));
+        Sentence first = sentences.get(0);
+        Sentence second = sentences.get(1);
+
+        UnitIndex index = UnitIndex.sentences(jcas.getCas());
+
+        assertThat(index.indexFirstOverlapping(first.getEnd() - 1, second.getBegin() + 1))
+                .isEqualTo(0);
+        assertThat(index.indexLastOverlapping(first.getEnd() - 1, second.getBegin() + 1))
+                .isEqualTo(1);
+        assertThat(index.indexFirstOverlapping(first.getEnd(), second.getBegin()))
+                .isEqualTo(-1);
+        assertThat(index.indexLastOverlapping(first.getEnd(), second.getBegin()))
+                .isEqualTo(-1);
+
+        assertThat(index.indexBeginningAtOrBefore(second.getBegin() - 1)).isEqualTo(0);
+        assertThat(index.indexBeginningAtOrBefore(-1)).isEqualTo(-1);
+        assertThat(index.indexEndingAtOrAfter(first.getEnd() + 1)).isEqualTo(1);
+        assertThat(index.indexEndingAtOrAfter(Integer.MAX_VALUE)).isEqualTo(3);
+
+        assertThat(index.isInSameUnit(second.getBegin(), second.getEnd(), true)).isTrue();
+        assertThat(index.isInSameUnit(second.getBegin(), second.getEnd(), false)).isFalse();
+        assertThat(index.isInSameUnit(second.getEnd() - 1, second.getBegin(), false)).isTrue();
+        assertThat(index.isInSameUnit(first.getBegin(), second.getBegin(), false)).isFalse();
+    }
+
+    @Test
+    public void thatSentenceIndexIsRebuiltWhenSentencesChange() throws Exception
+    {
+        TokenBuilder<Token, Sentence> builder = new TokenBuilder<>(Token.class, Sentence.class);
+        builder.buildTokens(jcas, "This is one .\nThis is two .");
+
+        assertThat(UnitIndex.sentences(jcas.getCas()).size()).isEqualTo(2);
+
+        new Sentence(jcas, 0, 4).addToIndexes();
+
+        assertThat(UnitIndex.sentences(jcas.getCas()).size()).isEqualTo(3);
+        assertThat(UnitIndex.sentences(jcas.getCas()).indexOf(2)).isEqualTo(0);
+    }
+
+    @Test
+    public void thatInvalidatedSentenceIndexIsRebuilt() throws Exception
+    {
+        TokenBuilder<Token, Sentence> builder = new TokenBuilder<>(Token.class, Sentence.class);
+        builder.buildTokens(jcas, "One .\nTwo .\nThree .");
+
+        assertThat(UnitIndex.sentences(jcas.getCas()).getBegin(1)).isEqualTo(6);
+
+        // Moving a sentence in the middle of the document does not change the first or last
+        // sentence, so the index needs to be invalidated explicitly
+        Sentence middle = new ArrayList<>(select(jcas, Sentence.class)).get(1);
+        middle.removeFromIndexes();
+        middle.setBegin(7);
+        middle.addToIndexes();
+        UnitIndex.invalidate(jcas.getCas());
+
+        assertThat(UnitIndex.sentences(jcas.getCas()).getBegin(1)).isEqualTo(7);
+
+        // Same for a CAS which is reset and filled again with the same text
+        jcas.reset();
+        builder.buildTokens(jcas, "One .\nTwo .\nThree .");
+        middle = new ArrayList<>(select(jcas, Sentence.class)).get(1);
+        middle.removeFromIndexes();
+        middle.setEnd(8);
+        middle.addToIndexes();
+        UnitIndex.invalidate(jcas.getCas());
+
+        assertThat(UnitIndex.sentences(jcas.getCas()).getEnd(1)).isEqualTo(8);
+        assertThat(UnitIndex.sentences(jcas.getCas()).getAddress(1)).isEqualTo(getAddr(middle));
+    }
+
+    @Test
+    public void thatLinesIncludeEmptyLines() throws Exception
+    {
+        jcas.setDocumentText("one\n\ntwo\n");
+
+        UnitIndex index = UnitIndex.lines(jcas.getCas());
+
+        assertThat(index.size()).isEqualTo(4);
+        assertThat(index.getBegin(1)).isEqualTo(4);
+        assertThat(index.getEnd(1)).isEqualTo(4);
+        assertThat(index.getBegin(2)).isEqualTo(5);
+        assertThat(index.getEnd(2)).isEqualTo(8);
+        assertThat(index.getBegin(3)).isEqualTo(9);
+        assertThat(index.indexOf(3)).isEqualTo(0);
+        assertThat(index.indexOf(6)).isEqualTo(2);
+    }
+}
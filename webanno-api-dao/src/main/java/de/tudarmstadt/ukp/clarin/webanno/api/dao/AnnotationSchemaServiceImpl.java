@@ -29,15 +29,20 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Deque;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
@@ -73,9 +78,12 @@ import org.springframework.context.event.EventListener;
 import org.springframework.core.annotation.AnnotationAwareOrderComparator;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
 import de.tudarmstadt.ukp.clarin.webanno.api.CasUpgradeMode;
+import de.tudarmstadt.ukp.clarin.webanno.api.ProjectSchema;
 import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter.TypeAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.feature.FeatureSupportRegistry;
@@ -83,7 +91,10 @@ import de.tudarmstadt.ukp.clarin.webanno.api.annotation.layer.LayerSupport;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.layer.LayerSupportRegistry;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.TypeSystemAnalysis;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.TypeSystemAnalysis.RelationDetails;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.UnitIndex;
 import de.tudarmstadt.ukp.clarin.webanno.api.dao.initializers.ProjectInitializer;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.BeforeProjectRemovedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.LayerConfigurationChangedEvent;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
@@ -103,6 +114,9 @@ public class AnnotationSchemaServiceImpl
 {
     private final Logger log = LoggerFactory.getLogger(getClass());
 
+    // Each cached type system may hold an empty template CAS, so only keep the recently used ones
+    private static final int MAX_CACHED_TYPE_SYSTEMS = 32;
+
     @Value(value = "${repository.path}")
     private File dir;
 
@@ -113,6 +127,27 @@ public class AnnotationSchemaServiceImpl
     private @Lazy @Autowired(required = false) List<ProjectInitializer> initializerProxy;
     private List<ProjectInitializer> initializers;
 
+    // The types detected by uimaFIT on the classpath do not change at runtime
+    private volatile TypeSystemDescription builtInTypes;
+    
+    // The schema version of a project is bumped whenever its layers, features or tagsets change.
+    // Cached type systems are only used as long as they match the current version.
+    private final Map<Long, Long> schemaVersions = new ConcurrentHashMap<>();
+    private final Map<ProjectTypeSystemKey, ProjectTypeSystem> typeSystemCache = Collections
+            .synchronizedMap(new LinkedHashMap<ProjectTypeSystemKey, ProjectTypeSystem>(16,
+                    0.75f, true)
+            {
+                private static final long serialVersionUID = 4524383585838208546L;
+
+                @Override
+                protected boolean removeEldestEntry(
+                        Entry<ProjectTypeSystemKey, ProjectTypeSystem> aEldest)
+                {
+                    return size() > MAX_CACHED_TYPE_SYSTEMS;
+                }
+            });
+    private final Map<Long, ProjectSchema> schemaCache = new ConcurrentHashMap<>();
+
     public AnnotationSchemaServiceImpl()
     {
         // Nothing to do
@@ -168,6 +203,8 @@ public class AnnotationSchemaServiceImpl
                     aTag.getId(), tagset.getName(), tagset.getId(), project.getName(),
                     project.getId());
         }
+        
+        schemaChanged(aTag.getTagSet().getProject());
     }
 
     @Override
@@ -187,6 +224,8 @@ public class AnnotationSchemaServiceImpl
             log.info("Created tagset [{}]({}) in project [{}]({})", aTagSet.getName(),
                     aTagSet.getId(), project.getName(), project.getId());
         }
+        
+        schemaChanged(aTagSet.getProject());
     }
 
     @Override
@@ -206,6 +245,8 @@ public class AnnotationSchemaServiceImpl
             log.info("Created layer [{}]({}) in project [{}]({})", aLayer.getName(),
                     aLayer.getId(), project.getName(), project.getId());
         }
+        
+        schemaChanged(aLayer.getProject());
     }
 
     @Override
@@ -218,6 +259,8 @@ public class AnnotationSchemaServiceImpl
         else {
             entityManager.merge(aFeature);
         }
+        
+        schemaChanged(aFeature.getProject());
     }
 
     @Override
@@ -697,6 +740,8 @@ public class AnnotationSchemaServiceImpl
     public void removeTag(Tag aTag)
     {
         entityManager.remove(entityManager.contains(aTag) ? aTag : entityManager.merge(aTag));
+        
+        schemaChanged(aTag.getTagSet().getProject());
     }
 
     @Override
@@ -708,6 +753,8 @@ public class AnnotationSchemaServiceImpl
         }
         entityManager
                 .remove(entityManager.contains(aTagSet) ? aTagSet : entityManager.merge(aTagSet));
+        
+        schemaChanged(aTagSet.getProject());
     }
 
     @Override
@@ -716,6 +763,8 @@ public class AnnotationSchemaServiceImpl
     {
         entityManager.remove(
                 entityManager.contains(aFeature) ? aFeature : entityManager.merge(aFeature));
+        
+        schemaChanged(aFeature.getProject());
     }
 
     @Override
@@ -723,6 +772,8 @@ public class AnnotationSchemaServiceImpl
     public void removeAnnotationLayer(AnnotationLayer aLayer)
     {
         entityManager.remove(aLayer);
+        
+        schemaChanged(aLayer.getProject());
     }
 
     @Override
@@ -732,6 +783,101 @@ public class AnnotationSchemaServiceImpl
         for (Tag tag : listTags(aTagSet)) {
             entityManager.remove(tag);
         }
+        
+        schemaChanged(aTagSet.getProject());
+    }
+    
+    @EventListener
+    public void onLayerConfigurationChanged(LayerConfigurationChangedEvent aEvent)
+    {
+        schemaChanged(aEvent.getProject());
+    }
+    
+    /**
+     * Invalidates the cached type systems of the given project. If called within a transaction,
+     * they are invalidated again once the transaction has completed, so a type system which has
+     * been built concurrently from the state before the commit is not used any further.
+     */
+    private void schemaChanged(Project aProject)
+    {
+        if (aProject == null || aProject.getId() == null) {
+            return;
+        }
+        
+        bumpSchemaVersion(aProject.getId());
+        
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            long projectId = aProject.getId();
+            TransactionSynchronizationManager.registerSynchronization(
+                    new TransactionSynchronizationAdapter()
+                    {
+                        @Override
+                        public void afterCompletion(int aStatus)
+                        {
+                            // Do not bring back the version of a project which has been removed
+                            schemaVersions.computeIfPresent(projectId,
+                                    (id, version) -> version + 1L);
+                            evictCachedSchema(projectId);
+                        }
+                    });
+        }
+    }
+    
+    private void bumpSchemaVersion(long aProjectId)
+    {
+        schemaVersions.merge(aProjectId, 1L, Long::sum);
+        evictCachedSchema(aProjectId);
+    }
+    
+    private void evictCachedSchema(long aProjectId)
+    {
+        typeSystemCache.keySet().removeIf(key -> key.projectId == aProjectId);
+        schemaCache.remove(aProjectId);
+    }
+    
+    /**
+     * Drops everything cached for a project which is being removed. Removing the layers of the
+     * project bumps its schema version again, so this is repeated once the transaction has
+     * completed.
+     */
+    @EventListener
+    public void beforeProjectRemove(BeforeProjectRemovedEvent aEvent)
+    {
+        Project project = aEvent.getProject();
+        if (project.getId() == null) {
+            return;
+        }
+        
+        long projectId = project.getId();
+        forgetProject(projectId);
+        
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(
+                    new TransactionSynchronizationAdapter()
+                    {
+                        @Override
+                        public void afterCompletion(int aStatus)
+                        {
+                            forgetProject(projectId);
+                        }
+                    });
+        }
+    }
+    
+    private void forgetProject(long aProjectId)
+    {
+        schemaVersions.remove(aProjectId);
+        evictCachedSchema(aProjectId);
+    }
+    
+    private TypeSystemDescription getBuiltInTypes() throws ResourceInitializationException
+    {
+        TypeSystemDescription types = builtInTypes;
+        if (types == null) {
+            types = createTypeSystemDescription();
+            builtInTypes = types;
+        }
+        return types;
     }
 
     @Override
@@ -755,7 +901,7 @@ public class AnnotationSchemaServiceImpl
         // Create a new type system from scratch
         TypeSystemDescription tsd = new TypeSystemDescription_impl();
 
-        TypeSystemDescription builtInTypes = createTypeSystemDescription();
+        TypeSystemDescription builtInTypes = getBuiltInTypes();
         
         List<AnnotationLayer> layers = listAnnotationLayer(aProject);
         
@@ -828,11 +974,49 @@ public class AnnotationSchemaServiceImpl
     public TypeSystemDescription getFullProjectTypeSystem(Project aProject,
             boolean aIncludeInternalTypes)
         throws ResourceInitializationException
+    {
+        return getProjectTypeSystem(aProject, aIncludeInternalTypes).getDescription();
+    }
+    
+    /**
+     * Obtains the type system of the given project from the cache or builds it if the schema of
+     * the project has changed since it was cached.
+     */
+    private ProjectTypeSystem getProjectTypeSystem(Project aProject,
+            boolean aIncludeInternalTypes)
+        throws ResourceInitializationException
+    {
+        if (aProject.getId() == null) {
+            return new ProjectTypeSystem(
+                    buildFullProjectTypeSystem(aProject, aIncludeInternalTypes));
+        }
+        
+        ProjectTypeSystemKey key = new ProjectTypeSystemKey(aProject.getId(),
+                schemaVersions.getOrDefault(aProject.getId(), 0L), aIncludeInternalTypes);
+        ProjectTypeSystem cached = typeSystemCache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        
+        ProjectTypeSystem typeSystem = new ProjectTypeSystem(
+                buildFullProjectTypeSystem(aProject, aIncludeInternalTypes));
+        
+        // Do not cache the type system if the schema has changed while it was being built
+        if (key.version == schemaVersions.getOrDefault(aProject.getId(), 0L)) {
+            typeSystemCache.put(key, typeSystem);
+        }
+        
+        return typeSystem;
+    }
+    
+    private TypeSystemDescription buildFullProjectTypeSystem(Project aProject,
+            boolean aIncludeInternalTypes)
+        throws ResourceInitializationException
     {
         List<TypeSystemDescription> typeSystems = new ArrayList<>();
         
         // Types detected by uimaFIT
-        typeSystems.add(createTypeSystemDescription());
+        typeSystems.add(getBuiltInTypes());
         
         if (aIncludeInternalTypes) {
             // Types internally used by WebAnno (which we intentionally exclude from being detected
@@ -892,8 +1076,7 @@ public class AnnotationSchemaServiceImpl
     @Override
     public void upgradeCas(CAS aCas, Project aProject) throws UIMAException, IOException
     {
-        TypeSystemDescription ts = getFullProjectTypeSystem(aProject);
-        upgradeCas(aCas, ts);
+        upgradeCas(aCas, aCas, getProjectTypeSystem(aProject, true));
     }
     
     @Override
@@ -908,29 +1091,40 @@ public class AnnotationSchemaServiceImpl
     public void upgradeCasIfRequired(CAS aCas, SourceDocument aSourceDocument, String aUser)
         throws UIMAException, IOException
     {
-        TypeSystemDescription ts = getFullProjectTypeSystem(aSourceDocument.getProject());
+        ProjectTypeSystem ts = getProjectTypeSystem(aSourceDocument.getProject(), true);
+        
+        // If the CAS has been upgraded to or checked against the same type system before, we
+        // can skip comparing the types and features
+        Optional<String> casFingerprint = CasMetadataUtils.getTypeSystemFingerprint(aCas);
+        if (casFingerprint.isPresent() && casFingerprint.get().equals(ts.getFingerprint())) {
+            log.debug(
+                    "CAS of user [{}] for document [{}]({}) in project [{}]({}) matches the "
+                            + "project type system fingerprint - skipping upgrade",
+                    aUser, aSourceDocument.getName(), aSourceDocument.getId(),
+                    aSourceDocument.getProject().getName(), aSourceDocument.getProject().getId());
+            return;
+        }
         
         // Check if the current CAS already contains the required type system
-        if (!isUpgradeRequired(aCas, ts)) {
+        if (!isUpgradeRequired(aCas, ts.getDescription())) {
             log.debug(
                     "CAS of user [{}] for document [{}]({}) in project [{}]({}) is already "
                             + "compatible with project type system - skipping upgrade",
                     aUser, aSourceDocument.getName(), aSourceDocument.getId(),
                     aSourceDocument.getProject().getName(), aSourceDocument.getProject().getId());
+            CasMetadataUtils.setTypeSystemFingerprint(aCas, ts.getFingerprint());
             return;
         }
 
-        upgradeCas(aCas, ts);
+        upgradeCas(aCas, aCas, ts);
     }
     
-    
-    
     @Override
     public CAS prepareCasForExport(CAS aCas, SourceDocument aSourceDocument)
         throws ResourceInitializationException, UIMAException, IOException
     {
         CAS exportCas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
-        upgradeCas(aCas, exportCas, getFullProjectTypeSystem(aSourceDocument.getProject(), false));
+        upgradeCas(aCas, exportCas, getProjectTypeSystem(aSourceDocument.getProject(), false));
         return exportCas;
     }
     
@@ -949,24 +1143,37 @@ public class AnnotationSchemaServiceImpl
     @Override
     public void upgradeCas(CAS aSourceCas, CAS aTargetCas, TypeSystemDescription aTargetTypeSystem)
         throws UIMAException, IOException
+    {
+        upgradeCas(aSourceCas, aTargetCas, new ProjectTypeSystem(aTargetTypeSystem));
+    }
+    
+    /**
+     * Upgrades the source CAS into the target CAS. Note that this is not a streaming upgrade: the
+     * complete serialized contents of the source CAS are buffered in memory because an in-place
+     * upgrade re-initializes the CAS before the contents are loaded back.
+     */
+    private void upgradeCas(CAS aSourceCas, CAS aTargetCas, ProjectTypeSystem aTargetTypeSystem)
+        throws UIMAException, IOException
     {
         // Save source CAS type system (do this early since we might do an in-place upgrade)
         TypeSystem sourceTypeSystem = aSourceCas.getTypeSystem();
 
-        // Save source CAS contents
-        ByteArrayOutputStream serializedCasContents = new ByteArrayOutputStream();
+        // Save source CAS contents - the buffer is read back directly instead of copying it
+        CasContentBuffer serializedCasContents = new CasContentBuffer();
         Serialization.serializeWithCompression(aSourceCas, serializedCasContents, sourceTypeSystem);
 
         // Re-initialize the target CAS with new type system
-        CAS tempCas = createCas(aTargetTypeSystem);
-        CASCompleteSerializer serializer = Serialization.serializeCASComplete((CASImpl) tempCas);
+        CASCompleteSerializer serializer = aTargetTypeSystem.getTemplate();
         Serialization.deserializeCASComplete(serializer, (CASImpl) aTargetCas);
 
         // Leniently load the source CAS contents into the target CAS
-        CasIOUtils.load(new ByteArrayInputStream(serializedCasContents.toByteArray()), aTargetCas,
-                sourceTypeSystem);
+        CasIOUtils.load(serializedCasContents.toInputStream(), aTargetCas, sourceTypeSystem);
+        UnitIndex.invalidate(aTargetCas);
+        
+        // Any fingerprint taken over from the source CAS refers to the old type system
+        CasMetadataUtils.setTypeSystemFingerprint(aTargetCas, aTargetTypeSystem.getFingerprint());
     }
-    
+
     /**
      * Check if the current CAS already contains the required type system.
      */
@@ -1039,12 +1246,44 @@ public class AnnotationSchemaServiceImpl
         return layerSupportRegistry.getLayerSupport(aLayer).createAdapter(aLayer);
     }
     
+    @Override
+    @Transactional
+    public ProjectSchema getProjectSchema(Project aProject)
+    {
+        if (aProject.getId() == null) {
+            return buildProjectSchema(aProject, 0);
+        }
+        
+        long version = schemaVersions.getOrDefault(aProject.getId(), 0L);
+        ProjectSchema cached = schemaCache.get(aProject.getId());
+        if (cached != null && cached.getVersion() == version) {
+            return cached;
+        }
+        
+        ProjectSchema schema = buildProjectSchema(aProject, version);
+        
+        // Do not cache the schema if it has changed while the snapshot was being built
+        if (version == schemaVersions.getOrDefault(aProject.getId(), 0L)) {
+            schemaCache.put(aProject.getId(), schema);
+        }
+        
+        return schema;
+    }
+    
+    private ProjectSchema buildProjectSchema(Project aProject, long aVersion)
+    {
+        return new ProjectSchema(aProject, aVersion, listAnnotationLayer(aProject),
+                listAnnotationFeature(aProject), listTagSets(aProject),
+                layer -> layerSupportRegistry.getLayerSupport(layer).createAdapter(layer),
+                layer -> layerSupportRegistry.getLayerSupport(layer).getRenderer(layer));
+    }
+    
     @Override
     @Transactional
     public void importUimaTypeSystem(Project aProject, TypeSystemDescription aTSD)
         throws ResourceInitializationException
     {
-        TypeSystemDescription builtInTypes = createTypeSystemDescription();
+        TypeSystemDescription builtInTypes = getBuiltInTypes();
         
         TypeSystemAnalysis analysis = TypeSystemAnalysis.of(aTSD);
         for (AnnotationLayer l : analysis.getLayers()) {
@@ -1096,4 +1335,100 @@ public class AnnotationSchemaServiceImpl
             }
         }
     }
+    
+    private static final class ProjectTypeSystemKey
+    {
+        private final long projectId;
+        private final long version;
+        private final boolean includeInternalTypes;
+        
+        public ProjectTypeSystemKey(long aProjectId, long aVersion,
+                boolean aIncludeInternalTypes)
+        {
+            projectId = aProjectId;
+            version = aVersion;
+            includeInternalTypes = aIncludeInternalTypes;
+        }
+
+        @Override
+        public boolean equals(Object aOther)
+        {
+            if (!(aOther instanceof ProjectTypeSystemKey)) {
+                return false;
+            }
+            ProjectTypeSystemKey other = (ProjectTypeSystemKey) aOther;
+            return projectId == other.projectId && version == other.version
+                    && includeInternalTypes == other.includeInternalTypes;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(projectId, version, includeInternalTypes);
+        }
+    }
+    
+    /**
+     * A project type system together with an empty CAS using it. Initializing a CAS with a new
+     * type system is expensive, so upgrading a CAS copies the type system from the template
+     * instead.
+     */
+    private static final class ProjectTypeSystem
+    {
+        private final TypeSystemDescription description;
+        
+        // Guarded by this
+        private CAS template;
+        private String fingerprint;
+        
+        public ProjectTypeSystem(TypeSystemDescription aDescription)
+        {
+            description = aDescription;
+        }
+        
+        public TypeSystemDescription getDescription()
+        {
+            return description;
+        }
+        
+        public synchronized String getFingerprint()
+        {
+            if (fingerprint == null) {
+                fingerprint = CasMetadataUtils.getTypeSystemFingerprint(description);
+            }
+            
+            return fingerprint;
+        }
+        
+        /**
+         * @return a fresh serialized copy of the empty template CAS.
+         */
+        public synchronized CASCompleteSerializer getTemplate()
+            throws ResourceInitializationException
+        {
+            if (template == null) {
+                template = createCas(description);
+            }
+            
+            return Serialization.serializeCASComplete((CASImpl) template);
+        }
+    }
+    
+    /**
+     * Buffer holding the full serialized CAS contents during an upgrade. It only avoids copying
+     * the contents once more when they are read back.
+     */
+    private static final class CasContentBuffer
+        extends ByteArrayOutputStream
+    {
+        public CasContentBuffer()
+        {
+            super(64 * 1024);
+        }
+        
+        public InputStream toInputStream()
+        {
+            return new ByteArrayInputStream(buf, 0, count);
+        }
+    }
 }
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+final class CasCacheKey
+{
+    final long sourceDocumentId;
+    final String userId;
+    
+    public CasCacheKey(long aSourceDocumentId, String aUserId)
+    {
+        super();
+        sourceDocumentId = aSourceDocumentId;
+        userId = aUserId;
+    }
+    
+    public static CasCacheKey of(SourceDocument aSourceDocument, String aUserId)
+    {
+        return new CasCacheKey(aSourceDocument.getId(), aUserId);
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder builder = new StringBuilder();
+        builder.append("[");
+        builder.append(sourceDocumentId);
+        builder.append(",");
+        builder.append(userId);
+        builder.append("]");
+        return builder.toString();
+    }
+
+    @Override
+    public int hashCode()
+    {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + (int) (sourceDocumentId ^ (sourceDocumentId >>> 32));
+        result = prime * result + ((userId == null) ? 0 : userId.hashCode());
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        CasCacheKey other = (CasCacheKey) obj;
+        if (sourceDocumentId != other.sourceDocumentId) {
+            return false;
+        }
+        if (userId == null) {
+            if (other.userId != null) {
+                return false;
+            }
+        }
+        else if (!userId.equals(other.userId)) {
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Marker;
+import org.apache.uima.cas.impl.Serialization;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only journal of changes to an annotation file. Each entry is a binary delta of the CAS
+ * relative to the state of the CAS after the previous entry. Reading the annotation file and
+ * applying all entries in order yields the current state of the CAS. Appending an entry costs time
+ * proportional to the size of the change instead of the size of the document.
+ * <p>
+ * The journal header records the timestamp and size of the annotation file it applies to. When the
+ * annotation file is rewritten completely, the journal becomes stale and is ignored.
+ */
+final class CasJournal
+{
+    private static final Logger LOG = LoggerFactory.getLogger(CasJournal.class);
+
+    private static final String SUFFIX = ".journal";
+    private static final int MAGIC = 0x57414a31; // "WAJ1"
+    private static final int HEADER_SIZE = 4 + 8 + 8;
+
+    private CasJournal()
+    {
+        // No instances
+    }
+
+    static File getJournalFile(File aCasFile)
+    {
+        return new File(aCasFile.getPath() + SUFFIX);
+    }
+
+    static boolean isJournalFile(File aFile)
+    {
+        return aFile.getName().endsWith(".ser" + SUFFIX);
+    }
+
+    static boolean exists(File aCasFile)
+    {
+        return getJournalFile(aCasFile).exists();
+    }
+
+    /**
+     * @return the size of the journal in bytes or 0 if there is no journal.
+     */
+    static long getLength(File aCasFile)
+    {
+        return getJournalFile(aCasFile).length();
+    }
+
+    /**
+     * @return the time of the last change to the annotations in the given file, taking the journal
+     *         into account.
+     */
+    static long getTimestamp(File aCasFile)
+    {
+        return Math.max(aCasFile.lastModified(), getJournalFile(aCasFile).lastModified());
+    }
+
+    /**
+     * Appends the changes made to the CAS since the given marker to the journal. The marker must
+     * have been created when the CAS was in the state represented by the annotation file and the
+     * current journal.
+     */
+    static void append(File aCasFile, CAS aCas, Marker aMarker) throws IOException
+    {
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        Serialization.serializeCAS(aCas, delta, aMarker);
+
+        File journalFile = getJournalFile(aCasFile);
+        boolean create = !journalFile.exists();
+        try (DataOutputStream os = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(journalFile, true)))) {
+            if (create) {
+                os.writeInt(MAGIC);
+                os.writeLong(aCasFile.lastModified());
+                os.writeLong(aCasFile.length());
+            }
+            os.writeInt(delta.size());
+            delta.writeTo(os);
+        }
+    }
+
+    /**
+     * Applies the journal to the given CAS which must have just been read from the annotation
+     * file. Stale journals are deleted. An incomplete entry at the end of the journal, e.g. due to
+     * a crash while appending, is discarded.
+     *
+     * @return the number of entries applied.
+     */
+    static int replay(File aCasFile, CAS aCas) throws IOException
+    {
+        File journalFile = getJournalFile(aCasFile);
+        if (!journalFile.exists()) {
+            return 0;
+        }
+
+        int entries = 0;
+        long validLength = HEADER_SIZE;
+        try (DataInputStream is = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(journalFile)))) {
+            if (is.readInt() != MAGIC || is.readLong() != aCasFile.lastModified()
+                    || is.readLong() != aCasFile.length()) {
+                LOG.info("Ignoring stale journal [{}]", journalFile);
+                is.close();
+                delete(aCasFile);
+                return 0;
+            }
+
+            while (true) {
+                int length;
+                try {
+                    length = is.readInt();
+                }
+                catch (EOFException e) {
+                    break;
+                }
+
+                byte[] delta = new byte[length];
+                is.readFully(delta);
+                Serialization.deserializeCAS(aCas, new ByteArrayInputStream(delta));
+                validLength += 4 + length;
+                entries++;
+            }
+        }
+        catch (EOFException e) {
+            LOG.warn("Discarding incomplete entry at the end of journal [{}]", journalFile);
+            if (validLength == HEADER_SIZE) {
+                delete(aCasFile);
+            }
+            else {
+                try (RandomAccessFile raf = new RandomAccessFile(journalFile, "rw")) {
+                    raf.setLength(validLength);
+                }
+            }
+        }
+
+        return entries;
+    }
+
+    static void delete(File aCasFile) throws IOException
+    {
+        File journalFile = getJournalFile(aCasFile);
+        if (journalFile.exists()) {
+            FileUtils.forceDelete(journalFile);
+        }
+    }
+}
@@ -17,12 +17,17 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.api.dao;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.apache.uima.fit.factory.TypeSystemDescriptionFactory.createTypeSystemDescription;
 import static org.apache.uima.fit.util.CasUtil.getType;
 
 import java.io.File;
 import java.io.IOException;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 
@@ -32,6 +37,9 @@ import org.apache.uima.cas.Type;
 import org.apache.uima.cas.text.AnnotationFS;
 import org.apache.uima.fit.util.CasUtil;
 import org.apache.uima.fit.util.FSUtil;
+import org.apache.uima.resource.metadata.AllowedValue;
+import org.apache.uima.resource.metadata.FeatureDescription;
+import org.apache.uima.resource.metadata.TypeDescription;
 import org.apache.uima.resource.metadata.TypeSystemDescription;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -52,6 +60,19 @@ public class CasMetadataUtils
     public static void failOnConcurrentModification(CAS aCas, File aCasFile,
             SourceDocument aDocument, String aUsername)
         throws IOException
+    {
+        failOnConcurrentModification(aCas, aCasFile, aCasFile.lastModified(), aDocument,
+                aUsername);
+    }
+    
+    /**
+     * Checks that the CAS was based on the version of the annotation file with the given timestamp.
+     * The timestamp may differ from the one of the file on disk if writes to the file are held
+     * back.
+     */
+    public static void failOnConcurrentModification(CAS aCas, File aCasFile, long aTimestamp,
+            SourceDocument aDocument, String aUsername)
+        throws IOException
     {
         // If the type system of the CAS does not yet support CASMetadata, then we do not add it
         // and wait for the next regular CAS upgrade before we include this data.
@@ -72,11 +93,10 @@ public class CasMetadataUtils
         else if (cmds.size() == 1) {
             AnnotationFS cmd = cmds.get(0);
             long lastChangedOnDisk = FSUtil.getFeature(cmd, "lastChangedOnDisk", Long.class);
-            if (aCasFile.lastModified() != lastChangedOnDisk) {
+            if (aTimestamp != lastChangedOnDisk) {
                 throw new IOException(
                         "Detected concurrent modification to file on disk (expected timestamp: "
-                                + lastChangedOnDisk + "; actual timestamp "
-                                + aCasFile.lastModified() + ") - "
+                                + lastChangedOnDisk + "; actual timestamp " + aTimestamp + ") - "
                                 + "please try reloading before saving again.");
             }
         }
@@ -110,6 +130,13 @@ public class CasMetadataUtils
     public static void addOrUpdateCasMetadata(CAS aCas, File aCasFile, SourceDocument aDocument,
             String aUsername)
         throws IOException
+    {
+        addOrUpdateCasMetadata(aCas, aCasFile, aCasFile.lastModified(), aDocument, aUsername);
+    }
+    
+    public static void addOrUpdateCasMetadata(CAS aCas, File aCasFile, long aTimestamp,
+            SourceDocument aDocument, String aUsername)
+        throws IOException
     {
         // If the type system of the CAS does not yet support CASMetadata, then we do not add it
         // and wait for the next regular CAS upgrade before we include this data.
@@ -156,7 +183,7 @@ public class CasMetadataUtils
         }
 
         if (cmd.getType().getFeatureByBaseName("lastChangedOnDisk") != null) {
-            FSUtil.setFeature(cmd, "lastChangedOnDisk", aCasFile.lastModified());
+            FSUtil.setFeature(cmd, "lastChangedOnDisk", aTimestamp);
         }
         
         aCas.addFsToIndexes(cmd);
@@ -172,4 +199,86 @@ public class CasMetadataUtils
             return Optional.empty();
         }
     }
+    
+    public static Optional<String> getProjectName(CAS aCas)
+    {
+        try {
+            FeatureStructure fs = CasUtil.selectSingle(aCas, getType(aCas, CASMetadata.class));
+            return Optional.ofNullable(FSUtil.getFeature(fs, "projectName", String.class));
+        }
+        catch (IllegalArgumentException e) {
+            return Optional.empty();
+        }
+    }
+    
+    /**
+     * Calculates a fingerprint of the given type system description which does not depend on the
+     * order of the types and features.
+     */
+    public static String getTypeSystemFingerprint(TypeSystemDescription aTSD)
+    {
+        List<String> types = new ArrayList<>();
+        for (TypeDescription type : aTSD.getTypes()) {
+            List<String> parts = new ArrayList<>();
+            if (type.getFeatures() != null) {
+                for (FeatureDescription feature : type.getFeatures()) {
+                    parts.add(feature.getName() + ":" + feature.getRangeTypeName() + ":"
+                            + feature.getElementType());
+                }
+            }
+            if (type.getAllowedValues() != null) {
+                for (AllowedValue value : type.getAllowedValues()) {
+                    parts.add("=" + value.getString());
+                }
+            }
+            Collections.sort(parts);
+            types.add(type.getName() + "<" + type.getSupertypeName() + parts);
+        }
+        Collections.sort(types);
+        
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String type : types) {
+                digest.update(type.getBytes(UTF_8));
+                digest.update((byte) '\n');
+            }
+            return String.format("%064x", new BigInteger(1, digest.digest()));
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    public static Optional<String> getTypeSystemFingerprint(CAS aCas)
+    {
+        return getCasMetadataWithFeature(aCas, "typeSystemFingerprint")
+                .map(cmd -> FSUtil.getFeature(cmd, "typeSystemFingerprint", String.class));
+    }
+    
+    /**
+     * Records the fingerprint of the type system of the CAS in its CASMetadata. If the CAS does
+     * not contain any CASMetadata yet or its type system does not support the fingerprint, nothing
+     * is recorded.
+     */
+    public static void setTypeSystemFingerprint(CAS aCas, String aFingerprint)
+    {
+        getCasMetadataWithFeature(aCas, "typeSystemFingerprint")
+                .ifPresent(cmd -> FSUtil.setFeature(cmd, "typeSystemFingerprint", aFingerprint));
+    }
+    
+    private static Optional<FeatureStructure> getCasMetadataWithFeature(CAS aCas,
+            String aFeature)
+    {
+        Type casMetadataType = aCas.getTypeSystem().getType(CASMetadata.class.getName());
+        if (casMetadataType == null || casMetadataType.getFeatureByBaseName(aFeature) == null) {
+            return Optional.empty();
+        }
+        
+        List<AnnotationFS> cmds = new ArrayList<>(CasUtil.select(aCas, casMetadataType));
+        if (cmds.size() != 1) {
+            return Optional.empty();
+        }
+        
+        return Optional.of(cmds.get(0));
+    }
 }
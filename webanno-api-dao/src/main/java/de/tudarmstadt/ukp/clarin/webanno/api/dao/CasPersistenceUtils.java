@@ -17,23 +17,22 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.api.dao;
 
-import static org.apache.uima.cas.impl.Serialization.deserializeCASComplete;
-import static org.apache.uima.cas.impl.Serialization.serializeCASComplete;
-
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.uima.cas.CAS;
-import org.apache.uima.cas.impl.CASCompleteSerializer;
-import org.apache.uima.cas.impl.CASImpl;
 
 public final class CasPersistenceUtils
 {
+    static final int BUFFER_SIZE = 64 * 1024;
+    
     private CasPersistenceUtils()
     {
         // No instances
@@ -41,24 +40,41 @@ public final class CasPersistenceUtils
     
     public static void writeSerializedCas(CAS aCas, File aFile)
         throws IOException
+    {
+        writeCas(aCas, aFile, CasStorageFormat.SERIALIZED);
+    }
+
+    public static void writeCas(CAS aCas, File aFile, CasStorageFormat aFormat)
+        throws IOException
     {
         FileUtils.forceMkdir(aFile.getParentFile());
 
-        try (ObjectOutputStream os = new ObjectOutputStream(new FileOutputStream(aFile))) {
-            CASCompleteSerializer serializer = serializeCASComplete((CASImpl) aCas);
-            os.writeObject(serializer);
+        try (OutputStream os = new BufferedOutputStream(new FileOutputStream(aFile),
+                BUFFER_SIZE)) {
+            aFormat.write(aCas, os);
         }
     }
 
+    /**
+     * Reads a CAS from the given file. The storage format is detected automatically, so this
+     * method reads files in any of the {@link CasStorageFormat formats}. If there is a journal for
+     * the file, the changes recorded in the journal are applied as well.
+     */
     public static void readSerializedCas(CAS aCas, File aFile)
         throws IOException
     {
-        try (ObjectInputStream is = new ObjectInputStream(new FileInputStream(aFile))) {
-            CASCompleteSerializer serializer = (CASCompleteSerializer) is.readObject();
-            deserializeCASComplete(serializer, (CASImpl) aCas);
+        try (InputStream is = new BufferedInputStream(new FileInputStream(aFile), BUFFER_SIZE)) {
+            CasStorageFormat.detect(is).read(aCas, is);
         }
-        catch (ClassNotFoundException e) {
-            throw new IOException(e);
+        
+        CasJournal.replay(aFile, aCas);
+    }
+    
+    public static CasStorageFormat detectFormat(File aFile)
+        throws IOException
+    {
+        try (InputStream is = new BufferedInputStream(new FileInputStream(aFile))) {
+            return CasStorageFormat.detect(is);
         }
     }
 }
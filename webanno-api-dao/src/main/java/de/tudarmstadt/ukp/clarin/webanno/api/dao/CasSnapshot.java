@@ -0,0 +1,79 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+
+import org.apache.uima.UIMAFramework;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.TypeSystem;
+import org.apache.uima.cas.impl.Serialization;
+import org.apache.uima.resource.ResourceInitializationException;
+import org.apache.uima.util.CasCreationUtils;
+
+/**
+ * In-memory binary snapshot of a CAS. Restoring a snapshot is much cheaper than reading the CAS
+ * from disk because the type system of the original CAS is re-used.
+ */
+final class CasSnapshot
+{
+    private final TypeSystem typeSystem;
+    private final byte[] data;
+
+    private CasSnapshot(TypeSystem aTypeSystem, byte[] aData)
+    {
+        typeSystem = aTypeSystem;
+        data = aData;
+    }
+
+    static CasSnapshot of(CAS aCas)
+    {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        Serialization.serializeCAS(aCas, bos);
+        return new CasSnapshot(aCas.getTypeSystem(), bos.toByteArray());
+    }
+
+    /**
+     * @return a new CAS with the contents of the snapshot.
+     */
+    CAS restore() throws IOException
+    {
+        CAS cas;
+        try {
+            cas = CasCreationUtils.createCas(Collections.emptyList(), typeSystem,
+                    UIMAFramework.getDefaultPerformanceTuningProperties());
+        }
+        catch (ResourceInitializationException e) {
+            throw new IOException("Unable to create empty CAS", e);
+        }
+
+        Serialization.deserializeCAS(cas, new ByteArrayInputStream(data));
+        return cas;
+    }
+
+    /**
+     * @return the size of the snapshot in bytes.
+     */
+    int size()
+    {
+        return data.length;
+    }
+}
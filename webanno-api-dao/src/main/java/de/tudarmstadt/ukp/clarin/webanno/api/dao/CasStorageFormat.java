@@ -0,0 +1,180 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static org.apache.uima.cas.impl.Serialization.deserializeCASComplete;
+import static org.apache.uima.cas.impl.Serialization.serializeCASComplete;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.input.CloseShieldInputStream;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.SerialFormat;
+import org.apache.uima.cas.impl.CASCompleteSerializer;
+import org.apache.uima.cas.impl.CASImpl;
+import org.apache.uima.util.CasIOUtils;
+import org.apache.uima.util.CasLoadMode;
+
+/**
+ * Codecs used to persist annotation CASes in the repository. All formats are self-contained, i.e.
+ * they include the type system of the CAS, because the annotation files are also copied verbatim
+ * into project exports. When reading, the format is detected from the first bytes of the file, so
+ * files in different formats can co-exist in the same repository.
+ */
+public enum CasStorageFormat
+{
+    /**
+     * Java-serialized {@link CASCompleteSerializer}. This is the format used by all previous
+     * versions. It contains the type system and the uncompressed CAS heap.
+     */
+    SERIALIZED
+    {
+        @Override
+        public void write(CAS aCas, OutputStream aOut) throws IOException
+        {
+            ObjectOutputStream os = new ObjectOutputStream(aOut);
+            os.writeObject(serializeCASComplete((CASImpl) aCas));
+            os.flush();
+        }
+
+        @Override
+        public void read(CAS aCas, InputStream aIn) throws IOException
+        {
+            ObjectInputStream is = new ObjectInputStream(aIn);
+            try {
+                CASCompleteSerializer serializer = (CASCompleteSerializer) is.readObject();
+                deserializeCASComplete(serializer, (CASImpl) aCas);
+            }
+            catch (ClassNotFoundException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public boolean isAddressStable()
+        {
+            return true;
+        }
+    },
+
+    /**
+     * UIMA compressed binary form 6 including the type system. Considerably smaller and faster to
+     * write than {@link #SERIALIZED}.
+     */
+    COMPACT
+    {
+        @Override
+        public void write(CAS aCas, OutputStream aOut) throws IOException
+        {
+            CasIOUtils.save(aCas, aOut, SerialFormat.COMPRESSED_FILTERED_TSI);
+        }
+
+        @Override
+        public void read(CAS aCas, InputStream aIn) throws IOException
+        {
+            CasIOUtils.load(aIn, null, aCas, CasLoadMode.REINIT);
+        }
+    },
+
+    /**
+     * Same as {@link #COMPACT} but additionally GZIP-compressed. Trades some CPU time on every
+     * read and write for a smaller disk footprint.
+     */
+    COMPACT_GZIP
+    {
+        @Override
+        public void write(CAS aCas, OutputStream aOut) throws IOException
+        {
+            GZIPOutputStream os = new GZIPOutputStream(new CloseShieldOutputStream(aOut),
+                    CasPersistenceUtils.BUFFER_SIZE);
+            COMPACT.write(aCas, os);
+            os.finish();
+        }
+
+        @Override
+        public void read(CAS aCas, InputStream aIn) throws IOException
+        {
+            COMPACT.read(aCas, new GZIPInputStream(new CloseShieldInputStream(aIn),
+                    CasPersistenceUtils.BUFFER_SIZE));
+        }
+    };
+
+    private static final int JAVA_SERIALIZATION_MAGIC = 0xACED;
+    private static final int GZIP_MAGIC = 0x1F8B;
+
+    /**
+     * Writes the CAS to the given stream. The stream is not closed.
+     */
+    public abstract void write(CAS aCas, OutputStream aOut) throws IOException;
+
+    /**
+     * Reads the CAS from the given stream, replacing the type system and contents of the given CAS.
+     * The stream is not closed.
+     */
+    public abstract void read(CAS aCas, InputStream aIn) throws IOException;
+
+    /**
+     * @return whether a CAS read from a file in this format has its feature structures at the same
+     *         addresses as the CAS that was written. The {@link CasJournal journal} refers to
+     *         feature structures by their addresses, so changes to a CAS which has just been
+     *         written can only be appended to the journal if this is the case.
+     */
+    public boolean isAddressStable()
+    {
+        return false;
+    }
+
+    /**
+     * Detects the format of the data in the given stream by peeking at its first bytes. The stream
+     * must support {@link InputStream#mark(int) mark/reset}. It is positioned at the start of the
+     * data again when this method returns.
+     */
+    public static CasStorageFormat detect(InputStream aIn) throws IOException
+    {
+        if (!aIn.markSupported()) {
+            throw new IllegalArgumentException("Stream must support mark/reset");
+        }
+
+        aIn.mark(2);
+        int magic;
+        try {
+            int b1 = aIn.read();
+            int b2 = aIn.read();
+            magic = (b1 << 8) | b2;
+        }
+        finally {
+            aIn.reset();
+        }
+
+        switch (magic) {
+        case JAVA_SERIALIZATION_MAGIC:
+            return SERIALIZED;
+        case GZIP_MAGIC:
+            return COMPACT_GZIP;
+        default:
+            return COMPACT;
+        }
+    }
+}
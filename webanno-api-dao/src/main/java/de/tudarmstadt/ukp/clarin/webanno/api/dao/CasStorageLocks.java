@@ -0,0 +1,243 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.uima.UIMAException;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService.CasStorageOperation;
+
+/**
+ * Locks guarding the CAS storage. Operations on a single CAS lock only the (document, user) pair
+ * they operate on, so operations on different CASes can run concurrently. Bulk operations lock the
+ * storage exclusively and wait for all ongoing single-CAS operations to complete.
+ * <p>
+ * A lock is only retained as long as there are threads holding or waiting for it. Locks are
+ * reentrant, so a thread holding a lock may perform nested operations on the same CAS or start
+ * nested single-CAS operations from within a bulk operation.
+ */
+class CasStorageLocks
+{
+    private final ReentrantReadWriteLock exclusiveLock = new ReentrantReadWriteLock();
+
+    // Guarded by itself
+    private final Map<CasCacheKey, CasLock> locks = new HashMap<>();
+
+    private volatile String exclusiveHolder;
+
+    private final AtomicLong acquisitions = new AtomicLong();
+    private final AtomicLong contendedAcquisitions = new AtomicLong();
+    private final AtomicLong waitTime = new AtomicLong();
+    private final AtomicLong maxWaitTime = new AtomicLong();
+
+    /**
+     * Locks the CAS identified by the given key. The lock is released when the returned handle is
+     * closed.
+     */
+    LockHandle lock(CasCacheKey aKey)
+    {
+        long start = System.nanoTime();
+        boolean contended = false;
+
+        if (!exclusiveLock.readLock().tryLock()) {
+            contended = true;
+            exclusiveLock.readLock().lock();
+        }
+
+        CasLock casLock;
+        synchronized (locks) {
+            casLock = locks.computeIfAbsent(aKey, CasLock::new);
+            casLock.users++;
+        }
+
+        try {
+            if (!casLock.lock.tryLock()) {
+                contended = true;
+                casLock.lock.lock();
+            }
+        }
+        catch (RuntimeException e) {
+            release(casLock);
+            exclusiveLock.readLock().unlock();
+            throw e;
+        }
+
+        casLock.holder = Thread.currentThread().getName();
+        recordAcquisition(start, contended);
+
+        return () -> {
+            if (casLock.lock.getHoldCount() == 1) {
+                casLock.holder = null;
+            }
+            casLock.lock.unlock();
+            release(casLock);
+            exclusiveLock.readLock().unlock();
+        };
+    }
+
+    /**
+     * Runs the given operation while holding the storage exclusively.
+     */
+    void runExclusive(CasStorageOperation aOperation) throws IOException, UIMAException
+    {
+        long start = System.nanoTime();
+        boolean contended = false;
+
+        if (!exclusiveLock.writeLock().tryLock()) {
+            contended = true;
+            exclusiveLock.writeLock().lock();
+        }
+
+        recordAcquisition(start, contended);
+
+        boolean outermost = exclusiveLock.getWriteHoldCount() == 1;
+        if (outermost) {
+            exclusiveHolder = Thread.currentThread().getName();
+        }
+
+        try {
+            aOperation.execute();
+        }
+        finally {
+            if (outermost) {
+                exclusiveHolder = null;
+            }
+            exclusiveLock.writeLock().unlock();
+        }
+    }
+
+    private void release(CasLock aLock)
+    {
+        synchronized (locks) {
+            aLock.users--;
+            if (aLock.users == 0) {
+                locks.remove(aLock.key);
+            }
+        }
+    }
+
+    private void recordAcquisition(long aStart, boolean aContended)
+    {
+        acquisitions.incrementAndGet();
+
+        if (aContended) {
+            long wait = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - aStart);
+            contendedAcquisitions.incrementAndGet();
+            waitTime.addAndGet(wait);
+            maxWaitTime.accumulateAndGet(wait, Math::max);
+        }
+    }
+
+    long getAcquisitions()
+    {
+        return acquisitions.get();
+    }
+
+    long getContendedAcquisitions()
+    {
+        return contendedAcquisitions.get();
+    }
+
+    long getWaitTime()
+    {
+        return waitTime.get();
+    }
+
+    long getMaxWaitTime()
+    {
+        return maxWaitTime.get();
+    }
+
+    /**
+     * @return the number of threads currently waiting for any storage lock.
+     */
+    int getQueueLength()
+    {
+        int queueLength = exclusiveLock.getQueueLength();
+        synchronized (locks) {
+            for (CasLock casLock : locks.values()) {
+                queueLength += casLock.lock.getQueueLength();
+            }
+        }
+        return queueLength;
+    }
+
+    /**
+     * @return the number of CASes currently locked.
+     */
+    int getActiveLocks()
+    {
+        synchronized (locks) {
+            return locks.size();
+        }
+    }
+
+    /**
+     * @return a description of the current lock holders for diagnostic purposes.
+     */
+    String getHolders()
+    {
+        StringBuilder sb = new StringBuilder();
+        String exclusive = exclusiveHolder;
+        if (exclusive != null) {
+            sb.append("exclusive: ").append(exclusive);
+        }
+        synchronized (locks) {
+            for (CasLock casLock : locks.values()) {
+                String holder = casLock.holder;
+                if (holder == null) {
+                    continue;
+                }
+                if (sb.length() > 0) {
+                    sb.append("; ");
+                }
+                sb.append(casLock.key).append(": ").append(holder).append(" (")
+                        .append(casLock.lock.getQueueLength()).append(" waiting)");
+            }
+        }
+        return sb.toString();
+    }
+
+    @FunctionalInterface
+    interface LockHandle
+        extends AutoCloseable
+    {
+        @Override
+        void close();
+    }
+
+    private static class CasLock
+    {
+        final CasCacheKey key;
+        final ReentrantLock lock = new ReentrantLock();
+        volatile String holder;
+        int users;
+
+        CasLock(CasCacheKey aKey)
+        {
+            key = aKey;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.ProjectService.ANNOTATION_FOLDER;
+import static de.tudarmstadt.ukp.clarin.webanno.api.ProjectService.DOCUMENT_FOLDER;
+import static de.tudarmstadt.ukp.clarin.webanno.api.ProjectService.PROJECT_FOLDER;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.uima.UIMAException;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.apache.uima.util.CasCreationUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
+
+/**
+ * Converts annotation files which are not yet stored in the configured
+ * {@link CasStorageProperties#getFormat() storage format} in the background. Each file is converted
+ * as a short exclusive operation on the {@link CasStorageService} so concurrent reads and writes
+ * are never confronted with a partially converted file. The modification time of the files is
+ * retained because it is used to detect concurrent modifications.
+ */
+@Component
+public class CasStorageMigrator
+    implements SmartLifecycle
+{
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final CasStorageService casStorageService;
+    private final RepositoryProperties repositoryProperties;
+    private final CasStorageProperties casStorageProperties;
+
+    private volatile boolean running = false;
+    private Thread worker;
+
+    public CasStorageMigrator(@Autowired CasStorageService aCasStorageService,
+            @Autowired RepositoryProperties aRepositoryProperties,
+            @Autowired CasStorageProperties aCasStorageProperties)
+    {
+        casStorageService = aCasStorageService;
+        repositoryProperties = aRepositoryProperties;
+        casStorageProperties = aCasStorageProperties;
+    }
+
+    @Override
+    public boolean isRunning()
+    {
+        return running;
+    }
+
+    @Override
+    public void start()
+    {
+        running = true;
+
+        if (!casStorageProperties.isMigrate()) {
+            return;
+        }
+
+        worker = new Thread(this::migrateRepository, "cas-storage-migrator");
+        worker.setDaemon(true);
+        worker.setPriority(Thread.MIN_PRIORITY);
+        worker.start();
+    }
+
+    @Override
+    public void stop()
+    {
+        running = false;
+
+        if (worker != null) {
+            worker.interrupt();
+            worker = null;
+        }
+    }
+
+    @Override
+    public int getPhase()
+    {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public boolean isAutoStartup()
+    {
+        return true;
+    }
+
+    @Override
+    public void stop(Runnable aCallback)
+    {
+        stop();
+        aCallback.run();
+    }
+
+    private void migrateRepository()
+    {
+        CasStorageFormat targetFormat = casStorageProperties.getFormat();
+        log.info("Migrating annotation files to storage format {}", targetFormat);
+
+        File projectsFolder = new File(repositoryProperties.getPath(), PROJECT_FOLDER);
+        File[] projects = projectsFolder.listFiles(File::isDirectory);
+        if (projects == null) {
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        int migrated = 0;
+        int failed = 0;
+        for (File project : projects) {
+            File[] documents = new File(project, DOCUMENT_FOLDER).listFiles(File::isDirectory);
+            if (documents == null) {
+                continue;
+            }
+
+            for (File document : documents) {
+                File[] casFiles = new File(document, ANNOTATION_FOLDER)
+                        .listFiles((dir, name) -> name.endsWith(".ser"));
+                if (casFiles == null) {
+                    continue;
+                }
+
+                for (File casFile : casFiles) {
+                    if (!running || Thread.currentThread().isInterrupted()) {
+                        log.info("Migration of annotation files interrupted after {} files",
+                                migrated);
+                        return;
+                    }
+
+                    try {
+                        if (migrate(casFile, targetFormat)) {
+                            migrated++;
+                        }
+                    }
+                    catch (Exception e) {
+                        failed++;
+                        log.error("Unable to migrate annotation file [{}]", casFile, e);
+                    }
+                }
+            }
+        }
+
+        log.info("Migrated {} annotation files to storage format {} in {}ms ({} failed)",
+                migrated, targetFormat, System.currentTimeMillis() - start, failed);
+    }
+
+    /**
+     * Converts the given annotation file to the given format unless it is already in that format.
+     *
+     * @return whether the file was converted.
+     */
+    boolean migrate(File aCasFile, CasStorageFormat aFormat)
+        throws IOException, UIMAException
+    {
+        boolean[] converted = { false };
+        casStorageService.performExclusiveBulkOperation(() -> {
+            // The file may have been deleted or already rewritten in the meantime
+            if (!aCasFile.exists() || CasPersistenceUtils.detectFormat(aCasFile) == aFormat) {
+                return;
+            }
+
+            CAS cas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
+            CasPersistenceUtils.readSerializedCas(cas, aCasFile);
+
+            // If there is a journal, it has been applied when reading and is obsolete afterwards
+            long timestamp = CasJournal.getTimestamp(aCasFile);
+            File tempFile = new File(aCasFile.getPath() + ".migrating");
+            try {
+                CasPersistenceUtils.writeCas(cas, tempFile, aFormat);
+                if (!tempFile.setLastModified(timestamp)) {
+                    throw new IOException("Unable to retain timestamp of [" + aCasFile + "]");
+                }
+                Files.move(tempFile.toPath(), aCasFile.toPath(), ATOMIC_MOVE, REPLACE_EXISTING);
+                CasJournal.delete(aCasFile);
+            }
+            finally {
+                FileUtils.deleteQuietly(tempFile);
+            }
+
+            converted[0] = true;
+        });
+        return converted[0];
+    }
+}
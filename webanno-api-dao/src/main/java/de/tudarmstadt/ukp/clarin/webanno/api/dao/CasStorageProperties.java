@@ -0,0 +1,177 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties("cas-storage")
+public class CasStorageProperties
+{
+    private CasStorageFormat format = CasStorageFormat.SERIALIZED;
+    private boolean migrate = false;
+    private final SharedCacheOptions sharedCache = new SharedCacheOptions();
+    private final WriteBehindOptions writeBehind = new WriteBehindOptions();
+    private final JournalOptions journal = new JournalOptions();
+
+    public CasStorageFormat getFormat()
+    {
+        return format;
+    }
+
+    public void setFormat(CasStorageFormat aFormat)
+    {
+        format = aFormat;
+    }
+
+    public boolean isMigrate()
+    {
+        return migrate;
+    }
+
+    public void setMigrate(boolean aMigrate)
+    {
+        migrate = aMigrate;
+    }
+
+    public SharedCacheOptions getSharedCache()
+    {
+        return sharedCache;
+    }
+
+    public WriteBehindOptions getWriteBehind()
+    {
+        return writeBehind;
+    }
+
+    public JournalOptions getJournal()
+    {
+        return journal;
+    }
+
+    public static class SharedCacheOptions
+    {
+        private long maxSize = 64;
+        private long idleTimeout = 1800;
+
+        /**
+         * @return maximum size of the shared CAS cache in megabytes. 0 disables the cache.
+         */
+        public long getMaxSize()
+        {
+            return maxSize;
+        }
+
+        public void setMaxSize(long aMaxSize)
+        {
+            maxSize = aMaxSize;
+        }
+
+        /**
+         * @return time in seconds after which unused CASes are removed from the shared cache.
+         */
+        public long getIdleTimeout()
+        {
+            return idleTimeout;
+        }
+
+        public void setIdleTimeout(long aIdleTimeout)
+        {
+            idleTimeout = aIdleTimeout;
+        }
+    }
+
+    public static class WriteBehindOptions
+    {
+        private boolean enabled = false;
+        private long delay = 5;
+        private int maxPending = 100;
+
+        public boolean isEnabled()
+        {
+            return enabled;
+        }
+
+        public void setEnabled(boolean aEnabled)
+        {
+            enabled = aEnabled;
+        }
+
+        /**
+         * @return time in seconds for which writes to a CAS are held back and coalesced before
+         *         the CAS is written to disk. Changes held back are lost if the application
+         *         terminates abnormally. Enabling write-behind also enables the journal, so
+         *         changes which can be appended to the journal are written immediately instead of
+         *         being held back.
+         */
+        public long getDelay()
+        {
+            return delay;
+        }
+
+        public void setDelay(long aDelay)
+        {
+            delay = aDelay;
+        }
+
+        /**
+         * @return maximum number of CASes with pending writes. If exceeded, CASes are written to
+         *         disk immediately.
+         */
+        public int getMaxPending()
+        {
+            return maxPending;
+        }
+
+        public void setMaxPending(int aMaxPending)
+        {
+            maxPending = aMaxPending;
+        }
+    }
+
+    public static class JournalOptions
+    {
+        private boolean enabled = false;
+        private int compactionThreshold = 50;
+
+        public boolean isEnabled()
+        {
+            return enabled;
+        }
+
+        public void setEnabled(boolean aEnabled)
+        {
+            enabled = aEnabled;
+        }
+
+        /**
+         * @return size of the journal relative to the size of the annotation file (in percent)
+         *         after which the journal is merged into the annotation file.
+         */
+        public int getCompactionThreshold()
+        {
+            return compactionThreshold;
+        }
+
+        public void setCompactionThreshold(int aCompactionThreshold)
+        {
+            compactionThreshold = aCompactionThreshold;
+        }
+    }
+}
@@ -26,19 +26,30 @@ import java.io.File;
 import java.io.FileFilter;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.lang.ref.WeakReference;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Optional;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.comparator.LastModifiedFileComparator;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
 import org.apache.uima.UIMAException;
 import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Marker;
+import org.apache.uima.cas.impl.CASImpl;
 import org.apache.uima.resource.metadata.TypeSystemDescription;
 import org.apache.uima.util.CasCreationUtils;
 import org.apache.wicket.MetaDataKey;
@@ -47,8 +58,13 @@ import org.apache.wicket.request.cycle.RequestCycle;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.DataRetrievalFailureException;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedMetric;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.support.MetricType;
 import org.springframework.stereotype.Component;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
@@ -56,19 +72,22 @@ import de.tudarmstadt.ukp.clarin.webanno.api.CasProvider;
 import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
 import de.tudarmstadt.ukp.clarin.webanno.api.CasUpgradeMode;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasStorageLocks.LockHandle;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.PendingCasWrites.PendingWrite;
 import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctor;
 import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctorException;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
 import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
 import de.tudarmstadt.ukp.clarin.webanno.support.logging.Logging;
 
+@ManagedResource
 @Component(CasStorageService.SERVICE_NAME)
 public class CasStorageServiceImpl
-    implements CasStorageService
+    implements CasStorageService, DisposableBean
 {
     private final Logger log = LoggerFactory.getLogger(getClass());
 
-    private final Object lock = new Object();
+    private final CasStorageLocks locks = new CasStorageLocks();
 
     public static final MetaDataKey<Map<CasCacheKey, CasCacheEntry>> CACHE = 
             new MetaDataKey<Map<CasCacheKey, CasCacheEntry>>()
@@ -85,6 +104,17 @@ public class CasStorageServiceImpl
     private final AnnotationSchemaService schemaService;
     private final RepositoryProperties repositoryProperties;
     private final BackupProperties backupProperties;
+    private final CasStorageProperties casStorageProperties;
+    private final SharedCasCache sharedCache;
+    private final PendingCasWrites pendingWrites;
+    
+    // CASes obtained from the storage which can be saved by appending to the journal
+    private final Map<CAS, JournalMark> journalMarks = Collections
+            .synchronizedMap(new WeakHashMap<>());
+    private final Set<CasCacheKey> scheduledCompactions = ConcurrentHashMap.newKeySet();
+    private final ExecutorService compactionExecutor;
+    private final AtomicLong journalAppends = new AtomicLong();
+    private final AtomicLong journalCompactions = new AtomicLong();
     
     /**
      * @param aCasDoctor
@@ -96,12 +126,35 @@ public class CasStorageServiceImpl
             @Autowired(required = false) CasDoctor aCasDoctor,
             @Autowired(required = false) AnnotationSchemaService aSchemaService,
             @Autowired RepositoryProperties aRepositoryProperties,
-            @Autowired BackupProperties aBackupProperties)
+            @Autowired BackupProperties aBackupProperties,
+            @Autowired CasStorageProperties aCasStorageProperties)
     {
         casDoctor = aCasDoctor;
         schemaService = aSchemaService;
         repositoryProperties = aRepositoryProperties;
         backupProperties = aBackupProperties;
+        casStorageProperties = aCasStorageProperties;
+        sharedCache = new SharedCasCache(
+                casStorageProperties.getSharedCache().getMaxSize() * 1024 * 1024,
+                casStorageProperties.getSharedCache().getIdleTimeout() * 1000);
+        pendingWrites = new PendingCasWrites(
+                casStorageProperties.getWriteBehind().isEnabled()
+                        ? casStorageProperties.getWriteBehind().getDelay() * 1000
+                        : 0,
+                casStorageProperties.getWriteBehind().getMaxPending());
+        // Changes held back by write-behind would be lost on an abnormal termination, so whatever
+        // can be appended to the journal is written there right away
+        if (casStorageProperties.getJournal().isEnabled()
+                || casStorageProperties.getWriteBehind().isEnabled()) {
+            compactionExecutor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "cas-storage-compaction");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        else {
+            compactionExecutor = null;
+        }
         
         if (casDoctor == null) {
             log.info("CAS doctor not available - unable to check/repair CASes");
@@ -115,6 +168,60 @@ public class CasStorageServiceImpl
         else {
             log.info("CAS backups disabled");
         }
+        
+        log.info("CAS storage format: {}", casStorageProperties.getFormat());
+        
+        if (sharedCache.isEnabled()) {
+            log.info("Shared CAS cache enabled - max-size: {}MB  idle-timeout: {}sec",
+                    casStorageProperties.getSharedCache().getMaxSize(),
+                    casStorageProperties.getSharedCache().getIdleTimeout());
+        }
+        else {
+            log.info("Shared CAS cache disabled");
+        }
+        
+        if (pendingWrites.isEnabled()) {
+            log.info("CAS write-behind enabled - delay: {}sec  max-pending: {}",
+                    casStorageProperties.getWriteBehind().getDelay(),
+                    casStorageProperties.getWriteBehind().getMaxPending());
+            log.warn("Changes to up to {} CASes accepted within the last {}sec are lost if the "
+                    + "application terminates abnormally",
+                    casStorageProperties.getWriteBehind().getMaxPending(),
+                    casStorageProperties.getWriteBehind().getDelay());
+        }
+        else {
+            log.info("CAS write-behind disabled");
+        }
+        
+        if (compactionExecutor != null) {
+            log.info("CAS journal enabled - compaction-threshold: {}%",
+                    casStorageProperties.getJournal().getCompactionThreshold());
+            if (!casStorageProperties.getJournal().isEnabled()) {
+                log.warn("CAS journal enabled because CAS write-behind is enabled");
+            }
+        }
+        else {
+            log.info("CAS journal disabled");
+        }
+    }
+    
+    @Override
+    public void destroy()
+    {
+        try {
+            // Journals are durable, so they do not need to be merged on shutdown
+            flushPendingWrites();
+        }
+        catch (IOException e) {
+            log.error("Unable to write pending CAS changes on shutdown", e);
+        }
+        finally {
+            pendingWrites.shutdown();
+            // Journals are durable, so there is no need to wait for pending compactions
+            if (compactionExecutor != null) {
+                compactionExecutor.shutdownNow();
+            }
+        }
     }
 
     /**
@@ -157,12 +264,26 @@ public class CasStorageServiceImpl
                     + aDocument.getProject().getId() + ")", e);
         }
         
-        synchronized (lock) {
-            realWriteCas(aDocument, aUserName, aCas);
+        CasCacheKey key = CasCacheKey.of(aDocument, aUserName);
+        try (LockHandle handle = locks.lock(key)) {
+            // Appending to the journal is cheap and durable, so it is preferred over deferring
+            // the write
+            if (!appendToJournal(key, aDocument, aUserName, aCas)) {
+                if (pendingWrites.isEnabled()) {
+                    deferWriteCas(key, aDocument, aUserName, aCas);
+                }
+                else {
+                    realWriteCas(aDocument, aUserName, aCas, 0);
+                    File casFile = getCasFile(aDocument, aUserName);
+                    putWrittenCas(key, aCas, casFile);
+                    if (casStorageProperties.getFormat().isAddressStable()) {
+                        markForJournal(key, aCas, casFile);
+                    }
+                }
+            }
     
             // Update the CAS in the cache
             if (isCacheEnabled()) {
-                CasCacheKey key = CasCacheKey.of(aDocument, aUserName);
                 CasCacheEntry entry = getCache().get(key);
                 if (entry == null) {
                     entry = new CasCacheEntry();
@@ -174,7 +295,326 @@ public class CasStorageServiceImpl
         }
     }
     
-    private void realWriteCas(SourceDocument aDocument, String aUserName, CAS aCas)
+    /**
+     * Accepts the write without writing the CAS to disk yet. The CAS is written when the
+     * write-behind delay has passed or when the pending writes are flushed explicitly. Further
+     * writes to the same CAS in the meantime replace the pending write.
+     * <p>
+     * The pending write is only held in memory. If the application terminates abnormally, the
+     * changes accepted within the write-behind delay are lost. This affects at most the number of
+     * CASes configured as maximum pending writes.
+     */
+    private void deferWriteCas(CasCacheKey aKey, SourceDocument aDocument, String aUserName,
+            CAS aCas)
+        throws IOException
+    {
+        File casFile = getCasFile(aDocument, aUserName);
+        PendingWrite previous = pendingWrites.get(aKey);
+        long diskTimestamp = CasJournal.getTimestamp(casFile);
+        long expectedTimestamp = pendingWrites.getTimestamp(aKey, diskTimestamp);
+        
+        // Check if there was a concurrent change to the file on disk or to the pending version
+        if (previous != null || casFile.exists()) {
+            CasMetadataUtils.failOnConcurrentModification(aCas, casFile, expectedTimestamp,
+                    aDocument, aUserName);
+        }
+        
+        WebAnnoCasUtil.setDocumentId(aCas, aUserName);
+        
+        // The logical timestamp must increase with every write, even if the writes happen within
+        // the resolution of the clock
+        long timestamp = Math.max(System.currentTimeMillis(), expectedTimestamp + 1);
+        CasMetadataUtils.addOrUpdateCasMetadata(aCas, casFile, timestamp, aDocument, aUserName);
+        
+        long baseTimestamp = previous != null ? previous.diskTimestamp
+                : pendingWrites.resolveAlias(aKey, diskTimestamp);
+        boolean full = pendingWrites.put(aKey, new PendingWrite(aDocument, aUserName,
+                CasSnapshot.of(aCas), timestamp, baseTimestamp), this::flushScheduled);
+        
+        log.trace("Deferred writing CAS [{},{}]", aDocument.getId(), aUserName);
+        
+        if (full) {
+            flushPendingWrite(aKey);
+        }
+    }
+    
+    private void flushScheduled(CasCacheKey aKey)
+    {
+        try {
+            flushPendingWrite(aKey);
+        }
+        catch (Exception e) {
+            log.error("Unable to write pending changes to CAS {} - retrying later", aKey, e);
+            if (pendingWrites.contains(aKey)) {
+                pendingWrites.schedule(aKey, this::flushScheduled);
+            }
+        }
+    }
+    
+    /**
+     * Writes the pending changes to the given CAS to disk. If the write fails, the changes remain
+     * pending.
+     */
+    private void flushPendingWrite(CasCacheKey aKey) throws IOException
+    {
+        try (LockHandle handle = locks.lock(aKey)) {
+            PendingWrite pendingWrite = pendingWrites.get(aKey);
+            if (pendingWrite == null) {
+                return;
+            }
+            
+            SourceDocument document = pendingWrite.document;
+            String user = pendingWrite.user;
+            File casFile = getCasFile(document, user);
+            
+            // The snapshot carries the logical timestamp, but the concurrent modification check
+            // when writing refers to the file on disk
+            CAS cas = pendingWrite.snapshot.restore();
+            CasMetadataUtils.addOrUpdateCasMetadata(cas, casFile, pendingWrite.diskTimestamp,
+                    document, user);
+            
+            realWriteCas(document, user, cas, pendingWrite.timestamp);
+            pendingWrites.markFlushed(aKey, pendingWrite);
+            putWrittenCas(aKey, cas, casFile);
+            
+            log.debug("Wrote pending changes to CAS [{},{}]", document.getId(), user);
+        }
+    }
+    
+    @Override
+    public void flushPendingWrites(SourceDocument aDocument) throws IOException
+    {
+        for (CasCacheKey key : pendingWrites.getKeys(aDocument)) {
+            flushPendingWrite(key);
+        }
+    }
+    
+    @Override
+    public void flushPendingWrites(String aUser) throws IOException
+    {
+        for (CasCacheKey key : pendingWrites.getKeys(aUser)) {
+            flushPendingWrite(key);
+        }
+    }
+    
+    @Override
+    public void flushPendingWrites() throws IOException
+    {
+        for (CasCacheKey key : pendingWrites.getKeys()) {
+            flushPendingWrite(key);
+        }
+    }
+    
+    @Override
+    public void mergeJournals(SourceDocument aDocument) throws IOException
+    {
+        // Journals written while the journal was enabled are merged even if it is disabled now
+        File[] journals = getAnnotationFolder(aDocument)
+                .listFiles(file -> CasJournal.isJournalFile(file));
+        if (journals != null) {
+            for (File journal : journals) {
+                String user = StringUtils.removeEnd(journal.getName(), ".ser.journal");
+                compactJournal(CasCacheKey.of(aDocument, user), aDocument, user);
+            }
+        }
+    }
+    
+    @Override
+    public void mergeJournals() throws IOException
+    {
+        // The journals may stem from a previous run, so the documents are determined from the
+        // repository layout
+        File[] projectFolders = new File(repositoryProperties.getPath(), PROJECT_FOLDER)
+                .listFiles(File::isDirectory);
+        if (projectFolders == null) {
+            return;
+        }
+        
+        for (File projectFolder : projectFolders) {
+            File[] documentFolders = new File(projectFolder, DOCUMENT_FOLDER)
+                    .listFiles(File::isDirectory);
+            if (!StringUtils.isNumeric(projectFolder.getName()) || documentFolders == null) {
+                continue;
+            }
+            
+            for (File documentFolder : documentFolders) {
+                File[] journals = new File(documentFolder, ANNOTATION_FOLDER)
+                        .listFiles(file -> CasJournal.isJournalFile(file));
+                if (!StringUtils.isNumeric(documentFolder.getName()) || journals == null) {
+                    continue;
+                }
+                
+                for (File journal : journals) {
+                    Project project = new Project();
+                    project.setId(Long.valueOf(projectFolder.getName()));
+                    SourceDocument document = new SourceDocument();
+                    document.setId(Long.valueOf(documentFolder.getName()));
+                    document.setProject(project);
+                    
+                    String user = StringUtils.removeEnd(journal.getName(), ".ser.journal");
+                    compactJournal(CasCacheKey.of(document, user), document, user);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Saves the CAS by appending the changes made since it was obtained from the storage to the
+     * journal. This is only possible if the CAS has not been saved by anybody else in the meantime.
+     *
+     * @return whether the changes have been appended. If not, the CAS needs to be written
+     *         completely.
+     */
+    private boolean appendToJournal(CasCacheKey aKey, SourceDocument aDocument, String aUserName,
+            CAS aCas)
+        throws IOException
+    {
+        // Pending writes replace the file and journal completely when they are flushed, so
+        // changes to a CAS with a pending write must be deferred as well
+        if (compactionExecutor == null || pendingWrites.contains(aKey)) {
+            return false;
+        }
+        
+        File casFile = getCasFile(aDocument, aUserName);
+        JournalMark mark = journalMarks.get(getBaseCas(aCas));
+        Marker marker = mark != null ? mark.marker.get() : null;
+        if (marker == null || !marker.isValid() || !mark.isCurrent(aKey, casFile)) {
+            return false;
+        }
+        
+        CasMetadataUtils.failOnConcurrentModification(aCas, casFile,
+                pendingWrites.resolveAlias(aKey, CasJournal.getTimestamp(casFile)), aDocument,
+                aUserName);
+        
+        WebAnnoCasUtil.setDocumentId(aCas, aUserName);
+        
+        CasJournal.append(casFile, aCas, marker);
+        journalAppends.incrementAndGet();
+        
+        log.trace("Appended changes to CAS [{},{}] to journal", aDocument.getId(), aUserName);
+        
+        // The CAS now corresponds to the state on disk again, so further changes can go to the
+        // journal as well
+        markForJournal(aKey, aCas, casFile);
+        sharedCache.put(aKey, aCas, casFile);
+        
+        // Update the timestamp in the CAS in case we attempt to save it a second time.
+        CasMetadataUtils.addOrUpdateCasMetadata(aCas, casFile, CasJournal.getTimestamp(casFile),
+                aDocument, aUserName);
+        
+        if (CasJournal.getLength(casFile) * 100 > casFile.length()
+                * casStorageProperties.getJournal().getCompactionThreshold()) {
+            scheduleCompaction(aKey, aDocument, aUserName);
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Remembers that the given CAS corresponds to the current state of the annotation file and its
+     * journal.
+     */
+    private void markForJournal(CasCacheKey aKey, CAS aCas, File aCasFile)
+    {
+        if (compactionExecutor == null) {
+            return;
+        }
+        
+        CAS baseCas = getBaseCas(aCas);
+        journalMarks.put(baseCas, new JournalMark(aKey, baseCas.createMarker(), aCasFile));
+    }
+    
+    /**
+     * Offers a CAS which has just been written completely to the shared cache. CASes borrowed from
+     * the shared cache may append their changes to the journal, which refers to feature structures
+     * by their addresses. If the storage format does not retain the addresses, the written CAS does
+     * not match the file and must not be used for that - the next reader reads the file instead.
+     */
+    private void putWrittenCas(CasCacheKey aKey, CAS aCas, File aCasFile)
+    {
+        if (compactionExecutor != null && !casStorageProperties.getFormat().isAddressStable()) {
+            sharedCache.invalidate(aKey);
+            return;
+        }
+        
+        sharedCache.put(aKey, aCas, aCasFile);
+    }
+    
+    private static CAS getBaseCas(CAS aCas)
+    {
+        return ((CASImpl) aCas).getBaseCAS();
+    }
+    
+    private void scheduleCompaction(CasCacheKey aKey, SourceDocument aDocument, String aUserName)
+    {
+        if (!scheduledCompactions.add(aKey)) {
+            return;
+        }
+        
+        compactionExecutor.submit(() -> {
+            scheduledCompactions.remove(aKey);
+            try {
+                compactJournal(aKey, aDocument, aUserName);
+            }
+            catch (Exception e) {
+                log.error("Unable to compact journal of CAS {}", aKey, e);
+            }
+        });
+    }
+    
+    /**
+     * Merges the journal into the annotation file. The timestamp of the CAS is retained, so
+     * clients that obtained the CAS before can still save it.
+     */
+    private void compactJournal(CasCacheKey aKey, SourceDocument aDocument, String aUserName)
+        throws IOException
+    {
+        try (LockHandle handle = locks.lock(aKey)) {
+            File casFile = getCasFile(aDocument, aUserName);
+            // Pending writes replace the file and journal completely when they are flushed
+            if (!casFile.exists() || !CasJournal.exists(casFile)
+                    || pendingWrites.contains(aKey)) {
+                return;
+            }
+            
+            long timestamp = pendingWrites.resolveAlias(aKey, CasJournal.getTimestamp(casFile));
+            
+            CAS cas;
+            try {
+                cas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
+            }
+            catch (UIMAException e) {
+                throw new IOException("Unable to create empty CAS", e);
+            }
+            CasPersistenceUtils.readSerializedCas(cas, casFile);
+            
+            // If the document is only known by its location in the repository, retain the names
+            // recorded in the CAS
+            if (aDocument.getName() == null) {
+                CasMetadataUtils.getSourceDocumentName(cas).ifPresent(aDocument::setName);
+            }
+            if (aDocument.getProject().getName() == null) {
+                CasMetadataUtils.getProjectName(cas).ifPresent(aDocument.getProject()::setName);
+            }
+            
+            CasMetadataUtils.addOrUpdateCasMetadata(cas, casFile, timestamp, aDocument,
+                    aUserName);
+            
+            realWriteCas(aDocument, aUserName, cas, timestamp);
+            putWrittenCas(aKey, cas, casFile);
+            journalCompactions.incrementAndGet();
+            
+            log.debug("Compacted journal of CAS [{},{}]", aDocument.getId(), aUserName);
+        }
+    }
+    
+    /**
+     * @param aTimestamp
+     *            the timestamp to assign to the file on disk or 0 to keep the actual modification
+     *            time.
+     */
+    private void realWriteCas(SourceDocument aDocument, String aUserName, CAS aCas,
+            long aTimestamp)
         throws IOException
     {
         log.debug("Preparing to update annotations for user [{}] on document [{}]({}) in project [{}]({})",
@@ -193,9 +633,11 @@ public class CasStorageServiceImpl
         // Save current version
         try {
             // Check if there was a concurrent change to the file on disk
+            CasCacheKey key = CasCacheKey.of(aDocument, aUserName);
             if (currentVersion.exists()) {
-                CasMetadataUtils.failOnConcurrentModification(aCas, currentVersion, aDocument,
-                        username);
+                CasMetadataUtils.failOnConcurrentModification(aCas, currentVersion,
+                        pendingWrites.resolveAlias(key, CasJournal.getTimestamp(currentVersion)),
+                        aDocument, username);
             }
             
             // Make a backup of the current version of the file before overwriting
@@ -207,9 +649,23 @@ public class CasStorageServiceImpl
             WebAnnoCasUtil.setDocumentId(aCas, aUserName);
             
             long start = System.currentTimeMillis();
-            CasPersistenceUtils.writeSerializedCas(aCas,
-                    new File(annotationFolder, aUserName + ".ser"));
+            CasPersistenceUtils.writeCas(aCas, new File(annotationFolder, aUserName + ".ser"),
+                    casStorageProperties.getFormat());
             long duration = System.currentTimeMillis() - start;
+            
+            // The new version includes all changes from the journal
+            CasJournal.delete(currentVersion);
+            
+            if (aTimestamp > 0) {
+                if (!currentVersion.setLastModified(aTimestamp)) {
+                    throw new IOException("Unable to set timestamp of [" + currentVersion + "]");
+                }
+                // The file system may not be able to represent the timestamp exactly
+                pendingWrites.setAlias(key, currentVersion.lastModified(), aTimestamp);
+            }
+            else {
+                pendingWrites.removeAlias(key);
+            }
 
             try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
                     String.valueOf(aDocument.getProject().getId()))) {
@@ -233,7 +689,9 @@ public class CasStorageServiceImpl
             // happens for example in an annotation replacement operation (change layer of existing
             // annotation) which is implemented as a delete/create operation with an intermediate
             // save.
-            CasMetadataUtils.addOrUpdateCasMetadata(aCas, currentVersion, aDocument, aUserName);
+            CasMetadataUtils.addOrUpdateCasMetadata(aCas, currentVersion,
+                    pendingWrites.resolveAlias(key, currentVersion.lastModified()), aDocument,
+                    aUserName);
             
             // If the saving was successful, we delete the old version
             if (oldVersion.exists()) {
@@ -389,7 +847,7 @@ public class CasStorageServiceImpl
             boolean aAnalyzeAndRepair, CasUpgradeMode aUpgradeMode, CasProvider aSupplier)
         throws IOException
     {
-        synchronized (lock) {
+        try (LockHandle handle = locks.lock(CasCacheKey.of(aDocument, aUsername))) {
             long start = System.currentTimeMillis();
             
             // Check if we have the CAS in the cache
@@ -405,8 +863,9 @@ public class CasStorageServiceImpl
             // If the CAS is not in the cache, load it from disk
             CAS cas;
             String source;
+            CasCacheKey key = CasCacheKey.of(aDocument, aUsername);
             File casFile = getCasFile(aDocument, aUsername);
-            if (casFile.exists()) {
+            if (casFile.exists() || pendingWrites.contains(key)) {
                 cas = realReadCas(aDocument, aUsername, aAnalyzeAndRepair);
                 if (schemaService != null) {
                     try {
@@ -429,7 +888,8 @@ public class CasStorageServiceImpl
                     }
                 }
                 source = "importer";
-                realWriteCas(aDocument, aUsername, cas);
+                realWriteCas(aDocument, aUsername, cas, 0);
+                putWrittenCas(key, cas, casFile);
             }
             else {
                 throw new FileNotFoundException("CAS file for [" + aDocument.getId() + ","
@@ -438,7 +898,9 @@ public class CasStorageServiceImpl
             }
             
             // Add/update the CAS metadata
-            CasMetadataUtils.addOrUpdateCasMetadata(cas, casFile, aDocument, aUsername);
+            CasMetadataUtils.addOrUpdateCasMetadata(cas, casFile,
+                    pendingWrites.getTimestamp(key, CasJournal.getTimestamp(casFile)), aDocument,
+                    aUsername);
             
             long duration = System.currentTimeMillis() - start;
             
@@ -447,7 +909,7 @@ public class CasStorageServiceImpl
                 CasCacheEntry entry = new CasCacheEntry();
                 entry.cas = cas;
                 entry.writes++;
-                getCache().put(CasCacheKey.of(aDocument, aUsername), entry);
+                getCache().put(key, entry);
                 log.debug("Loaded CAS [{},{}] from {} in {}ms and stored in cache",
                         aDocument.getId(), aUsername, source, duration);
             }
@@ -467,6 +929,18 @@ public class CasStorageServiceImpl
                 aDocument.getName(), aDocument.getId(), aUsername, aDocument.getProject().getName(),
                 aDocument.getProject().getId());
         
+        // Pending changes take precedence over the file on disk
+        CasCacheKey key = CasCacheKey.of(aDocument, aUsername);
+        PendingWrite pendingWrite = pendingWrites.get(key);
+        if (pendingWrite != null) {
+            log.debug("Restored CAS [{},{}] from pending write", aDocument.getId(), aUsername);
+            CAS cas = pendingWrite.snapshot.restore();
+            if (aAnalyzeAndRepair) {
+                analyzeAndRepair(aDocument, aUsername, cas);
+            }
+            return cas;
+        }
+        
         File casFile = getCasFile(aDocument, aUsername);
         File oldCasFile = new File(casFile.getPath() + ".old");
         
@@ -482,14 +956,6 @@ public class CasStorageServiceImpl
                     oldCasFile);
         }
         
-        CAS cas;
-        try {
-            cas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
-        }
-        catch (UIMAException e) {
-            throw new IOException("Unable to create empty CAS", e);
-        }
-        
         if (!casFile.exists()) {
             throw new FileNotFoundException("Annotation document of user [" + aUsername
                     + "] for source document [" + aDocument.getName() + "] ("
@@ -498,16 +964,37 @@ public class CasStorageServiceImpl
                     + aDocument.getProject().getId() + "). " + msgOldExists);
         }
         
-        try {
-            CasPersistenceUtils.readSerializedCas(cas, casFile);
+        // Try restoring the CAS from the shared cache before reading it from disk
+        Optional<CAS> cachedCas = sharedCache.borrow(key, casFile);
+        CAS cas;
+        if (cachedCas.isPresent()) {
+            log.debug("Restored CAS [{},{}] from shared cache", aDocument.getId(), aUsername);
+            cas = cachedCas.get();
         }
-        catch (Exception e) {
-            throw new IOException("Annotation document of user [" + aUsername
-                    + "] for source document [" + aDocument.getName() + "] ("
-                    + aDocument.getId() + ") in project ["
-                    + aDocument.getProject().getName() + "] (" + aDocument.getProject().getId()
-                    + ") cannot be read from file [" + casFile + "]. " + msgOldExists, e);
+        else {
+            try {
+                cas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
+            }
+            catch (UIMAException e) {
+                throw new IOException("Unable to create empty CAS", e);
+            }
+            
+            try {
+                CasPersistenceUtils.readSerializedCas(cas, casFile);
+            }
+            catch (Exception e) {
+                throw new IOException("Annotation document of user [" + aUsername
+                        + "] for source document [" + aDocument.getName() + "] ("
+                        + aDocument.getId() + ") in project ["
+                        + aDocument.getProject().getName() + "] ("
+                        + aDocument.getProject().getId() + ") cannot be read from file ["
+                        + casFile + "]. " + msgOldExists, e);
+            }
+            
+            sharedCache.put(key, cas, casFile);
         }
+        
+        markForJournal(key, cas, casFile);
 
         if (aAnalyzeAndRepair) {
             analyzeAndRepair(aDocument, aUsername, cas);
@@ -519,13 +1006,19 @@ public class CasStorageServiceImpl
     @Override
     public boolean deleteCas(SourceDocument aDocument, String aUsername) throws IOException
     {
-        synchronized (lock) {
-
+        CasCacheKey key = CasCacheKey.of(aDocument, aUsername);
+        try (LockHandle handle = locks.lock(key)) {
             if (isCacheEnabled()) {
-                getCache().remove(CasCacheKey.of(aDocument, aUsername));
+                getCache().remove(key);
             }
+            
+            sharedCache.invalidate(key);
+            boolean hadPendingWrite = pendingWrites.remove(key) != null;
+            pendingWrites.removeAlias(key);
 
-            return new File(getAnnotationFolder(aDocument), aUsername + ".ser").delete();
+            File casFile = getCasFile(aDocument, aUsername);
+            CasJournal.delete(casFile);
+            return casFile.delete() || hadPendingWrite;
         }
     }
     
@@ -601,8 +1094,9 @@ public class CasStorageServiceImpl
         
         // Ensure that the CAS is not being re-written and temporarily unavailable while we check
         // for its existence
-        synchronized (lock) {
-            return getCasFile(aDocument, aUser).exists();
+        CasCacheKey key = CasCacheKey.of(aDocument, aUser);
+        try (LockHandle handle = locks.lock(key)) {
+            return getCasFile(aDocument, aUser).exists() || pendingWrites.contains(key);
         }
     }
 
@@ -614,13 +1108,15 @@ public class CasStorageServiceImpl
         
         // Ensure that the CAS is not being re-written and temporarily unavailable while we check
         // for its existence
-        synchronized (lock) {
+        CasCacheKey key = CasCacheKey.of(aDocument, aUser);
+        try (LockHandle handle = locks.lock(key)) {
             File casFile = getCasFile(aDocument, aUser);
-            if (!casFile.exists()) {
+            if (!casFile.exists() && !pendingWrites.contains(key)) {
                 return Optional.empty();
             }
             else {
-                return Optional.of(casFile.lastModified());
+                return Optional.of(
+                        pendingWrites.getTimestamp(key, CasJournal.getTimestamp(casFile)));
             }
         }
     }
@@ -667,11 +1163,142 @@ public class CasStorageServiceImpl
     public void performExclusiveBulkOperation(CasStorageOperation aOperation)
         throws UIMAException, IOException
     {
-        synchronized (lock) {
+        locks.runExclusive(() -> {
+            try {
+                // Bulk operations work on the files directly, so they need to see all changes
+                flushPendingWrites();
+                mergeJournals();
+                aOperation.execute();
+            }
+            finally {
+                // Bulk operations may modify files directly, so we cannot trust the shared cache
+                // anymore afterwards
+                sharedCache.clear();
+            }
+        });
+    }
+    
+    @Override
+    public void performExclusiveOperation(SourceDocument aDocument, String aUser,
+            CasStorageOperation aOperation)
+        throws UIMAException, IOException
+    {
+        Validate.notNull(aDocument, "Source document must be specified");
+        Validate.notBlank(aUser, "User must be specified");
+        
+        try (LockHandle handle = locks.lock(CasCacheKey.of(aDocument, aUser))) {
             aOperation.execute();
         }
     }
     
+    @ManagedMetric(metricType = MetricType.COUNTER)
+    public long getLockAcquisitions()
+    {
+        return locks.getAcquisitions();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER)
+    public long getContendedLockAcquisitions()
+    {
+        return locks.getContendedAcquisitions();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, unit = "ms")
+    public long getLockWaitTime()
+    {
+        return locks.getWaitTime();
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE, unit = "ms")
+    public long getMaxLockWaitTime()
+    {
+        return locks.getMaxWaitTime();
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE)
+    public int getLockQueueLength()
+    {
+        return locks.getQueueLength();
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE)
+    public int getActiveLocks()
+    {
+        return locks.getActiveLocks();
+    }
+
+    @ManagedAttribute
+    public String getLockHolders()
+    {
+        return locks.getHolders();
+    }
+    
+    @ManagedMetric(metricType = MetricType.COUNTER)
+    public long getSharedCacheHits()
+    {
+        return sharedCache.getHits();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER)
+    public long getSharedCacheMisses()
+    {
+        return sharedCache.getMisses();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER)
+    public long getSharedCacheEvictions()
+    {
+        return sharedCache.getEvictions();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER)
+    public long getSharedCacheExpirations()
+    {
+        return sharedCache.getExpirations();
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE, unit = "bytes")
+    public long getSharedCacheSize()
+    {
+        return sharedCache.getSize();
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE)
+    public int getSharedCacheEntries()
+    {
+        return sharedCache.getEntryCount();
+    }
+    
+    @ManagedMetric(metricType = MetricType.GAUGE)
+    public int getPendingWrites()
+    {
+        return pendingWrites.size();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER)
+    public long getDeferredWrites()
+    {
+        return pendingWrites.getDeferredWrites();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER)
+    public long getFlushedWrites()
+    {
+        return pendingWrites.getFlushedWrites();
+    }
+    
+    @ManagedMetric(metricType = MetricType.COUNTER)
+    public long getJournalAppends()
+    {
+        return journalAppends.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER)
+    public long getJournalCompactions()
+    {
+        return journalCompactions.get();
+    }
+    
     @Override
     public boolean isCacheEnabled()
     {
@@ -735,70 +1362,33 @@ public class CasStorageServiceImpl
         CAS cas;
     }
     
-    private static class CasCacheKey
+    private static class JournalMark
     {
-        long sourceDocumentId;
-        String userId;
+        final CasCacheKey key;
+        // The marker refers to the CAS, so it must not keep the CAS from being garbage collected
+        final WeakReference<Marker> marker;
+        final long timestamp;
+        final long length;
+        final long journalLength;
         
-        public CasCacheKey(long aSourceDocumentId, String aUserId)
+        JournalMark(CasCacheKey aKey, Marker aMarker, File aCasFile)
         {
-            super();
-            sourceDocumentId = aSourceDocumentId;
-            userId = aUserId;
+            key = aKey;
+            marker = new WeakReference<>(aMarker);
+            timestamp = aCasFile.lastModified();
+            length = aCasFile.length();
+            journalLength = CasJournal.getLength(aCasFile);
         }
         
-        public static CasCacheKey of(SourceDocument aSourceDocument, String aUserId)
+        /**
+         * @return whether the annotation file and its journal are still in the state they were in
+         *         when the mark was created.
+         */
+        boolean isCurrent(CasCacheKey aKey, File aCasFile)
         {
-            return new CasCacheKey(aSourceDocument.getId(), aUserId);
-        }
-
-        @Override
-        public String toString()
-        {
-            StringBuilder builder = new StringBuilder();
-            builder.append("[");
-            builder.append(sourceDocumentId);
-            builder.append(",");
-            builder.append(userId);
-            builder.append("]");
-            return builder.toString();
-        }
-
-        @Override
-        public int hashCode()
-        {
-            final int prime = 31;
-            int result = 1;
-            result = prime * result + (int) (sourceDocumentId ^ (sourceDocumentId >>> 32));
-            result = prime * result + ((userId == null) ? 0 : userId.hashCode());
-            return result;
-        }
-
-        @Override
-        public boolean equals(Object obj)
-        {
-            if (this == obj) {
-                return true;
-            }
-            if (obj == null) {
-                return false;
-            }
-            if (getClass() != obj.getClass()) {
-                return false;
-            }
-            CasCacheKey other = (CasCacheKey) obj;
-            if (sourceDocumentId != other.sourceDocumentId) {
-                return false;
-            }
-            if (userId == null) {
-                if (other.userId != null) {
-                    return false;
-                }
-            }
-            else if (!userId.equals(other.userId)) {
-                return false;
-            }
-            return true;
+            return key.equals(aKey) && aCasFile.lastModified() == timestamp
+                    && aCasFile.length() == length
+                    && CasJournal.getLength(aCasFile) == journalLength;
         }
     }
 }
@@ -23,8 +23,10 @@ import static de.tudarmstadt.ukp.clarin.webanno.api.ProjectService.PROJECT_FOLDE
 import static de.tudarmstadt.ukp.clarin.webanno.api.ProjectService.SOURCE_FOLDER;
 import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.INITIAL_CAS_PSEUDO_USER;
 import static de.tudarmstadt.ukp.clarin.webanno.api.dao.CasMetadataUtils.addOrUpdateCasMetadata;
+import static de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState.FINISHED;
 import static de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState.IGNORE;
 import static de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentStateTransition.NEW_TO_ANNOTATION_IN_PROGRESS;
+import static java.util.Arrays.asList;
 import static java.util.Objects.isNull;
 import static org.apache.commons.io.IOUtils.copyLarge;
 
@@ -37,6 +39,7 @@ import java.io.OutputStream;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -44,6 +47,8 @@ import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
@@ -58,15 +63,20 @@ import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.transaction.event.TransactionPhase;
 import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
 import de.tudarmstadt.ukp.clarin.webanno.api.CasUpgradeMode;
 import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.api.DocumentStateMatrix;
 import de.tudarmstadt.ukp.clarin.webanno.api.ImportExportService;
+import de.tudarmstadt.ukp.clarin.webanno.api.ProjectProgress;
 import de.tudarmstadt.ukp.clarin.webanno.api.ProjectService;
 import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
 import de.tudarmstadt.ukp.clarin.webanno.api.event.AfterCasWrittenEvent;
@@ -74,6 +84,7 @@ import de.tudarmstadt.ukp.clarin.webanno.api.event.AfterDocumentCreatedEvent;
 import de.tudarmstadt.ukp.clarin.webanno.api.event.AfterDocumentResetEvent;
 import de.tudarmstadt.ukp.clarin.webanno.api.event.AnnotationStateChangeEvent;
 import de.tudarmstadt.ukp.clarin.webanno.api.event.BeforeDocumentRemovedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.BeforeProjectRemovedEvent;
 import de.tudarmstadt.ukp.clarin.webanno.api.event.DocumentStateChangedEvent;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
@@ -102,6 +113,11 @@ public class DocumentServiceImpl
     private final ProjectService projectService;
     private final ApplicationEventPublisher applicationEventPublisher;
     private final RepositoryProperties repositoryProperties;
+    
+    // Finished and ignored annotation documents per project - the annotators are not cached, so
+    // changes to the project permissions do not need to invalidate the cache
+    private final Map<Long, DocumentCounts> documentCountsCache = new ConcurrentHashMap<>();
+    private final AtomicLong documentCountsGeneration = new AtomicLong();
 
     @Autowired
     public DocumentServiceImpl(RepositoryProperties aRepositoryProperties, UserDao aUserRepository,
@@ -155,6 +171,7 @@ public class DocumentServiceImpl
         
         if (isNull(aDocument.getId())) {
             entityManager.persist(aDocument);
+            documentsChanged(aDocument.getProject());
         }
         else {
             entityManager.merge(aDocument);
@@ -217,6 +234,9 @@ public class DocumentServiceImpl
         else {
             entityManager.merge(aAnnotationDocument);
         }
+        
+        // The state may have been changed directly on the entity before saving it
+        documentsChanged(aAnnotationDocument.getProject());
     }
 
     @Override
@@ -504,6 +524,7 @@ public class DocumentServiceImpl
         Validate.notNull(aAnnotationDocument, "Annotation document must be specified");
         
         entityManager.remove(aAnnotationDocument);
+        documentsChanged(aAnnotationDocument.getProject());
     }
 
     @Override
@@ -865,6 +886,109 @@ public class DocumentServiceImpl
         return listSourceDocuments(aProject).size() * users.size() - ignored;
     }
     
+    @Override
+    @Transactional
+    public DocumentStateMatrix getDocumentStateMatrix(Project aProject)
+    {
+        Validate.notNull(aProject, "Project must be specified");
+        
+        List<AnnotationDocument> annotationDocuments = entityManager
+                .createQuery(
+                        "FROM AnnotationDocument a JOIN FETCH a.document " +
+                        "WHERE a.project = :project",
+                        AnnotationDocument.class)
+                .setParameter("project", aProject)
+                .getResultList();
+        
+        return new DocumentStateMatrix(listSourceDocuments(aProject), annotationDocuments);
+    }
+    
+    @Override
+    @Transactional
+    public ProjectProgress getProjectProgress(Project aProject)
+    {
+        Validate.notNull(aProject, "Project must be specified");
+        Validate.notNull(aProject.getId(), "Project must have been saved");
+        
+        DocumentCounts counts = documentCountsCache.get(aProject.getId());
+        if (counts == null) {
+            long generation = documentCountsGeneration.get();
+            counts = countDocuments(aProject);
+            
+            // Do not cache the counts if any documents have changed while counting
+            if (generation == documentCountsGeneration.get()) {
+                documentCountsCache.put(aProject.getId(), counts);
+            }
+        }
+        
+        return new ProjectProgress(counts.documents, getAllAnnotators(aProject),
+                counts.finished, counts.ignored);
+    }
+    
+    private DocumentCounts countDocuments(Project aProject)
+    {
+        long documents = entityManager
+                .createQuery(
+                        "SELECT COUNT(*) FROM SourceDocument " +
+                        "WHERE project = :project AND format <> :format",
+                        Long.class)
+                .setParameter("project", aProject)
+                .setParameter("format", WebAnnoConst.TAB_SEP)
+                .getSingleResult();
+        
+        List<Object[]> rows = entityManager
+                .createQuery(
+                        "SELECT user, state, COUNT(*) FROM AnnotationDocument " +
+                        "WHERE project = :project AND state IN (:states) " +
+                        "GROUP BY user, state",
+                        Object[].class)
+                .setParameter("project", aProject)
+                .setParameter("states", asList(FINISHED, IGNORE))
+                .getResultList();
+        
+        DocumentCounts counts = new DocumentCounts((int) documents);
+        for (Object[] row : rows) {
+            String user = (String) row[0];
+            int count = ((Number) row[2]).intValue();
+            if (FINISHED.equals(row[1])) {
+                counts.finished.put(user, count);
+            }
+            else {
+                counts.ignored.put(user, count);
+            }
+        }
+        return counts;
+    }
+    
+    /**
+     * Invalidates the cached document counts of the given project. If called within a
+     * transaction, they are invalidated again once the transaction has completed, so counts
+     * which have been obtained concurrently from the state before the commit are not used.
+     */
+    private void documentsChanged(Project aProject)
+    {
+        if (aProject == null || aProject.getId() == null) {
+            return;
+        }
+        
+        long projectId = aProject.getId();
+        documentCountsGeneration.incrementAndGet();
+        documentCountsCache.remove(projectId);
+        
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(
+                    new TransactionSynchronizationAdapter()
+                    {
+                        @Override
+                        public void afterCompletion(int aStatus)
+                        {
+                            documentCountsGeneration.incrementAndGet();
+                            documentCountsCache.remove(projectId);
+                        }
+                    });
+        }
+    }
+    
     @Override
     public boolean existsCurationDocument(Project aProject)
     {
@@ -945,12 +1069,32 @@ public class DocumentServiceImpl
     @TransactionalEventListener(phase = TransactionPhase.BEFORE_COMMIT)
     public void onAfterDocumentCreatedEvent(AfterDocumentCreatedEvent aEvent)
     {
+        documentsChanged(aEvent.getDocument().getProject());
         projectService.recalculateProjectState(aEvent.getDocument().getProject());
     }
 
     @TransactionalEventListener(phase = TransactionPhase.BEFORE_COMMIT)
     public void onBeforeDocumentRemovedEvent(BeforeDocumentRemovedEvent aEvent)
     {
+        documentsChanged(aEvent.getDocument().getProject());
         projectService.recalculateProjectState(aEvent.getDocument().getProject());
     }
+
+    @EventListener
+    public void onBeforeProjectRemovedEvent(BeforeProjectRemovedEvent aEvent)
+    {
+        documentsChanged(aEvent.getProject());
+    }
+    
+    private static final class DocumentCounts
+    {
+        private final int documents;
+        private final Map<String, Integer> finished = new HashMap<>();
+        private final Map<String, Integer> ignored = new HashMap<>();
+        
+        public DocumentCounts(int aDocuments)
+        {
+            documents = aDocuments;
+        }
+    }
 }
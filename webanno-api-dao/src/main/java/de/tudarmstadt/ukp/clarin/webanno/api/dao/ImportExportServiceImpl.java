@@ -25,26 +25,32 @@ import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUt
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.createToken;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.exists;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.selectSentences;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 import static java.util.Collections.unmodifiableList;
 import static org.apache.uima.fit.factory.CollectionReaderFactory.createReader;
-import static org.apache.uima.fit.pipeline.SimplePipeline.runPipeline;
 import static org.apache.uima.fit.util.CasUtil.getType;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.text.BreakIterator;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.function.Predicate;
 
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.ClassUtils;
 import org.apache.uima.UIMAException;
-import org.apache.uima.analysis_engine.AnalysisEngineDescription;
 import org.apache.uima.cas.CAS;
 import org.apache.uima.cas.Feature;
 import org.apache.uima.cas.FeatureStructure;
@@ -56,11 +62,11 @@ import org.apache.uima.fit.factory.ConfigurationParameterFactory;
 import org.apache.uima.fit.util.CasUtil;
 import org.apache.uima.resource.metadata.TypeSystemDescription;
 import org.apache.uima.util.CasCreationUtils;
-import org.dkpro.core.api.io.JCasFileWriter_ImplBase;
 import org.dkpro.core.api.io.ResourceCollectionReaderBase;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Lazy;
 import org.springframework.context.event.ContextRefreshedEvent;
@@ -72,8 +78,11 @@ import org.springframework.transaction.annotation.Transactional;
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
 import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
 import de.tudarmstadt.ukp.clarin.webanno.api.ImportExportService;
+import de.tudarmstadt.ukp.clarin.webanno.api.ProjectSchema;
 import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.BeforeProjectRemovedEvent;
 import de.tudarmstadt.ukp.clarin.webanno.api.format.FormatSupport;
+import de.tudarmstadt.ukp.clarin.webanno.api.format.FormatWriterSession;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
 import de.tudarmstadt.ukp.clarin.webanno.model.Mode;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
@@ -88,8 +97,11 @@ import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
 
 @Component(ImportExportService.SERVICE_NAME)
 public class ImportExportServiceImpl
-    implements ImportExportService
+    implements ImportExportService, DisposableBean
 {
+    private static final int MAX_IDLE_WRITER_SESSIONS = Runtime.getRuntime()
+            .availableProcessors();
+    
     private final Logger log = LoggerFactory.getLogger(getClass());
 
     private final RepositoryProperties repositoryProperties;
@@ -99,6 +111,9 @@ public class ImportExportServiceImpl
     private final List<FormatSupport> formatsProxy;
     private Map<String, FormatSupport> formats;
     
+    private final Map<WriterSessionKey, Deque<FormatWriterSession>> idleWriterSessions =
+            new HashMap<>();
+    
     public ImportExportServiceImpl(
             @Autowired RepositoryProperties aRepositoryProperties, 
             @Lazy @Autowired(required = false) List<FormatSupport> aFormats,
@@ -203,6 +218,21 @@ public class ImportExportServiceImpl
             FormatSupport aFormat, String aFileName, Mode aMode, boolean aStripExtension)
         throws UIMAException, IOException, ClassNotFoundException
     {
+        return exportAnnotationDocument(aDocument, aUser, aFormat, aFileName, aMode,
+                aStripExtension, null);
+    }
+
+    @Override
+    @Transactional
+    public File exportAnnotationDocument(SourceDocument aDocument, String aUser,
+            FormatSupport aFormat, String aFileName, Mode aMode, boolean aStripExtension,
+            File aTargetFolder)
+        throws UIMAException, IOException, ClassNotFoundException
+    {
+        // We read the file directly, so we need to make sure all changes have been written
+        casStorageService.flushPendingWrites(aDocument);
+        casStorageService.mergeJournals(aDocument);
+        
         File annotationFolder = casStorageService.getAnnotationFolder(aDocument);
         String serializedCasFileName;
         // for Correction, it will export the corrected document (of the logged in user)
@@ -228,7 +258,8 @@ public class ImportExportServiceImpl
         CAS cas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
         CasPersistenceUtils.readSerializedCas(cas, serializedCasFile);
 
-        File exportFile = exportCasToFile(cas, aDocument, aFileName, aFormat, aStripExtension);
+        File exportFile = exportCasToFile(cas, aDocument, aFileName, aFormat, aStripExtension,
+                aTargetFolder);
 
         Project project = aDocument.getProject();
         
@@ -387,6 +418,18 @@ public class ImportExportServiceImpl
     public File exportCasToFile(CAS aCas, SourceDocument aDocument, String aFileName,
             FormatSupport aFormat, boolean aStripExtension)
         throws IOException, UIMAException
+    {
+        return exportCasToFile(aCas, aDocument, aFileName, aFormat, aStripExtension, null);
+    }
+
+    /**
+     * @param aTargetFolder
+     *            the folder to which the exported file is written. If this is {@code null}, the
+     *            file is written to the temporary folder.
+     */
+    private File exportCasToFile(CAS aCas, SourceDocument aDocument, String aFileName,
+            FormatSupport aFormat, boolean aStripExtension, File aTargetFolder)
+        throws IOException, UIMAException
     {
         // Update type system the CAS, compact it (remove all non-reachable feature strucutres)
         // and remove all internal feature structures in the process
@@ -406,8 +449,8 @@ public class ImportExportServiceImpl
         documentMetadata.setDocumentId(aFileName);
 
         // update with the correct tagset name
-        List<AnnotationFeature> features = annotationService.listAnnotationFeature(project);
-        for (AnnotationFeature feature : features) {
+        ProjectSchema schema = annotationService.getProjectSchema(project);
+        for (AnnotationFeature feature : schema.getFeatures()) {
 
             TagSet tagSet = feature.getTagset();
             if (tagSet == null) {
@@ -418,50 +461,145 @@ public class ImportExportServiceImpl
             }
         }
 
-        File exportTempDir = File.createTempFile("webanno", "export");
+        File targetFolder = aTargetFolder != null ? aTargetFolder
+                : new File(System.getProperty("java.io.tmpdir"));
+        
+        // Writers are expensive to initialize, so we keep them around for the next export of the
+        // same project in the same format. The writers of unsaved projects are not pooled.
+        WriterSessionKey key = project.getId() != null ? new WriterSessionKey(aFormat.getId(),
+                project.getId(), aStripExtension, schema.getVersion()) : null;
+        FormatWriterSession session = borrowWriterSession(key, aFormat, project,
+                aStripExtension);
         try {
-            exportTempDir.delete();
-            exportTempDir.mkdirs();
-            
-            AnalysisEngineDescription writer = aFormat.getWriterDescription(aDocument.getProject(),
-                    cas);
-            ConfigurationParameterFactory.addConfigurationParameters(writer,
-                    JCasFileWriter_ImplBase.PARAM_USE_DOCUMENT_ID, true,
-                    JCasFileWriter_ImplBase.PARAM_ESCAPE_DOCUMENT_ID, false,
-                    JCasFileWriter_ImplBase.PARAM_TARGET_LOCATION, exportTempDir,
-                    JCasFileWriter_ImplBase.PARAM_STRIP_EXTENSION, aStripExtension);
-
-            runPipeline(cas, writer);
+            return session.write(cas, folder -> collectWrittenFiles(folder, targetFolder,
+                    project));
+        }
+        finally {
+            releaseWriterSession(key, session);
+        }
+    }
     
-            // If the writer produced more than one file, we package it up as a ZIP file
-            File exportFile;
-            if (exportTempDir.listFiles().length > 1) {
-                exportFile = new File(exportTempDir.getAbsolutePath() + ".zip");
-                try {
-                    ZipUtils.zipFolder(exportTempDir, exportFile);
+    private File collectWrittenFiles(File aFolder, File aTargetFolder, Project aProject)
+        throws IOException
+    {
+        File[] writtenFiles = aFolder.listFiles();
+        
+        // If the writer produced more than one file, we package it up as a ZIP file
+        File exportFile;
+        if (writtenFiles.length > 1) {
+            exportFile = File.createTempFile("webanno", "export.zip", aTargetFolder);
+            try {
+                ZipUtils.zipFolder(aFolder, exportFile);
+            }
+            catch (Exception e) {
+                try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
+                        String.valueOf(aProject.getId()))) {
+                    log.info("Unable to create zip File");
                 }
-                catch (Exception e) {
-                    try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
-                            String.valueOf(project.getId()))) {
-                        log.info("Unable to create zip File");
-                    }
+            }
+        }
+        else {
+            // Move the file instead of copying it - the work folder is cleared anyway
+            File writtenFile = writtenFiles[0];
+            exportFile = new File(aTargetFolder, writtenFile.getName());
+            Files.move(writtenFile.toPath(), exportFile.toPath(), REPLACE_EXISTING);
+        }
+        
+        return exportFile;
+    }
+    
+    /**
+     * Takes an idle writer session from the pool or opens a new one if there is none.
+     * 
+     * @param aKey
+     *            the pool key or {@code null} if the session should not be taken from the pool.
+     */
+    private FormatWriterSession borrowWriterSession(WriterSessionKey aKey, FormatSupport aFormat,
+            Project aProject, boolean aStripExtension)
+        throws IOException
+    {
+        FormatWriterSession session = null;
+        if (aKey != null) {
+            List<FormatWriterSession> stale;
+            synchronized (idleWriterSessions) {
+                Deque<FormatWriterSession> idle = idleWriterSessions.get(aKey);
+                session = idle != null ? idle.poll() : null;
+                
+                // Writers which were created for an older schema version of the project are not
+                // used anymore
+                stale = removeIdleWriterSessions(k -> k.projectId == aKey.projectId
+                        && k.schemaVersion != aKey.schemaVersion);
+            }
+            closeWriterSessions(stale);
+        }
+        
+        return session != null ? session : aFormat.openWriterSession(aProject, aStripExtension);
+    }
+
+    /**
+     * Returns a writer session to the pool or closes it if it should not be pooled or if there are
+     * already enough idle sessions for the key.
+     */
+    private void releaseWriterSession(WriterSessionKey aKey, FormatWriterSession aSession)
+        throws IOException
+    {
+        if (aKey != null) {
+            synchronized (idleWriterSessions) {
+                Deque<FormatWriterSession> idle = idleWriterSessions.computeIfAbsent(aKey,
+                    k -> new ArrayDeque<>());
+                if (idle.size() < MAX_IDLE_WRITER_SESSIONS) {
+                    idle.push(aSession);
+                    return;
                 }
             }
-            else {
-                exportFile = new File(exportTempDir.getParent(),
-                        exportTempDir.listFiles()[0].getName());
-                FileUtils.copyFile(exportTempDir.listFiles()[0], exportFile);
+        }
+        
+        aSession.close();
+    }
+    
+    private List<FormatWriterSession> removeIdleWriterSessions(Predicate<WriterSessionKey> aFilter)
+    {
+        List<FormatWriterSession> removed = new ArrayList<>();
+        synchronized (idleWriterSessions) {
+            Iterator<Entry<WriterSessionKey, Deque<FormatWriterSession>>> i = idleWriterSessions
+                    .entrySet().iterator();
+            while (i.hasNext()) {
+                Entry<WriterSessionKey, Deque<FormatWriterSession>> e = i.next();
+                if (aFilter.test(e.getKey())) {
+                    removed.addAll(e.getValue());
+                    i.remove();
+                }
             }
-            
-            return exportFile;
         }
-        finally {
-            if (exportTempDir != null) {
-                FileUtils.forceDelete(exportTempDir);
+        return removed;
+    }
+    
+    private void closeWriterSessions(List<FormatWriterSession> aSessions)
+    {
+        for (FormatWriterSession session : aSessions) {
+            try {
+                session.close();
+            }
+            catch (IOException e) {
+                log.error("Unable to close writer session for format [{}]",
+                        session.getFormat().getId(), e);
             }
         }
     }
     
+    @EventListener
+    public void beforeProjectRemove(BeforeProjectRemovedEvent aEvent)
+    {
+        long projectId = aEvent.getProject().getId();
+        closeWriterSessions(removeIdleWriterSessions(k -> k.projectId == projectId));
+    }
+    
+    @Override
+    public void destroy()
+    {
+        closeWriterSessions(removeIdleWriterSessions(k -> true));
+    }
+    
     /**
      * A Helper method to add {@link TagsetDescription} to {@link CAS}
      *
@@ -500,4 +638,39 @@ public class ImportExportServiceImpl
             aCas.addFsToIndexes(fs);
         }
     }
+
+    private static final class WriterSessionKey
+    {
+        private final String formatId;
+        private final long projectId;
+        private final boolean stripExtension;
+        private final long schemaVersion;
+
+        public WriterSessionKey(String aFormatId, long aProjectId, boolean aStripExtension,
+                long aSchemaVersion)
+        {
+            formatId = aFormatId;
+            projectId = aProjectId;
+            stripExtension = aStripExtension;
+            schemaVersion = aSchemaVersion;
+        }
+
+        @Override
+        public boolean equals(Object aOther)
+        {
+            if (!(aOther instanceof WriterSessionKey)) {
+                return false;
+            }
+            WriterSessionKey castOther = (WriterSessionKey) aOther;
+            return formatId.equals(castOther.formatId) && projectId == castOther.projectId
+                    && stripExtension == castOther.stripExtension
+                    && schemaVersion == castOther.schemaVersion;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(formatId, projectId, stripExtension, schemaVersion);
+        }
+    }
 }
@@ -0,0 +1,263 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+/**
+ * Writes to CASes which have been accepted by the storage but which have not been written to disk
+ * yet. Subsequent writes to the same CAS replace the pending write, so several edits end up in a
+ * single write to disk.
+ * <p>
+ * Every accepted write is assigned a logical timestamp which is reported to clients instead of the
+ * timestamp of the file on disk, so the detection of concurrent modifications keeps working while
+ * writes are pending. When a pending write is flushed, the file on disk receives the logical
+ * timestamp. If the file system cannot represent it exactly, the mapping between the actual and the
+ * logical timestamp is remembered.
+ * <p>
+ * This class only tracks the pending writes. Locking and the actual writing is up to the caller.
+ */
+class PendingCasWrites
+{
+    private final long delay;
+    private final int maxPending;
+    private final ScheduledExecutorService scheduler;
+
+    private final ConcurrentMap<CasCacheKey, PendingWrite> pendingWrites = 
+            new ConcurrentHashMap<>();
+    private final ConcurrentMap<CasCacheKey, TimestampAlias> aliases = new ConcurrentHashMap<>();
+
+    private final AtomicLong deferredWrites = new AtomicLong();
+    private final AtomicLong flushedWrites = new AtomicLong();
+
+    /**
+     * @param aDelay
+     *            time in milliseconds after which a pending write is flushed. If 0, writes are
+     *            never deferred.
+     * @param aMaxPending
+     *            maximum number of pending writes.
+     */
+    PendingCasWrites(long aDelay, int aMaxPending)
+    {
+        delay = aDelay;
+        maxPending = aMaxPending;
+
+        if (isEnabled()) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "cas-storage-write-behind");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        else {
+            scheduler = null;
+        }
+    }
+
+    boolean isEnabled()
+    {
+        return delay > 0;
+    }
+
+    /**
+     * Registers a pending write. If there was no pending write for the CAS yet, the given flusher
+     * is scheduled to be called after the delay.
+     *
+     * @return whether the maximum number of pending writes has been exceeded.
+     */
+    boolean put(CasCacheKey aKey, PendingWrite aWrite, Consumer<CasCacheKey> aFlusher)
+    {
+        deferredWrites.incrementAndGet();
+        if (pendingWrites.put(aKey, aWrite) == null) {
+            schedule(aKey, aFlusher);
+        }
+        return pendingWrites.size() > maxPending;
+    }
+
+    void schedule(CasCacheKey aKey, Consumer<CasCacheKey> aFlusher)
+    {
+        if (!scheduler.isShutdown()) {
+            scheduler.schedule(() -> aFlusher.accept(aKey), delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    PendingWrite get(CasCacheKey aKey)
+    {
+        return pendingWrites.get(aKey);
+    }
+
+    boolean contains(CasCacheKey aKey)
+    {
+        return pendingWrites.containsKey(aKey);
+    }
+
+    PendingWrite remove(CasCacheKey aKey)
+    {
+        return pendingWrites.remove(aKey);
+    }
+
+    void markFlushed(CasCacheKey aKey, PendingWrite aWrite)
+    {
+        pendingWrites.remove(aKey, aWrite);
+        flushedWrites.incrementAndGet();
+    }
+
+    List<CasCacheKey> getKeys()
+    {
+        return new ArrayList<>(pendingWrites.keySet());
+    }
+
+    List<CasCacheKey> getKeys(SourceDocument aDocument)
+    {
+        List<CasCacheKey> keys = new ArrayList<>();
+        for (CasCacheKey key : pendingWrites.keySet()) {
+            if (key.sourceDocumentId == aDocument.getId()) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    List<CasCacheKey> getKeys(String aUser)
+    {
+        List<CasCacheKey> keys = new ArrayList<>();
+        for (CasCacheKey key : pendingWrites.keySet()) {
+            if (key.userId.equals(aUser)) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * @return the timestamp of the given CAS as it should be reported to clients, i.e. the logical
+     *         timestamp of the pending write if there is one or otherwise the timestamp of the
+     *         file on disk.
+     */
+    long getTimestamp(CasCacheKey aKey, long aDiskTimestamp)
+    {
+        PendingWrite pendingWrite = pendingWrites.get(aKey);
+        if (pendingWrite != null) {
+            return pendingWrite.timestamp;
+        }
+
+        return resolveAlias(aKey, aDiskTimestamp);
+    }
+
+    /**
+     * @return the logical timestamp corresponding to the given timestamp of the file on disk.
+     */
+    long resolveAlias(CasCacheKey aKey, long aDiskTimestamp)
+    {
+        TimestampAlias alias = aliases.get(aKey);
+        if (alias != null && alias.diskTimestamp == aDiskTimestamp) {
+            return alias.logicalTimestamp;
+        }
+
+        return aDiskTimestamp;
+    }
+
+    /**
+     * Remembers that the file with the given timestamp on disk corresponds to the given logical
+     * timestamp.
+     */
+    void setAlias(CasCacheKey aKey, long aDiskTimestamp, long aLogicalTimestamp)
+    {
+        if (aDiskTimestamp == aLogicalTimestamp) {
+            aliases.remove(aKey);
+        }
+        else {
+            aliases.put(aKey, new TimestampAlias(aDiskTimestamp, aLogicalTimestamp));
+        }
+    }
+
+    void removeAlias(CasCacheKey aKey)
+    {
+        aliases.remove(aKey);
+    }
+
+    void shutdown()
+    {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    int size()
+    {
+        return pendingWrites.size();
+    }
+
+    long getDeferredWrites()
+    {
+        return deferredWrites.get();
+    }
+
+    long getFlushedWrites()
+    {
+        return flushedWrites.get();
+    }
+
+    static class PendingWrite
+    {
+        final SourceDocument document;
+        final String user;
+        final CasSnapshot snapshot;
+        final long timestamp;
+        final long diskTimestamp;
+
+        /**
+         * @param aTimestamp
+         *            the logical timestamp of the write.
+         * @param aDiskTimestamp
+         *            the timestamp of the version on disk on which the write is based or 0 if
+         *            there is no file yet.
+         */
+        PendingWrite(SourceDocument aDocument, String aUser, CasSnapshot aSnapshot,
+                long aTimestamp, long aDiskTimestamp)
+        {
+            document = aDocument;
+            user = aUser;
+            snapshot = aSnapshot;
+            timestamp = aTimestamp;
+            diskTimestamp = aDiskTimestamp;
+        }
+    }
+
+    private static class TimestampAlias
+    {
+        final long diskTimestamp;
+        final long logicalTimestamp;
+
+        TimestampAlias(long aDiskTimestamp, long aLogicalTimestamp)
+        {
+            diskTimestamp = aDiskTimestamp;
+            logicalTimestamp = aLogicalTimestamp;
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import org.apache.uima.cas.CAS;
+
+/**
+ * Server-wide cache of CASes shared across request cycles. The cache does not hold the CAS objects
+ * themselves but a {@link CasSnapshot snapshot} of their state on disk. Every borrower obtains a
+ * fresh CAS restored from the snapshot, so concurrent users can never see each other's unsaved
+ * changes.
+ * <p>
+ * The cache is bounded by the total size of the snapshots. Least recently used entries are evicted
+ * when the limit is exceeded and entries that have not been used for longer than the idle timeout
+ * are expired. An entry is only used as long as the file on disk and its {@link CasJournal journal}
+ * have not changed.
+ */
+class SharedCasCache
+{
+    private final long maxSize;
+    private final long idleTimeout;
+
+    // Guarded by this
+    private final LinkedHashMap<CasCacheKey, CacheEntry> entries = new LinkedHashMap<>(16, 0.75f,
+            true);
+    private long size;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long expirations;
+
+    /**
+     * @param aMaxSize
+     *            maximum total size of the snapshots in bytes. If 0, caching is disabled.
+     * @param aIdleTimeout
+     *            time in milliseconds after which unused entries expire. If 0, entries only
+     *            expire when evicted.
+     */
+    SharedCasCache(long aMaxSize, long aIdleTimeout)
+    {
+        maxSize = aMaxSize;
+        idleTimeout = aIdleTimeout;
+    }
+
+    boolean isEnabled()
+    {
+        return maxSize > 0;
+    }
+
+    /**
+     * Obtains a fresh copy of the cached CAS if the cache contains an up-to-date snapshot of the
+     * given file.
+     */
+    Optional<CAS> borrow(CasCacheKey aKey, File aCasFile) throws IOException
+    {
+        if (!isEnabled()) {
+            return Optional.empty();
+        }
+
+        long timestamp = CasJournal.getTimestamp(aCasFile);
+        long length = aCasFile.length() + CasJournal.getLength(aCasFile);
+
+        CacheEntry entry;
+        synchronized (this) {
+            expire(System.currentTimeMillis());
+
+            entry = entries.get(aKey);
+            if (entry != null && (entry.timestamp != timestamp || entry.length != length)) {
+                remove(aKey);
+                entry = null;
+            }
+
+            if (entry == null) {
+                misses++;
+                return Optional.empty();
+            }
+
+            entry.lastAccess = System.currentTimeMillis();
+            hits++;
+        }
+
+        return Optional.of(entry.snapshot.restore());
+    }
+
+    /**
+     * Stores a snapshot of the given CAS which must correspond to the current state of the given
+     * file.
+     */
+    void put(CasCacheKey aKey, CAS aCas, File aCasFile)
+    {
+        if (!isEnabled()) {
+            return;
+        }
+
+        CacheEntry entry = new CacheEntry(CasSnapshot.of(aCas), CasJournal.getTimestamp(aCasFile),
+                aCasFile.length() + CasJournal.getLength(aCasFile));
+
+        synchronized (this) {
+            remove(aKey);
+
+            if (entry.snapshot.size() > maxSize) {
+                return;
+            }
+
+            entries.put(aKey, entry);
+            size += entry.snapshot.size();
+
+            Iterator<CacheEntry> i = entries.values().iterator();
+            while (size > maxSize && i.hasNext()) {
+                CacheEntry eldest = i.next();
+                i.remove();
+                size -= eldest.snapshot.size();
+                evictions++;
+            }
+        }
+    }
+
+    synchronized void invalidate(CasCacheKey aKey)
+    {
+        remove(aKey);
+    }
+
+    synchronized void clear()
+    {
+        entries.clear();
+        size = 0;
+    }
+
+    private void remove(CasCacheKey aKey)
+    {
+        CacheEntry entry = entries.remove(aKey);
+        if (entry != null) {
+            size -= entry.snapshot.size();
+        }
+    }
+
+    private void expire(long aNow)
+    {
+        if (idleTimeout <= 0) {
+            return;
+        }
+
+        // Entries are in access order, so we can stop at the first entry which is still fresh
+        Iterator<Map.Entry<CasCacheKey, CacheEntry>> i = entries.entrySet().iterator();
+        while (i.hasNext()) {
+            CacheEntry entry = i.next().getValue();
+            if (entry.lastAccess + idleTimeout > aNow) {
+                break;
+            }
+            i.remove();
+            size -= entry.snapshot.size();
+            expirations++;
+        }
+    }
+
+    synchronized long getHits()
+    {
+        return hits;
+    }
+
+    synchronized long getMisses()
+    {
+        return misses;
+    }
+
+    synchronized long getEvictions()
+    {
+        return evictions;
+    }
+
+    synchronized long getExpirations()
+    {
+        return expirations;
+    }
+
+    synchronized long getSize()
+    {
+        return size;
+    }
+
+    synchronized int getEntryCount()
+    {
+        return entries.size();
+    }
+
+    private static class CacheEntry
+    {
+        final CasSnapshot snapshot;
+        final long timestamp;
+        final long length;
+        long lastAccess;
+
+        CacheEntry(CasSnapshot aSnapshot, long aTimestamp, long aLength)
+        {
+            snapshot = aSnapshot;
+            timestamp = aTimestamp;
+            length = aLength;
+            lastAccess = System.currentTimeMillis();
+        }
+    }
+}
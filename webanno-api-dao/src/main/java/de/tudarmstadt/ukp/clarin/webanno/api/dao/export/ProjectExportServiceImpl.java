@@ -17,9 +17,14 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.api.dao.export;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Deque;
@@ -29,8 +34,10 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
 import org.apache.commons.collections4.SetUtils;
 import org.apache.commons.io.FileUtils;
@@ -117,30 +124,19 @@ public class ProjectExportServiceImpl
         throws ProjectExportException, IOException
     {
         boolean success = false;
-        File exportTempDir = null;
+        File projectZipFile = File.createTempFile("webanno-project", "export.zip");
         try {
-            // Directory to store source documents and annotation documents
-            exportTempDir = File.createTempFile("webanno-project", "export");
-            exportTempDir.delete();
-            exportTempDir.mkdirs();
-            
-            // Target file
-            File projectZipFile = new File(exportTempDir.getAbsolutePath() + ".zip");
-    
-            ExportedProject exProjekt = exportProject(aRequest, exportTempDir);
-                    
-            // all metadata and project settings data from the database as JSON file
-            File projectSettings = File.createTempFile(EXPORTED_PROJECT, ".json");
-            JSONUtil.generatePrettyJson(exProjekt, projectSettings);
-            FileUtils.copyFileToDirectory(projectSettings, exportTempDir);
-    
-            try {
-                ZipUtils.zipFolder(exportTempDir, projectZipFile);
-            }
-            finally {
-                FileUtils.forceDelete(projectSettings);
-                System.gc();
-                FileUtils.forceDelete(exportTempDir);
+            // The exporters write their data directly into the ZIP file or stage it only for as
+            // long as it takes to add it to the ZIP file, so the export does not need any disk
+            // space in addition to the ZIP file itself
+            try (ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(projectZipFile)))) {
+                ExportedProject exProjekt = exportProject(aRequest, zip);
+                
+                // all metadata and project settings data from the database as JSON file
+                zip.putNextEntry(new ZipEntry(EXPORTED_PROJECT + ".json"));
+                zip.write(JSONUtil.toPrettyJsonString(exProjekt).getBytes(UTF_8));
+                zip.closeEntry();
             }
             
             aRequest.progress = 100;
@@ -150,18 +146,16 @@ public class ProjectExportServiceImpl
             return projectZipFile;
         }
         finally {
-            if (!success && exportTempDir != null) {
-                try {
-                    FileUtils.forceDelete(exportTempDir);
-                } catch (IOException e) {
-                    log.error(
-                            "Unable to delete temporary export directory [" + exportTempDir + "]");
+            if (!success) {
+                if (!projectZipFile.delete()) {
+                    log.error("Unable to delete incomplete project export [" + projectZipFile
+                            + "]");
                 }
             }
         }
     }
     
-    private ExportedProject exportProject(ProjectExportRequest aRequest, File aStage)
+    private ExportedProject exportProject(ProjectExportRequest aRequest, ZipOutputStream aZip)
         throws ProjectExportException, IOException
     {
         Deque<ProjectExporter> deque = new LinkedList<>(exporters);
@@ -173,6 +167,8 @@ public class ProjectExportServiceImpl
         
         try {
             while (!deque.isEmpty()) {
+                aRequest.checkCancelled();
+                
                 ProjectExporter initializer = deque.pop();
                 
                 if (initsDeferred.contains(initializer)) {
@@ -182,7 +178,7 @@ public class ProjectExportServiceImpl
                 
                 if (initsSeen.containsAll(initializer.getExportDependencies())) {
                     log.debug("Applying project exporter: {}", initializer);
-                    initializer.exportData(aRequest, exProject, aStage);
+                    exportData(initializer, aRequest, exProject, aZip);
                     initsSeen.add(initializer.getClass());
                     initsDeferred.clear();
                 }
@@ -195,7 +191,7 @@ public class ProjectExportServiceImpl
                 }
             }
         }
-        catch (IOException e) {
+        catch (IOException | CancellationException e) {
             // IOExceptions like java.nio.channels.ClosedByInterruptException should be thrown up
             // as-is. This allows us to handle export cancellation in the project export UI panel
             throw e;
@@ -207,6 +203,22 @@ public class ProjectExportServiceImpl
         return exProject;
     }
     
+    private void exportData(ProjectExporter aExporter, ProjectExportRequest aRequest,
+            ExportedProject aExProject, ZipOutputStream aZip)
+        throws Exception
+    {
+        // Exporters which do not write to the ZIP file directly use a staging folder which is
+        // added to the ZIP file and removed again as soon as the exporter is done
+        File stage = Files.createTempDirectory("webanno-project-export").toFile();
+        try {
+            aExporter.exportData(aRequest, aExProject, stage, aZip);
+            ZipUtils.addFolderToZip(aZip, stage);
+        }
+        finally {
+            FileUtils.deleteQuietly(stage);
+        }
+    }
+    
     @Override
     @Transactional
     public Project importProject(ProjectImportRequest aRequest, ZipFile aZip)
@@ -218,6 +230,8 @@ public class ProjectExportServiceImpl
         
         Project project = new Project();
         
+        aRequest.startImport(aZip.size());
+        
         try {
             // Locate the project model in the ZIP file
             ZipEntry projectSettingsEntry = null;
@@ -282,6 +296,10 @@ public class ProjectExportServiceImpl
             throw new ProjectExportException("Project import failed", e);
         }
         
+        log.info("Imported project [{}]({}): {} files, {} bytes ({} bytes/s)", project.getName(),
+                project.getId(), aRequest.getFilesImported(), aRequest.getBytesImported(),
+                aRequest.getThroughput());
+        
         return project;
     }
     
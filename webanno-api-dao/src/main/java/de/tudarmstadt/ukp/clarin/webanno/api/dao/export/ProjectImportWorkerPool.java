@@ -0,0 +1,165 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao.export;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.concurrent.DelegatingSecurityContextCallable;
+import org.springframework.stereotype.Component;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.export.ProjectImportRequest;
+
+/**
+ * Worker threads used by the project importers to extract files from the project archive. The
+ * importers locate the entries and resolve their targets in the calling thread (which may access
+ * the database), only the extraction itself runs on the workers. Only a limited number of tasks
+ * is pending per importer, so the memory required does not depend on the size of the archive.
+ */
+@Component
+public class ProjectImportWorkerPool
+    implements InitializingBean, DisposableBean
+{
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    @Value(value = "${import.threads:0}")
+    private int threads;
+
+    private ExecutorService executor;
+    private int maxPendingTasks;
+
+    @Override
+    public void afterPropertiesSet()
+    {
+        int parallelism = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        executor = Executors.newFixedThreadPool(parallelism);
+        maxPendingTasks = 4 * parallelism;
+        log.info("Project import threads: {}", parallelism);
+    }
+
+    @Override
+    public void destroy()
+    {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Starts a new batch of tasks for the given import. The batch should be used in a
+     * try-with-resources block, so the pending tasks are cancelled if the import fails.
+     */
+    public Batch newBatch(ProjectImportRequest aRequest)
+    {
+        return new Batch(aRequest);
+    }
+
+    /**
+     * Tasks submitted by a single importer. A batch must only be used from the thread which
+     * created it.
+     */
+    public class Batch
+        implements AutoCloseable
+    {
+        private final ProjectImportRequest request;
+        private final Deque<Future<Void>> pending = new ArrayDeque<>();
+
+        private Batch(ProjectImportRequest aRequest)
+        {
+            request = aRequest;
+        }
+
+        /**
+         * Extracts the given entry of the project archive to the given file.
+         */
+        public void extract(ZipFile aZip, ZipEntry aEntry, File aTarget) throws Exception
+        {
+            submit(() -> {
+                try (InputStream is = aZip.getInputStream(aEntry)) {
+                    FileUtils.copyInputStreamToFile(is, aTarget);
+                }
+                request.fileImported(aTarget.length());
+                return null;
+            });
+        }
+
+        /**
+         * Submits the given task. If too many tasks are pending, this method blocks until the
+         * oldest pending task has completed.
+         */
+        public void submit(Callable<Void> aTask) throws Exception
+        {
+            while (pending.size() >= maxPendingTasks) {
+                getResult(pending.remove());
+            }
+            pending.add(executor.submit(new DelegatingSecurityContextCallable<>(aTask)));
+        }
+
+        /**
+         * Waits until all tasks of the batch have completed.
+         * 
+         * @throws Exception
+         *             the exception thrown by the first failed task.
+         */
+        public void await() throws Exception
+        {
+            while (!pending.isEmpty()) {
+                getResult(pending.remove());
+            }
+        }
+
+        @Override
+        public void close()
+        {
+            // Stop the tasks which are no longer needed because the import has failed
+            pending.forEach(future -> future.cancel(true));
+            pending.clear();
+        }
+
+        private void getResult(Future<Void> aFuture) throws Exception
+        {
+            try {
+                aFuture.get();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Project import has been interrupted");
+            }
+            catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception) {
+                    throw (Exception) e.getCause();
+                }
+                throw e;
+            }
+        }
+    }
+}
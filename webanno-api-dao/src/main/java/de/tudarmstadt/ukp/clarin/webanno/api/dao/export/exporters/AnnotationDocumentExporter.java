@@ -23,23 +23,40 @@ import static java.util.Arrays.asList;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.Enumeration;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
-import org.apache.uima.UIMAException;
+import org.apache.commons.lang3.tuple.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.concurrent.DelegatingSecurityContextCallable;
 import org.springframework.stereotype.Component;
 
+import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
 import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.api.ImportExportService;
 import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.export.ProjectImportWorkerPool;
 import de.tudarmstadt.ukp.clarin.webanno.api.export.ProjectExportRequest;
 import de.tudarmstadt.ukp.clarin.webanno.api.export.ProjectExporter;
 import de.tudarmstadt.ukp.clarin.webanno.api.export.ProjectImportRequest;
@@ -57,21 +74,31 @@ import de.tudarmstadt.ukp.clarin.webanno.tsv.WebAnnoTsv3FormatSupport;
 
 @Component
 public class AnnotationDocumentExporter
-    implements ProjectExporter
+    implements ProjectExporter, InitializingBean, DisposableBean
 {
-    private static final String ANNOTATION_ORIGINAL_FOLDER = "/annotation/";
+    private static final String ANNOTATION_ORIGINAL_FOLDER = "annotation";
     private static final String ANNOTATION_AS_SERIALISED_CAS = "annotation_ser";
-    private static final String ANNOTATION_CAS_FOLDER = "/" + ANNOTATION_AS_SERIALISED_CAS + "/";
     
     private static final String CORRECTION_USER = "CORRECTION_USER";
-    private static final String CURATION_AS_SERIALISED_CAS = "/annotation_ser/";
-    private static final String CURATION_FOLDER = "/curation/";
+    private static final String CURATION_FOLDER = "curation";
     
     private final Logger log = LoggerFactory.getLogger(getClass());
     
     private @Autowired DocumentService documentService;
+    private @Autowired CasStorageService casStorageService;
     private @Autowired UserDao userRepository;
     private @Autowired ImportExportService importExportService;
+    private @Autowired AnnotationSchemaService annotationService;
+    private @Autowired ProjectImportWorkerPool importWorkers;
+    
+    @Value(value = "${export.threads:0}")
+    private int threads;
+    
+    @Value(value = "${import.create-initial-cas:false}")
+    private boolean createInitialCas;
+    
+    private ExecutorService executor;
+    private int maxPendingDocuments;
     
     @Override
     public List<Class<? extends ProjectExporter>> getExportDependencies()
@@ -82,15 +109,39 @@ public class AnnotationDocumentExporter
     @Override
     public List<Class<? extends ProjectExporter>> getImportDependencies()
     {
-        return asList(SourceDocumentExporter.class);
+        // The layers are required when creating missing initial CASes
+        return asList(SourceDocumentExporter.class, LayerExporter.class);
+    }
+    
+    @Override
+    public void afterPropertiesSet()
+    {
+        int parallelism = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        executor = Executors.newFixedThreadPool(parallelism);
+        maxPendingDocuments = 2 * parallelism;
+        log.info("Project export threads: {}", parallelism);
+    }
+
+    @Override
+    public void destroy()
+    {
+        executor.shutdownNow();
     }
     
     @Override
     public void exportData(ProjectExportRequest aRequest, ExportedProject aExProject, File aStage)
-        throws UIMAException, ClassNotFoundException, IOException
+        throws Exception
+    {
+        exportData(aRequest, aExProject, aStage, null);
+    }
+    
+    @Override
+    public void exportData(ProjectExportRequest aRequest, ExportedProject aExProject,
+            File aStage, ZipOutputStream aZip)
+        throws Exception
     {
         exportAnnotationDocuments(aRequest.getProject(), aExProject);
-        exportAnnotationDocumentContents(aRequest, aExProject, aStage);
+        exportAnnotationDocumentContents(aRequest, aExProject, aStage, aZip);
     }
     
     private void exportAnnotationDocuments(Project aProject, ExportedProject aExProject)
@@ -118,133 +169,192 @@ public class AnnotationDocumentExporter
         aExProject.setAnnotationDocuments(annotationDocuments);
     }
 
+    /**
+     * The documents are converted in parallel, but their entries are written in the order of the
+     * documents by the calling thread. Only a limited number of documents is converted ahead of
+     * the document currently being written, so the converted files waiting to be written do not
+     * pile up on disk.
+     */
     private void exportAnnotationDocumentContents(ProjectExportRequest aRequest,
-            ExportedProject aExProject, File aStage)
-        throws UIMAException, ClassNotFoundException, IOException
+            ExportedProject aExProject, File aStage, ZipOutputStream aZip)
+        throws Exception
     {
         Project project = aRequest.getProject();
         
         List<SourceDocument> documents = documentService.listSourceDocuments(project);
-        int i = 1;
         int initProgress = aRequest.progress;
-        for (SourceDocument sourceDocument : documents) {
-            //
-            // Export initial CASes
-            //
-            
-            // The initial CAS must always be exported to ensure that the converted source document
-            // will *always* have the state it had at the time of the initial import. We we do have
-            // a reliably initial CAS and instead lazily convert whenever an annotator starts
-            // annotating, then we could end up with two annotators having two different versions of
-            // their CAS e.g. if there was a code change in the reader component that affects its
-            // output.
-
-            // If the initial CAS does not exist yet, it must be created before export.
-            documentService.createOrReadInitialCas(sourceDocument);
-            
-            File targetDir = new File(aStage, ANNOTATION_CAS_FOLDER + sourceDocument.getName());
-            FileUtils.forceMkdir(targetDir);
-            
-            File initialCasFile = documentService.getCasFile(sourceDocument,
-                    INITIAL_CAS_PSEUDO_USER);
-            
-            FileUtils.copyFileToDirectory(initialCasFile, targetDir);
-            
-            log.info("Exported annotation document content for user [" + INITIAL_CAS_PSEUDO_USER
-                    + "] for source document [" + sourceDocument.getId() + "] in project ["
-                    + project.getName() + "] with id [" + project.getId() + "]");
-
-            //
-            // Export per-user annotation document
-            // 
-            
-            // Determine which format to use for export
-            String formatId = FORMAT_AUTO.equals(aRequest.getFormat()) ? sourceDocument.getFormat()
-                    : aRequest.getFormat();
-            
-            FormatSupport format = importExportService.getWritableFormatById(formatId)
-                    .orElseGet(() -> {
-                        aRequest.addMessage(LogMessage.error(this,"[%s] No writer found for "
-                                + "format [%s] - exporting as WebAnno TSV instead.",
-                                sourceDocument.getName(), aRequest.getFormat()));
-                        return new WebAnnoTsv3FormatSupport();
-                    });
-
-            // Export annotations from regular users
-            for (de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument annotationDocument : 
-                    documentService.listAnnotationDocuments(sourceDocument)) {
-                // copy annotation document only for ACTIVE users and the state of the 
-                // annotation document is not NEW/IGNORE
-                if (
-                        userRepository.get(annotationDocument.getUser()) != null && 
-                        !annotationDocument.getState().equals(AnnotationDocumentState.NEW) && 
-                        !annotationDocument.getState().equals(AnnotationDocumentState.IGNORE)
-                ) {
-                    File annotationDocumentAsSerialisedCasDir = new File(
-                            aStage.getAbsolutePath() + ANNOTATION_CAS_FOLDER
-                                    + sourceDocument.getName());
-                    File annotationDocumentDir = new File(aStage.getAbsolutePath()
-                            + ANNOTATION_ORIGINAL_FOLDER + sourceDocument.getName());
-
-                    FileUtils.forceMkdir(annotationDocumentAsSerialisedCasDir);
-                    FileUtils.forceMkdir(annotationDocumentDir);
-
-                    File annotationFileAsSerialisedCas = documentService.getCasFile(
-                            sourceDocument, annotationDocument.getUser());
-
-                    File annotationFile = null;
-                    if (annotationFileAsSerialisedCas.exists()) {
-                        annotationFile = importExportService.exportAnnotationDocument(
-                                sourceDocument, annotationDocument.getUser(), format,
-                                annotationDocument.getUser(), Mode.ANNOTATION, false);
-                    }
-                    
-                    if (annotationFileAsSerialisedCas.exists()) {
-                        FileUtils.copyFileToDirectory(annotationFileAsSerialisedCas,
-                                annotationDocumentAsSerialisedCasDir);
-                        FileUtils.copyFileToDirectory(annotationFile, annotationDocumentDir);
-                        FileUtils.forceDelete(annotationFile);
-                    }
-                    
-                    log.info("Exported annotation document content for user ["
-                            + annotationDocument.getUser() + "] for source document ["
-                            + sourceDocument.getId() + "] in project [" + project.getName()
-                            + "] with id [" + project.getId() + "]");
+        aRequest.startDocuments(documents.size());
+        
+        File tempFolder = Files.createTempDirectory("webanno-annotation-export").toFile();
+        Deque<Future<DocumentExport>> pending = new ArrayDeque<>();
+        Iterator<SourceDocument> documentIterator = documents.iterator();
+        try {
+            while (documentIterator.hasNext() || !pending.isEmpty()) {
+                while (documentIterator.hasNext() && pending.size() < maxPendingDocuments) {
+                    aRequest.checkCancelled();
+                    SourceDocument sourceDocument = documentIterator.next();
+                    File documentFolder = new File(tempFolder,
+                            String.valueOf(sourceDocument.getId()));
+                    pending.add(submitDocumentExport(aRequest, sourceDocument, documentFolder));
                 }
+                
+                DocumentExport export = getResult(pending.peek());
+                pending.remove();
+                
+                aRequest.checkCancelled();
+                for (Pair<String, File> entry : export.entries) {
+                    ProjectExporter.writeEntry(aStage, aZip, entry.getKey(), entry.getValue());
+                }
+                FileUtils.deleteQuietly(export.folder);
+                
+                for (String user : export.users) {
+                    log.info("Exported annotation document content for user [" + user
+                            + "] for source document [" + export.document.getId()
+                            + "] in project [" + project.getName() + "] with id ["
+                            + project.getId() + "]");
+                }
+                
+                aRequest.documentProcessed();
+                aRequest.progress = initProgress + (int) Math.ceil(
+                        ((double) aRequest.getDocumentsProcessed()) / documents.size() * 80.0);
             }
+        }
+        finally {
+            // Stop the conversions which are no longer needed because the export has failed or
+            // has been cancelled
+            pending.forEach(future -> future.cancel(true));
+            FileUtils.deleteQuietly(tempFolder);
+        }
+    }
+    
+    private Future<DocumentExport> submitDocumentExport(ProjectExportRequest aRequest,
+            SourceDocument aSourceDocument, File aFolder)
+        throws IOException
+    {
+        Project project = aRequest.getProject();
+        
+        // The annotation files are copied directly, so all changes must have been written
+        casStorageService.flushPendingWrites(aSourceDocument);
+        casStorageService.mergeJournals(aSourceDocument);
+        
+        // The initial CAS must always be exported to ensure that the converted source document
+        // will *always* have the state it had at the time of the initial import. We we do have
+        // a reliably initial CAS and instead lazily convert whenever an annotator starts
+        // annotating, then we could end up with two annotators having two different versions of
+        // their CAS e.g. if there was a code change in the reader component that affects its
+        // output.
+
+        // If the initial CAS does not exist yet, it must be created before export.
+        documentService.createOrReadInitialCas(aSourceDocument);
+        
+        // Determine which format to use for export
+        String formatId = FORMAT_AUTO.equals(aRequest.getFormat()) ? aSourceDocument.getFormat()
+                : aRequest.getFormat();
+        
+        FormatSupport format = importExportService.getWritableFormatById(formatId)
+                .orElseGet(() -> {
+                    aRequest.addMessage(LogMessage.error(this,"[%s] No writer found for "
+                            + "format [%s] - exporting as WebAnno TSV instead.",
+                            aSourceDocument.getName(), aRequest.getFormat()));
+                    return new WebAnnoTsv3FormatSupport();
+                });
+        
+        // Export annotations only for ACTIVE users and if the state of the annotation document
+        // is not NEW/IGNORE. The database is only accessed from the calling thread.
+        List<String> users = new ArrayList<>();
+        for (AnnotationDocument annotationDocument : documentService
+                .listAnnotationDocuments(aSourceDocument)) {
+            if (
+                    userRepository.get(annotationDocument.getUser()) != null && 
+                    !annotationDocument.getState().equals(AnnotationDocumentState.NEW) && 
+                    !annotationDocument.getState().equals(AnnotationDocumentState.IGNORE)
+            ) {
+                users.add(annotationDocument.getUser());
+            }
+        }
+        
+        boolean exportCorrection = WebAnnoConst.PROJECT_TYPE_AUTOMATION.equals(project.getMode())
+                || WebAnnoConst.PROJECT_TYPE_CORRECTION.equals(project.getMode());
+        
+        return executor.submit(new DelegatingSecurityContextCallable<>(() -> exportDocument(
+                aSourceDocument, users, exportCorrection, format, aFolder)));
+    }
+    
+    private DocumentExport exportDocument(SourceDocument aSourceDocument, List<String> aUsers,
+            boolean aExportCorrection, FormatSupport aFormat, File aFolder)
+        throws Exception
+    {
+        String documentName = aSourceDocument.getName();
+        DocumentExport export = new DocumentExport(aSourceDocument, aFolder);
+        
+        //
+        // Export initial CASes
+        //
+        File initialCasFile = documentService.getCasFile(aSourceDocument,
+                INITIAL_CAS_PSEUDO_USER);
+        export.add(ANNOTATION_AS_SERIALISED_CAS, documentName, initialCasFile);
+        export.users.add(INITIAL_CAS_PSEUDO_USER);
+        
+        //
+        // Export per-user annotation document
+        // 
+        for (String user : aUsers) {
+            File annotationFileAsSerialisedCas = documentService.getCasFile(aSourceDocument,
+                    user);
             
-            // BEGIN FIXME #1224 CURATION_USER and CORRECTION_USER files should be exported in
-            // annotation_ser
-            // If this project is a correction project, add the auto-annotated CAS to same
-            // folder as CURATION_FOLDER
-            if (WebAnnoConst.PROJECT_TYPE_AUTOMATION.equals(project.getMode())
-                    || WebAnnoConst.PROJECT_TYPE_CORRECTION.equals(project.getMode())) {
-                File correctionCasFile = documentService.getCasFile(sourceDocument,
-                        CORRECTION_USER);
-                if (correctionCasFile.exists()) {
-                    // Copy CAS - this is used when importing the project again
-                    File curationCasDir = new File(aStage + CURATION_AS_SERIALISED_CAS
-                            + sourceDocument.getName());
-                    FileUtils.forceMkdir(curationCasDir);
-                    FileUtils.copyFileToDirectory(correctionCasFile, curationCasDir);
-                    
-                    // Copy secondary export format for convenience - not used during import
-                    File curationDir = new File(
-                            aStage + CURATION_FOLDER + sourceDocument.getName());
-                    FileUtils.forceMkdir(curationDir);
-                    File correctionFile = importExportService.exportAnnotationDocument(
-                            sourceDocument, CORRECTION_USER, format, CORRECTION_USER,
-                            Mode.CORRECTION);
-                    FileUtils.copyFileToDirectory(correctionFile, curationDir);
-                    FileUtils.forceDelete(correctionFile);
-                }
+            if (annotationFileAsSerialisedCas.exists()) {
+                // Each user gets an own folder because the converted files are named after the
+                // user and may otherwise clash
+                File annotationFile = importExportService.exportAnnotationDocument(
+                        aSourceDocument, user, aFormat, user, Mode.ANNOTATION, false,
+                        export.newFolder());
+                export.add(ANNOTATION_AS_SERIALISED_CAS, documentName,
+                        annotationFileAsSerialisedCas);
+                export.add(ANNOTATION_ORIGINAL_FOLDER, documentName, annotationFile);
             }
-            // END FIXME #1224 CURATION_USER and CORRECTION_USER files should be exported in
-            // annotation_ser
             
-            aRequest.progress = initProgress
-                    + (int) Math.ceil(((double) i) / documents.size() * 80.0);
-            i++;
+            export.users.add(user);
+        }
+        
+        // BEGIN FIXME #1224 CURATION_USER and CORRECTION_USER files should be exported in
+        // annotation_ser
+        // If this project is a correction project, add the auto-annotated CAS to same
+        // folder as CURATION_FOLDER
+        if (aExportCorrection) {
+            File correctionCasFile = documentService.getCasFile(aSourceDocument,
+                    CORRECTION_USER);
+            if (correctionCasFile.exists()) {
+                // Copy CAS - this is used when importing the project again
+                export.add(ANNOTATION_AS_SERIALISED_CAS, documentName, correctionCasFile);
+                
+                // Copy secondary export format for convenience - not used during import
+                File correctionFile = importExportService.exportAnnotationDocument(
+                        aSourceDocument, CORRECTION_USER, aFormat, CORRECTION_USER,
+                        Mode.CORRECTION, true, export.newFolder());
+                export.add(CURATION_FOLDER, documentName, correctionFile);
+            }
+        }
+        // END FIXME #1224 CURATION_USER and CORRECTION_USER files should be exported in
+        // annotation_ser
+        
+        return export;
+    }
+    
+    private DocumentExport getResult(Future<DocumentExport> aFuture)
+        throws Exception
+    {
+        try {
+            return aFuture.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Project export has been interrupted");
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
         }
     }
     
@@ -254,7 +364,10 @@ public class AnnotationDocumentExporter
         throws Exception
     {
         importAnnotationDocuments(aExProject, aProject);
-        importAnnotationDocumentContents(aZip, aProject);
+        importAnnotationDocumentContents(aRequest, aZip, aProject);
+        if (createInitialCas) {
+            createMissingInitialCases(aRequest, aProject);
+        }
     }
     
     /**
@@ -289,46 +402,118 @@ public class AnnotationDocumentExporter
     }
     
     /**
-     * copy annotation documents (serialized CASs) from the exported project
+     * copy annotation documents (serialized CASs) from the exported project. The files are
+     * extracted in parallel by the {@link ProjectImportWorkerPool}.
      * 
+     * @param aRequest
+     *            the import request.
      * @param zip
      *            the ZIP file.
      * @param aProject
      *            the project.
-     * @throws IOException
-     *             if an I/O error occurs.
+     * @throws Exception
+     *             if a file cannot be extracted.
      */
     @SuppressWarnings("rawtypes")
-    private void importAnnotationDocumentContents(ZipFile zip, Project aProject) throws IOException
+    private void importAnnotationDocumentContents(ProjectImportRequest aRequest, ZipFile zip,
+            Project aProject)
+        throws Exception
     {
-        for (Enumeration zipEnumerate = zip.entries(); zipEnumerate.hasMoreElements();) {
-            ZipEntry entry = (ZipEntry) zipEnumerate.nextElement();
-
-            // Strip leading "/" that we had in ZIP files prior to 2.0.8 (bug #985)
-            String entryName = ProjectExporter.normalizeEntryName(entry);
-
-            if (entryName.startsWith(ANNOTATION_AS_SERIALISED_CAS + "/")) {
-                String fileName = entryName.replace(ANNOTATION_AS_SERIALISED_CAS + "/", "");
-
-                if (fileName.trim().isEmpty()) {
+        try (ProjectImportWorkerPool.Batch batch = importWorkers.newBatch(aRequest)) {
+            for (Enumeration zipEnumerate = zip.entries(); zipEnumerate.hasMoreElements();) {
+                ZipEntry entry = (ZipEntry) zipEnumerate.nextElement();
+    
+                // Strip leading "/" that we had in ZIP files prior to 2.0.8 (bug #985)
+                String entryName = ProjectExporter.normalizeEntryName(entry);
+    
+                if (entryName.startsWith(ANNOTATION_AS_SERIALISED_CAS + "/")) {
+                    String fileName = entryName.replace(ANNOTATION_AS_SERIALISED_CAS + "/", "");
+    
+                    if (fileName.trim().isEmpty()) {
+                        continue;
+                    }
+    
+                    // the user annotated the document is file name minus extension (anno1.ser)
+                    String username = FilenameUtils.getBaseName(fileName).replace(".ser", "");
+    
+                    // name of the annotation document
+                    fileName = fileName.replace(FilenameUtils.getName(fileName), "")
+                            .replace("/", "");
+                    SourceDocument sourceDocument = documentService.getSourceDocument(aProject,
+                            fileName);
+                    File annotationFilePath = documentService.getCasFile(sourceDocument,
+                            username);
+    
+                    batch.extract(zip, entry, annotationFilePath);
+    
+                    log.info("Imported annotation document content for user [" + username
+                            + "] for source document [" + sourceDocument.getId()
+                            + "] in project [" + aProject.getName() + "] with id ["
+                            + aProject.getId() + "]");
+                }
+            }
+            
+            batch.await();
+        }
+    }
+    
+    /**
+     * Creates the initial CASes of the documents for which the exported project did not contain
+     * any (e.g. because it was exported by an old version of WebAnno). Otherwise, they would be
+     * created lazily when the documents are first opened. The CASes are converted in parallel by
+     * the {@link ProjectImportWorkerPool}.
+     */
+    private void createMissingInitialCases(ProjectImportRequest aRequest, Project aProject)
+        throws Exception
+    {
+        // Obtain the type system in the calling thread - the workers then use the cached type
+        // system and do not need to access the project layers which have not been committed yet
+        annotationService.getFullProjectTypeSystem(aProject);
+        
+        try (ProjectImportWorkerPool.Batch batch = importWorkers.newBatch(aRequest)) {
+            for (SourceDocument document : documentService.listSourceDocuments(aProject)) {
+                if (documentService.existsCas(document, INITIAL_CAS_PSEUDO_USER)) {
                     continue;
                 }
-
-                // the user annotated the document is file name minus extension (anno1.ser)
-                String username = FilenameUtils.getBaseName(fileName).replace(".ser", "");
-
-                // name of the annotation document
-                fileName = fileName.replace(FilenameUtils.getName(fileName), "").replace("/", "");
-                SourceDocument sourceDocument = documentService.getSourceDocument(aProject,
-                        fileName);
-                File annotationFilePath = documentService.getCasFile(sourceDocument, username);
-
-                FileUtils.copyInputStreamToFile(zip.getInputStream(entry), annotationFilePath);
-
-                log.info("Imported annotation document content for user [" + username
-                        + "] for source document [" + sourceDocument.getId() + "] in project ["
-                        + aProject.getName() + "] with id [" + aProject.getId() + "]");
+                
+                batch.submit(() -> {
+                    documentService.createOrReadInitialCas(document);
+                    return null;
+                });
             }
+            
+            batch.await();
+        }
+    }
+
+    /**
+     * The files exported for a single source document together with the names of their entries
+     * in the exported project.
+     */
+    private static class DocumentExport
+    {
+        private final SourceDocument document;
+        private final File folder;
+        private final List<Pair<String, File>> entries = new ArrayList<>();
+        private final List<String> users = new ArrayList<>();
+        private int folders = 0;
+        
+        public DocumentExport(SourceDocument aDocument, File aFolder)
+        {
+            document = aDocument;
+            folder = aFolder;
+        }
+        
+        private void add(String aFolder, String aDocumentName, File aFile)
+        {
+            entries.add(Pair.of(aFolder + "/" + aDocumentName + "/" + aFile.getName(), aFile));
+        }
+        
+        private File newFolder() throws IOException
+        {
+            File newFolder = new File(folder, String.valueOf(folders++));
+            FileUtils.forceMkdir(newFolder);
+            return newFolder;
         }
     }
 }
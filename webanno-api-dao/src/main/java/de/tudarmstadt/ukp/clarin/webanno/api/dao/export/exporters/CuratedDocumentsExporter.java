@@ -34,9 +34,11 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
 import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.api.ImportExportService;
 import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.export.ProjectImportWorkerPool;
 import de.tudarmstadt.ukp.clarin.webanno.api.export.ProjectExportException;
 import de.tudarmstadt.ukp.clarin.webanno.api.export.ProjectExportRequest;
 import de.tudarmstadt.ukp.clarin.webanno.api.export.ProjectExporter;
@@ -60,7 +62,9 @@ public class CuratedDocumentsExporter
     private final Logger log = LoggerFactory.getLogger(getClass());
 
     private @Autowired DocumentService documentService;
+    private @Autowired CasStorageService casStorageService;
     private @Autowired ImportExportService importExportService;
+    private @Autowired ProjectImportWorkerPool importWorkers;
     
     @Override
     public List<Class<? extends ProjectExporter>> getImportDependencies()
@@ -116,6 +120,10 @@ public class CuratedDocumentsExporter
                     SourceDocumentState.CURATION_IN_PROGRESS.equals(sourceDocument.getState())) ||
                 SourceDocumentState.CURATION_FINISHED.equals(sourceDocument.getState())
             ) {
+                // The curation file is copied directly, so all changes must have been written
+                casStorageService.flushPendingWrites(sourceDocument);
+                casStorageService.mergeJournals(sourceDocument);
+                
                 File curationCasFile = documentService.getCasFile(sourceDocument,
                         WebAnnoConst.CURATION_USER);
                 if (curationCasFile.exists()) {
@@ -160,34 +168,41 @@ public class CuratedDocumentsExporter
             ExportedProject aExProject, ZipFile aZip)
         throws Exception
     {
-        for (Enumeration<? extends ZipEntry> zipEnumerate = aZip.entries(); zipEnumerate
-                .hasMoreElements();) {
-            ZipEntry entry = zipEnumerate.nextElement();
-
-            // Strip leading "/" that we had in ZIP files prior to 2.0.8 (bug #985)
-            String entryName = ProjectExporter.normalizeEntryName(entry);
-            
-            if (entryName.startsWith(CURATION_AS_SERIALISED_CAS)) {
-                String fileName = entryName.replace(CURATION_AS_SERIALISED_CAS, "");
-                // the user annotated the document is file name minus extension
-                // (anno1.ser)
-                String username = FilenameUtils.getBaseName(fileName).replace(".ser", "");
-
-                // name of the annotation document
-                fileName = fileName.replace(FilenameUtils.getName(fileName), "").replace("/", "");
-                if (fileName.trim().isEmpty()) {
-                    continue;
-                }
-                SourceDocument sourceDocument = documentService.getSourceDocument(aProject,
-                        fileName);
-                File annotationFilePath = documentService.getCasFile(sourceDocument, username);
-
-                FileUtils.copyInputStreamToFile(aZip.getInputStream(entry), annotationFilePath);
+        try (ProjectImportWorkerPool.Batch batch = importWorkers.newBatch(aRequest)) {
+            for (Enumeration<? extends ZipEntry> zipEnumerate = aZip.entries(); zipEnumerate
+                    .hasMoreElements();) {
+                ZipEntry entry = zipEnumerate.nextElement();
+    
+                // Strip leading "/" that we had in ZIP files prior to 2.0.8 (bug #985)
+                String entryName = ProjectExporter.normalizeEntryName(entry);
                 
-                log.info("Imported curation document content for user [" + username
-                        + "] for source document [" + sourceDocument.getId() + "] in project ["
-                        + aProject.getName() + "] with id [" + aProject.getId() + "]");
+                if (entryName.startsWith(CURATION_AS_SERIALISED_CAS)) {
+                    String fileName = entryName.replace(CURATION_AS_SERIALISED_CAS, "");
+                    // the user annotated the document is file name minus extension
+                    // (anno1.ser)
+                    String username = FilenameUtils.getBaseName(fileName).replace(".ser", "");
+    
+                    // name of the annotation document
+                    fileName = fileName.replace(FilenameUtils.getName(fileName), "")
+                            .replace("/", "");
+                    if (fileName.trim().isEmpty()) {
+                        continue;
+                    }
+                    SourceDocument sourceDocument = documentService.getSourceDocument(aProject,
+                            fileName);
+                    File annotationFilePath = documentService.getCasFile(sourceDocument,
+                            username);
+    
+                    batch.extract(aZip, entry, annotationFilePath);
+                    
+                    log.info("Imported curation document content for user [" + username
+                            + "] for source document [" + sourceDocument.getId()
+                            + "] in project [" + aProject.getName() + "] with id ["
+                            + aProject.getId() + "]");
+                }
             }
+            
+            batch.await();
         }
     }
 }
@@ -25,8 +25,8 @@ import java.util.Enumeration;
 import java.util.List;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.slf4j.Logger;
@@ -35,6 +35,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.export.ProjectImportWorkerPool;
 import de.tudarmstadt.ukp.clarin.webanno.api.export.ProjectExportException;
 import de.tudarmstadt.ukp.clarin.webanno.api.export.ProjectExportRequest;
 import de.tudarmstadt.ukp.clarin.webanno.api.export.ProjectExporter;
@@ -50,18 +51,26 @@ public class SourceDocumentExporter
     implements ProjectExporter
 {
     private static final String SOURCE = "source";
-    private static final String SOURCE_FOLDER = "/" + SOURCE;
 
     private final Logger log = LoggerFactory.getLogger(getClass());
 
     private @Autowired DocumentService documentService;
+    private @Autowired ProjectImportWorkerPool importWorkers;
 
     @Override
     public void exportData(ProjectExportRequest aRequest, ExportedProject aExProject, File aStage)
         throws IOException, ProjectExportException
+    {
+        exportData(aRequest, aExProject, aStage, null);
+    }
+    
+    @Override
+    public void exportData(ProjectExportRequest aRequest, ExportedProject aExProject,
+            File aStage, ZipOutputStream aZip)
+        throws IOException, ProjectExportException
     {
         exportSourceDocuments(aRequest.getProject(), aExProject);
-        exportSourceDocumentContents(aRequest, aExProject, aStage);
+        exportSourceDocumentContents(aRequest, aExProject, aStage, aZip);
     }
     
     private void exportSourceDocuments(Project aProject, ExportedProject exProject)
@@ -87,19 +96,19 @@ public class SourceDocumentExporter
     }
 
     private void exportSourceDocumentContents(ProjectExportRequest aRequest,
-            ExportedProject aExProject, File aStage)
+            ExportedProject aExProject, File aStage, ZipOutputStream aZip)
         throws IOException, ProjectExportException
     {
         Project project = aRequest.getProject();
-        File sourceDocumentDir = new File(aStage + SOURCE_FOLDER);
-        FileUtils.forceMkdir(sourceDocumentDir);
         // Get all the source documents from the project
         List<SourceDocument> documents = documentService.listSourceDocuments(project);
         int i = 1;
         for (SourceDocument sourceDocument : documents) {
+            aRequest.checkCancelled();
             try {
-                FileUtils.copyFileToDirectory(documentService.getSourceDocumentFile(sourceDocument),
-                        sourceDocumentDir);
+                File sourceFile = documentService.getSourceDocumentFile(sourceDocument);
+                ProjectExporter.writeEntry(aStage, aZip, SOURCE + "/" + sourceFile.getName(),
+                        sourceFile);
                 aRequest.progress = (int) Math.ceil(((double) i) / documents.size() * 10.0);
                 i++;
                 log.info("Exported content for source document [" + sourceDocument.getId()
@@ -124,7 +133,7 @@ public class SourceDocumentExporter
         throws Exception
     {
         importSourceDocuments(aExProject, aProject);
-        importSourceDocumentContents(aZip, aProject);
+        importSourceDocumentContents(aRequest, aZip, aProject);
     }
     
     /**
@@ -158,38 +167,47 @@ public class SourceDocumentExporter
     }
     
     /**
-     * copy source document files from the exported source documents
+     * copy source document files from the exported source documents. The files are extracted in
+     * parallel by the {@link ProjectImportWorkerPool}.
      * 
+     * @param aRequest
+     *            the import request.
      * @param zip
      *            the ZIP file.
      * @param aProject
      *            the project.
-     * @throws IOException
-     *             if an I/O error occurs.
+     * @throws Exception
+     *             if a file cannot be extracted.
      */
     @SuppressWarnings("rawtypes")
-    private void importSourceDocumentContents(ZipFile zip, Project aProject) throws IOException
+    private void importSourceDocumentContents(ProjectImportRequest aRequest, ZipFile zip,
+            Project aProject)
+        throws Exception
     {
-        for (Enumeration zipEnumerate = zip.entries(); zipEnumerate.hasMoreElements();) {
-            ZipEntry entry = (ZipEntry) zipEnumerate.nextElement();
+        try (ProjectImportWorkerPool.Batch batch = importWorkers.newBatch(aRequest)) {
+            for (Enumeration zipEnumerate = zip.entries(); zipEnumerate.hasMoreElements();) {
+                ZipEntry entry = (ZipEntry) zipEnumerate.nextElement();
 
-            // Strip leading "/" that we had in ZIP files prior to 2.0.8 (bug #985)
-            String entryName = ProjectExporter.normalizeEntryName(entry);
+                // Strip leading "/" that we had in ZIP files prior to 2.0.8 (bug #985)
+                String entryName = ProjectExporter.normalizeEntryName(entry);
 
-            if (entryName.startsWith(SOURCE)) {
-                String fileName = FilenameUtils.getName(entryName);
-                if (fileName.trim().isEmpty()) {
-                    continue;
-                }
-                SourceDocument sourceDocument = documentService.getSourceDocument(aProject,
-                        fileName);
-                File sourceFilePath = documentService.getSourceDocumentFile(sourceDocument);
-                FileUtils.copyInputStreamToFile(zip.getInputStream(entry), sourceFilePath);
+                if (entryName.startsWith(SOURCE)) {
+                    String fileName = FilenameUtils.getName(entryName);
+                    if (fileName.trim().isEmpty()) {
+                        continue;
+                    }
+                    SourceDocument sourceDocument = documentService.getSourceDocument(aProject,
+                            fileName);
+                    File sourceFilePath = documentService.getSourceDocumentFile(sourceDocument);
+                    batch.extract(zip, entry, sourceFilePath);
 
-                log.info("Imported content for source document [" + sourceDocument.getId()
-                        + "] in project [" + aProject.getName() + "] with id [" + aProject.getId()
-                        + "]");
+                    log.info("Imported content for source document [" + sourceDocument.getId()
+                            + "] in project [" + aProject.getName() + "] with id ["
+                            + aProject.getId() + "]");
+                }
             }
+            
+            batch.await();
         }
     }
 }
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.dao.CasMetadataUtils.getTypeSystemFingerprint;
+import static de.tudarmstadt.ukp.clarin.webanno.api.dao.CasMetadataUtils.setTypeSystemFingerprint;
+import static java.util.Arrays.asList;
+import static org.apache.uima.fit.factory.TypeSystemDescriptionFactory.createTypeSystemDescription;
+import static org.apache.uima.util.CasCreationUtils.mergeTypeSystems;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.resource.metadata.TypeDescription;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.apache.uima.resource.metadata.impl.TypeSystemDescription_impl;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.type.CASMetadata;
+
+public class CasMetadataUtilsTest
+{
+    @Test
+    public void thatFingerprintDoesNotDependOnOrder()
+    {
+        TypeSystemDescription tsd1 = new TypeSystemDescription_impl();
+        TypeDescription a1 = tsd1.addType("A", "", CAS.TYPE_NAME_ANNOTATION);
+        a1.addFeature("f1", "", CAS.TYPE_NAME_STRING);
+        a1.addFeature("f2", "", CAS.TYPE_NAME_INTEGER);
+        tsd1.addType("B", "", CAS.TYPE_NAME_ANNOTATION);
+
+        TypeSystemDescription tsd2 = new TypeSystemDescription_impl();
+        tsd2.addType("B", "", CAS.TYPE_NAME_ANNOTATION);
+        TypeDescription a2 = tsd2.addType("A", "", CAS.TYPE_NAME_ANNOTATION);
+        a2.addFeature("f2", "", CAS.TYPE_NAME_INTEGER);
+        a2.addFeature("f1", "", CAS.TYPE_NAME_STRING);
+
+        assertThat(getTypeSystemFingerprint(tsd1)).isEqualTo(getTypeSystemFingerprint(tsd2));
+
+        a2.addFeature("f3", "", CAS.TYPE_NAME_STRING);
+
+        assertThat(getTypeSystemFingerprint(tsd1)).isNotEqualTo(getTypeSystemFingerprint(tsd2));
+    }
+
+    @Test
+    public void thatFingerprintIsStoredInCasMetadata() throws Exception
+    {
+        TypeSystemDescription tsd = mergeTypeSystems(asList(createTypeSystemDescription(),
+                CasMetadataUtils.getInternalTypeSystem()));
+        CAS cas = JCasFactory.createJCas(tsd).getCas();
+
+        // Without CASMetadata, the fingerprint cannot be recorded
+        setTypeSystemFingerprint(cas, "abc");
+        assertThat(getTypeSystemFingerprint(cas)).isEmpty();
+
+        cas.addFsToIndexes(cas.createAnnotation(
+                cas.getTypeSystem().getType(CASMetadata.class.getName()), 0, 0));
+        assertThat(getTypeSystemFingerprint(cas)).isEmpty();
+
+        setTypeSystemFingerprint(cas, "abc");
+        assertThat(getTypeSystemFingerprint(cas)).contains("abc");
+    }
+}
@@ -17,18 +17,26 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.api.dao;
 
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.apache.uima.fit.factory.TypeSystemDescriptionFactory.createTypeSystemDescription;
 import static org.apache.uima.fit.util.JCasUtil.select;
 import static org.apache.uima.util.CasCreationUtils.mergeTypeSystems;
 import static org.assertj.core.api.Assertions.assertThat;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.uima.UIMAException;
 import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.text.AnnotationFS;
 import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.fit.util.CasUtil;
 import org.apache.uima.jcas.JCas;
 import org.apache.uima.resource.metadata.TypeSystemDescription;
 import org.junit.Before;
@@ -46,6 +54,7 @@ public class CasStorageServiceImplTest
     private CasStorageService sut;
     private BackupProperties backupProperties;
     private RepositoryProperties repositoryProperties;
+    private CasStorageProperties casStorageProperties;
 
     @Rule
     public TemporaryFolder testFolder = new TemporaryFolder();
@@ -58,7 +67,10 @@ public class CasStorageServiceImplTest
         repositoryProperties = new RepositoryProperties();
         repositoryProperties.setPath(testFolder.newFolder());
         
-        sut = new CasStorageServiceImpl(null, null, repositoryProperties, backupProperties);
+        casStorageProperties = new CasStorageProperties();
+        
+        sut = new CasStorageServiceImpl(null, null, repositoryProperties, backupProperties,
+                casStorageProperties);
     }
     
     @Test
@@ -127,6 +139,472 @@ public class CasStorageServiceImplTest
         assertThat(sut.existsCas(doc, user)).isFalse();
     }
         
+    @Test
+    public void testWriteReadCompactFormats() throws Exception
+    {
+        for (CasStorageFormat format : CasStorageFormat.values()) {
+            casStorageProperties.setFormat(format);
+            
+            SourceDocument doc = makeSourceDocument(3l, 3l);
+            JCas cas = JCasFactory.createText("This is a test");
+            String user = "test-" + format;
+            
+            sut.writeCas(doc, cas.getCas(), user);
+            assertThat(CasPersistenceUtils.detectFormat(sut.getCasFile(doc, user)))
+                    .isEqualTo(format);
+            
+            CAS cas2 = sut.readCas(doc, user);
+            assertThat(cas2.getDocumentText()).isEqualTo(cas.getDocumentText());
+        }
+    }
+    
+    @Test
+    public void testMigrateLegacyFile() throws Exception
+    {
+        SourceDocument doc = makeSourceDocument(4l, 4l);
+        JCas cas = JCasFactory.createText("This is a test");
+        String user = "test";
+        
+        sut.writeCas(doc, cas.getCas(), user);
+        File casFile = sut.getCasFile(doc, user);
+        long timestamp = casFile.lastModified();
+        assertThat(CasPersistenceUtils.detectFormat(casFile))
+                .isEqualTo(CasStorageFormat.SERIALIZED);
+        
+        CasStorageMigrator migrator = new CasStorageMigrator(sut, repositoryProperties,
+                casStorageProperties);
+        assertThat(migrator.migrate(casFile, CasStorageFormat.COMPACT)).isTrue();
+        assertThat(migrator.migrate(casFile, CasStorageFormat.COMPACT)).isFalse();
+        
+        assertThat(CasPersistenceUtils.detectFormat(casFile)).isEqualTo(CasStorageFormat.COMPACT);
+        assertThat(casFile.lastModified()).isEqualTo(timestamp);
+        
+        CAS cas2 = sut.readCas(doc, user);
+        assertThat(cas2.getDocumentText()).isEqualTo(cas.getDocumentText());
+    }
+        
+    @Test
+    public void testOperationsOnDifferentCasesDoNotBlockEachOther() throws Exception
+    {
+        SourceDocument doc1 = makeSourceDocument(5l, 5l);
+        SourceDocument doc2 = makeSourceDocument(5l, 6l);
+        String user = "test";
+        
+        sut.writeCas(doc2, JCasFactory.createText("Second").getCas(), user);
+        
+        CountDownLatch supplierEntered = new CountDownLatch(1);
+        CountDownLatch supplierReleased = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            // Keep the CAS of doc1 locked while its supplier is waiting
+            Future<CAS> blocked = executor.submit(() -> sut.readOrCreateCas(doc1, user, () -> {
+                supplierEntered.countDown();
+                try {
+                    supplierReleased.await();
+                    return JCasFactory.createText("First").getCas();
+                }
+                catch (InterruptedException | UIMAException e) {
+                    throw new IOException(e);
+                }
+            }));
+            assertThat(supplierEntered.await(10, SECONDS)).isTrue();
+            
+            assertThat(sut.existsCas(doc2, user)).isTrue();
+            assertThat(sut.readCas(doc2, user).getDocumentText()).isEqualTo("Second");
+            
+            supplierReleased.countDown();
+            assertThat(blocked.get(10, SECONDS).getDocumentText()).isEqualTo("First");
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+        
+    @Test
+    public void testExclusiveOperationBlocksAccessToCas() throws Exception
+    {
+        SourceDocument doc = makeSourceDocument(7l, 7l);
+        String user = "test";
+        
+        CountDownLatch operationEntered = new CountDownLatch(1);
+        CountDownLatch operationReleased = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            // Check and write the CAS in one exclusive operation
+            Future<?> operation = executor.submit(() -> {
+                sut.performExclusiveOperation(doc, user, () -> {
+                    assertThat(sut.existsCas(doc, user)).isFalse();
+                    operationEntered.countDown();
+                    try {
+                        operationReleased.await();
+                    }
+                    catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                    sut.writeCas(doc, JCasFactory.createText("First").getCas(), user);
+                });
+                return null;
+            });
+            assertThat(operationEntered.await(10, SECONDS)).isTrue();
+            
+            Future<Boolean> exists = executor.submit(() -> sut.existsCas(doc, user));
+            Thread.sleep(100);
+            assertThat(exists.isDone()).isFalse();
+            
+            operationReleased.countDown();
+            operation.get(10, SECONDS);
+            assertThat(exists.get(10, SECONDS)).isTrue();
+            assertThat(sut.readCas(doc, user).getDocumentText()).isEqualTo("First");
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+        
+    @Test
+    public void testSharedCacheReturnsIndependentCopies() throws Exception
+    {
+        SourceDocument doc = makeSourceDocument(6l, 7l);
+        JCas cas = JCasFactory.createText("This is a test");
+        String user = "test";
+        
+        sut.writeCas(doc, cas.getCas(), user);
+        
+        CAS cas1 = sut.readCas(doc, user);
+        CAS cas2 = sut.readCas(doc, user);
+        assertThat(cas1).isNotSameAs(cas2);
+        assertThat(((CasStorageServiceImpl) sut).getSharedCacheHits()).isEqualTo(2);
+        
+        // Unsaved changes must not leak to other borrowers
+        cas1.addFsToIndexes(cas1.createAnnotation(cas1.getAnnotationType(), 0, 4));
+        CAS cas3 = sut.readCas(doc, user);
+        assertThat(cas3.getAnnotationIndex().size())
+                .isEqualTo(cas2.getAnnotationIndex().size());
+        
+        // Deleting the CAS must invalidate the cache
+        sut.deleteCas(doc, user);
+        assertThat(((CasStorageServiceImpl) sut).getSharedCacheEntries()).isEqualTo(0);
+    }
+    
+    @Test
+    public void testWriteBehindCoalescesWrites() throws Exception
+    {
+        casStorageProperties.getWriteBehind().setEnabled(true);
+        casStorageProperties.getWriteBehind().setDelay(3600);
+        CasStorageServiceImpl writeBehindSut = new CasStorageServiceImpl(null, null,
+                repositoryProperties, backupProperties, casStorageProperties);
+        
+        List<TypeSystemDescription> typeSystems = new ArrayList<>();
+        typeSystems.add(createTypeSystemDescription());
+        typeSystems.add(CasMetadataUtils.getInternalTypeSystem());
+        JCas cas = JCasFactory.createJCas(mergeTypeSystems(typeSystems));
+        cas.setDocumentText("This is a test");
+        
+        SourceDocument doc = makeSourceDocument(7l, 8l);
+        String user = "test";
+        
+        try {
+            writeBehindSut.writeCas(doc, cas.getCas(), user);
+            
+            // Pending writes are visible to readers but not yet on disk
+            assertThat(writeBehindSut.getCasFile(doc, user)).doesNotExist();
+            assertThat(writeBehindSut.existsCas(doc, user)).isTrue();
+            
+            // Writing a CAS read in the meantime must not be mistaken as concurrent modification
+            CAS cas2 = writeBehindSut.readCas(doc, user);
+            cas2.addFsToIndexes(cas2.createAnnotation(cas2.getAnnotationType(), 0, 4));
+            writeBehindSut.writeCas(doc, cas2, user);
+            long timestamp = writeBehindSut.getCasTimestamp(doc, user).get();
+            assertThat(writeBehindSut.getCasFile(doc, user)).doesNotExist();
+            assertThat(writeBehindSut.getPendingWrites()).isEqualTo(1);
+            
+            writeBehindSut.flushPendingWrites(doc);
+            assertThat(writeBehindSut.getCasFile(doc, user)).exists();
+            assertThat(writeBehindSut.getPendingWrites()).isEqualTo(0);
+            assertThat(writeBehindSut.getDeferredWrites()).isEqualTo(2);
+            assertThat(writeBehindSut.getFlushedWrites()).isEqualTo(1);
+            assertThat(writeBehindSut.getCasTimestamp(doc, user)).contains(timestamp);
+            
+            // The CAS from before the flush can still be saved
+            cas2.addFsToIndexes(cas2.createAnnotation(cas2.getAnnotationType(), 5, 7));
+            writeBehindSut.writeCas(doc, cas2, user);
+            writeBehindSut.flushPendingWrites();
+            
+            CAS cas3 = writeBehindSut.readCas(doc, user);
+            assertThat(cas3.getAnnotationIndex().size())
+                    .isEqualTo(cas2.getAnnotationIndex().size());
+        }
+        finally {
+            writeBehindSut.destroy();
+        }
+    }
+    
+    @Test
+    public void testWriteBehindAppendsToJournalImmediately() throws Exception
+    {
+        casStorageProperties.getWriteBehind().setEnabled(true);
+        casStorageProperties.getWriteBehind().setDelay(3600);
+        casStorageProperties.getJournal().setEnabled(true);
+        casStorageProperties.getJournal().setCompactionThreshold(Integer.MAX_VALUE);
+        CasStorageServiceImpl durableSut = new CasStorageServiceImpl(null, null,
+                repositoryProperties, backupProperties, casStorageProperties);
+        
+        List<TypeSystemDescription> typeSystems = new ArrayList<>();
+        typeSystems.add(createTypeSystemDescription());
+        typeSystems.add(CasMetadataUtils.getInternalTypeSystem());
+        JCas cas = JCasFactory.createJCas(mergeTypeSystems(typeSystems));
+        cas.setDocumentText("This is a test");
+        
+        SourceDocument doc = makeSourceDocument(15l, 16l);
+        String user = "test";
+        File casFile = durableSut.getCasFile(doc, user);
+        
+        // A new CAS cannot be appended to a journal, so its write is deferred
+        durableSut.writeCas(doc, cas.getCas(), user);
+        assertThat(durableSut.getPendingWrites()).isEqualTo(1);
+        durableSut.flushPendingWrites(doc);
+        
+        // Changes to a CAS read from the storage are appended to the journal right away
+        CAS cas2 = durableSut.readCas(doc, user);
+        cas2.addFsToIndexes(cas2.createAnnotation(cas2.getAnnotationType(), 0, 4));
+        durableSut.writeCas(doc, cas2, user);
+        assertThat(durableSut.getPendingWrites()).isEqualTo(0);
+        assertThat(durableSut.getJournalAppends()).isEqualTo(1);
+        assertThat(CasJournal.exists(casFile)).isTrue();
+        
+        // The changes survive even if the service is not shut down properly
+        CasStorageServiceImpl restartedSut = new CasStorageServiceImpl(null, null,
+                repositoryProperties, backupProperties, casStorageProperties);
+        try {
+            CAS cas3 = restartedSut.readCas(doc, user);
+            assertThat(cas3.getAnnotationIndex().size())
+                    .isEqualTo(cas2.getAnnotationIndex().size());
+        }
+        finally {
+            restartedSut.destroy();
+            durableSut.destroy();
+        }
+    }
+    
+    @Test
+    public void testWriteBehindEnablesJournal() throws Exception
+    {
+        casStorageProperties.getWriteBehind().setEnabled(true);
+        casStorageProperties.getWriteBehind().setDelay(3600);
+        casStorageProperties.getJournal().setEnabled(false);
+        CasStorageServiceImpl writeBehindSut = new CasStorageServiceImpl(null, null,
+                repositoryProperties, backupProperties, casStorageProperties);
+        
+        List<TypeSystemDescription> typeSystems = new ArrayList<>();
+        typeSystems.add(createTypeSystemDescription());
+        typeSystems.add(CasMetadataUtils.getInternalTypeSystem());
+        JCas cas = JCasFactory.createJCas(mergeTypeSystems(typeSystems));
+        cas.setDocumentText("This is a test");
+        
+        SourceDocument doc = makeSourceDocument(17l, 18l);
+        String user = "test";
+        
+        try {
+            writeBehindSut.writeCas(doc, cas.getCas(), user);
+            writeBehindSut.flushPendingWrites(doc);
+            
+            // Changes are not held back but appended to the journal
+            CAS cas2 = writeBehindSut.readCas(doc, user);
+            cas2.addFsToIndexes(cas2.createAnnotation(cas2.getAnnotationType(), 0, 4));
+            writeBehindSut.writeCas(doc, cas2, user);
+            assertThat(writeBehindSut.getPendingWrites()).isEqualTo(0);
+            assertThat(writeBehindSut.getJournalAppends()).isEqualTo(1);
+            assertThat(CasJournal.exists(writeBehindSut.getCasFile(doc, user))).isTrue();
+        }
+        finally {
+            writeBehindSut.destroy();
+        }
+    }
+    
+    @Test
+    public void testJournalAppendsChanges() throws Exception
+    {
+        casStorageProperties.getJournal().setEnabled(true);
+        casStorageProperties.getJournal().setCompactionThreshold(Integer.MAX_VALUE);
+        CasStorageServiceImpl journalSut = new CasStorageServiceImpl(null, null,
+                repositoryProperties, backupProperties, casStorageProperties);
+        
+        List<TypeSystemDescription> typeSystems = new ArrayList<>();
+        typeSystems.add(createTypeSystemDescription());
+        typeSystems.add(CasMetadataUtils.getInternalTypeSystem());
+        JCas cas = JCasFactory.createJCas(mergeTypeSystems(typeSystems));
+        cas.setDocumentText("This is a test");
+        
+        SourceDocument doc = makeSourceDocument(9l, 10l);
+        String user = "test";
+        File casFile = journalSut.getCasFile(doc, user);
+        
+        try {
+            journalSut.writeCas(doc, cas.getCas(), user);
+            long length = casFile.length();
+            
+            // Changes to a CAS read from the storage are appended to the journal
+            CAS cas2 = journalSut.readCas(doc, user);
+            cas2.addFsToIndexes(cas2.createAnnotation(cas2.getAnnotationType(), 0, 4));
+            journalSut.writeCas(doc, cas2, user);
+            cas2.addFsToIndexes(cas2.createAnnotation(cas2.getAnnotationType(), 5, 7));
+            journalSut.writeCas(doc, cas2, user);
+            assertThat(journalSut.getJournalAppends()).isEqualTo(2);
+            assertThat(CasJournal.exists(casFile)).isTrue();
+            assertThat(casFile.length()).isEqualTo(length);
+            
+            CAS cas3 = journalSut.readCas(doc, user);
+            assertThat(cas3.getAnnotationIndex().size())
+                    .isEqualTo(cas2.getAnnotationIndex().size());
+            
+            // Flushing pending writes does not touch the journal
+            journalSut.flushPendingWrites(doc);
+            assertThat(journalSut.getJournalCompactions()).isEqualTo(0);
+            assertThat(CasJournal.exists(casFile)).isTrue();
+            
+            // Merging the journals writes them into the annotation file
+            journalSut.mergeJournals(doc);
+            assertThat(journalSut.getJournalCompactions()).isEqualTo(1);
+            assertThat(CasJournal.exists(casFile)).isFalse();
+            
+            // The CAS from before the compaction can still be saved
+            cas3.addFsToIndexes(cas3.createAnnotation(cas3.getAnnotationType(), 8, 9));
+            journalSut.writeCas(doc, cas3, user);
+            
+            CAS cas4 = journalSut.readCas(doc, user);
+            assertThat(cas4.getAnnotationIndex().size())
+                    .isEqualTo(cas3.getAnnotationIndex().size());
+        }
+        finally {
+            journalSut.destroy();
+        }
+    }
+        
+    @Test
+    public void testJournalWithCompactFormat() throws Exception
+    {
+        casStorageProperties.setFormat(CasStorageFormat.COMPACT);
+        casStorageProperties.getJournal().setEnabled(true);
+        casStorageProperties.getJournal().setCompactionThreshold(Integer.MAX_VALUE);
+        CasStorageServiceImpl journalSut = new CasStorageServiceImpl(null, null,
+                repositoryProperties, backupProperties, casStorageProperties);
+        
+        List<TypeSystemDescription> typeSystems = new ArrayList<>();
+        typeSystems.add(createTypeSystemDescription());
+        typeSystems.add(CasMetadataUtils.getInternalTypeSystem());
+        JCas cas = JCasFactory.createJCas(mergeTypeSystems(typeSystems));
+        cas.setDocumentText("This is a test");
+        // The compact format drops unreachable feature structures, so the feature structures
+        // read back from the file are at different addresses than in the written CAS
+        cas.getCas().createAnnotation(cas.getCas().getAnnotationType(), 0, 1);
+        cas.getCas().addFsToIndexes(
+                cas.getCas().createAnnotation(cas.getCas().getAnnotationType(), 0, 4));
+        
+        SourceDocument doc = makeSourceDocument(11l, 12l);
+        String user = "test";
+        File casFile = journalSut.getCasFile(doc, user);
+        
+        try {
+            journalSut.writeCas(doc, cas.getCas(), user);
+            
+            // The written CAS does not match the file, so its changes are not journaled
+            cas.getCas().addFsToIndexes(
+                    cas.getCas().createAnnotation(cas.getCas().getAnnotationType(), 5, 7));
+            journalSut.writeCas(doc, cas.getCas(), user);
+            assertThat(journalSut.getJournalAppends()).isEqualTo(0);
+            assertThat(CasJournal.exists(casFile)).isFalse();
+            
+            // Changes to a CAS read from the file are journaled - including changes to feature
+            // structures which already exist in the file
+            CAS cas2 = journalSut.readCas(doc, user);
+            AnnotationFS existing = CasUtil.selectAt(cas2, cas2.getAnnotationType(), 5, 7).get(0);
+            cas2.removeFsFromIndexes(existing);
+            existing.setIntValue(cas2.getEndFeature(), 9);
+            cas2.addFsToIndexes(existing);
+            cas2.addFsToIndexes(cas2.createAnnotation(cas2.getAnnotationType(), 10, 14));
+            journalSut.writeCas(doc, cas2, user);
+            assertThat(journalSut.getJournalAppends()).isEqualTo(1);
+            assertThat(CasJournal.exists(casFile)).isTrue();
+        }
+        finally {
+            journalSut.destroy();
+        }
+        
+        // Replay the journal on the file instead of obtaining the CAS from the shared cache
+        CasStorageServiceImpl replaySut = new CasStorageServiceImpl(null, null,
+                repositoryProperties, backupProperties, casStorageProperties);
+        try {
+            CAS cas3 = replaySut.readCas(doc, user);
+            assertThat(getSpans(cas3)).containsExactly("0-14", "0-4", "0-0", "5-9", "10-14");
+        }
+        finally {
+            replaySut.destroy();
+        }
+    }
+    
+    @Test
+    public void testBulkOperationSeesMergedJournals() throws Exception
+    {
+        casStorageProperties.getJournal().setEnabled(true);
+        casStorageProperties.getJournal().setCompactionThreshold(Integer.MAX_VALUE);
+        CasStorageServiceImpl journalSut = new CasStorageServiceImpl(null, null,
+                repositoryProperties, backupProperties, casStorageProperties);
+        
+        List<TypeSystemDescription> typeSystems = new ArrayList<>();
+        typeSystems.add(createTypeSystemDescription());
+        typeSystems.add(CasMetadataUtils.getInternalTypeSystem());
+        JCas cas = JCasFactory.createJCas(mergeTypeSystems(typeSystems));
+        cas.setDocumentText("This is a test");
+        
+        SourceDocument doc = makeSourceDocument(13l, 14l);
+        doc.setName("test.txt");
+        doc.getProject().setName("project");
+        String user = "test";
+        File casFile = journalSut.getCasFile(doc, user);
+        
+        CAS cas2;
+        try {
+            journalSut.writeCas(doc, cas.getCas(), user);
+            cas2 = journalSut.readCas(doc, user);
+            cas2.addFsToIndexes(cas2.createAnnotation(cas2.getAnnotationType(), 0, 4));
+            journalSut.writeCas(doc, cas2, user);
+        }
+        finally {
+            journalSut.destroy();
+        }
+        
+        // The journal is retained on shutdown
+        assertThat(CasJournal.exists(casFile)).isTrue();
+        
+        // A bulk operation sees the journal merged into the annotation file, even if the journal
+        // has been written before the service was started
+        CasStorageServiceImpl bulkSut = new CasStorageServiceImpl(null, null,
+                repositoryProperties, backupProperties, casStorageProperties);
+        try {
+            bulkSut.performExclusiveBulkOperation(() -> 
+                    assertThat(CasJournal.exists(casFile)).isFalse());
+            assertThat(bulkSut.getJournalCompactions()).isEqualTo(1);
+            
+            CAS cas3 = bulkSut.readCas(doc, user);
+            assertThat(cas3.getAnnotationIndex().size())
+                    .isEqualTo(cas2.getAnnotationIndex().size());
+            assertThat(CasMetadataUtils.getSourceDocumentName(cas3)).contains("test.txt");
+            assertThat(CasMetadataUtils.getProjectName(cas3)).contains("project");
+        }
+        finally {
+            bulkSut.destroy();
+        }
+    }
+    
+    private static List<String> getSpans(CAS aCas)
+    {
+        List<String> spans = new ArrayList<>();
+        for (AnnotationFS ann : aCas.getAnnotationIndex()) {
+            spans.add(ann.getBegin() + "-" + ann.getEnd());
+        }
+        return spans;
+    }
+    
     private SourceDocument makeSourceDocument(long aProjectId, long aDocumentId)
     {
         Project project = new Project();
@@ -17,6 +17,10 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.api.dao;
 
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.SPAN_TYPE;
+import static de.tudarmstadt.ukp.clarin.webanno.model.AnchoringMode.TOKENS;
+import static de.tudarmstadt.ukp.clarin.webanno.model.OverlapMode.NO_OVERLAP;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Arrays.asList;
 import static java.util.Collections.emptyList;
 import static org.apache.uima.fit.factory.TypeSystemDescriptionFactory.createTypeSystemDescription;
@@ -24,19 +28,20 @@ import static org.apache.uima.fit.util.JCasUtil.select;
 import static org.apache.uima.util.CasCreationUtils.mergeTypeSystems;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
-import static org.mockito.ArgumentMatchers.anyBoolean;
-import static org.mockito.Mockito.doCallRealMethod;
-import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.spy;
 import static org.mockito.MockitoAnnotations.initMocks;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
 import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
+import org.apache.commons.io.FileUtils;
 import org.apache.uima.cas.impl.XmiCasDeserializer;
 import org.apache.uima.fit.factory.JCasFactory;
 import org.apache.uima.jcas.JCas;
@@ -49,10 +54,16 @@ import org.mockito.Mock;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
 import de.tudarmstadt.ukp.clarin.webanno.api.type.CASMetadata;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
 import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.clarin.webanno.tsv.WebAnnoTsv3LegacyFormatSupport;
 import de.tudarmstadt.ukp.clarin.webanno.xmi.XmiFormatSupport;
+import de.tudarmstadt.ukp.dkpro.core.api.lexmorph.type.pos.POS;
 import de.tudarmstadt.ukp.dkpro.core.api.metadata.type.DocumentMetaData;
+import de.tudarmstadt.ukp.dkpro.core.api.ner.type.NamedEntity;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
 
 public class ImportExportServiceImplTest
 {
@@ -70,7 +81,9 @@ public class ImportExportServiceImplTest
     {
         initMocks(this);
         
-        schemaService = mock(AnnotationSchemaServiceImpl.class);
+        // Use a spy on a real instance so that the type system caches of the service are properly
+        // initialized - we only need to stub out the database access
+        schemaService = spy(new AnnotationSchemaServiceImpl());
         
         backupProperties = new BackupProperties();
 
@@ -78,21 +91,15 @@ public class ImportExportServiceImplTest
         repositoryProperties.setPath(testFolder.newFolder());
 
         storageService = new CasStorageServiceImpl(null, null, repositoryProperties,
-                backupProperties);
+                backupProperties, new CasStorageProperties());
 
-        sut = new ImportExportServiceImpl(repositoryProperties, asList(new XmiFormatSupport()),
-                storageService, schemaService);
+        sut = new ImportExportServiceImpl(repositoryProperties, asList(new XmiFormatSupport(),
+                new WebAnnoTsv3LegacyFormatSupport(schemaService)), storageService, schemaService);
         sut.onContextRefreshedEvent();
         
-        when(schemaService.listAnnotationLayer(any(Project.class))).thenReturn(emptyList());
-        // We don't want to re-write the prepareCasForExport method - call the original
-        when(schemaService.prepareCasForExport(any(), any())).thenCallRealMethod();
-        // The prepareCasForExport method internally calls getFullProjectTypeSystem, so we need to
-        // ensure this is actually callable and doesn't run into a mocked version which simply 
-        // returns null.
-        when(schemaService.getFullProjectTypeSystem(any(), anyBoolean())).thenCallRealMethod();
-        doCallRealMethod().when(schemaService).upgradeCas(any(), any(),
-                any(TypeSystemDescription.class));
+        doReturn(emptyList()).when(schemaService).listAnnotationLayer(any(Project.class));
+        doReturn(emptyList()).when(schemaService).listAnnotationFeature(any(Project.class));
+        doReturn(emptyList()).when(schemaService).listTagSets(any(Project.class));
     }
 
     @Test
@@ -142,6 +149,91 @@ public class ImportExportServiceImplTest
         assertThat(result).hasSize(0);
     }
     
+    @Test
+    public void thatReusedWriterExportsEveryDocumentCompletely() throws Exception
+    {
+        TypeSystemDescription ts = mergeTypeSystems(asList(createTypeSystemDescription(),
+                CasMetadataUtils.getInternalTypeSystem()));
+        
+        // The writer of the first export is pooled and used again for the second export. Both
+        // exports must nevertheless contain the XMI file and the type system file.
+        for (String name : asList("doc1", "doc2")) {
+            JCas jcas = JCasFactory.createJCas(ts);
+            jcas.setDocumentText("This is " + name + " .");
+            DocumentMetaData.create(jcas);
+            
+            File exported = sut.exportCasToFile(jcas.getCas(), makeSourceDocument(1l, 1l), name,
+                    sut.getFormatById(XmiFormatSupport.ID).get(), true);
+            
+            List<String> entries = new ArrayList<>();
+            try (ZipArchiveInputStream zipInput = new ZipArchiveInputStream(
+                    new FileInputStream(exported))) {
+                ZipArchiveEntry entry;
+                while ((entry = zipInput.getNextZipEntry()) != null) {
+                    entries.add(entry.getName());
+                }
+            }
+            finally {
+                exported.delete();
+            }
+            
+            assertThat(entries).hasSize(2).contains(name + ".xmi");
+        }
+    }
+    
+    @Test
+    public void thatCasDependentWriterExportsLayersOfEveryDocument() throws Exception
+    {
+        AnnotationLayer posLayer = new AnnotationLayer(POS.class.getName(), "POS", SPAN_TYPE,
+                null, true, TOKENS, NO_OVERLAP);
+        AnnotationLayer neLayer = new AnnotationLayer(NamedEntity.class.getName(),
+                "Named entity", SPAN_TYPE, null, true, TOKENS, NO_OVERLAP);
+        doReturn(asList(posLayer, neLayer)).when(schemaService)
+                .listAnnotationLayer(any(Project.class));
+        doReturn(emptyList()).when(schemaService).listAnnotationFeature(any(AnnotationLayer.class));
+        
+        TypeSystemDescription ts = mergeTypeSystems(asList(createTypeSystemDescription(),
+                CasMetadataUtils.getInternalTypeSystem()));
+        
+        // The legacy TSV writer only includes layers which have annotations in the CAS. The
+        // first document has only POS annotations, the second only named entities - the
+        // second export must still contain the named entities.
+        Map<String, String> exports = new LinkedHashMap<>();
+        for (String name : asList("doc1", "doc2")) {
+            JCas jcas = JCasFactory.createJCas(ts);
+            jcas.setDocumentText("John");
+            DocumentMetaData.create(jcas);
+            new Sentence(jcas, 0, 4).addToIndexes();
+            new Token(jcas, 0, 4).addToIndexes();
+            if (name.equals("doc1")) {
+                POS pos = new POS(jcas, 0, 4);
+                pos.setPosValue("NNP");
+                pos.addToIndexes();
+            }
+            else {
+                NamedEntity ne = new NamedEntity(jcas, 0, 4);
+                ne.setValue("PER");
+                ne.addToIndexes();
+            }
+            
+            File exported = sut.exportCasToFile(jcas.getCas(), makeSourceDocument(1l, 1l), name,
+                    sut.getFormatById(WebAnnoTsv3LegacyFormatSupport.ID).get(), true);
+            try {
+                exports.put(name, FileUtils.readFileToString(exported, UTF_8));
+            }
+            finally {
+                exported.delete();
+            }
+        }
+        
+        assertThat(exports.get("doc1"))
+                .contains(POS.class.getName())
+                .doesNotContain(NamedEntity.class.getName());
+        assertThat(exports.get("doc2"))
+                .contains(NamedEntity.class.getName())
+                .contains("PER");
+    }
+    
     private SourceDocument makeSourceDocument(long aProjectId, long aDocumentId)
     {
         Project project = new Project();
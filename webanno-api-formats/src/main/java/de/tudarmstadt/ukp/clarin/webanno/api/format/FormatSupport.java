@@ -17,6 +17,8 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.api.format;
 
+import java.io.IOException;
+
 import org.apache.uima.analysis_engine.AnalysisEngineDescription;
 import org.apache.uima.cas.CAS;
 import org.apache.uima.collection.CollectionReaderDescription;
@@ -51,4 +53,26 @@ public interface FormatSupport
     {
         throw new UnsupportedOperationException("The format [" + getName() + "] cannot be written");
     }
+
+    /**
+     * Opens a session which writes many CASes of the given project while initializing the writer
+     * of the format only once. Formats whose writer cannot process more than one CAS should
+     * override this method.
+     *
+     * @param aProject
+     *            the project.
+     * @param aStripExtension
+     *            whether to strip the extension of the document ID when naming the written files.
+     * @return the session.
+     */
+    default FormatWriterSession openWriterSession(Project aProject, boolean aStripExtension)
+        throws IOException
+    {
+        if (!isWritable()) {
+            throw new UnsupportedOperationException(
+                    "The format [" + getName() + "] cannot be written");
+        }
+        
+        return new FormatWriterSession(this, aProject, aStripExtension);
+    }
 }
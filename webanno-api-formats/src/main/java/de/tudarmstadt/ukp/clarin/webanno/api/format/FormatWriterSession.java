@@ -0,0 +1,197 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.format;
+
+import static org.apache.uima.fit.factory.AnalysisEngineFactory.createEngine;
+import static org.apache.uima.fit.factory.ConfigurationParameterFactory.addConfigurationParameters;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.uima.UIMAException;
+import org.apache.uima.analysis_engine.AnalysisEngine;
+import org.apache.uima.analysis_engine.AnalysisEngineDescription;
+import org.apache.uima.cas.CAS;
+import org.dkpro.core.api.io.JCasFileWriter_ImplBase;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+
+/**
+ * Writes many CASes of a project using a single instance of the writer of a format. For small
+ * documents, initializing the writer takes much longer than actually writing the document, so
+ * bulk exports should use a session instead of running a new writer for every CAS.
+ * <p>
+ * The writer is created when the first CAS is written. It writes into a work folder owned by the
+ * session. After every CAS, the written files are handed to a {@link FormatWriterSink} and the
+ * work folder is cleared again. The files are named after the document ID of the CAS.
+ * <p>
+ * Formats whose writer description depends on the CAS (e.g. on the layers which contain
+ * annotations) must not reuse the writer. For these, the session creates a new writer for every
+ * CAS and only the work folder is reused.
+ * <p>
+ * A session is not thread-safe. It must be closed when it is no longer needed.
+ */
+public class FormatWriterSession
+    implements AutoCloseable
+{
+    private final FormatSupport format;
+    private final Project project;
+    private final boolean stripExtension;
+    private final boolean reuseWriter;
+    private final Path workFolder;
+
+    private AnalysisEngine writer;
+    private boolean closed;
+
+    public FormatWriterSession(FormatSupport aFormat, Project aProject, boolean aStripExtension)
+        throws IOException
+    {
+        this(aFormat, aProject, aStripExtension, true);
+    }
+
+    /**
+     * @param aReuseWriter
+     *            whether a single writer is used for all CASes. If the writer description of the
+     *            format depends on the CAS, a new writer must be created for every CAS.
+     */
+    public FormatWriterSession(FormatSupport aFormat, Project aProject, boolean aStripExtension,
+            boolean aReuseWriter)
+        throws IOException
+    {
+        format = aFormat;
+        project = aProject;
+        stripExtension = aStripExtension;
+        reuseWriter = aReuseWriter;
+        workFolder = Files.createTempDirectory("webanno-writer");
+    }
+
+    public FormatSupport getFormat()
+    {
+        return format;
+    }
+
+    public Project getProject()
+    {
+        return project;
+    }
+
+    public boolean isStripExtension()
+    {
+        return stripExtension;
+    }
+
+    public boolean isReuseWriter()
+    {
+        return reuseWriter;
+    }
+
+    /**
+     * Writes the given CAS and passes the written files to the given sink.
+     *
+     * @param aCas
+     *            the CAS.
+     * @param aSink
+     *            receives the written files.
+     * @return the result of the sink.
+     */
+    public <T> T write(CAS aCas, FormatWriterSink<T> aSink) throws IOException, UIMAException
+    {
+        if (closed) {
+            throw new IllegalStateException("Writer session has already been closed");
+        }
+
+        try {
+            if (writer == null) {
+                AnalysisEngineDescription desc = format.getWriterDescription(project, aCas);
+                addConfigurationParameters(desc,
+                        JCasFileWriter_ImplBase.PARAM_USE_DOCUMENT_ID, true,
+                        JCasFileWriter_ImplBase.PARAM_ESCAPE_DOCUMENT_ID, false,
+                        JCasFileWriter_ImplBase.PARAM_TARGET_LOCATION, workFolder.toFile(),
+                        JCasFileWriter_ImplBase.PARAM_STRIP_EXTENSION, stripExtension);
+                writer = createEngine(desc);
+            }
+
+            writer.process(aCas);
+            
+            if (!reuseWriter) {
+                writer.collectionProcessComplete();
+                destroyWriter();
+            }
+
+            return aSink.accept(workFolder.toFile());
+        }
+        catch (IOException | UIMAException | RuntimeException e) {
+            // The writer may be left in an inconsistent state - use a new one for the next CAS
+            destroyWriter();
+            throw e;
+        }
+        finally {
+            clearWorkFolder();
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        try {
+            if (writer != null) {
+                writer.collectionProcessComplete();
+            }
+        }
+        catch (UIMAException e) {
+            throw new IOException(e);
+        }
+        finally {
+            destroyWriter();
+            clearWorkFolder();
+            Files.deleteIfExists(workFolder);
+        }
+    }
+
+    private void destroyWriter()
+    {
+        if (writer != null) {
+            writer.destroy();
+            writer = null;
+        }
+    }
+
+    private void clearWorkFolder() throws IOException
+    {
+        try (Stream<Path> paths = Files.walk(workFolder)) {
+            // Delete the contents of a folder before the folder itself
+            List<Path> contents = paths
+                    .filter(path -> !path.equals(workFolder))
+                    .sorted(Comparator.reverseOrder())
+                    .collect(Collectors.toList());
+            for (Path path : contents) {
+                Files.delete(path);
+            }
+        }
+    }
+}
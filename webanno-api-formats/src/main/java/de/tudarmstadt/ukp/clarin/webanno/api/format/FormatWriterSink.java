@@ -0,0 +1,39 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.format;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Receives the files written for a single CAS in a {@link FormatWriterSession}.
+ *
+ * @param <T>
+ *            the result type of the sink.
+ */
+@FunctionalInterface
+public interface FormatWriterSink<T>
+{
+    /**
+     * @param aFolder
+     *            the folder containing the files written for the CAS. The sink may move files out
+     *            of the folder. Anything left in the folder is deleted once the sink returns.
+     * @return the result of the sink, e.g. the location to which the files were moved.
+     */
+    T accept(File aFolder) throws IOException;
+}
@@ -122,6 +122,83 @@ public interface CasStorageService
 
     void performExclusiveBulkOperation(CasStorageOperation aOperation)
         throws UIMAException, IOException;
+
+    /**
+     * Runs the given operation while holding the lock of the CAS of the given document and user.
+     * Other threads cannot read, write or delete that CAS until the operation is complete, so a
+     * check for the existence of the CAS and a subsequent write can be performed atomically. The
+     * lock is reentrant, so the operation may access the CAS through this service.
+     *
+     * @param aDocument
+     *            the document.
+     * @param aUser
+     *            the user owning the CAS.
+     * @param aOperation
+     *            the operation.
+     */
+    void performExclusiveOperation(SourceDocument aDocument, String aUser,
+            CasStorageOperation aOperation)
+        throws UIMAException, IOException;
+
+    /**
+     * Writes all changes to CASes of the given document which have been accepted but not yet been
+     * written to disk. This is only relevant if write-behind is enabled. Journals are not merged,
+     * so before the files of the document are accessed directly, e.g. during an export,
+     * {@link #mergeJournals(SourceDocument)} needs to be called as well.
+     *
+     * @param aDocument
+     *            the document.
+     * @throws IOException
+     *             if the changes could not be written.
+     */
+    void flushPendingWrites(SourceDocument aDocument) throws IOException;
+
+    /**
+     * Writes all changes to CASes of the given user which have been accepted but not yet been
+     * written to disk, e.g. when the user logs out.
+     *
+     * @param aUser
+     *            the user.
+     * @throws IOException
+     *             if the changes could not be written.
+     * @see #flushPendingWrites(SourceDocument)
+     */
+    void flushPendingWrites(String aUser) throws IOException;
+
+    /**
+     * Writes all changes to CASes which have been accepted but not yet been written to disk, e.g.
+     * on shutdown.
+     *
+     * @throws IOException
+     *             if the changes could not be written.
+     * @see #flushPendingWrites(SourceDocument)
+     */
+    void flushPendingWrites() throws IOException;
+
+    /**
+     * Merges the journals of the given document into the annotation files, so the files can be
+     * used without their journals, e.g. when they are exported. Journals only exist if the
+     * journal is or has been enabled. The journals of CASes with pending writes are replaced when
+     * the writes are flushed, so {@link #flushPendingWrites(SourceDocument)} should be called
+     * first.
+     *
+     * @param aDocument
+     *            the document.
+     * @throws IOException
+     *             if the journals could not be merged.
+     */
+    void mergeJournals(SourceDocument aDocument) throws IOException;
+
+    /**
+     * Merges all journals in the repository into their annotation files, e.g. before the
+     * annotation files are accessed directly by a bulk operation. {@link #flushPendingWrites()}
+     * should be called first.
+     *
+     * @throws IOException
+     *             if the journals could not be merged.
+     * @see #mergeJournals(SourceDocument)
+     */
+    void mergeJournals() throws IOException;
     
     @FunctionalInterface
     public static interface CasStorageOperation
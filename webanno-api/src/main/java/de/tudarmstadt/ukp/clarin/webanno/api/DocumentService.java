@@ -440,6 +440,27 @@ public interface DocumentService
      */
     List<AnnotationDocument> listFinishedAnnotationDocuments(Project project);
 
+    /**
+     * Obtains the annotation documents of all users for all source documents of a project. The
+     * annotation documents are fetched using a single query, so this should be preferred over
+     * calling {@link #getAnnotationDocument(SourceDocument, String)} for many documents or users.
+     * 
+     * @param aProject
+     *            the project.
+     * @return the annotation documents indexed by source document and user.
+     */
+    DocumentStateMatrix getDocumentStateMatrix(Project aProject);
+
+    /**
+     * Obtains the number of finished and annotatable documents per annotator of a project. The
+     * counts are cached until the documents of the project or their states change.
+     * 
+     * @param aProject
+     *            the project.
+     * @return the progress of the annotators of the project.
+     */
+    ProjectProgress getProjectProgress(Project aProject);
+
     /**
      * List all annotation documents for this source document (including in active and delted user
      * annotation and those created by project admins or super admins for Test purpose. This method
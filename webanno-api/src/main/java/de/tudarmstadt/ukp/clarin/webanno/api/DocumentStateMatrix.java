@@ -0,0 +1,102 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api;
+
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.unmodifiableList;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+/**
+ * The annotation documents of all users for all source documents of a project. This allows
+ * looking up the state of many (document, user) pairs without querying the database for each
+ * of them.
+ * 
+ * @see DocumentService#getDocumentStateMatrix
+ */
+public class DocumentStateMatrix
+{
+    private final List<SourceDocument> documents;
+    private final Map<String, SourceDocument> documentsByName = new HashMap<>();
+    private final Map<Long, Map<String, AnnotationDocument>> annotationDocuments =
+            new HashMap<>();
+
+    public DocumentStateMatrix(List<SourceDocument> aDocuments,
+            Collection<AnnotationDocument> aAnnotationDocuments)
+    {
+        documents = unmodifiableList(new ArrayList<>(aDocuments));
+        
+        for (SourceDocument document : documents) {
+            documentsByName.put(document.getName(), document);
+        }
+        
+        for (AnnotationDocument annotationDocument : aAnnotationDocuments) {
+            annotationDocuments
+                    .computeIfAbsent(annotationDocument.getDocument().getId(),
+                        k -> new HashMap<>())
+                    .put(annotationDocument.getUser(), annotationDocument);
+        }
+    }
+
+    /**
+     * @return the source documents ordered by name.
+     */
+    public List<SourceDocument> getDocuments()
+    {
+        return documents;
+    }
+
+    public Optional<SourceDocument> getDocument(String aName)
+    {
+        return Optional.ofNullable(documentsByName.get(aName));
+    }
+
+    public Optional<AnnotationDocument> getAnnotationDocument(SourceDocument aDocument,
+            String aUser)
+    {
+        return Optional.ofNullable(annotationDocuments
+                .getOrDefault(aDocument.getId(), emptyMap()).get(aUser));
+    }
+
+    /**
+     * @return the state of the annotation document of the given user or
+     *         {@link AnnotationDocumentState#NEW} if the user has not started working on the
+     *         document yet.
+     */
+    public AnnotationDocumentState getState(SourceDocument aDocument, String aUser)
+    {
+        return getAnnotationDocument(aDocument, aUser)
+                .map(AnnotationDocument::getState)
+                .orElse(AnnotationDocumentState.NEW);
+    }
+
+    public Optional<Date> getTimestamp(SourceDocument aDocument, String aUser)
+    {
+        return getAnnotationDocument(aDocument, aUser).map(AnnotationDocument::getTimestamp);
+    }
+}
@@ -143,4 +143,18 @@ public interface ImportExportService
     File exportAnnotationDocument(SourceDocument document, String user, FormatSupport aFormat,
             String fileName, Mode mode, boolean stripExtension)
         throws UIMAException, IOException, ClassNotFoundException;
+
+    /**
+     * Exports an {@link AnnotationDocument} like
+     * {@link #exportAnnotationDocument(SourceDocument, String, FormatSupport, String, Mode)}, but
+     * writes the exported file to the given folder instead of the temporary folder. Exports which
+     * run concurrently and may produce files of the same name must use different folders.
+     *
+     * @param aTargetFolder
+     *            the folder to which the exported file is written.
+     * @return the exported file.
+     */
+    File exportAnnotationDocument(SourceDocument document, String user, FormatSupport aFormat,
+            String fileName, Mode mode, boolean stripExtension, File aTargetFolder)
+        throws UIMAException, IOException, ClassNotFoundException;
 }
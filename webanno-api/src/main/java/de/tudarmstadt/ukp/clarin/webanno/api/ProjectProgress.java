@@ -0,0 +1,128 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api;
+
+import static java.util.Collections.unmodifiableList;
+import static java.util.Collections.unmodifiableMap;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The number of finished and annotatable documents per annotator of a project.
+ * 
+ * @see DocumentService#getProjectProgress
+ */
+public class ProjectProgress
+    implements Serializable
+{
+    private static final long serialVersionUID = 2829212383838384511L;
+
+    private final int documents;
+    private final List<String> annotators;
+    private final Map<String, Integer> finished;
+    private final Map<String, Integer> ignored;
+
+    /**
+     * @param aDocuments
+     *            the number of source documents in the project.
+     * @param aAnnotators
+     *            the annotators of the project.
+     * @param aFinished
+     *            the number of finished annotation documents per user.
+     * @param aIgnored
+     *            the number of ignored annotation documents per user.
+     */
+    public ProjectProgress(int aDocuments, List<String> aAnnotators,
+            Map<String, Integer> aFinished, Map<String, Integer> aIgnored)
+    {
+        documents = aDocuments;
+        annotators = unmodifiableList(new ArrayList<>(aAnnotators));
+        finished = unmodifiableMap(new HashMap<>(aFinished));
+        ignored = unmodifiableMap(new HashMap<>(aIgnored));
+    }
+
+    public int getDocuments()
+    {
+        return documents;
+    }
+
+    public List<String> getAnnotators()
+    {
+        return annotators;
+    }
+
+    /**
+     * @return the number of documents the given user has finished.
+     */
+    public int getFinished(String aUser)
+    {
+        return finished.getOrDefault(aUser, 0);
+    }
+
+    /**
+     * @return the number of documents which have not been ignored for the given user.
+     */
+    public int getAnnotatable(String aUser)
+    {
+        return documents - ignored.getOrDefault(aUser, 0);
+    }
+
+    /**
+     * @return the percentage of the annotatable documents the given user has finished.
+     */
+    public int getPercentage(String aUser)
+    {
+        return percentage(getFinished(aUser), getAnnotatable(aUser));
+    }
+
+    /**
+     * @return the number of documents finished by all annotators.
+     */
+    public int getFinished()
+    {
+        return annotators.stream().mapToInt(this::getFinished).sum();
+    }
+
+    /**
+     * @return the number of annotatable documents of all annotators.
+     */
+    public int getExpected()
+    {
+        return annotators.stream().mapToInt(this::getAnnotatable).sum();
+    }
+
+    /**
+     * @return the percentage of the annotatable documents all annotators have finished.
+     */
+    public int getPercentage()
+    {
+        return percentage(getFinished(), getExpected());
+    }
+
+    private static int percentage(int aFinished, int aTotal)
+    {
+        if (aTotal <= 0) {
+            return 0;
+        }
+        return (int) Math.round((double) (aFinished * 100) / aTotal);
+    }
+}
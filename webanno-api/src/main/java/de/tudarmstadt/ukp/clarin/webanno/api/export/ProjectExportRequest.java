@@ -19,6 +19,7 @@ package de.tudarmstadt.ukp.clarin.webanno.api.export;
 
 import java.io.Serializable;
 import java.util.Queue;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.format.FormatSupport;
@@ -38,6 +39,10 @@ public class ProjectExportRequest
     private String format;
     private boolean includeInProgress;
     
+    private volatile int documentsTotal = 0;
+    private volatile int documentsProcessed = 0;
+    private volatile boolean cancelled = false;
+    
     private final Queue<LogMessage> messages = new ConcurrentLinkedQueue<>();
 
     public ProjectExportRequest()
@@ -103,6 +108,59 @@ public class ProjectExportRequest
         return includeInProgress;
     }
 
+    /**
+     * Starts counting the documents processed by the current exporter.
+     */
+    public void startDocuments(int aTotal)
+    {
+        documentsTotal = aTotal;
+        documentsProcessed = 0;
+    }
+    
+    /**
+     * Marks one more document as processed. This should only be called from the thread running
+     * the export.
+     */
+    public void documentProcessed()
+    {
+        documentsProcessed++;
+    }
+    
+    public int getDocumentsTotal()
+    {
+        return documentsTotal;
+    }
+    
+    public int getDocumentsProcessed()
+    {
+        return documentsProcessed;
+    }
+    
+    /**
+     * Requests the export to be cancelled. The export stops at the next document and throws a
+     * {@link CancellationException}.
+     */
+    public void cancel()
+    {
+        cancelled = true;
+    }
+    
+    public boolean isCancelled()
+    {
+        return cancelled;
+    }
+    
+    /**
+     * @throws CancellationException
+     *             if the export has been cancelled.
+     */
+    public void checkCancelled()
+    {
+        if (cancelled) {
+            throw new CancellationException("Project export has been cancelled");
+        }
+    }
+    
     public void addMessage(LogMessage aMessage)
     {
         // Avoid repeating the same message over for different users
@@ -17,14 +17,21 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.api.export;
 
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Collections;
 import java.util.List;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
 import de.tudarmstadt.ukp.clarin.webanno.export.model.ExportedProject;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.support.ZipUtils;
 
 public interface ProjectExporter
 {
@@ -39,6 +46,21 @@ public interface ProjectExporter
     void exportData(ProjectExportRequest aRequest, ExportedProject aExProject, File aStage)
         throws Exception;
 
+    /**
+     * Exports the data either to the given staging folder or directly into the ZIP file of the
+     * project export. All files remaining in the staging folder afterwards are added to the ZIP
+     * file by the caller. By default, the data is written to the staging folder. Exporters which
+     * write large amounts of data should override this method and write to the ZIP file directly
+     * to avoid staging the data on disk. Any entry written to the ZIP file must be closed before
+     * returning.
+     */
+    default void exportData(ProjectExportRequest aRequest, ExportedProject aExProject,
+            File aStage, ZipOutputStream aZip)
+        throws Exception
+    {
+        exportData(aRequest, aExProject, aStage);
+    }
+
     void importData(ProjectImportRequest aRequest, Project aProject, ExportedProject aExProject,
             ZipFile aZip)
         throws Exception;
@@ -53,5 +75,30 @@ public interface ProjectExporter
        
         return entryName;
     }
-
+    
+    /**
+     * Adds the given file to the ZIP file of the project export. If no ZIP stream is given, the
+     * file is copied to the location of the entry in the staging folder instead.
+     * 
+     * @param aStage
+     *            the staging folder.
+     * @param aZip
+     *            the ZIP stream or {@code null}.
+     * @param aEntryName
+     *            the name of the entry relative to the root of the ZIP file.
+     * @param aFile
+     *            the file.
+     */
+    static void writeEntry(File aStage, ZipOutputStream aZip, String aEntryName, File aFile)
+        throws IOException
+    {
+        if (aZip != null) {
+            ZipUtils.addFileToZip(aZip, aFile, aEntryName);
+        }
+        else {
+            Path target = aStage.toPath().resolve(aEntryName);
+            Files.createDirectories(target.getParent());
+            Files.copy(aFile.toPath(), target, REPLACE_EXISTING);
+        }
+    }
 }
@@ -21,6 +21,8 @@ import java.io.Serializable;
 import java.util.Optional;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import de.tudarmstadt.ukp.clarin.webanno.security.model.User;
 
@@ -35,6 +37,11 @@ public class ProjectImportRequest
 
     private final Queue<String> messages = new ConcurrentLinkedQueue<>();
     
+    private volatile int filesTotal = 0;
+    private volatile long startTime = 0;
+    private final AtomicInteger filesImported = new AtomicInteger();
+    private final AtomicLong bytesImported = new AtomicLong();
+    
     private final boolean createMissingUsers;
     private final boolean importPermissions;
     private final Optional<User> manager;
@@ -65,6 +72,63 @@ public class ProjectImportRequest
         manager = aManager;
     }
 
+    /**
+     * Starts counting the files imported from the project archive.
+     * 
+     * @param aTotal
+     *            the number of entries in the project archive.
+     */
+    public void startImport(int aTotal)
+    {
+        filesTotal = aTotal;
+        filesImported.set(0);
+        bytesImported.set(0);
+        startTime = System.currentTimeMillis();
+    }
+    
+    /**
+     * Marks one more file as imported. This may be called concurrently from the threads
+     * extracting the project archive.
+     * 
+     * @param aBytes
+     *            the size of the imported file.
+     */
+    public void fileImported(long aBytes)
+    {
+        int imported = filesImported.incrementAndGet();
+        bytesImported.addAndGet(aBytes);
+        if (filesTotal > 0) {
+            progress = (int) Math.min(100, imported * 100l / filesTotal);
+        }
+    }
+    
+    public int getFilesTotal()
+    {
+        return filesTotal;
+    }
+    
+    public int getFilesImported()
+    {
+        return filesImported.get();
+    }
+    
+    public long getBytesImported()
+    {
+        return bytesImported.get();
+    }
+    
+    /**
+     * @return the number of bytes imported per second since the import has started.
+     */
+    public long getThroughput()
+    {
+        long elapsed = System.currentTimeMillis() - startTime;
+        if (startTime == 0 || elapsed <= 0) {
+            return 0;
+        }
+        return bytesImported.get() * 1000 / elapsed;
+    }
+
     public void addMessage(String aMessage)
     {
         // Avoid repeating the same message over for different users
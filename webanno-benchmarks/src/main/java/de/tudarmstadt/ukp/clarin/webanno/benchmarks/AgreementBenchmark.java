@@ -0,0 +1,88 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.benchmarks;
+
+import static de.tudarmstadt.ukp.clarin.webanno.curation.agreement.AgreementUtils.ConcreteAgreementMeasure.KRIPPENDORFF_ALPHA_NOMINAL_AGREEMENT;
+import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.LinkCompareBehavior.LINK_TARGET_AS_LABEL;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.tudarmstadt.ukp.clarin.webanno.curation.agreement.AgreementStudyBuilder;
+import de.tudarmstadt.ukp.clarin.webanno.curation.agreement.AgreementUtils;
+import de.tudarmstadt.ukp.clarin.webanno.curation.agreement.DiffSummary;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.DiffResult;
+
+/**
+ * Measures the throughput of the agreement calculation on a document, split into the phases
+ * used by the agreement service: summarizing the diff and building the study from the summaries.
+ * The diff itself is covered by {@link CasDiffBenchmark}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class AgreementBenchmark
+    extends SyntheticCorpus
+{
+    private DiffResult diff;
+    private List<DiffSummary> summaries;
+
+    @Setup(Level.Trial)
+    public void setupDiff()
+    {
+        diff = CasDiff.doDiff(types, adapters, LINK_TARGET_AS_LABEL, casByUser);
+        summaries = summarize();
+    }
+
+    @Benchmark
+    public List<DiffSummary> summarize()
+    {
+        List<DiffSummary> result = new ArrayList<>();
+        for (String type : types) {
+            result.add(AgreementUtils.summarize(diff, type, casByUser));
+        }
+        return result;
+    }
+
+    @Benchmark
+    public void agreement(Blackhole aBlackhole)
+    {
+        for (DiffSummary summary : summaries) {
+            AgreementStudyBuilder builder = new AgreementStudyBuilder(summary.getType(),
+                    FEAT_VALUE, casByUser.keySet(), false);
+            builder.add(summary);
+            aBlackhole.consume(AgreementUtils.calculateAgreement(
+                    KRIPPENDORFF_ALPHA_NOMINAL_AGREEMENT, builder.build()));
+        }
+    }
+}
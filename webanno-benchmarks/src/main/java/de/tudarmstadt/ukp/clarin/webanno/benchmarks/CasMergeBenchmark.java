@@ -0,0 +1,172 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.benchmarks;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.CURATION_USER;
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.SPAN_TYPE;
+import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.LinkCompareBehavior.LINK_TARGET_AS_LABEL;
+import static de.tudarmstadt.ukp.clarin.webanno.model.AnchoringMode.TOKENS;
+import static de.tudarmstadt.ukp.clarin.webanno.model.OverlapMode.ANY_OVERLAP;
+import static java.util.Arrays.asList;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.uima.cas.CAS;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.feature.FeatureSupportRegistryImpl;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.feature.PrimitiveUimaFeatureSupport;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.feature.SlotFeatureSupport;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.layer.LayerBehaviorRegistryImpl;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.layer.LayerSupportRegistryImpl;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.layer.SpanLayerSupport;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.DiffResult;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casmerge.CasMerge;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
+import de.tudarmstadt.ukp.clarin.webanno.model.LinkMode;
+import de.tudarmstadt.ukp.clarin.webanno.model.MultiValueMode;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+
+/**
+ * Measures the throughput of merging the annotations of all annotators of a document into the
+ * curation CAS. The layers are provided by a stubbed schema service, so no database is required.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class CasMergeBenchmark
+    extends SyntheticCorpus
+{
+    private CasMerge merge;
+    private SourceDocument document;
+    private DiffResult diff;
+    private CAS targetCas;
+    private Map<String, CAS> casses;
+
+    @Setup(Level.Trial)
+    public void setupMerge() throws Exception
+    {
+        Project project = new Project();
+        project.setId(1L);
+        document = new SourceDocument();
+        document.setProject(project);
+        document.setName("document");
+
+        Map<String, AnnotationLayer> layersByName = new HashMap<>();
+        Map<AnnotationLayer, List<AnnotationFeature>> featuresByLayer = new HashMap<>();
+        for (String type : types) {
+            AnnotationLayer layer = new AnnotationLayer(type, type, SPAN_TYPE, project, false,
+                    TOKENS, ANY_OVERLAP);
+            AnnotationFeature value = makeFeature(project, layer, FEAT_VALUE,
+                    CAS.TYPE_NAME_STRING);
+            if (HOST_TYPE.equals(type)) {
+                AnnotationFeature slots = makeFeature(project, layer, FEAT_LINKS,
+                        Token.class.getName());
+                slots.setMode(MultiValueMode.ARRAY);
+                slots.setLinkMode(LinkMode.WITH_ROLE);
+                slots.setLinkTypeName(LINK_TYPE);
+                slots.setLinkTypeRoleFeatureName(FEAT_ROLE);
+                slots.setLinkTypeTargetFeatureName(FEAT_TARGET);
+                featuresByLayer.put(layer, asList(value, slots));
+            }
+            else {
+                featuresByLayer.put(layer, asList(value));
+            }
+            layersByName.put(type, layer);
+        }
+
+        AnnotationSchemaService schemaService = mock(AnnotationSchemaService.class);
+
+        FeatureSupportRegistryImpl featureSupportRegistry = new FeatureSupportRegistryImpl(
+                asList(new PrimitiveUimaFeatureSupport(), new SlotFeatureSupport(schemaService)));
+        featureSupportRegistry.init();
+
+        LayerBehaviorRegistryImpl layerBehaviorRegistry = new LayerBehaviorRegistryImpl(asList());
+        layerBehaviorRegistry.init();
+
+        LayerSupportRegistryImpl layerSupportRegistry = new LayerSupportRegistryImpl(
+                asList(new SpanLayerSupport(featureSupportRegistry, null, schemaService,
+                        layerBehaviorRegistry)));
+        layerSupportRegistry.init();
+
+        when(schemaService.findLayer(any(Project.class), any(String.class)))
+                .thenAnswer(call -> layersByName.get(call.getArgument(1, String.class)));
+        when(schemaService.listAnnotationFeature(any(AnnotationLayer.class)))
+                .thenAnswer(call -> featuresByLayer.get(
+                        call.getArgument(0, AnnotationLayer.class)));
+        when(schemaService.getAdapter(any(AnnotationLayer.class))).thenAnswer(call -> {
+            AnnotationLayer layer = call.getArgument(0, AnnotationLayer.class);
+            return layerSupportRegistry.getLayerSupport(layer).createAdapter(layer);
+        });
+
+        merge = new CasMerge(schemaService);
+        merge.setMergeIncompleteAnnotations(true);
+
+        diff = CasDiff.doDiff(types, adapters, LINK_TARGET_AS_LABEL, casByUser);
+
+        casses = new LinkedHashMap<>();
+        casByUser.forEach((user, casList) -> casses.put(user, casList.get(0)));
+
+        // The merge clears all annotations from the target CAS except for the tokens and
+        // sentences, so the same target can be used for all invocations
+        targetCas = createBaseCas();
+    }
+
+    @Benchmark
+    public CAS merge() throws Exception
+    {
+        merge.reMergeCas(diff, document, CURATION_USER, targetCas, casses);
+        return targetCas;
+    }
+
+    private static AnnotationFeature makeFeature(Project aProject, AnnotationLayer aLayer,
+            String aName, String aType)
+    {
+        AnnotationFeature feature = new AnnotationFeature();
+        feature.setName(aName);
+        feature.setUiName(aName);
+        feature.setType(aType);
+        feature.setEnabled(true);
+        feature.setVisible(true);
+        feature.setLayer(aLayer);
+        feature.setProject(aProject);
+        return feature;
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.benchmarks;
+
+import static java.util.Arrays.asList;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.uima.UIMAException;
+import org.apache.uima.cas.ArrayFS;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Feature;
+import org.apache.uima.cas.FeatureStructure;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.fit.factory.TypeSystemDescriptionFactory;
+import org.apache.uima.resource.metadata.TypeDescription;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.apache.uima.resource.metadata.impl.TypeSystemDescription_impl;
+import org.apache.uima.util.CasCreationUtils;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.api.DiffAdapter;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.span.SpanDiffAdapter;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+
+/**
+ * Synthesizes the annotations of multiple annotators on a single document. The annotators
+ * annotate the same positions, but only agree on the label with a configurable probability. The
+ * corpus is generated from a fixed seed, so all runs of a benchmark see the same annotations.
+ * <p>
+ * Every span layer has a single string feature {@link #FEAT_VALUE}. If {@link #links} is
+ * positive, an additional layer with a slot feature is generated whose slots are filled with
+ * tokens.
+ */
+@State(Scope.Benchmark)
+public abstract class SyntheticCorpus
+{
+    public static final String SPAN_TYPE_PREFIX = "webanno.custom.Span";
+    public static final String HOST_TYPE = "webanno.custom.LinkHost";
+    public static final String LINK_TYPE = "webanno.custom.LinkType";
+    public static final String FEAT_VALUE = "value";
+    public static final String FEAT_LINKS = "links";
+    public static final String FEAT_ROLE = "role";
+    public static final String FEAT_TARGET = "target";
+
+    private static final long SEED = 42;
+    private static final int TOKENS_PER_SENTENCE = 20;
+    private static final int LABELS = 10;
+    private static final double SPAN_DENSITY = 0.3;
+    private static final double HOST_DENSITY = 0.1;
+    private static final int LINK_DISTANCE = 5;
+
+    /**
+     * Number of tokens in the document.
+     */
+    @Param({ "1000", "10000" })
+    public int tokens;
+
+    /**
+     * Number of annotators.
+     */
+    @Param({ "2", "4" })
+    public int users;
+
+    /**
+     * Number of span layers.
+     */
+    @Param({ "1", "4" })
+    public int layers;
+
+    /**
+     * Probability that an annotator stacks a second annotation on a span.
+     */
+    @Param({ "0.0", "0.1" })
+    public double stacking;
+
+    /**
+     * Number of slots per link host annotation. Use {@code 0} to omit the link layer.
+     */
+    @Param({ "0", "2" })
+    public int links;
+
+    /**
+     * Probability that an annotator chooses the same label as the other annotators.
+     */
+    @Param({ "0.8" })
+    public double agreement;
+
+    protected TypeSystemDescription typeSystem;
+    protected List<String> types;
+    protected List<DiffAdapter> adapters;
+    protected Map<String, List<CAS>> casByUser;
+
+    private String text;
+    private int[] tokenBegins;
+
+    @Setup(Level.Trial)
+    public void setupCorpus() throws Exception
+    {
+        typeSystem = createTypeSystem();
+
+        StringBuilder sb = new StringBuilder();
+        tokenBegins = new int[tokens];
+        for (int t = 0; t < tokens; t++) {
+            if (t > 0) {
+                sb.append(' ');
+            }
+            tokenBegins[t] = sb.length();
+            sb.append(tokenText(t));
+        }
+        text = sb.toString();
+
+        types = new ArrayList<>();
+        adapters = new ArrayList<>();
+        for (int l = 0; l < layers; l++) {
+            String type = SPAN_TYPE_PREFIX + l;
+            types.add(type);
+            adapters.add(new SpanDiffAdapter(type, FEAT_VALUE));
+        }
+        if (links > 0) {
+            SpanDiffAdapter hostAdapter = new SpanDiffAdapter(HOST_TYPE, FEAT_VALUE);
+            hostAdapter.addLinkFeature(FEAT_LINKS, FEAT_ROLE, FEAT_TARGET);
+            types.add(HOST_TYPE);
+            adapters.add(hostAdapter);
+        }
+
+        casByUser = new LinkedHashMap<>();
+        for (int u = 0; u < users; u++) {
+            casByUser.put("user" + u, asList(createUserCas(u)));
+        }
+    }
+
+    /**
+     * @return a CAS containing only the text, tokens and sentences of the document.
+     */
+    protected CAS createBaseCas() throws UIMAException
+    {
+        CAS cas = CasCreationUtils.createCas(typeSystem, null, null);
+
+        cas.setDocumentText(text);
+
+        Type tokenType = cas.getTypeSystem().getType(Token.class.getName());
+        Type sentenceType = cas.getTypeSystem().getType(Sentence.class.getName());
+        int sentenceBegin = 0;
+        for (int t = 0; t < tokens; t++) {
+            AnnotationFS token = cas.createAnnotation(tokenType, tokenBegin(t), tokenEnd(t));
+            cas.addFsToIndexes(token);
+
+            if ((t + 1) % TOKENS_PER_SENTENCE == 0 || t == tokens - 1) {
+                cas.addFsToIndexes(
+                        cas.createAnnotation(sentenceType, sentenceBegin, tokenEnd(t)));
+                sentenceBegin = tokenEnd(t) + 1;
+            }
+        }
+
+        return cas;
+    }
+
+    private CAS createUserCas(int aUser) throws UIMAException
+    {
+        CAS cas = createBaseCas();
+
+        // The positions and the reference labels are shared by all users, the actual labels and
+        // the stacking are chosen per user
+        Random shared = new Random(SEED);
+        Random own = new Random(SEED + aUser + 1);
+
+        for (int l = 0; l < layers; l++) {
+            Type type = cas.getTypeSystem().getType(SPAN_TYPE_PREFIX + l);
+            Feature value = type.getFeatureByBaseName(FEAT_VALUE);
+            for (int t = 0; t < tokens; t++) {
+                if (shared.nextDouble() >= SPAN_DENSITY) {
+                    continue;
+                }
+                int reference = shared.nextInt(LABELS);
+                addSpan(cas, type, value, t, label(own, reference));
+                if (own.nextDouble() < stacking) {
+                    addSpan(cas, type, value, t, label(own, reference + 1));
+                }
+            }
+        }
+
+        if (links > 0) {
+            Type hostType = cas.getTypeSystem().getType(HOST_TYPE);
+            Type linkType = cas.getTypeSystem().getType(LINK_TYPE);
+            Feature value = hostType.getFeatureByBaseName(FEAT_VALUE);
+            Feature linksFeature = hostType.getFeatureByBaseName(FEAT_LINKS);
+            Feature role = linkType.getFeatureByBaseName(FEAT_ROLE);
+            Feature target = linkType.getFeatureByBaseName(FEAT_TARGET);
+            List<AnnotationFS> tokenList = new ArrayList<>(
+                    cas.getAnnotationIndex(cas.getTypeSystem().getType(Token.class.getName())));
+            for (int t = 0; t < tokens; t++) {
+                if (shared.nextDouble() >= HOST_DENSITY) {
+                    continue;
+                }
+                int reference = shared.nextInt(LABELS);
+                AnnotationFS host = addSpan(cas, hostType, value, t, label(own, reference));
+
+                FeatureStructure[] slots = new FeatureStructure[links];
+                for (int s = 0; s < links; s++) {
+                    int targetIndex = Math.min(tokens - 1, Math.max(0,
+                            t + shared.nextInt(2 * LINK_DISTANCE + 1) - LINK_DISTANCE));
+                    FeatureStructure link = cas.createFS(linkType);
+                    link.setStringValue(role, label(own, shared.nextInt(LABELS)));
+                    link.setFeatureValue(target, tokenList.get(targetIndex));
+                    slots[s] = link;
+                }
+                ArrayFS array = cas.createArrayFS(links);
+                array.copyFromArray(slots, 0, 0, links);
+                host.setFeatureValue(linksFeature, array);
+            }
+        }
+
+        return cas;
+    }
+
+    private AnnotationFS addSpan(CAS aCas, Type aType, Feature aValue, int aToken, String aLabel)
+    {
+        AnnotationFS fs = aCas.createAnnotation(aType, tokenBegin(aToken), tokenEnd(aToken));
+        fs.setStringValue(aValue, aLabel);
+        aCas.addFsToIndexes(fs);
+        return fs;
+    }
+
+    private String label(Random aRandom, int aReference)
+    {
+        if (aRandom.nextDouble() < agreement) {
+            return "L" + (aReference % LABELS);
+        }
+        else {
+            return "L" + aRandom.nextInt(LABELS);
+        }
+    }
+
+    private int tokenBegin(int aToken)
+    {
+        return tokenBegins[aToken];
+    }
+
+    private int tokenEnd(int aToken)
+    {
+        return tokenBegins[aToken] + tokenText(aToken).length();
+    }
+
+    private String tokenText(int aToken)
+    {
+        return "tok" + (aToken % 100);
+    }
+
+    private TypeSystemDescription createTypeSystem() throws UIMAException
+    {
+        TypeSystemDescription tsd = new TypeSystemDescription_impl();
+
+        for (int l = 0; l < layers; l++) {
+            TypeDescription spanTD = tsd.addType(SPAN_TYPE_PREFIX + l, "",
+                    CAS.TYPE_NAME_ANNOTATION);
+            spanTD.addFeature(FEAT_VALUE, "", CAS.TYPE_NAME_STRING);
+        }
+
+        TypeDescription linkTD = tsd.addType(LINK_TYPE, "", CAS.TYPE_NAME_TOP);
+        linkTD.addFeature(FEAT_ROLE, "", CAS.TYPE_NAME_STRING);
+        linkTD.addFeature(FEAT_TARGET, "", CAS.TYPE_NAME_ANNOTATION);
+
+        TypeDescription hostTD = tsd.addType(HOST_TYPE, "", CAS.TYPE_NAME_ANNOTATION);
+        hostTD.addFeature(FEAT_VALUE, "", CAS.TYPE_NAME_STRING);
+        hostTD.addFeature(FEAT_LINKS, "", CAS.TYPE_NAME_FS_ARRAY, linkTD.getName(), false);
+
+        return CasCreationUtils.mergeTypeSystems(
+                asList(tsd, TypeSystemDescriptionFactory.createTypeSystemDescription()));
+    }
+}
@@ -48,7 +48,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.flipkart.zjsonpatch.JsonDiff;
 import com.googlecode.wicket.jquery.ui.settings.JQueryUILibrarySettings;
 
@@ -125,7 +124,13 @@ public class BratAnnotationEditor
     private WebMarkupContainer vis;
     private AbstractAjaxBehavior requestHandler;
     
+    /**
+     * The last rendered document which is used to compute a patch for the next render. JsonNodes
+     * are not serializable, so the JSON string is kept as well and the tree is restored from it
+     * when the editor has been deserialized.
+     */
     private String lastRenderedJson;
+    private transient JsonNode lastRenderedTree;
 
     public BratAnnotationEditor(String id, IModel<AnnotatorState> aModel,
             final AnnotationActionHandler aActionHandler, final CasProvider aCasProvider)
@@ -420,8 +425,18 @@ public class BratAnnotationEditor
         String json;
         if (getModelObject().getProject() != null) {
             render(response, aCas);
-            json = toJson(response);
+            
+            long treeStart = System.nanoTime();
+            JsonNode tree = JSONUtil.getObjectMapper().valueToTree(response);
+            
+            long serializeStart = System.nanoTime();
+            json = toJson(tree);
+            
+            metrics.renderPhasesComplete(serializeStart - treeStart, 0,
+                    System.nanoTime() - serializeStart);
+            
             lastRenderedJson = json;
+            lastRenderedTree = tree;
         }
         else {
             json = toJson(response);
@@ -562,44 +577,38 @@ public class BratAnnotationEditor
         
         GetDocumentResponse response = new GetDocumentResponse();
         render(response, aCas);
-        String json = toJson(response);
+        
+        // The response is converted directly into a tree and diffed against the tree of the
+        // previous render - there is no need to go through a JSON string here
+        long treeStart = System.nanoTime();
+        JsonNode current = JSONUtil.getObjectMapper().valueToTree(response);
+        JsonNode previous = getLastRenderedTree();
+        
+        long diffStart = System.nanoTime();
+        JsonNode patch = previous != null ? JsonDiff.asJson(previous, current) : null;
+        
+        long serializeStart = System.nanoTime();
+        String json = toJson(current);
+        String diff = patch != null ? toJson(patch) : null;
+        
+        metrics.renderPhasesComplete(diffStart - treeStart, serializeStart - diffStart,
+                System.nanoTime() - serializeStart);
         
         // By default, we do a full rendering...
         RenderType renderType = RenderType.FULL;
         String cmd = "renderData";
         String data = json;
 
-        // ... try to render diff
-        String diff = null;
-        JsonNode current = null;
-        JsonNode previous = null;
-        try {
-            ObjectMapper mapper = JSONUtil.getObjectMapper();
-            current = mapper.readTree(json);
-            previous = lastRenderedJson != null ? mapper.readTree(lastRenderedJson) : null;
-        }
-        catch (IOException e) {
-            LOG.error("Unable to generate diff, falling back to full render.", e);
-            // Fall-through
+        // ... but only sent a patch if it is smaller than sending the full data. E.g. when
+        // switching pages, the patch usually ends up being twice as large as the full data.
+        if (diff != null && diff.length() < json.length()) {
+            cmd = "renderDataPatch";
+            data = diff;
+            renderType = RenderType.DIFFERENTIAL;
         }
         
-        if (previous != null && current != null) {
-            diff = JsonDiff.asJson(previous, current).toString();
- 
-            // Only sent a patch if it is smaller than sending the full data. E.g. when switching
-            // pages, the patch usually ends up being twice as large as the full data.
-            if (diff.length() < json.length()) {
-                cmd = "renderDataPatch";
-                data = diff;
-                renderType = RenderType.DIFFERENTIAL;
-            }
-            
-//            LOG.info("Diff:  " + diff);
-//            LOG.info("Full: {}   Patch: {}   Diff time: {}", json.length(), diff.length(), timer);
-        }
-        
-        // Storing the last rendered JSON as string because JsonNodes are not serializable.
         lastRenderedJson = json;
+        lastRenderedTree = current;
         
         timer.stop();
 
@@ -609,6 +618,21 @@ public class BratAnnotationEditor
                 + "]);";
     }
 
+    private JsonNode getLastRenderedTree()
+    {
+        if (lastRenderedTree == null && lastRenderedJson != null) {
+            try {
+                lastRenderedTree = JSONUtil.getObjectMapper().readTree(lastRenderedJson);
+            }
+            catch (IOException e) {
+                LOG.error("Unable to generate diff, falling back to full render.", e);
+                lastRenderedJson = null;
+            }
+        }
+        
+        return lastRenderedTree;
+    }
+    
     private void render(GetDocumentResponse response, CAS aCas)
     {
         AnnotatorState aState = getModelObject();
@@ -25,4 +25,17 @@ public interface BratMetrics
     }
 
     void renderComplete(RenderType aType, long aTime, String aFull, String aDiff);
+
+    /**
+     * Records the time spent in the individual phases of a render. All times are in nanoseconds.
+     * 
+     * @param aTreeTime
+     *            time spent converting the rendered document into a JSON tree.
+     * @param aDiffTime
+     *            time spent computing the patch against the previously rendered document or
+     *            {@code 0} if no patch was computed.
+     * @param aSerializeTime
+     *            time spent writing the JSON sent to the browser.
+     */
+    void renderPhasesComplete(long aTreeTime, long aDiffTime, long aSerializeTime);
 }
@@ -17,6 +17,8 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.brat.metrics;
 
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
 import org.springframework.jmx.export.annotation.ManagedMetric;
 import org.springframework.jmx.export.annotation.ManagedResource;
 import org.springframework.jmx.support.MetricType;
@@ -39,6 +41,10 @@ public class BratMetricsImpl implements BratMetrics
     private long renderTime = 0;
     private long maxRenderTime = 0;
     
+    private long treeTime = 0;
+    private long diffTime = 0;
+    private long serializeTime = 0;
+    
     @ManagedMetric(metricType = MetricType.COUNTER)
     public long getFullRenderCount()
     {
@@ -87,6 +93,24 @@ public class BratMetricsImpl implements BratMetrics
         return sentRenderedSize;
     }
     
+    @ManagedMetric(metricType = MetricType.COUNTER, unit = "ms")
+    public long getTreeTime()
+    {
+        return NANOSECONDS.toMillis(treeTime);
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, unit = "ms")
+    public long getDiffTime()
+    {
+        return NANOSECONDS.toMillis(diffTime);
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, unit = "ms")
+    public long getSerializeTime()
+    {
+        return NANOSECONDS.toMillis(serializeTime);
+    }
+    
     @Override
     public synchronized void renderComplete(RenderType aType, long aTime, String aFull,
             String aDiff)
@@ -104,7 +128,7 @@ public class BratMetricsImpl implements BratMetrics
         }
         
         renderTime += aTime;
-        maxRenderTime = Math.max(maxRenderTime, renderTime);
+        maxRenderTime = Math.max(maxRenderTime, aTime);
         
         fullRenderedSize += aFull.length();
 
@@ -112,4 +136,13 @@ public class BratMetricsImpl implements BratMetrics
             diffRenderedSize += aDiff.length();
         }
     }
+    
+    @Override
+    public synchronized void renderPhasesComplete(long aTreeTime, long aDiffTime,
+            long aSerializeTime)
+    {
+        treeTime += aTreeTime;
+        diffTime += aDiffTime;
+        serializeTime += aSerializeTime;
+    }
 }
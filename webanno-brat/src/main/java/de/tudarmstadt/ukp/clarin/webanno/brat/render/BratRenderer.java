@@ -44,6 +44,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.ProjectSchema;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter.ChainAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter.TypeAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.coloring.ColoringStrategy;
@@ -129,8 +130,9 @@ public class BratRenderer
         renderTokens(aCas, aResponse, aState);
         
         // Render visible (custom) layers
+        ProjectSchema schema = aAnnotationService.getProjectSchema(aState.getProject());
         Map<String[], Queue<String>> colorQueues = new HashMap<>();
-        for (AnnotationLayer layer : aAnnotationService.listAnnotationLayer(aState.getProject())) {
+        for (AnnotationLayer layer : schema.getLayers()) {
             ColoringStrategy coloringStrategy = aColoringStrategy != null ? aColoringStrategy
                     : ColoringStrategy.getStrategy(aAnnotationService, layer,
                             aState.getPreferences(), colorQueues);
@@ -143,7 +145,7 @@ public class BratRenderer
                 continue;
             }
 
-            TypeAdapter typeAdapter = aAnnotationService.getAdapter(layer);
+            TypeAdapter typeAdapter = schema.getAdapter(layer);
             
             for (VSpan vspan : aVDoc.spans(layer.getId())) {
                 List<Offsets> offsets = vspan.getRanges().stream()
@@ -428,7 +430,8 @@ public class BratRenderer
             // For link features, we also need to configure the arcs, even though there is no arc
             // layer here.
             boolean hasLinkFeatures = false;
-            for (AnnotationFeature f : aAnnotationService.listAnnotationFeature(layer)) {
+            ProjectSchema schema = aAnnotationService.getProjectSchema(layer.getProject());
+            for (AnnotationFeature f : schema.getFeatures(layer)) {
                 if (!LinkMode.NONE.equals(f.getLinkMode())) {
                     hasLinkFeatures = true;
                     break;
@@ -441,8 +444,7 @@ public class BratRenderer
             }
 
             // Styles for the remaining relation and chain layers
-            for (AnnotationLayer attachingLayer : getAttachingLayers(layer, layers,
-                    aAnnotationService)) {
+            for (AnnotationLayer attachingLayer : getAttachingLayers(layer, layers, schema)) {
                 arcs.add(configureRelationType(layer, attachingLayer));
             }
 
@@ -457,7 +459,7 @@ public class BratRenderer
      * Scan through the layers once to remember which layers attach to which layers.
      */
     private static List<AnnotationLayer> getAttachingLayers(AnnotationLayer aTarget,
-            List<AnnotationLayer> aLayers, AnnotationSchemaService aAnnotationService)
+            List<AnnotationLayer> aLayers, ProjectSchema aSchema)
     {
         List<AnnotationLayer> attachingLayers = new ArrayList<>();
 
@@ -470,8 +472,7 @@ public class BratRenderer
         // determine which layers attach to with other layers. Currently we only use attachType,
         // but do not follow attachFeature if it is set.
         if (aTarget.isBuiltIn() && aTarget.getName().equals(POS.class.getName())) {
-            attachingLayers.add(aAnnotationService.findLayer(aTarget.getProject(),
-                    Dependency.class.getName()));
+            aSchema.findLayer(Dependency.class.getName()).ifPresent(attachingLayers::add);
         }
 
         // Custom layers
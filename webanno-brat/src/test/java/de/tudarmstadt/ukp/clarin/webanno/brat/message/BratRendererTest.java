@@ -43,6 +43,7 @@ import org.junit.Test;
 import org.mockito.Mock;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.ProjectSchema;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.feature.FeatureSupportRegistryImpl;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.feature.PrimitiveUimaFeatureSupport;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.feature.SlotFeatureSupport;
@@ -142,6 +143,10 @@ public class BratRendererTest
             AnnotationLayer layer = _call.getArgument(0);
             return layerRegistry.getLayerSupport(layer).createAdapter(layer);
         });
+        when(schemaService.getProjectSchema(any())).then(_call -> new ProjectSchema(
+                _call.getArgument(0), 0, asList(posLayer), asList(posFeature), asList(),
+                layer -> layerRegistry.getLayerSupport(layer).createAdapter(layer),
+                layer -> layerRegistry.getLayerSupport(layer).getRenderer(layer)));
         
         preRenderer = new PreRendererImpl(layerRegistry, schemaService);
     }
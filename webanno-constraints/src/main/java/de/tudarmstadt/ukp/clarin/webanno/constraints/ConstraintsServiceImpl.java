@@ -24,8 +24,11 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringReader;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
@@ -38,9 +41,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import de.tudarmstadt.ukp.clarin.webanno.api.event.BeforeProjectRemovedEvent;
 import de.tudarmstadt.ukp.clarin.webanno.constraints.grammar.ConstraintsGrammar;
 import de.tudarmstadt.ukp.clarin.webanno.constraints.grammar.ParseException;
 import de.tudarmstadt.ukp.clarin.webanno.constraints.grammar.syntaxtree.Parse;
@@ -62,6 +69,11 @@ public class ConstraintsServiceImpl
 
     @Value(value = "${repository.path}")
     private File dir;
+    
+    // Parsed constraints are shared between all users of a project. The version of a project is
+    // increased whenever its constraint sets change.
+    private final Map<Long, Long> constraintsVersions = new ConcurrentHashMap<>();
+    private final Map<Long, CachedConstraints> constraintsCache = new ConcurrentHashMap<>();
 
     public ConstraintsServiceImpl()
     {
@@ -82,6 +94,7 @@ public class ConstraintsServiceImpl
     public void createConstraintSet(ConstraintSet aSet)
     {
         entityManager.persist(aSet);
+        constraintsChanged(aSet.getProject());
         
         try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
                 String.valueOf(aSet.getProject().getId()))) {
@@ -95,6 +108,7 @@ public class ConstraintsServiceImpl
     public void removeConstraintSet(ConstraintSet aSet)
     {
         entityManager.remove(entityManager.merge(aSet));
+        constraintsChanged(aSet.getProject());
         
         try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
                 String.valueOf(aSet.getProject().getId()))) {
@@ -135,6 +149,7 @@ public class ConstraintsServiceImpl
         String filename = aSet.getId() + ".txt";
         FileUtils.forceMkdir(new File(constraintRulesPath));
         FileUtils.copyInputStreamToFile(aContent, new File(constraintRulesPath, filename));
+        constraintsChanged(aSet.getProject());
 
         
         try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
@@ -199,7 +214,32 @@ public class ConstraintsServiceImpl
     public ParsedConstraints loadConstraints(Project aProject)
             throws IOException, ParseException
     {
-        ParsedConstraints merged = null;
+        if (aProject.getId() == null) {
+            return parseConstraints(aProject);
+        }
+        
+        long version = constraintsVersions.getOrDefault(aProject.getId(), 0L);
+        CachedConstraints cached = constraintsCache.get(aProject.getId());
+        if (cached != null && cached.version == version) {
+            return cached.constraints;
+        }
+        
+        ParsedConstraints constraints = parseConstraints(aProject);
+        
+        // Do not cache the constraints if they have changed while they were being parsed
+        if (version == constraintsVersions.getOrDefault(aProject.getId(), 0L)) {
+            constraintsCache.put(aProject.getId(), new CachedConstraints(version, constraints));
+        }
+        
+        return constraints;
+    }
+    
+    private ParsedConstraints parseConstraints(Project aProject)
+            throws IOException, ParseException
+    {
+        Map<String, String> imports = null;
+        List<Scope> scopes = null;
+        Map<String, Scope> scopesByName = new HashMap<>();
 
         for (ConstraintSet set : listConstraintSets(aProject)) {
             String script = readConstrainSet(set);
@@ -207,34 +247,39 @@ public class ConstraintsServiceImpl
             Parse p = parser.Parse();
             ParsedConstraints constraints = p.accept(new ParserVisitor());
 
-            if (merged == null) {
-                merged = constraints;
+            if (imports == null) {
+                imports = constraints.getImports();
+                scopes = constraints.getScopes();
+                for (Scope scope : scopes) {
+                    scopesByName.put(scope.getScopeName(), scope);
+                }
             }
             else {
                 // Merge imports
                 for (Entry<String, String> e : constraints.getImports().entrySet()) {
                     // Check if the value already points to some other feature in previous
                     // constraint file(s).
-                    if (merged.getImports().containsKey(e.getKey()) && !e.getValue()
-                            .equalsIgnoreCase(merged.getImports().get(e.getKey()))) {
+                    if (imports.containsKey(e.getKey())
+                            && !e.getValue().equalsIgnoreCase(imports.get(e.getKey()))) {
                         // If detected, notify user with proper message and abort merging
                         String errorMessage = "Conflict detected in imports for key \"" + e.getKey()
                                 + "\", conflicting values are \"" + e.getValue() + "\" & \""
-                                + merged.getImports().get(e.getKey())
+                                + imports.get(e.getKey())
                                 + "\". Please contact Project Admin for correcting this."
                                 + "Constraints feature may not work."
                                 + "\nAborting Constraint rules merge!";
                         throw new ParseException(errorMessage);
                     }
                 }
-                merged.getImports().putAll(constraints.getImports());
+                imports.putAll(constraints.getImports());
 
                 // Merge scopes
                 for (Scope scope : constraints.getScopes()) {
-                    Scope target = merged.getScopeByName(scope.getScopeName());
+                    Scope target = scopesByName.get(scope.getScopeName());
                     if (target == null) {
                         // Scope does not exist yet
-                        merged.getScopes().add(scope);
+                        scopes.add(scope);
+                        scopesByName.put(scope.getScopeName(), scope);
                     }
                     else {
                         // Scope already exists
@@ -244,6 +289,89 @@ public class ConstraintsServiceImpl
             }
         }
 
-        return merged;
+        // The merged constraints are only created once all scripts have been merged because
+        // their lookup indices must not change afterwards
+        return imports != null ? new ParsedConstraints(imports, scopes) : null;
+    }
+    
+    /**
+     * Invalidates the cached constraints of the given project. If called within a transaction,
+     * they are invalidated again once the transaction has completed, so constraints which have
+     * been parsed concurrently from the state before the commit are not used any further.
+     */
+    private void constraintsChanged(Project aProject)
+    {
+        if (aProject == null || aProject.getId() == null) {
+            return;
+        }
+        
+        bumpConstraintsVersion(aProject.getId());
+        
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            long projectId = aProject.getId();
+            TransactionSynchronizationManager.registerSynchronization(
+                    new TransactionSynchronizationAdapter()
+                    {
+                        @Override
+                        public void afterCompletion(int aStatus)
+                        {
+                            // Do not bring back the version of a project which has been removed
+                            // in the meantime
+                            constraintsVersions.computeIfPresent(projectId,
+                                (id, version) -> version + 1L);
+                            constraintsCache.remove(projectId);
+                        }
+                    });
+        }
+    }
+    
+    private void bumpConstraintsVersion(long aProjectId)
+    {
+        constraintsVersions.merge(aProjectId, 1L, Long::sum);
+        constraintsCache.remove(aProjectId);
+    }
+    
+    @EventListener
+    public void beforeProjectRemove(BeforeProjectRemovedEvent aEvent)
+    {
+        Project project = aEvent.getProject();
+        if (project.getId() == null) {
+            return;
+        }
+        
+        // Removing the constraint sets of the project may bump its version again, so the project
+        // is forgotten once more after the transaction has completed
+        long projectId = project.getId();
+        forgetProject(projectId);
+        
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(
+                    new TransactionSynchronizationAdapter()
+                    {
+                        @Override
+                        public void afterCompletion(int aStatus)
+                        {
+                            forgetProject(projectId);
+                        }
+                    });
+        }
+    }
+    
+    private void forgetProject(long aProjectId)
+    {
+        constraintsVersions.remove(aProjectId);
+        constraintsCache.remove(aProjectId);
+    }
+    
+    private static class CachedConstraints
+    {
+        private final long version;
+        private final ParsedConstraints constraints;
+
+        public CachedConstraints(long aVersion, ParsedConstraints aConstraints)
+        {
+            version = aVersion;
+            constraints = aConstraints;
+        }
     }
 }
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.constraints.evaluator;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.uima.cas.Feature;
+import org.apache.uima.cas.FeatureStructure;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.text.AnnotationFS;
+
+/**
+ * A condition path (e.g. {@code @Lemma.value} or {@code governor.pos.PosValue}) split into its
+ * steps. Compiling a path once avoids splitting it again for every feature structure it is
+ * evaluated on. The features of each step are resolved once per type.
+ * <p>
+ * Errors in the path are reported when the erroneous step is evaluated.
+ */
+abstract class ConditionPath
+{
+    /**
+     * @return the values reached from the context via this path and the paths following it.
+     */
+    abstract List<String> getValues(FeatureStructure aContext, Map<String, String> aImports);
+
+    static ConditionPath compile(String aPath)
+    {
+        String head;
+        String tail;
+        if (aPath.contains(".")) {
+            // Separate first part of path to be processed from the remaining part
+            head = aPath.substring(0, aPath.indexOf("."));
+            tail = aPath.substring(aPath.indexOf(".") + 1);
+        }
+        else {
+            head = aPath;
+            tail = "";
+        }
+
+        if (head.startsWith("@")) {
+            return new ImportStep(head.substring(1), compile(tail));
+        }
+        else if (head.endsWith("()")) {
+            if (StringUtils.isNotEmpty(tail)) {
+                return new ErrorStep("No additional steps possible after function");
+            }
+            else if ("text()".equals(head)) {
+                return new TextStep();
+            }
+            else {
+                return new ErrorStep("Unknown path function [" + aPath + "]");
+            }
+        }
+        else if (StringUtils.isNotEmpty(tail)) {
+            return new FeatureStep(aPath, head, compile(tail));
+        }
+        else {
+            return new FeatureStep(aPath, aPath, null);
+        }
+    }
+
+    /**
+     * Follows the annotations of the imported type located at the same offsets as the context.
+     */
+    private static class ImportStep
+        extends ConditionPath
+    {
+        private final String shortName;
+        private final ConditionPath next;
+
+        ImportStep(String aShortName, ConditionPath aNext)
+        {
+            shortName = aShortName;
+            next = aNext;
+        }
+
+        @Override
+        List<String> getValues(FeatureStructure aContext, Map<String, String> aImports)
+        {
+            String typename = aImports.get(shortName);
+            Type type = aContext.getCAS().getTypeSystem().getType(typename);
+            AnnotationFS ctxAnnFs = (AnnotationFS) aContext;
+            List<String> values = new ArrayList<>();
+            for (AnnotationFS fs : ValuesGenerator.selectAt(aContext.getCAS(), type,
+                    ctxAnnFs.getBegin(), ctxAnnFs.getEnd())) {
+                values.addAll(next.getValues(fs, aImports));
+            }
+            return values;
+        }
+    }
+
+    /**
+     * Follows a feature of the context or, if it is the last step, returns its value.
+     */
+    private static class FeatureStep
+        extends ConditionPath
+    {
+        private final String path;
+        private final String featureName;
+        private final ConditionPath next;
+        private final Map<Type, Feature> features = new HashMap<>();
+
+        FeatureStep(String aPath, String aFeatureName, ConditionPath aNext)
+        {
+            path = aPath;
+            featureName = aFeatureName;
+            next = aNext;
+        }
+
+        @Override
+        List<String> getValues(FeatureStructure aContext, Map<String, String> aImports)
+        {
+            Feature feature = features.computeIfAbsent(aContext.getType(),
+                t -> t.getFeatureByBaseName(featureName));
+            if (feature == null) {
+                throw new IllegalStateException("Feature [" + path + "] does not exist on type ["
+                        + aContext.getType().getName() + "]");
+            }
+
+            if (next != null) {
+                return next.getValues(aContext.getFeatureValue(feature), aImports);
+            }
+
+            List<String> values = new ArrayList<>();
+            values.add(aContext.getFeatureValueAsString(feature));
+            return values;
+        }
+    }
+
+    /**
+     * Returns the text covered by the context.
+     */
+    private static class TextStep
+        extends ConditionPath
+    {
+        @Override
+        List<String> getValues(FeatureStructure aContext, Map<String, String> aImports)
+        {
+            if (!(aContext instanceof AnnotationFS)) {
+                throw new IllegalStateException("Cannot use [text()] on non-annotations");
+            }
+
+            List<String> values = new ArrayList<>();
+            values.add(((AnnotationFS) aContext).getCoveredText());
+            return values;
+        }
+    }
+
+    private static class ErrorStep
+        extends ConditionPath
+    {
+        private final String message;
+
+        ErrorStep(String aMessage)
+        {
+            message = aMessage;
+        }
+
+        @Override
+        List<String> getValues(FeatureStructure aContext, Map<String, String> aImports)
+        {
+            throw new IllegalStateException(message);
+        }
+    }
+}
@@ -18,13 +18,13 @@
 package de.tudarmstadt.ukp.clarin.webanno.constraints.evaluator;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 
-import org.apache.commons.lang3.StringUtils;
 import org.apache.uima.UIMAException;
 import org.apache.uima.cas.CAS;
-import org.apache.uima.cas.Feature;
 import org.apache.uima.cas.FeatureStructure;
 import org.apache.uima.cas.Type;
 import org.apache.uima.cas.text.AnnotationFS;
@@ -36,52 +36,42 @@ import de.tudarmstadt.ukp.clarin.webanno.constraints.model.Condition;
 import de.tudarmstadt.ukp.clarin.webanno.constraints.model.ParsedConstraints;
 import de.tudarmstadt.ukp.clarin.webanno.constraints.model.Restriction;
 import de.tudarmstadt.ukp.clarin.webanno.constraints.model.Rule;
-import de.tudarmstadt.ukp.clarin.webanno.constraints.model.Scope;
 
 /**
  * Class for getting list of PossibleValues after evaluating context and applicable rules.
- * 
- *
+ * <p>
+ * The generator memoizes the compiled condition paths and the values and rule matches computed
+ * for each feature structure. It should therefore be used only as long as the CAS is not
+ * modified, e.g. for updating the feature editors once during a request.
  */
 public class ValuesGenerator
     implements Evaluator
 {
     private final Logger log = LoggerFactory.getLogger(getClass());
-    Map<String, String> imports = null;
-    private Scope scope;
-    private String shortTypeName;
+    
+    private final Map<String, ConditionPath> paths = new HashMap<>();
+    private final Map<FeatureStructure, Map<String, List<String>>> valueCache = new HashMap<>();
+    private final Map<FeatureStructure, Map<Rule, Boolean>> ruleCache = new HashMap<>();
+    private ParsedConstraints cachedConstraints;
 
     @Override
     public List<PossibleValue> generatePossibleValues(FeatureStructure aContext, String aFeature,
             ParsedConstraints parsedConstraints)
         throws UIMAException
     {
-        imports = parsedConstraints.getImports();
-        List<PossibleValue> possibleValues = new ArrayList<>();
-        //If there are no rules for the FS, don't execute further
-        //Enabling the second option might take too much time for rules to execute.
-//        if(!areThereRulesFor(aContext, parsedConstraints)){
-//        if(!isThisAffectedByConstraintRules(aContext, aFeature, parsedConstraints)){
-        if (!parsedConstraints.areThereRules(aContext.getType().getName(), aFeature)) {
-            return possibleValues;
+        // Memoized values depend on the imports of the constraints
+        if (cachedConstraints != parsedConstraints) {
+            valueCache.clear();
+            ruleCache.clear();
+            cachedConstraints = parsedConstraints;
         }
-       
-//        String shortTypeName = parsedConstraints.getShortName(aContext.getType().getName());
-//        if (shortTypeName == null) {
-//            //If no relevant rules are there for a particular type, just return empty list
-//            log.error("No import for [" + aContext.getType().getName()
-//                    + "] - Imports are: [" + parsedConstraints.getImports() + "]");
-//            return possibleValues;
-////            throw new IllegalStateException("No import for [" + aContext.getType().getName()
-////                    + "] - Imports are: [" + parsedConstraints.getImports() + "]");
-//        }
-        shortTypeName = parsedConstraints.getShortName(aContext.getType().getName());
-        scope = parsedConstraints.getScopeByName(shortTypeName);
-
-      
-        for (Rule rule : scope.getRules()) {
+        
+        List<PossibleValue> possibleValues = new ArrayList<>();
+        
+        // Only the rules of the scope of the FS which restrict the feature need to be checked
+        for (Rule rule : parsedConstraints.getRules(aContext.getType().getName(), aFeature)) {
             // Check if conditions apply
-            if (!ruleTriggers(aContext, rule)) {
+            if (!ruleTriggers(aContext, rule, parsedConstraints.getImports())) {
                 continue;
             }
 
@@ -97,106 +87,47 @@ public class ValuesGenerator
         return possibleValues;
     }
 
-    private boolean ruleTriggers(FeatureStructure aContext, Rule aRule)
-        throws UIMAException
+    private boolean ruleTriggers(FeatureStructure aContext, Rule aRule,
+            Map<String, String> aImports)
     {
-        boolean doAllConditionsMatch = false;
-        for (Condition condition : aRule.getConditions()) {
-            if (conditionMatches(aContext, condition)) {
-                doAllConditionsMatch = true;
-            }
-            else {
-                doAllConditionsMatch = false;
-                break;
+        Map<Rule, Boolean> results = ruleCache.computeIfAbsent(aContext,
+            k -> new IdentityHashMap<>());
+        Boolean result = results.get(aRule);
+        if (result == null) {
+            result = !aRule.getConditions().isEmpty();
+            for (Condition condition : aRule.getConditions()) {
+                if (!conditionMatches(aContext, condition, aImports)) {
+                    result = false;
+                    break;
+                }
             }
+            results.put(aRule, result);
         }
-        return doAllConditionsMatch;
-
+        return result;
     }
 
-    private boolean conditionMatches(FeatureStructure aContext, Condition aCondition)
-        throws UIMAException
+    private boolean conditionMatches(FeatureStructure aContext, Condition aCondition,
+            Map<String, String> aImports)
     {
-        ArrayList<String> value = getValue(aContext, aCondition.getPath());
+        List<String> value = getValue(aContext, aCondition.getPath(), aImports);
         if (log.isTraceEnabled()) {
             log.trace("comparing [" + aCondition.getValue() + "] to [" + value + "]");
         }
         return aCondition.matches(value);
     }
 
-    private ArrayList<String> getValue(FeatureStructure aContext, String aPath)
-        throws UIMAException
+    private List<String> getValue(FeatureStructure aContext, String aPath,
+            Map<String, String> aImports)
     {
-        String head, tail;
-        if (aPath.contains(".")) {
-            head = aPath.substring(0, aPath.indexOf(".")); // Separate first part of path to be
-                                                           // processed.
-            tail = aPath.substring(aPath.indexOf(".") + 1); // The remaining part
-        }
-        else {
-            head = aPath;
-            tail = "";
+        Map<String, List<String>> values = valueCache.computeIfAbsent(aContext,
+            k -> new HashMap<>());
+        List<String> value = values.get(aPath);
+        if (value == null) {
+            ConditionPath path = paths.computeIfAbsent(aPath, ConditionPath::compile);
+            value = path.getValues(aContext, aImports);
+            values.put(aPath, value);
         }
-
-        List<String> values = new ArrayList<>();
-
-        if (head.startsWith("@")) {
-            String typename = imports.get(head.substring(1));
-            Type type = aContext.getCAS().getTypeSystem().getType(typename);
-            AnnotationFS ctxAnnFs = (AnnotationFS) aContext;
-            // List<String> values = new ArrayList<>();
-            for (AnnotationFS fs : selectAt(aContext.getCAS(), type, ctxAnnFs.getBegin(),
-                    ctxAnnFs.getEnd())) {
-                values.addAll(getValue(fs, tail));
-
-            }
-            return (ArrayList<String>) values;
-        }
-        else if (head.endsWith("()")) {
-            if (StringUtils.isNotEmpty(tail)) {
-                throw new IllegalStateException("No additional steps possible after function");
-            }
-
-            if ("text()".equals(head)) {
-                if (aContext instanceof AnnotationFS) {
-                    values.add(((AnnotationFS) aContext).getCoveredText());
-                    return (ArrayList<String>) values;
-                }
-                else {
-                    throw new IllegalStateException("Cannot use [text()] on non-annotations");
-                }
-            }
-            else {
-                throw new IllegalStateException("Unknown path function [" + aPath + "]");
-            }
-        }
-        else if (StringUtils.isNotEmpty(tail)) {
-
-            /*
-             * Extracting feature and passing FeatureStructure based on that. Shortening the path
-             * variable by removing first element in the aPath separated by "." (dot)
-             */
-            Feature feature = aContext.getType().getFeatureByBaseName(
-                    aPath.substring(0, aPath.indexOf(".")));
-            if (feature == null) {
-                throw new IllegalStateException("Feature [" + aPath + "] does not exist on type ["
-                        + aContext.getType().getName() + "]");
-            }
-            return getValue(aContext.getFeatureValue(feature),
-                    aPath.substring(aPath.indexOf(".") + 1));
-
-            // throw new UnsupportedOperationException("Error in rule");
-        }
-        else {
-            Feature feature = aContext.getType().getFeatureByBaseName(aPath);
-            if (feature == null) {
-                throw new IllegalStateException("Feature [" + aPath + "] does not exist on type ["
-                        + aContext.getType().getName() + "]");
-            }
-            values.add(aContext.getFeatureValueAsString(feature));
-            return (ArrayList<String>) values;
-        }
-
+        return value;
     }
 
     public static List<AnnotationFS> selectAt(CAS aCas, final Type type, int aBegin, int aEnd)
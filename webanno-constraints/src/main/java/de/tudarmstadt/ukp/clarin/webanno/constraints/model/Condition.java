@@ -19,7 +19,7 @@
 package de.tudarmstadt.ukp.clarin.webanno.constraints.model;
 
 import java.io.Serializable;
-import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Class containing object representation for Condition in a rule.
@@ -57,7 +57,7 @@ public class Condition
         return "Condition [[" + path + "] = [" + value + "]]";
     }
 
-    public boolean matches(ArrayList<String> listOfValues)
+    public boolean matches(List<String> listOfValues)
     {
         boolean doesItMatch = false;
         for (String input : listOfValues) {
@@ -17,16 +17,21 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.constraints.model;
 
+import static java.util.Collections.emptyList;
+
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Set;
 
 /***
  * Serialized Class containing objects after parsing and creating objects based on rules file.
+ * <p>
+ * The lookup indices are built on first use. Since parsed constraints are shared between all
+ * users of a project, the imports and scopes must not be modified after the indices have been
+ * built.
  */
 public class ParsedConstraints
     implements Serializable
@@ -35,9 +40,10 @@ public class ParsedConstraints
     
     private final Map<String, String> imports;
     private final List<Scope> scopes;
-    private Map<String, Scope> scopeMap = null;
-    //Contains possible scenarios for which rules are available.
-    private Set<FSFPair> rulesSet = null;
+    private transient volatile Map<String, Scope> scopeMap;
+    private transient volatile Map<String, String> shortNameMap;
+    // Rules of a scope by the scope and the feature affected by their restrictions
+    private transient volatile Map<FSFPair, List<Rule>> rulesIndex;
 
     public ParsedConstraints(Map<String, String> imports, List<Scope> scopes)
     {
@@ -70,12 +76,16 @@ public class ParsedConstraints
 
     public String getShortName(String aLongName)
     {
-        for (Entry<String, String> e : imports.entrySet()) {
-            if (e.getValue().equals(aLongName)) {
-                return e.getKey();
+        Map<String, String> index = shortNameMap;
+        if (index == null) {
+            // If multiple short names point to the same type, the first one is used
+            index = new HashMap<>();
+            for (Entry<String, String> e : imports.entrySet()) {
+                index.putIfAbsent(e.getValue(), e.getKey());
             }
+            shortNameMap = index;
         }
-        return null;
+        return index.get(aLongName);
     }
 
     public List<Scope> getScopes()
@@ -86,13 +96,15 @@ public class ParsedConstraints
     public Scope getScopeByName(String scopeName)
     {
 
-        if (scopeMap == null) { // initialize map if not set already
-            scopeMap = new HashMap<>();
+        Map<String, Scope> index = scopeMap;
+        if (index == null) { // initialize map if not set already
+            index = new HashMap<>();
             for (Scope scope : scopes) {
-                scopeMap.put(scope.getScopeName(), scope);
+                index.put(scope.getScopeName(), scope);
             }
+            scopeMap = index;
         }
-        return scopeMap.get(scopeName);
+        return index.get(scopeName);
     }
     
     /** 
@@ -100,40 +112,54 @@ public class ParsedConstraints
      */
     public boolean areThereRules(String featureStructure, String feature)
     {
-        if (rulesSet == null) {
-            buildRulesSet();
-        }
+        // If it has rules satisfying with proper input FS and affecting feature
+        return !getRules(featureStructure, feature).isEmpty();
+    }
 
-        if (getShortName(featureStructure) == null) {
-            return false;
-        }
-        if (getScopeByName(getShortName(featureStructure)) == null) {
-            return false;
+    /**
+     * Returns the rules in the scope of the given type which restrict the given feature. The
+     * rules are returned in the order in which they are defined.
+     * 
+     * @param aTypeName
+     *            the full name of the type.
+     * @param aFeature
+     *            the path of the restricted feature.
+     * @return the rules.
+     */
+    public List<Rule> getRules(String aTypeName, String aFeature)
+    {
+        String shortName = getShortName(aTypeName);
+        if (shortName == null || getScopeByName(shortName) == null) {
+            return emptyList();
         }
-        FSFPair _tempFsfPair = new FSFPair(getShortName(featureStructure), feature);
-        if (rulesSet.contains(_tempFsfPair)) {
-            // If it has rules satisfying with proper input FS and affecting feature
-            return true;
+        
+        Map<FSFPair, List<Rule>> index = rulesIndex;
+        if (index == null) {
+            index = buildRulesIndex();
+            rulesIndex = index;
         }
-        return false;
+        return index.getOrDefault(new FSFPair(shortName, aFeature), emptyList());
     }
 
     /**
-     * Fill Set with values of different conditions for which rules are available.
+     * Index the rules by the scope and the features affected by their restrictions.
      */
-    private void buildRulesSet()
+    private Map<FSFPair, List<Rule>> buildRulesIndex()
     {
-        rulesSet = new HashSet<>();
-        FSFPair _temp;
+        Map<FSFPair, List<Rule>> index = new HashMap<>();
         for (Scope scope : scopes) {
             for (Rule rule : scope.getRules()) {
                 for (Restriction restriction : rule.getRestrictions()) {
-                    _temp = new FSFPair(scope.getScopeName(), restriction.getPath());
-                    if (!rulesSet.contains(_temp)) {
-                        rulesSet.add(_temp);
+                    List<Rule> rules = index.computeIfAbsent(
+                            new FSFPair(scope.getScopeName(), restriction.getPath()),
+                            k -> new ArrayList<>());
+                    // A rule may restrict the same feature multiple times
+                    if (rules.isEmpty() || rules.get(rules.size() - 1) != rule) {
+                        rules.add(rule);
                     }
                 }
             }
         }
+        return index;
     }
 }
@@ -84,6 +84,34 @@ public class ConstraintsGeneratorTest
         assertEquals(expectedOutput, possibleValues);
     }
 
+    @Test
+    public void testEvaluatorReusedForMultipleFeatureStructures()
+        throws Exception
+    {
+        ConstraintsGrammar parser = new ConstraintsGrammar(new FileInputStream(
+                "src/test/resources/rules/9.rules"));
+        Parse p = parser.Parse();
+
+        ParsedConstraints constraints = p.accept(new ParserVisitor());
+
+        JCas jcas = JCasFactory.createJCas();
+        jcas.setDocumentText("is was");
+
+        Lemma lemma1 = new Lemma(jcas, 0, 2);
+        lemma1.addToIndexes();
+        Lemma lemma2 = new Lemma(jcas, 3, 6);
+        lemma2.addToIndexes();
+
+        Evaluator constraintsEvaluator = new ValuesGenerator();
+
+        assertEquals(asList(new PossibleValue("be", true)),
+                constraintsEvaluator.generatePossibleValues(lemma1, "value", constraints));
+        assertEquals(asList(),
+                constraintsEvaluator.generatePossibleValues(lemma2, "value", constraints));
+        assertEquals(asList(new PossibleValue("be", true)),
+                constraintsEvaluator.generatePossibleValues(lemma1, "value", constraints));
+    }
+
     @Test
     public void testSimplePath()
         throws Exception
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.curation.agreement;
+
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Agreement calculation running in the background (see
+ * {@link AgreementService#startPairwiseAgreement}). The calculation is kept by the service, so
+ * callers which are serialized, e.g. pages, only need to remember its {@link #getId() ID}.
+ * <p>
+ * A running calculation is cancelled if its progress is not polled for a while, e.g. because the
+ * user navigated away from the page showing it. A finished calculation is discarded by the service
+ * if its result is not accessed for a while.
+ */
+public class AgreementCalculation
+    extends AgreementProgress
+{
+    /**
+     * Time in milliseconds after which a running calculation is cancelled if its progress is no
+     * longer polled.
+     */
+    static final long POLL_TIMEOUT = 10_000;
+
+    /**
+     * Time in milliseconds after which a finished calculation is discarded if its result is no
+     * longer accessed.
+     */
+    static final long RESULT_TIMEOUT = 30 * 60 * 1000;
+
+    private final String id = UUID.randomUUID().toString();
+
+    private volatile long lastAccessed = System.currentTimeMillis();
+    private volatile boolean done = false;
+    private volatile PairwiseAnnotationResult result;
+    private volatile String error;
+    private volatile Future<?> future;
+
+    public String getId()
+    {
+        return id;
+    }
+
+    /**
+     * @return the progress in percent. 100% is only reported once the calculation is done.
+     */
+    public int poll()
+    {
+        lastAccessed = System.currentTimeMillis();
+        return done ? 100 : Math.min(getProgress(), 99);
+    }
+
+    public boolean isDone()
+    {
+        return done;
+    }
+
+    /**
+     * @return the result or {@code null} if the calculation is not done yet, has failed or has
+     *         been cancelled.
+     */
+    public PairwiseAnnotationResult getResult()
+    {
+        lastAccessed = System.currentTimeMillis();
+        return result;
+    }
+
+    /**
+     * @return the reason why the calculation has failed or {@code null} if it has not failed.
+     */
+    public String getError()
+    {
+        return error;
+    }
+
+    /**
+     * Waits for the calculation to complete. While waiting, the progress counts as being polled.
+     * 
+     * @throws InterruptedException
+     *             if the calling thread has been interrupted while waiting.
+     */
+    public void awaitCompletion() throws InterruptedException
+    {
+        while (!done) {
+            poll();
+            try {
+                future.get(1, TimeUnit.SECONDS);
+            }
+            catch (TimeoutException e) {
+                // Keep polling
+            }
+            catch (ExecutionException | CancellationException e) {
+                // The calculation reports its own failures
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void cancel()
+    {
+        super.cancel();
+
+        // Also interrupt the calculation if it is waiting for the agreement thread pool
+        Future<?> f = future;
+        if (f != null) {
+            f.cancel(true);
+        }
+    }
+
+    @Override
+    public boolean isCancelled()
+    {
+        return super.isCancelled()
+                || (!done && System.currentTimeMillis() - lastAccessed > POLL_TIMEOUT);
+    }
+
+    boolean isExpired()
+    {
+        if (done) {
+            return System.currentTimeMillis() - lastAccessed > RESULT_TIMEOUT;
+        }
+
+        return isCancelled();
+    }
+
+    void setFuture(Future<?> aFuture)
+    {
+        future = aFuture;
+    }
+
+    void complete(PairwiseAnnotationResult aResult, String aError)
+    {
+        result = aResult;
+        error = aError;
+        done = true;
+    }
+}
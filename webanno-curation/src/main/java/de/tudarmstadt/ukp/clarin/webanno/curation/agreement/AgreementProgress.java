@@ -0,0 +1,59 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.curation.agreement;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Progress of an agreement calculation. The calculation can be cancelled from another thread.
+ */
+public class AgreementProgress
+{
+    private volatile int progress = 0;
+    private volatile boolean cancelled = false;
+
+    /**
+     * @return the progress in percent.
+     */
+    public int getProgress()
+    {
+        return progress;
+    }
+
+    public void setProgress(int aProgress)
+    {
+        progress = aProgress;
+    }
+
+    public void cancel()
+    {
+        cancelled = true;
+    }
+
+    public boolean isCancelled()
+    {
+        return cancelled;
+    }
+
+    void checkCancelled()
+    {
+        if (isCancelled()) {
+            throw new CancellationException("Agreement calculation has been cancelled");
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.curation.agreement;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+
+import org.apache.uima.UIMAException;
+
+import de.tudarmstadt.ukp.clarin.webanno.curation.agreement.AgreementUtils.AgreementResult;
+import de.tudarmstadt.ukp.clarin.webanno.curation.agreement.AgreementUtils.ConcreteAgreementMeasure;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.LinkCompareBehavior;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
+
+/**
+ * Calculates the inter-annotator agreement on the finished annotation documents of a project.
+ * The differences between the annotators are summarized per document and layer. Summaries are
+ * cached and only re-calculated when the annotations of a document have changed, so the agreement
+ * for different features and measures can be calculated without loading the CASes again.
+ * <p>
+ * The CASes of a document are released as soon as the document has been summarized, so only
+ * the CASes of the documents currently being processed are held in memory. The service does not
+ * depend on the UI and can also be used e.g. from scripts or remote endpoints.
+ */
+public interface AgreementService
+{
+    String SERVICE_NAME = "agreementService";
+
+    /**
+     * Summarizes the differences between the given annotators on the given layer for every
+     * document in the project of the layer. Only finished annotation documents are considered.
+     *
+     * @param aLayer
+     *            the layer.
+     * @param aLinkCompareBehavior
+     *            how link features are compared.
+     * @param aAnnotators
+     *            the names of the annotators.
+     * @return the summaries, one per document.
+     * @throws IOException
+     *             if an annotation document cannot be read.
+     * @throws UIMAException
+     *             if an annotation document cannot be upgraded to the current type system.
+     */
+    List<DiffSummary> getDiffSummaries(AnnotationLayer aLayer,
+            LinkCompareBehavior aLinkCompareBehavior, List<String> aAnnotators)
+        throws IOException, UIMAException;
+
+    /**
+     * Calculates the agreement on the given feature between all pairs of the given annotators.
+     */
+    PairwiseAnnotationResult getPairwiseAgreement(ConcreteAgreementMeasure aMeasure,
+            boolean aExcludeIncomplete, AnnotationFeature aFeature,
+            LinkCompareBehavior aLinkCompareBehavior, List<String> aAnnotators)
+        throws IOException, UIMAException;
+
+    /**
+     * Calculates the agreement on the given feature between all pairs of the given annotators.
+     * The documents and the pairs of annotators are processed in parallel using a bounded thread
+     * pool (see {@code agreement.threads}).
+     * 
+     * @param aProgress
+     *            receives the progress of the calculation and allows cancelling it.
+     * @throws CancellationException
+     *             if the calculation has been cancelled.
+     */
+    PairwiseAnnotationResult getPairwiseAgreement(ConcreteAgreementMeasure aMeasure,
+            boolean aExcludeIncomplete, AnnotationFeature aFeature,
+            LinkCompareBehavior aLinkCompareBehavior, List<String> aAnnotators,
+            AgreementProgress aProgress)
+        throws IOException, UIMAException;
+
+    /**
+     * Starts calculating the agreement on the given feature between all pairs of the given
+     * annotators in the background. The calculations of all users share a bounded thread pool
+     * (see {@code agreement.calculations}). Calculations exceeding it wait until a thread becomes
+     * available.
+     * 
+     * @return the calculation. It can be obtained again using {@link #getCalculation(String)}.
+     */
+    AgreementCalculation startPairwiseAgreement(ConcreteAgreementMeasure aMeasure,
+            boolean aExcludeIncomplete, AnnotationFeature aFeature,
+            LinkCompareBehavior aLinkCompareBehavior, List<String> aAnnotators);
+
+    /**
+     * @return the calculation with the given ID or nothing if it is unknown, e.g. because it has
+     *         been discarded.
+     */
+    Optional<AgreementCalculation> getCalculation(String aId);
+
+    /**
+     * Cancels the calculation with the given ID if it is still running and discards it, e.g.
+     * because it has been superseded by a new calculation.
+     */
+    void discardCalculation(String aId);
+
+    /**
+     * Builds the agreement study on the given feature including all given annotators, e.g. for
+     * exporting it.
+     */
+    AgreementResult getStudy(AnnotationFeature aFeature, boolean aExcludeIncomplete,
+            LinkCompareBehavior aLinkCompareBehavior, List<String> aAnnotators)
+        throws IOException, UIMAException;
+}
@@ -0,0 +1,556 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.curation.agreement;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.singletonList;
+import static java.util.stream.Collectors.toList;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.uima.UIMAException;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.FeatureStructure;
+import org.apache.uima.fit.util.FSUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.security.concurrent.DelegatingSecurityContextRunnable;
+import org.springframework.stereotype.Component;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
+import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.BeforeDocumentRemovedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.BeforeProjectRemovedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.LayerConfigurationChangedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.curation.agreement.AgreementUtils.AgreementResult;
+import de.tudarmstadt.ukp.clarin.webanno.curation.agreement.AgreementUtils.ConcreteAgreementMeasure;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.DiffResult;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.LinkCompareBehavior;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.api.DiffAdapter;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.clarin.webanno.support.logging.Logging;
+
+@Component(AgreementService.SERVICE_NAME)
+public class AgreementServiceImpl
+    implements AgreementService, DisposableBean
+{
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final DocumentService documentService;
+    private final AnnotationSchemaService annotationService;
+    private final CasStorageService casStorageService;
+
+    private final int maxCacheEntries;
+
+    private final ForkJoinPool pool;
+
+    private final ExecutorService calculationExecutor;
+
+    private final Map<String, AgreementCalculation> calculations = new ConcurrentHashMap<>();
+
+    // Guarded by itself
+    private final Map<SummaryKey, CachedSummary> cache = new LinkedHashMap<SummaryKey,
+            CachedSummary>(16, 0.75f, true)
+    {
+        private static final long serialVersionUID = -2717305452367431617L;
+
+        @Override
+        protected boolean removeEldestEntry(Entry<SummaryKey, CachedSummary> aEldest)
+        {
+            return size() > maxCacheEntries;
+        }
+    };
+
+    @Autowired
+    public AgreementServiceImpl(DocumentService aDocumentService,
+            AnnotationSchemaService aAnnotationService, CasStorageService aCasStorageService,
+            @Value("${agreement.cache.max-entries:1000}") int aMaxCacheEntries,
+            @Value("${agreement.threads:0}") int aThreads,
+            @Value("${agreement.calculations:2}") int aMaxCalculations)
+    {
+        documentService = aDocumentService;
+        annotationService = aAnnotationService;
+        casStorageService = aCasStorageService;
+        maxCacheEntries = aMaxCacheEntries;
+        
+        int parallelism = aThreads > 0 ? aThreads : Runtime.getRuntime().availableProcessors();
+        pool = new ForkJoinPool(parallelism);
+        log.info("Agreement calculation threads: {}", parallelism);
+        
+        // The background calculations mostly wait for the pool, so they get their own threads
+        calculationExecutor = Executors.newFixedThreadPool(Math.max(aMaxCalculations, 1));
+        log.info("Concurrent background agreement calculations: {}",
+                Math.max(aMaxCalculations, 1));
+    }
+
+    @Override
+    public void destroy()
+    {
+        calculationExecutor.shutdownNow();
+        pool.shutdownNow();
+    }
+
+    @Override
+    public List<DiffSummary> getDiffSummaries(AnnotationLayer aLayer,
+            LinkCompareBehavior aLinkCompareBehavior, List<String> aAnnotators)
+        throws IOException, UIMAException
+    {
+        List<DiffSummary> summaries = new ArrayList<>();
+        summarizeDocuments(aLayer, aLinkCompareBehavior, aAnnotators, summaries::add);
+        return summaries;
+    }
+
+    /**
+     * Summarizes one document after the other and passes each summary to the given consumer
+     * before the next document is processed. Only the CASes of a single document are loaded at
+     * any time.
+     */
+    private void summarizeDocuments(AnnotationLayer aLayer,
+            LinkCompareBehavior aLinkCompareBehavior, List<String> aAnnotators,
+            Consumer<DiffSummary> aConsumer)
+        throws IOException, UIMAException
+    {
+        Project project = aLayer.getProject();
+        Map<SourceDocument, Map<String, AnnotationDocument>> finished = 
+                listFinishedAnnotationDocuments(project, aAnnotators);
+        List<DiffAdapter> adapters = CasDiff.getAdapters(annotationService, project);
+
+        AtomicInteger recalculated = new AtomicInteger();
+        long start = System.currentTimeMillis();
+        List<SourceDocument> documents = documentService.listSourceDocuments(project);
+        for (SourceDocument doc : documents) {
+            aConsumer.accept(getDiffSummary(doc, aLayer, aLinkCompareBehavior, adapters,
+                    aAnnotators, finished.getOrDefault(doc, emptyMap()), recalculated));
+        }
+
+        logSummarized(aLayer, documents.size(), recalculated.get(), start);
+    }
+
+    /**
+     * Collects the finished annotation documents of the given annotators per source document in
+     * a single query.
+     */
+    private Map<SourceDocument, Map<String, AnnotationDocument>> listFinishedAnnotationDocuments(
+            Project aProject, List<String> aAnnotators)
+    {
+        Map<SourceDocument, Map<String, AnnotationDocument>> finished = new HashMap<>();
+        for (AnnotationDocument annDoc : documentService
+                .listFinishedAnnotationDocuments(aProject)) {
+            if (aAnnotators.contains(annDoc.getUser())) {
+                finished.computeIfAbsent(annDoc.getDocument(), k -> new HashMap<>())
+                        .put(annDoc.getUser(), annDoc);
+            }
+        }
+        return finished;
+    }
+
+    /**
+     * Obtains the summary of a single document from the cache or calculates it if the cached
+     * summary is missing or outdated. May be called concurrently.
+     */
+    private DiffSummary getDiffSummary(SourceDocument aDocument, AnnotationLayer aLayer,
+            LinkCompareBehavior aLinkCompareBehavior, List<DiffAdapter> aAdapters,
+            List<String> aAnnotators, Map<String, AnnotationDocument> aAnnotationDocuments,
+            AtomicInteger aRecalculated)
+        throws IOException, UIMAException
+    {
+        // The summary can be re-used as long as the same annotators have finished the
+        // document and none of their annotations have changed since
+        Map<String, Long> timestamps = new HashMap<>();
+        for (String annotator : aAnnotationDocuments.keySet()) {
+            timestamps.put(annotator, documentService
+                    .getAnnotationCasTimestamp(aDocument, annotator).orElse(0l));
+        }
+
+        SummaryKey key = new SummaryKey(aDocument.getId(), aLayer.getName(),
+                aLinkCompareBehavior);
+        CachedSummary cached;
+        synchronized (cache) {
+            cached = cache.get(key);
+        }
+
+        if (cached == null || !cached.timestamps.equals(timestamps)) {
+            cached = new CachedSummary(timestamps, summarize(aDocument, aLayer,
+                    aLinkCompareBehavior, aAdapters, aAnnotators, aAnnotationDocuments));
+            synchronized (cache) {
+                cache.put(key, cached);
+            }
+            aRecalculated.incrementAndGet();
+        }
+
+        return cached.summary;
+    }
+
+    private void logSummarized(AnnotationLayer aLayer, int aDocuments, int aRecalculated,
+            long aStart)
+    {
+        try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
+                String.valueOf(aLayer.getProject().getId()))) {
+            log.debug("Summarized layer [{}] for {} documents ({} re-calculated) in {}ms",
+                    aLayer.getName(), aDocuments, aRecalculated,
+                    System.currentTimeMillis() - aStart);
+        }
+    }
+
+    /**
+     * Loads the finished CASes of a single document, summarizes their differences and releases
+     * them again.
+     */
+    private DiffSummary summarize(SourceDocument aDocument, AnnotationLayer aLayer,
+            LinkCompareBehavior aLinkCompareBehavior, List<DiffAdapter> aAdapters,
+            List<String> aAnnotators, Map<String, AnnotationDocument> aAnnotationDocuments)
+        throws IOException, UIMAException
+    {
+        Map<String, List<CAS>> casMap = new LinkedHashMap<>();
+
+        // The CASes are only needed until the summary has been created, so they should not be
+        // kept in the cache of the current request
+        boolean cacheEnabled = casStorageService.isCacheEnabled();
+        try {
+            casStorageService.disableCache();
+
+            for (String annotator : aAnnotators) {
+                AnnotationDocument annDoc = aAnnotationDocuments.get(annotator);
+                if (annDoc == null) {
+                    continue;
+                }
+
+                CAS cas = documentService.readAnnotationCas(annDoc);
+                annotationService.upgradeCasIfRequired(cas, annDoc);
+
+                // Set the CAS name in the DocumentMetaData so that we can pick it
+                // up in the Diff position for the purpose of debugging / transparency.
+                FeatureStructure dmd = WebAnnoCasUtil.getDocumentMetadata(cas);
+                FSUtil.setFeature(dmd, "documentId", aDocument.getName());
+                FSUtil.setFeature(dmd, "collectionId", aDocument.getProject().getName());
+
+                casMap.put(annotator, singletonList(cas));
+            }
+        }
+        finally {
+            if (cacheEnabled) {
+                casStorageService.enableCache();
+            }
+        }
+
+        DiffResult diff = CasDiff.doDiff(asList(aLayer.getName()), aAdapters,
+                aLinkCompareBehavior, casMap);
+        DiffSummary summary = AgreementUtils.summarize(diff, aLayer.getName(), casMap);
+        diff.detach();
+        return summary;
+    }
+
+    @Override
+    public PairwiseAnnotationResult getPairwiseAgreement(ConcreteAgreementMeasure aMeasure,
+            boolean aExcludeIncomplete, AnnotationFeature aFeature,
+            LinkCompareBehavior aLinkCompareBehavior, List<String> aAnnotators)
+        throws IOException, UIMAException
+    {
+        return getPairwiseAgreement(aMeasure, aExcludeIncomplete, aFeature, aLinkCompareBehavior,
+                aAnnotators, new AgreementProgress());
+    }
+
+    @Override
+    public PairwiseAnnotationResult getPairwiseAgreement(ConcreteAgreementMeasure aMeasure,
+            boolean aExcludeIncomplete, AnnotationFeature aFeature,
+            LinkCompareBehavior aLinkCompareBehavior, List<String> aAnnotators,
+            AgreementProgress aProgress)
+        throws IOException, UIMAException
+    {
+        AnnotationLayer layer = aFeature.getLayer();
+        Project project = layer.getProject();
+        Map<SourceDocument, Map<String, AnnotationDocument>> finished = 
+                listFinishedAnnotationDocuments(project, aAnnotators);
+        List<SourceDocument> documents = documentService.listSourceDocuments(project);
+        List<DiffAdapter> adapters = CasDiff.getAdapters(annotationService, project);
+
+        // The agreement is symmetric, so only the upper triangle of the matrix is calculated
+        List<List<String>> pairs = new ArrayList<>();
+        for (int m = 0; m < aAnnotators.size(); m++) {
+            for (int n = m + 1; n < aAnnotators.size(); n++) {
+                pairs.add(asList(aAnnotators.get(m), aAnnotators.get(n)));
+            }
+        }
+
+        // Progress only reaches 100% once the result is complete
+        int steps = documents.size() + pairs.size() + 1;
+        AtomicInteger done = new AtomicInteger();
+
+        // Summarize the documents in parallel - only the CASes of the documents currently being
+        // processed are in memory
+        AtomicInteger recalculated = new AtomicInteger();
+        long start = System.currentTimeMillis();
+        List<DiffSummary> summaries = invoke(() -> documents.parallelStream().map(doc -> {
+            aProgress.checkCancelled();
+            try {
+                DiffSummary summary = getDiffSummary(doc, layer, aLinkCompareBehavior, adapters,
+                        aAnnotators, finished.getOrDefault(doc, emptyMap()), recalculated);
+                aProgress.setProgress(done.incrementAndGet() * 100 / steps);
+                return summary;
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            catch (UIMAException e) {
+                throw new IllegalStateException(e);
+            }
+        }).collect(toList()), aProgress);
+        logSummarized(layer, documents.size(), recalculated.get(), start);
+
+        // Calculate the studies for the pairs of annotators in parallel
+        List<AgreementResult> results = invoke(() -> pairs.parallelStream().map(pair -> {
+            aProgress.checkCancelled();
+            AgreementStudyBuilder study = new AgreementStudyBuilder(layer.getName(),
+                    aFeature.getName(), pair, aExcludeIncomplete);
+            summaries.forEach(study::add);
+            AgreementResult result = AgreementUtils.calculateAgreement(aMeasure, study.build());
+            aProgress.setProgress(done.incrementAndGet() * 100 / steps);
+            return result;
+        }).collect(toList()), aProgress);
+
+        PairwiseAnnotationResult result = new PairwiseAnnotationResult();
+        for (int i = 0; i < pairs.size(); i++) {
+            result.add(pairs.get(i).get(0), pairs.get(i).get(1), results.get(i));
+        }
+        aProgress.setProgress(100);
+        return result;
+    }
+
+    @Override
+    public AgreementCalculation startPairwiseAgreement(ConcreteAgreementMeasure aMeasure,
+            boolean aExcludeIncomplete, AnnotationFeature aFeature,
+            LinkCompareBehavior aLinkCompareBehavior, List<String> aAnnotators)
+    {
+        discardExpiredCalculations();
+        
+        AgreementCalculation calculation = new AgreementCalculation();
+        calculations.put(calculation.getId(), calculation);
+        
+        // The calculation needs the permissions of the calling user to read the annotations
+        calculation.setFuture(calculationExecutor.submit(new DelegatingSecurityContextRunnable(
+            () -> {
+                PairwiseAnnotationResult result = null;
+                String error = null;
+                try {
+                    // The calculation may have been cancelled while waiting for a thread
+                    calculation.checkCancelled();
+                    result = getPairwiseAgreement(aMeasure, aExcludeIncomplete, aFeature,
+                            aLinkCompareBehavior, aAnnotators, calculation);
+                }
+                catch (CancellationException e) {
+                    log.debug("Agreement calculation cancelled");
+                }
+                catch (Exception e) {
+                    log.error("Unable to calculate agreement", e);
+                    error = ExceptionUtils.getRootCauseMessage(e);
+                }
+                finally {
+                    calculation.complete(result, error);
+                }
+            })));
+        
+        return calculation;
+    }
+
+    @Override
+    public Optional<AgreementCalculation> getCalculation(String aId)
+    {
+        discardExpiredCalculations();
+        
+        return Optional.ofNullable(calculations.get(aId));
+    }
+
+    @Override
+    public void discardCalculation(String aId)
+    {
+        AgreementCalculation calculation = calculations.remove(aId);
+        if (calculation != null) {
+            calculation.cancel();
+        }
+    }
+    
+    private void discardExpiredCalculations()
+    {
+        calculations.values().removeIf(calculation -> {
+            if (calculation.isExpired()) {
+                calculation.cancel();
+                return true;
+            }
+            return false;
+        });
+    }
+
+    /**
+     * Runs the given task in the agreement thread pool and waits for it to complete. If the
+     * calling thread is interrupted, the calculation is cancelled.
+     */
+    private <T> T invoke(Callable<T> aTask, AgreementProgress aProgress)
+        throws IOException, UIMAException
+    {
+        ForkJoinTask<T> task = pool.submit(aTask);
+        try {
+            return task.get();
+        }
+        catch (InterruptedException e) {
+            aProgress.cancel();
+            task.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Agreement calculation has been interrupted");
+        }
+        catch (ExecutionException e) {
+            // Exceptions thrown in a parallel stream may be wrapped multiple times
+            for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                if (cause instanceof UIMAException) {
+                    throw (UIMAException) cause;
+                }
+                if (cause instanceof CancellationException) {
+                    throw (CancellationException) cause;
+                }
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    @Override
+    public AgreementResult getStudy(AnnotationFeature aFeature, boolean aExcludeIncomplete,
+            LinkCompareBehavior aLinkCompareBehavior, List<String> aAnnotators)
+        throws IOException, UIMAException
+    {
+        AgreementStudyBuilder study = new AgreementStudyBuilder(aFeature.getLayer().getName(),
+                aFeature.getName(), aAnnotators, aExcludeIncomplete);
+        summarizeDocuments(aFeature.getLayer(), aLinkCompareBehavior, aAnnotators, study::add);
+        return study.build();
+    }
+
+    @EventListener
+    public void onLayerConfigurationChanged(LayerConfigurationChangedEvent aEvent)
+    {
+        // Changing the features of a layer changes how annotations are compared
+        invalidate(aEvent.getProject());
+    }
+
+    @EventListener
+    public void beforeProjectRemove(BeforeProjectRemovedEvent aEvent)
+    {
+        invalidate(aEvent.getProject());
+    }
+
+    @EventListener
+    public void beforeDocumentRemove(BeforeDocumentRemovedEvent aEvent)
+    {
+        long documentId = aEvent.getDocument().getId();
+        synchronized (cache) {
+            cache.keySet().removeIf(key -> key.documentId == documentId);
+        }
+    }
+
+    private void invalidate(Project aProject)
+    {
+        List<Long> documentIds = new ArrayList<>();
+        for (SourceDocument doc : documentService.listSourceDocuments(aProject)) {
+            documentIds.add(doc.getId());
+        }
+
+        synchronized (cache) {
+            cache.keySet().removeIf(key -> documentIds.contains(key.documentId));
+        }
+    }
+
+    private static final class SummaryKey
+    {
+        private final long documentId;
+        private final String layer;
+        private final LinkCompareBehavior linkCompareBehavior;
+
+        public SummaryKey(long aDocumentId, String aLayer,
+                LinkCompareBehavior aLinkCompareBehavior)
+        {
+            documentId = aDocumentId;
+            layer = aLayer;
+            linkCompareBehavior = aLinkCompareBehavior;
+        }
+
+        @Override
+        public boolean equals(Object aOther)
+        {
+            if (!(aOther instanceof SummaryKey)) {
+                return false;
+            }
+            SummaryKey castOther = (SummaryKey) aOther;
+            return documentId == castOther.documentId && layer.equals(castOther.layer)
+                    && linkCompareBehavior == castOther.linkCompareBehavior;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(documentId, layer, linkCompareBehavior);
+        }
+    }
+
+    private static final class CachedSummary
+    {
+        private final Map<String, Long> timestamps;
+        private final DiffSummary summary;
+
+        public CachedSummary(Map<String, Long> aTimestamps, DiffSummary aSummary)
+        {
+            timestamps = aTimestamps;
+            summary = aSummary;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.curation.agreement;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.ObjectUtils;
+
+import de.tudarmstadt.ukp.clarin.webanno.curation.agreement.AgreementUtils.AgreementResult;
+import de.tudarmstadt.ukp.clarin.webanno.curation.agreement.DiffSummary.Unit;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.ConfigurationSet;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.DiffResult;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.api.Position;
+import de.tudarmstadt.ukp.dkpro.statistics.agreement.coding.CodingAnnotationStudy;
+
+/**
+ * Assembles an agreement study incrementally from {@link DiffSummary diff summaries}. The
+ * summaries can be added one document at a time, so the diffs and CASes of a document can be
+ * released before the next document is processed.
+ */
+public class AgreementStudyBuilder
+{
+    private final String type;
+    private final String feature;
+    private final List<String> users;
+    private final boolean excludeIncomplete;
+    private final boolean nullLabelsAsEmpty;
+
+    private final List<ConfigurationSet> completeSets = new ArrayList<>();
+    private final List<ConfigurationSet> setsWithDifferences = new ArrayList<>();
+    private final List<ConfigurationSet> incompleteSetsByPosition = new ArrayList<>();
+    private final List<ConfigurationSet> incompleteSetsByLabel = new ArrayList<>();
+    private final List<ConfigurationSet> pluralitySets = new ArrayList<>();
+    private final List<ConfigurationSet> irrelevantSets = new ArrayList<>();
+    private final CodingAnnotationStudy study;
+    private int totalSetCount = 0;
+    private int summaryCount = 0;
+    private DiffResult lastDiff;
+
+    public AgreementStudyBuilder(String aType, String aFeature, Collection<String> aUsers,
+            boolean aExcludeIncomplete)
+    {
+        this(aType, aFeature, aUsers, aExcludeIncomplete, true);
+    }
+
+    AgreementStudyBuilder(String aType, String aFeature, Collection<String> aUsers,
+            boolean aExcludeIncomplete, boolean aNullLabelsAsEmpty)
+    {
+        type = aType;
+        feature = aFeature;
+        users = new ArrayList<>(aUsers);
+        Collections.sort(users);
+        excludeIncomplete = aExcludeIncomplete;
+        nullLabelsAsEmpty = aNullLabelsAsEmpty;
+        study = new CodingAnnotationStudy(users.size());
+    }
+
+    /**
+     * Adds the configuration sets of the given summary to the study.
+     */
+    public void add(DiffSummary aSummary)
+    {
+        DiffResult diff = aSummary.getDiff();
+        totalSetCount += diff.getPositions().size();
+        summaryCount++;
+        lastDiff = diff;
+
+        Map<String, Boolean> primitiveFeatures = aSummary.getPrimitiveFeatures();
+        if (primitiveFeatures == null) {
+            // Well... there is NOTHING here!
+            // All positions are irrelevant
+            diff.getPositions().forEach(p -> irrelevantSets.add(diff.getConfigurtionSet(p)));
+            return;
+        }
+
+        // Check that the feature really exists instead of just getting a NPE later
+        if (!primitiveFeatures.containsKey(feature)) {
+            throw new IllegalArgumentException("Type [" + type
+                    + "] has no feature called [" + feature + "]");
+        }
+
+        boolean isPrimitiveFeature = primitiveFeatures.get(feature);
+
+        nextPosition: for (Position p : diff.getPositions()) {
+            ConfigurationSet cfgSet = diff.getConfigurtionSet(p);
+
+            // Only calculate agreement for the given layer
+            if (!cfgSet.getPosition().getType().equals(type)) {
+                // We don't even consider these as irrelevant, they are just filtered out
+                continue;
+            }
+
+            // If the feature on a position is set, then it is a subposition
+            boolean isSubPosition = p.getFeature() != null;
+
+            // Check if this position is irrelevant:
+            // - if we are looking for a primitive type and encounter a subposition
+            // - if we are looking for a non-primitive type and encounter a primary position
+            // this is an inverted XOR!
+            if (!(isPrimitiveFeature ^ isSubPosition)) {
+                irrelevantSets.add(cfgSet);
+                continue;
+            }
+
+            // Check if subposition is for the feature we are looking for or for a different
+            // feature
+            if (isSubPosition && !feature.equals(cfgSet.getPosition().getFeature())) {
+                irrelevantSets.add(cfgSet);
+                continue nextPosition;
+            }
+
+            // If non of the current users has made any annotation at this position, then
+            // skip it
+            if (users.stream().filter(u -> cfgSet.getCasGroupIds().contains(u)).count() == 0) {
+                irrelevantSets.add(cfgSet);
+                continue nextPosition;
+            }
+
+            Object[] values = new Object[users.size()];
+            int i = 0;
+            for (String user : users) {
+                // Set has to include all users, otherwise we cannot calculate the agreement
+                // for this configuration set.
+                if (!cfgSet.getCasGroupIds().contains(user)) {
+                    incompleteSetsByPosition.add(cfgSet);
+                    if (excludeIncomplete) {
+                        // Record as incomplete
+                        continue nextPosition;
+                    }
+                    else {
+                        // Record as missing value
+                        values[i] = null;
+                        i++;
+                        continue;
+                    }
+                }
+
+                Unit unit = aSummary.getUnit(cfgSet, user);
+                if (unit == null) {
+                    throw new IllegalArgumentException(
+                            "User [" + user + "] is not included in the diff summary");
+                }
+
+                if (unit.isPlural()) {
+                    pluralitySets.add(cfgSet);
+                    continue nextPosition;
+                }
+
+                // Only calculate agreement for the given feature
+                values[i] = unit.getValue(feature);
+
+                // Consider empty/null feature values to be the same and do not exclude them
+                // from agreement calculation. The empty label is still a valid label.
+                if (nullLabelsAsEmpty && values[i] == null) {
+                    values[i] = "";
+                }
+
+                // "null" cannot be used in agreement calculations. We treat these as
+                // incomplete
+                if (values[i] == null) {
+                    incompleteSetsByLabel.add(cfgSet);
+                    if (excludeIncomplete) {
+                        continue nextPosition;
+                    }
+                }
+
+                i++;
+            }
+
+            if (ObjectUtils.notEqual(values[0], values[1])) {
+                setsWithDifferences.add(cfgSet);
+            }
+
+            // If the position feature is set (subposition), then it must match the feature
+            // we are calculating agreement over
+            assert cfgSet.getPosition().getFeature() == null
+                    || cfgSet.getPosition().getFeature().equals(feature);
+
+            completeSets.add(cfgSet);
+            study.addItemAsArray(values);
+        }
+    }
+
+    /**
+     * @return the study including all summaries added so far. The agreement is not calculated
+     *         yet, use {@link AgreementUtils#calculateAgreement} for that.
+     */
+    public AgreementResult build()
+    {
+        // Keep the diff accessible from the result as long as the result is based on a single
+        // diff
+        DiffResult diff = summaryCount == 1 ? lastDiff : null;
+        return new AgreementResult(type, feature, diff, totalSetCount, study, users,
+                completeSets, irrelevantSets, setsWithDifferences, incompleteSetsByPosition,
+                incompleteSetsByLabel, pluralitySets, excludeIncomplete);
+    }
+}
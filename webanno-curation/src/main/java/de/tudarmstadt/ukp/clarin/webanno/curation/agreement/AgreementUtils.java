@@ -17,7 +17,6 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.curation.agreement;
 
-import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getFeature;
 import static java.util.Arrays.asList;
 
 import java.io.ByteArrayInputStream;
@@ -29,23 +28,23 @@ import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.LinkedHashMap;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVPrinter;
-import org.apache.commons.lang3.ObjectUtils;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.apache.uima.cas.ArrayFS;
 import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Feature;
 import org.apache.uima.cas.FeatureStructure;
-import org.apache.uima.cas.TypeSystem;
+import org.apache.uima.cas.Type;
 import org.apache.uima.cas.text.AnnotationFS;
 import org.apache.uima.fit.util.CasUtil;
 import org.apache.uima.fit.util.FSUtil;
 
+import de.tudarmstadt.ukp.clarin.webanno.curation.agreement.DiffSummary.Unit;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.Configuration;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.ConfigurationSet;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.DiffResult;
@@ -54,7 +53,6 @@ import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.relation.RelationDiffA
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.relation.RelationPosition;
 import de.tudarmstadt.ukp.dkpro.statistics.agreement.IAgreementMeasure;
 import de.tudarmstadt.ukp.dkpro.statistics.agreement.IAnnotationUnit;
-import de.tudarmstadt.ukp.dkpro.statistics.agreement.coding.CodingAnnotationStudy;
 import de.tudarmstadt.ukp.dkpro.statistics.agreement.coding.CohenKappaAgreement;
 import de.tudarmstadt.ukp.dkpro.statistics.agreement.coding.FleissKappaAgreement;
 import de.tudarmstadt.ukp.dkpro.statistics.agreement.coding.ICodingAnnotationItem;
@@ -123,20 +121,27 @@ public class AgreementUtils
     public static PairwiseAnnotationResult getPairwiseAgreement(
             ConcreteAgreementMeasure aMeasure, boolean aExcludeIncomplete,
             DiffResult aDiff, String aType, String aFeature, Map<String, List<CAS>> aCasMap)
+    {
+        return getPairwiseAgreement(aMeasure, aExcludeIncomplete,
+                asList(summarize(aDiff, aType, aCasMap)), aType, aFeature,
+                new ArrayList<>(aCasMap.keySet()));
+    }
+
+    /**
+     * Calculates the agreement between all pairs of the given users from previously
+     * {@link #summarize(DiffResult, String, Map) summarized} diffs.
+     */
+    public static PairwiseAnnotationResult getPairwiseAgreement(
+            ConcreteAgreementMeasure aMeasure, boolean aExcludeIncomplete,
+            List<DiffSummary> aSummaries, String aType, String aFeature, List<String> aUsers)
     {
         PairwiseAnnotationResult result = new PairwiseAnnotationResult();
-        List<Entry<String, List<CAS>>> entryList = new ArrayList<>(aCasMap.entrySet());
-        for (int m = 0; m < entryList.size(); m++) {
-            for (int n = 0; n < entryList.size(); n++) {
-                // Triangle matrix mirrored
-                if (n < m) {
-                    Map<String, List<CAS>> pairwiseCasMap = new LinkedHashMap<>();
-                    pairwiseCasMap.put(entryList.get(m).getKey(), entryList.get(m).getValue());
-                    pairwiseCasMap.put(entryList.get(n).getKey(), entryList.get(n).getValue());
-                    AgreementResult res = getAgreement(aMeasure, aExcludeIncomplete, aDiff, aType,
-                            aFeature, pairwiseCasMap);
-                    result.add(entryList.get(m).getKey(), entryList.get(n).getKey(), res);
-                }
+        for (int m = 0; m < aUsers.size(); m++) {
+            // Triangle matrix mirrored
+            for (int n = m + 1; n < aUsers.size(); n++) {
+                AgreementResult res = getAgreement(aMeasure, aExcludeIncomplete, aSummaries,
+                        aType, aFeature, asList(aUsers.get(m), aUsers.get(n)));
+                result.add(aUsers.get(m), aUsers.get(n), res);
             }
         }
         return result;
@@ -157,23 +162,55 @@ public class AgreementUtils
             throw new IllegalArgumentException("CAS map must contain exactly two CASes");
         }
         
-        AgreementResult agreementResult = AgreementUtils.makeStudy(aDiff, aType, aFeature,
-                aExcludeIncomplete, aCasMap);
+        return getAgreement(aMeasure, aExcludeIncomplete,
+                asList(summarize(aDiff, aType, aCasMap)), aType, aFeature,
+                new ArrayList<>(aCasMap.keySet()));
+    }
+
+    /**
+     * Calculates the agreement between two users from previously
+     * {@link #summarize(DiffResult, String, Map) summarized} diffs.
+     */
+    public static AgreementResult getAgreement(ConcreteAgreementMeasure aMeasure,
+            boolean aExcludeIncomplete, List<DiffSummary> aSummaries, String aType,
+            String aFeature, List<String> aUsers)
+    {
+        if (aUsers.size() != 2) {
+            throw new IllegalArgumentException("Agreement requires exactly two users");
+        }
+        
+        return calculateAgreement(aMeasure, makeStudy(aSummaries, aUsers, aType, aFeature,
+                aExcludeIncomplete, true));
+    }
+    
+    /**
+     * Calculates the agreement on a study which includes exactly two users.
+     * 
+     * @param aMeasure
+     *            the agreement measure.
+     * @param aAgreementResult
+     *            the study, e.g. assembled using an {@link AgreementStudyBuilder}. The agreement
+     *            is stored in the study.
+     * @return the study.
+     */
+    public static AgreementResult calculateAgreement(ConcreteAgreementMeasure aMeasure,
+            AgreementResult aAgreementResult)
+    {
         try {
-            IAgreementMeasure agreement = aMeasure.make(agreementResult.study);
+            IAgreementMeasure agreement = aMeasure.make(aAgreementResult.study);
             
-            if (agreementResult.study.getItemCount() > 0) {
-                agreementResult.setAgreement(agreement.calculateAgreement());
+            if (aAgreementResult.study.getItemCount() > 0) {
+                aAgreementResult.setAgreement(agreement.calculateAgreement());
             }
             else {
-                agreementResult.setAgreement(Double.NaN);
+                aAgreementResult.setAgreement(Double.NaN);
             }
-            return agreementResult;
+            return aAgreementResult;
             
         }
         catch (RuntimeException e) {
             // FIXME
-            AgreementUtils.dumpAgreementStudy(System.out, agreementResult);
+            AgreementUtils.dumpAgreementStudy(System.out, aAgreementResult);
             throw e;
         }
     }
@@ -181,8 +218,18 @@ public class AgreementUtils
     public static AgreementResult makeStudy(DiffResult aDiff, String aType, String aFeature,
             boolean aExcludeIncomplete, Map<String, List<CAS>> aCasMap)
     {
-        return makeStudy(aDiff, aCasMap.keySet(), aType, aFeature, aExcludeIncomplete, true,
-                aCasMap);
+        return makeStudy(asList(summarize(aDiff, aType, aCasMap)), aCasMap.keySet(), aType,
+                aFeature, aExcludeIncomplete, true);
+    }
+    
+    /**
+     * Builds the agreement study for the given users from previously
+     * {@link #summarize(DiffResult, String, Map) summarized} diffs.
+     */
+    public static AgreementResult makeStudy(List<DiffSummary> aSummaries,
+            Collection<String> aUsers, String aType, String aFeature, boolean aExcludeIncomplete)
+    {
+        return makeStudy(aSummaries, aUsers, aType, aFeature, aExcludeIncomplete, true);
     }
     
     private static CAS findSomeCas(Map<String, List<CAS>> aCasMap)
@@ -200,232 +247,169 @@ public class AgreementUtils
         return null;
     }
     
-    private static AgreementResult makeStudy(DiffResult aDiff, Collection<String> aUsers,
-            String aType, String aFeature, boolean aExcludeIncomplete, boolean aNullLabelsAsEmpty,
+    /**
+     * Extracts the labels of the annotations of the given type from the CASes, such that the
+     * agreement on the type can afterwards be calculated without access to the CASes. The diff
+     * may then be {@link DiffResult#detach() detached} from the CASes.
+     * 
+     * @param aDiff
+     *            the diff calculated on the given CASes.
+     * @param aType
+     *            the type to calculate agreement on.
+     * @param aCasMap
+     *            the CASes by CAS group. Only these CAS groups are included in the summary.
+     * @return the summary.
+     */
+    public static DiffSummary summarize(DiffResult aDiff, String aType,
             Map<String, List<CAS>> aCasMap)
     {
-        List<String> users = new ArrayList<>(aUsers);
-        Collections.sort(users);
-        
-        List<ConfigurationSet> completeSets = new ArrayList<>();
-        List<ConfigurationSet> setsWithDifferences = new ArrayList<>();
-        List<ConfigurationSet> incompleteSetsByPosition = new ArrayList<>();
-        List<ConfigurationSet> incompleteSetsByLabel = new ArrayList<>();
-        List<ConfigurationSet> pluralitySets = new ArrayList<>();
-        List<ConfigurationSet> irrelevantSets = new ArrayList<>();
-        CodingAnnotationStudy study = new CodingAnnotationStudy(users.size());
-        
-        // Check if the feature we are looking at is a primitive feature or a link feature
+        // Check if the features we are looking at are primitive features or link features
         // We do this by looking it up in the first available CAS. Mind that at this point all
         // CASes should have exactly the same typesystem.
         CAS someCas = findSomeCas(aCasMap);
-        if (someCas == null) {
-            // Well... there is NOTHING here!
-            // All positions are irrelevant
-            aDiff.getPositions().forEach(p -> irrelevantSets.add(aDiff.getConfigurtionSet(p)));
-            
-            return new AgreementResult(aType, aFeature, aDiff, study, users, completeSets,
-                    irrelevantSets, setsWithDifferences, incompleteSetsByPosition,
-                    incompleteSetsByLabel, pluralitySets, aExcludeIncomplete);
-        }
-        TypeSystem ts = someCas.getTypeSystem();
         
-        // This happens in our testcases when we feed the process with uninitialized CASes.
-        // We should just do the right thing here which is: do nothing
-        if (ts.getType(aType) == null) {
-            // All positions are irrelevant
-            aDiff.getPositions().forEach(p -> irrelevantSets.add(aDiff.getConfigurtionSet(p)));
-            
-            return new AgreementResult(aType, aFeature, aDiff, study, users, completeSets,
-                    irrelevantSets, setsWithDifferences, incompleteSetsByPosition,
-                    incompleteSetsByLabel, pluralitySets, aExcludeIncomplete);
+        // If there is no CAS or if the type is not even in the CAS (this happens in our testcases
+        // when we feed the process with uninitialized CASes), all positions are irrelevant.
+        Type type = someCas != null ? someCas.getTypeSystem().getType(aType) : null;
+        if (type == null) {
+            return new DiffSummary(aType, aDiff, null);
         }
         
-        // Check that the feature really exists instead of just getting a NPE later
-        if (ts.getType(aType).getFeatureByBaseName(aFeature) == null) {
-            throw new IllegalArgumentException("Type [" + aType + "] has no feature called ["
-                    + aFeature + "]");
+        Map<String, Boolean> primitiveFeatures = new HashMap<>();
+        for (Feature feature : type.getFeatures()) {
+            primitiveFeatures.put(feature.getShortName(), feature.getRange().isPrimitive());
         }
-
-        boolean isPrimitiveFeature = ts.getType(aType).getFeatureByBaseName(aFeature).getRange()
-                .isPrimitive();
         
-        nextPosition: for (Position p : aDiff.getPositions()) {
-            ConfigurationSet cfgSet = aDiff.getConfigurtionSet(p);
-
+        DiffSummary summary = new DiffSummary(aType, aDiff, primitiveFeatures);
+        for (ConfigurationSet cfgSet : aDiff.getConfigurationSets()) {
             // Only calculate agreement for the given layer
             if (!cfgSet.getPosition().getType().equals(aType)) {
-                // We don't even consider these as irrelevant, they are just filtered out
-                continue;
-            }
-
-            // If the feature on a position is set, then it is a subposition
-            boolean isSubPosition = p.getFeature() != null;
-
-            // Check if this position is irrelevant:
-            // - if we are looking for a primitive type and encounter a subposition
-            // - if we are looking for a non-primitive type and encounter a primary position
-            // this is an inverted XOR!
-            if (!(isPrimitiveFeature ^ isSubPosition)) {
-                irrelevantSets.add(cfgSet);
                 continue;
             }
             
-            // Check if subposition is for the feature we are looking for or for a different 
-            // feature
-            if (isSubPosition && !aFeature.equals(cfgSet.getPosition().getFeature())) {
-                irrelevantSets.add(cfgSet);
-                continue nextPosition;
+            for (String user : cfgSet.getCasGroupIds()) {
+                if (aCasMap.containsKey(user)) {
+                    summary.addUnit(cfgSet, user, makeUnit(aDiff, cfgSet, user, aCasMap));
+                }
             }
-            
-            // If non of the current users has made any annotation at this position, then skip it
-            if (users.stream().filter(u -> cfgSet.getCasGroupIds().contains(u)).count() == 0) {
-                irrelevantSets.add(cfgSet);
-                continue nextPosition;
+        }
+        
+        return summary;
+    }
+    
+    private static Unit makeUnit(DiffResult aDiff, ConfigurationSet aCfgSet, String aUser,
+            Map<String, List<CAS>> aCasMap)
+    {
+        // Make sure a single user didn't do multiple alternative annotations at a single
+        // position. So there is currently no support for calculating agreement on stacking
+        // annotations.
+        List<Configuration> cfgs = aCfgSet.getConfigurations(aUser);
+        if (cfgs.size() > 1) {
+            return Unit.PLURAL;
+        }
+        
+        Configuration cfg = cfgs.get(0);
+        
+        // Check if source and/or targets of a relation are stacked
+        if (cfg.getPosition() instanceof RelationPosition) {
+            RelationPosition pos = (RelationPosition) cfg.getPosition();
+            FeatureStructure arc = cfg.getFs(aUser, pos.getCasId(), aCasMap);
+
+            RelationDiffAdapter adapter = (RelationDiffAdapter) aDiff
+                    .getDiffAdapter(pos.getType());
+
+            // Check if the source of the relation is stacked
+            AnnotationFS source = FSUtil.getFeature(arc, adapter.getSourceFeature(),
+                    AnnotationFS.class);
+            List<AnnotationFS> sourceCandidates = CasUtil.selectAt(arc.getCAS(),
+                    source.getType(), source.getBegin(), source.getEnd());
+            if (sourceCandidates.size() > 1) {
+                return Unit.PLURAL;
             }
             
-            Object[] values = new Object[users.size()];
-            int i = 0;
-            for (String user : users) {
-                // Set has to include all users, otherwise we cannot calculate the agreement for
-                // this configuration set.
-                if (!cfgSet.getCasGroupIds().contains(user)) {
-                    incompleteSetsByPosition.add(cfgSet);
-                    if (aExcludeIncomplete) {
-                        // Record as incomplete
-                        continue nextPosition;
-                    }
-                    else {
-                        // Record as missing value
-                        values[i] = null;
-                        i++;
-                        continue;
-                    }
-                }
-                
-                // Make sure a single user didn't do multiple alternative annotations at a single
-                // position. So there is currently no support for calculating agreement on stacking
-                // annotations.
-                List<Configuration> cfgs = cfgSet.getConfigurations(user);
-                if (cfgs.size() > 1) {
-                    pluralitySets.add(cfgSet);
-                    continue nextPosition;
-                }
-                
-                Configuration cfg = cfgs.get(0);
-                
-                // Check if source and/or targets of a relation are stacked
-                if (cfg.getPosition() instanceof RelationPosition) {
-                    RelationPosition pos = (RelationPosition) cfg.getPosition();
-                    FeatureStructure arc = cfg.getFs(user, pos.getCasId(), aCasMap);
-
-                    RelationDiffAdapter adapter = (RelationDiffAdapter) aDiff
-                            .getDiffAdapter(pos.getType());
-
-                    // Check if the source of the relation is stacked
-                    AnnotationFS source = FSUtil.getFeature(arc, adapter.getSourceFeature(),
-                            AnnotationFS.class);
-                    List<AnnotationFS> sourceCandidates = CasUtil.selectAt(arc.getCAS(),
-                            source.getType(), source.getBegin(), source.getEnd());
-                    if (sourceCandidates.size() > 1) {
-                        pluralitySets.add(cfgSet);
-                        continue nextPosition;
-                    }
-                    
-                    // Check if the target of the relation is stacked
-                    AnnotationFS target = FSUtil.getFeature(arc, adapter.getTargetFeature(),
-                            AnnotationFS.class);
-                    List<AnnotationFS> targetCandidates = CasUtil.selectAt(arc.getCAS(),
-                            target.getType(), target.getBegin(), target.getEnd());
-                    if (targetCandidates.size() > 1) {
-                        pluralitySets.add(cfgSet);
-                        continue nextPosition;
-                    }
-                }
-                
-                // Only calculate agreement for the given feature
-                FeatureStructure fs = cfg.getFs(user, cfg.getPosition().getCasId(), aCasMap);
-
-                // BEGIN PARANOIA
-                assert fs.getType().getFeatureByBaseName(aFeature).getRange()
-                        .isPrimitive() == isPrimitiveFeature;
-                // primitive implies not subposition - if this is primitive and subposition, we
-                // should never have gotten here in the first place.
-                assert !isPrimitiveFeature || !isSubPosition; 
-                // END PARANOIA
-                
-                if (isPrimitiveFeature && !isSubPosition) {
-                    // Primitive feature / primary position
-                    values[i] = getFeature(fs, aFeature);
-                }
-                else if (!isPrimitiveFeature && isSubPosition) {
-                    // Link feature / sub-position
-                    ArrayFS links = (ArrayFS) fs.getFeatureValue(fs.getType().getFeatureByBaseName(
-                            aFeature));
-                    FeatureStructure link = links.get(cfg.getAID(user).index);
-                    
-                    switch (cfg.getPosition().getLinkCompareBehavior()) {
-                    case LINK_TARGET_AS_LABEL:
-                        // FIXME The target feature name should be obtained from the feature
-                        // definition!
-                        AnnotationFS target = (AnnotationFS) link.getFeatureValue(link.getType()
-                                .getFeatureByBaseName("target"));
-                        
-                        values[i] = target.getBegin() + "-" + target.getEnd() + " ["
-                                + target.getCoveredText() + "]";
-                        break;
-                    case LINK_ROLE_AS_LABEL:
-                        // FIXME The role feature name should be obtained from the feature
-                        // definition!
-                        String role = link.getStringValue(link.getType().getFeatureByBaseName(
-                                "role"));
-                        
-                        values[i] = role;
-                        break;
-                    default:
-                        throw new IllegalStateException("Unknown link target comparison mode ["
-                                + cfg.getPosition().getLinkCompareBehavior() + "]");
-                    }
-                }
-                else {
-                    throw new IllegalStateException("Should never get here: primitive: "
-                            + fs.getType().getFeatureByBaseName(aFeature).getRange()
-                                    .isPrimitive() + "; subpos: " + isSubPosition);
-                }
-
-                // Consider empty/null feature values to be the same and do not exclude them from
-                // agreement calculation. The empty label is still a valid label.
-                if (aNullLabelsAsEmpty && values[i] == null) {
-                    values[i] = "";
-                }
-                
-                // "null" cannot be used in agreement calculations. We treat these as incomplete
-                if (values[i] == null) {
-                    incompleteSetsByLabel.add(cfgSet);
-                    if (aExcludeIncomplete) {
-                        continue nextPosition;
-                    }
-                }
-
-                i++;
+            // Check if the target of the relation is stacked
+            AnnotationFS target = FSUtil.getFeature(arc, adapter.getTargetFeature(),
+                    AnnotationFS.class);
+            List<AnnotationFS> targetCandidates = CasUtil.selectAt(arc.getCAS(),
+                    target.getType(), target.getBegin(), target.getEnd());
+            if (targetCandidates.size() > 1) {
+                return Unit.PLURAL;
             }
-
-            if (ObjectUtils.notEqual(values[0], values[1])) {
-                setsWithDifferences.add(cfgSet);
+        }
+        
+        FeatureStructure fs = cfg.getFs(aUser, cfg.getPosition().getCasId(), aCasMap);
+        String linkFeature = aCfgSet.getPosition().getFeature();
+        
+        if (linkFeature == null) {
+            // Primary position - record the values of all features which can be used as labels
+            Map<String, Object> values = new HashMap<>();
+            for (Feature feature : fs.getType().getFeatures()) {
+                if (feature.getRange().isPrimitive()) {
+                    values.put(feature.getShortName(), getPrimitiveValue(fs, feature));
+                }
             }
-            
-            // If the position feature is set (subposition), then it must match the feature we
-            // are calculating agreement over
-            assert cfgSet.getPosition().getFeature() == null
-                    || cfgSet.getPosition().getFeature().equals(aFeature);
-            
-            completeSets.add(cfgSet);
-            study.addItemAsArray(values);
+            return new Unit(values);
         }
         
-        return new AgreementResult(aType, aFeature, aDiff, study, users, completeSets,
-                irrelevantSets, setsWithDifferences, incompleteSetsByPosition,
-                incompleteSetsByLabel, pluralitySets, aExcludeIncomplete);
+        // Link feature / sub-position
+        ArrayFS links = (ArrayFS) fs.getFeatureValue(fs.getType().getFeatureByBaseName(
+                linkFeature));
+        FeatureStructure link = links.get(cfg.getAID(aUser).index);
+        
+        Object value;
+        switch (cfg.getPosition().getLinkCompareBehavior()) {
+        case LINK_TARGET_AS_LABEL:
+            // FIXME The target feature name should be obtained from the feature
+            // definition!
+            AnnotationFS target = (AnnotationFS) link.getFeatureValue(link.getType()
+                    .getFeatureByBaseName("target"));
+            
+            value = target.getBegin() + "-" + target.getEnd() + " ["
+                    + target.getCoveredText() + "]";
+            break;
+        case LINK_ROLE_AS_LABEL:
+            // FIXME The role feature name should be obtained from the feature
+            // definition!
+            value = link.getStringValue(link.getType().getFeatureByBaseName("role"));
+            break;
+        default:
+            throw new IllegalStateException("Unknown link target comparison mode ["
+                    + cfg.getPosition().getLinkCompareBehavior() + "]");
+        }
+        return new Unit(Collections.singletonMap(linkFeature, value));
+    }
+    
+    private static Object getPrimitiveValue(FeatureStructure aFS, Feature aFeature)
+    {
+        switch (aFeature.getRange().getName()) {
+        case CAS.TYPE_NAME_BOOLEAN:
+            return aFS.getBooleanValue(aFeature);
+        case CAS.TYPE_NAME_BYTE:
+            return aFS.getByteValue(aFeature);
+        case CAS.TYPE_NAME_DOUBLE:
+            return aFS.getDoubleValue(aFeature);
+        case CAS.TYPE_NAME_FLOAT:
+            return aFS.getFloatValue(aFeature);
+        case CAS.TYPE_NAME_INTEGER:
+            return aFS.getIntValue(aFeature);
+        case CAS.TYPE_NAME_LONG:
+            return aFS.getLongValue(aFeature);
+        case CAS.TYPE_NAME_SHORT:
+            return aFS.getShortValue(aFeature);
+        default:
+            // Strings and string subtypes (tagsets with fixed values)
+            return aFS.getStringValue(aFeature);
+        }
+    }
+    
+    private static AgreementResult makeStudy(List<DiffSummary> aSummaries,
+            Collection<String> aUsers, String aType, String aFeature, boolean aExcludeIncomplete,
+            boolean aNullLabelsAsEmpty)
+    {
+        AgreementStudyBuilder builder = new AgreementStudyBuilder(aType, aFeature, aUsers,
+                aExcludeIncomplete, aNullLabelsAsEmpty);
+        aSummaries.forEach(builder::add);
+        return builder.build();
     }
     
     public static void toCSV(CSVPrinter aOut, AgreementResult aAgreement) throws IOException
@@ -591,6 +575,7 @@ public class AgreementUtils
         private final String type;
         private final String feature;
         private final DiffResult diff;
+        private final int totalSetCount;
         private final ICodingAnnotationStudy study;
         private final List<ConfigurationSet> setsWithDifferences;
         private final List<ConfigurationSet> completeSets;
@@ -607,6 +592,7 @@ public class AgreementUtils
             type = aType;
             feature = aFeature;
             diff = null;
+            totalSetCount = 0;
             study = null;
             setsWithDifferences = null;
             completeSets = null;
@@ -626,10 +612,33 @@ public class AgreementUtils
                 List<ConfigurationSet> aIncompleteByLabel,
                 List<ConfigurationSet> aPluralitySets,
                 boolean aExcludeIncomplete)
+        {
+            this(aType, aFeature, aDiff, aDiff.getPositions().size(), aStudy, aCasGroupIds,
+                    aComplete, aIrrelevantSets, aSetsWithDifferences, aIncompleteByPosition,
+                    aIncompleteByLabel, aPluralitySets, aExcludeIncomplete);
+        }
+
+        /**
+         * @param aDiff
+         *            the diff the result is based on or {@code null} if the result has been
+         *            assembled from multiple diffs.
+         * @param aTotalSetCount
+         *            the number of positions in the underlying diffs.
+         */
+        public AgreementResult(String aType, String aFeature, DiffResult aDiff,
+                int aTotalSetCount, ICodingAnnotationStudy aStudy, List<String> aCasGroupIds,
+                List<ConfigurationSet> aComplete,
+                List<ConfigurationSet> aIrrelevantSets,
+                List<ConfigurationSet> aSetsWithDifferences,
+                List<ConfigurationSet> aIncompleteByPosition,
+                List<ConfigurationSet> aIncompleteByLabel,
+                List<ConfigurationSet> aPluralitySets,
+                boolean aExcludeIncomplete)
         {
             type = aType;
             feature = aFeature;
             diff = aDiff;
+            totalSetCount = aTotalSetCount;
             study = aStudy;
             setsWithDifferences = aSetsWithDifferences;
             completeSets = Collections.unmodifiableList(new ArrayList<>(aComplete));
@@ -732,12 +741,12 @@ public class AgreementUtils
 
         public int getTotalSetCount()
         {
-            return diff.getPositions().size();
+            return totalSetCount;
         }
         
         public int getRelevantSetCount()
         {
-            return diff.getPositions().size() - irrelevantSets.size();
+            return totalSetCount - irrelevantSets.size();
         }
         
         public double getAgreement()
@@ -750,6 +759,10 @@ public class AgreementUtils
             return study;
         }
         
+        /**
+         * @return the diff the result is based on or {@code null} if the result has been
+         *         assembled from multiple diffs.
+         */
         public DiffResult getDiff()
         {
             return diff;
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.curation.agreement;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.ConfigurationSet;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.DiffResult;
+
+/**
+ * Summary of a {@link DiffResult} containing everything that is required to calculate the
+ * agreement on a type. Agreement can be calculated from the summary for any feature of the type
+ * and any combination of the summarized CAS groups without access to the CASes.
+ *
+ * @see AgreementUtils#summarize(DiffResult, String, Map)
+ */
+public class DiffSummary
+{
+    private final String type;
+    private final DiffResult diff;
+    private final Map<String, Boolean> primitiveFeatures;
+    private final Map<ConfigurationSet, Map<String, Unit>> units = new HashMap<>();
+
+    DiffSummary(String aType, DiffResult aDiff, Map<String, Boolean> aPrimitiveFeatures)
+    {
+        type = aType;
+        diff = aDiff;
+        primitiveFeatures = aPrimitiveFeatures;
+    }
+
+    public String getType()
+    {
+        return type;
+    }
+
+    public DiffResult getDiff()
+    {
+        return diff;
+    }
+
+    /**
+     * @return whether the features of the type are primitive, indexed by the feature name, or
+     *         {@code null} if there was no CAS containing the type.
+     */
+    Map<String, Boolean> getPrimitiveFeatures()
+    {
+        return primitiveFeatures;
+    }
+
+    Unit getUnit(ConfigurationSet aSet, String aCasGroupId)
+    {
+        Map<String, Unit> setUnits = units.get(aSet);
+        return setUnits != null ? setUnits.get(aCasGroupId) : null;
+    }
+
+    void addUnit(ConfigurationSet aSet, String aCasGroupId, Unit aUnit)
+    {
+        units.computeIfAbsent(aSet, k -> new HashMap<>()).put(aCasGroupId, aUnit);
+    }
+
+    /**
+     * The contribution of a single CAS group to a configuration set.
+     */
+    static class Unit
+    {
+        /**
+         * The CAS group has multiple annotations at the position, so the set cannot be used to
+         * calculate agreement.
+         */
+        static final Unit PLURAL = new Unit(Collections.emptyMap());
+
+        private final Map<String, Object> values;
+
+        Unit(Map<String, Object> aValues)
+        {
+            values = aValues;
+        }
+
+        boolean isPlural()
+        {
+            return this == PLURAL;
+        }
+
+        /**
+         * @return the label for the given feature. For a primary position, this is the value of
+         *         the feature. For a sub-position, this is the label of the link.
+         */
+        Object getValue(String aFeature)
+        {
+            return values.get(aFeature);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.curation.batch;
+
+import java.io.Serializable;
+
+/**
+ * Options for a batch curation run.
+ */
+public class BatchCurationOptions
+    implements Serializable
+{
+    private static final long serialVersionUID = 4366563850853711287L;
+
+    private boolean mergeIncompleteAnnotations = false;
+    private boolean overwrite = false;
+    private boolean dryRun = false;
+
+    public boolean isMergeIncompleteAnnotations()
+    {
+        return mergeIncompleteAnnotations;
+    }
+
+    /**
+     * @param aMergeIncompleteAnnotations
+     *            whether to merge annotations which have not been made by all annotators.
+     */
+    public void setMergeIncompleteAnnotations(boolean aMergeIncompleteAnnotations)
+    {
+        mergeIncompleteAnnotations = aMergeIncompleteAnnotations;
+    }
+
+    public boolean isOverwrite()
+    {
+        return overwrite;
+    }
+
+    /**
+     * @param aOverwrite
+     *            whether to replace existing curation CASes. By default, documents for which
+     *            curation has already started are skipped. Documents for which curation has been
+     *            finished are never merged.
+     */
+    public void setOverwrite(boolean aOverwrite)
+    {
+        overwrite = aOverwrite;
+    }
+
+    public boolean isDryRun()
+    {
+        return dryRun;
+    }
+
+    /**
+     * @param aDryRun
+     *            whether to only compare the annotations and count the conflicts without writing
+     *            any curation CASes.
+     */
+    public void setDryRun(boolean aDryRun)
+    {
+        dryRun = aDryRun;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.curation.batch;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+/**
+ * Progress of a batch curation run. The state of each document can be queried while the run is
+ * in progress and the run can be cancelled from another thread. Documents which are already
+ * being merged when the run is cancelled are completed.
+ */
+public class BatchCurationProgress
+{
+    private final Map<Long, BatchCurationState> states = new ConcurrentHashMap<>();
+    private final AtomicInteger done = new AtomicInteger();
+    private volatile int total = 0;
+    private volatile boolean cancelled = false;
+
+    void start(List<SourceDocument> aDocuments)
+    {
+        states.clear();
+        done.set(0);
+        total = aDocuments.size();
+        for (SourceDocument doc : aDocuments) {
+            states.put(doc.getId(), BatchCurationState.PENDING);
+        }
+    }
+
+    void update(SourceDocument aDocument, BatchCurationState aState)
+    {
+        BatchCurationState previous = states.put(aDocument.getId(), aState);
+        if (aState.isDone() && (previous == null || !previous.isDone())) {
+            done.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return the state of the given document or {@code null} if the document is not part of the
+     *         run.
+     */
+    public BatchCurationState getState(SourceDocument aDocument)
+    {
+        return states.get(aDocument.getId());
+    }
+
+    /**
+     * @return the number of documents which have been processed so far.
+     */
+    public int getDone()
+    {
+        return done.get();
+    }
+
+    public int getTotal()
+    {
+        return total;
+    }
+
+    /**
+     * @return the progress in percent.
+     */
+    public int getProgress()
+    {
+        int t = total;
+        return t == 0 ? 100 : done.get() * 100 / t;
+    }
+
+    public void cancel()
+    {
+        cancelled = true;
+    }
+
+    public boolean isCancelled()
+    {
+        return cancelled;
+    }
+}
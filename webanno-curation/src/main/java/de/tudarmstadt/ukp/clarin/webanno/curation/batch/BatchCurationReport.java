@@ -0,0 +1,109 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.curation.batch;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Summary of a batch curation run.
+ */
+public class BatchCurationReport
+    implements Serializable
+{
+    private static final long serialVersionUID = -1460117370432839170L;
+
+    private final List<BatchCurationResult> results;
+    private final boolean dryRun;
+    private final long duration;
+
+    public BatchCurationReport(List<BatchCurationResult> aResults, boolean aDryRun,
+            long aDuration)
+    {
+        results = Collections.unmodifiableList(new ArrayList<>(aResults));
+        dryRun = aDryRun;
+        duration = aDuration;
+    }
+
+    /**
+     * @return the results in the order in which the documents have been passed to the run.
+     */
+    public List<BatchCurationResult> getResults()
+    {
+        return results;
+    }
+
+    public boolean isDryRun()
+    {
+        return dryRun;
+    }
+
+    /**
+     * @return the duration of the run in milliseconds.
+     */
+    public long getDuration()
+    {
+        return duration;
+    }
+
+    public int count(BatchCurationState aState)
+    {
+        int count = 0;
+        for (BatchCurationResult result : results) {
+            if (result.getState() == aState) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of documents per state. States without documents are not included.
+     */
+    public Map<BatchCurationState, Integer> getCounts()
+    {
+        Map<BatchCurationState, Integer> counts = new EnumMap<>(BatchCurationState.class);
+        for (BatchCurationResult result : results) {
+            counts.merge(result.getState(), 1, Integer::sum);
+        }
+        return counts;
+    }
+
+    /**
+     * @return the total number of positions in conflict in the merged or checked documents.
+     */
+    public int getConflicts()
+    {
+        int conflicts = 0;
+        for (BatchCurationResult result : results) {
+            conflicts += result.getConflicts();
+        }
+        return conflicts;
+    }
+
+    @Override
+    public String toString()
+    {
+        return (dryRun ? "Checked " : "Merged ") + results.size() + " documents in " + duration
+                + "ms: " + getCounts() + ", " + getConflicts() + " positions in conflict";
+    }
+}
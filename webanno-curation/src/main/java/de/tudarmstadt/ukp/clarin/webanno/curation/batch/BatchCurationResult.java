@@ -0,0 +1,130 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.curation.batch;
+
+import java.io.Serializable;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+/**
+ * Outcome of merging a single document in a batch curation run.
+ */
+public class BatchCurationResult
+    implements Serializable
+{
+    private static final long serialVersionUID = -4197785716350101539L;
+
+    private final long documentId;
+    private final String documentName;
+    private final BatchCurationState state;
+    private final int annotators;
+    private final int positions;
+    private final int conflicts;
+    private final String message;
+
+    public BatchCurationResult(SourceDocument aDocument, BatchCurationState aState,
+            int aAnnotators, int aPositions, int aConflicts, String aMessage)
+    {
+        documentId = aDocument.getId();
+        documentName = aDocument.getName();
+        state = aState;
+        annotators = aAnnotators;
+        positions = aPositions;
+        conflicts = aConflicts;
+        message = aMessage;
+    }
+
+    public static BatchCurationResult skipped(SourceDocument aDocument, String aMessage)
+    {
+        return new BatchCurationResult(aDocument, BatchCurationState.SKIPPED, 0, 0, 0, aMessage);
+    }
+
+    public static BatchCurationResult failed(SourceDocument aDocument, String aMessage)
+    {
+        return new BatchCurationResult(aDocument, BatchCurationState.FAILED, 0, 0, 0, aMessage);
+    }
+
+    public static BatchCurationResult cancelled(SourceDocument aDocument)
+    {
+        return new BatchCurationResult(aDocument, BatchCurationState.CANCELLED, 0, 0, 0, null);
+    }
+
+    public long getDocumentId()
+    {
+        return documentId;
+    }
+
+    public String getDocumentName()
+    {
+        return documentName;
+    }
+
+    public BatchCurationState getState()
+    {
+        return state;
+    }
+
+    /**
+     * @return the number of annotators whose finished annotations have been compared.
+     */
+    public int getAnnotators()
+    {
+        return annotators;
+    }
+
+    /**
+     * @return the number of positions at which any of the annotators has annotated.
+     */
+    public int getPositions()
+    {
+        return positions;
+    }
+
+    /**
+     * @return the number of positions which are not merged because the annotators disagree (or
+     *         not all of them have annotated, unless incomplete annotations are merged).
+     */
+    public int getConflicts()
+    {
+        return conflicts;
+    }
+
+    /**
+     * @return why the document has been skipped or merging it has failed.
+     */
+    public String getMessage()
+    {
+        return message;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append("[").append(documentName).append("](").append(documentId).append(") ");
+        sb.append(state);
+        if (state == BatchCurationState.MERGED || state == BatchCurationState.CHECKED) {
+            sb.append(" - ").append(conflicts).append(" of ").append(positions)
+                    .append(" positions in conflict");
+        }
+        if (message != null) {
+            sb.append(" - ").append(message);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.curation.batch;
+
+import java.util.List;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+/**
+ * Merges the finished annotations of many documents into their curation CASes without opening
+ * each document on the curation page. As on the curation page, only the annotations on which
+ * all annotators agree are merged. The documents are merged in parallel using a bounded thread
+ * pool (see {@code curation.batch.threads}), so only the CASes of the documents currently being
+ * merged are held in memory.
+ * <p>
+ * A failure to merge a single document does not abort the run - it is recorded in the report
+ * instead.
+ */
+public interface BatchCurationService
+{
+    String SERVICE_NAME = "batchCurationService";
+
+    /**
+     * Merges all documents of the given project.
+     * 
+     * @see #merge(Project, List, BatchCurationOptions, BatchCurationProgress)
+     */
+    BatchCurationReport merge(Project aProject, BatchCurationOptions aOptions,
+            BatchCurationProgress aProgress);
+
+    /**
+     * Merges the given documents of the given project.
+     *
+     * @param aProject
+     *            the project.
+     * @param aDocuments
+     *            the documents to merge.
+     * @param aOptions
+     *            the options of the run.
+     * @param aProgress
+     *            receives the state of each document and allows cancelling the run.
+     * @return the report listing the outcome for each document. If the run has been cancelled,
+     *         the documents which have not been processed are reported as
+     *         {@link BatchCurationState#CANCELLED cancelled}.
+     */
+    BatchCurationReport merge(Project aProject, List<SourceDocument> aDocuments,
+            BatchCurationOptions aOptions, BatchCurationProgress aProgress);
+}
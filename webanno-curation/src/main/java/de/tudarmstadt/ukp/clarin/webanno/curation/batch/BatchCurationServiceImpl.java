@@ -0,0 +1,316 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.curation.batch;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.CasUpgradeMode.AUTO_CAS_UPGRADE;
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.CHAIN_TYPE;
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.CURATION_USER;
+import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.LinkCompareBehavior.LINK_ROLE_AS_LABEL;
+import static de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentState.CURATION_IN_PROGRESS;
+import static de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentStateTransition.ANNOTATION_IN_PROGRESS_TO_CURATION_IN_PROGRESS;
+import static java.util.Collections.emptyList;
+import static java.util.Comparator.comparing;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Type;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.concurrent.DelegatingSecurityContextCallable;
+import org.springframework.stereotype.Component;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
+import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.ConfigurationSet;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.DiffResult;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.api.Position;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casmerge.CasMerge;
+import de.tudarmstadt.ukp.clarin.webanno.curation.storage.CurationDocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentState;
+import de.tudarmstadt.ukp.clarin.webanno.support.logging.Logging;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+
+@Component(BatchCurationService.SERVICE_NAME)
+public class BatchCurationServiceImpl
+    implements BatchCurationService, InitializingBean, DisposableBean
+{
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private @Autowired DocumentService documentService;
+    private @Autowired AnnotationSchemaService annotationService;
+    private @Autowired CurationDocumentService curationDocumentService;
+    private @Autowired CasStorageService casStorageService;
+
+    @Value(value = "${curation.batch.threads:0}")
+    private int threads;
+
+    private ExecutorService executor;
+
+    public BatchCurationServiceImpl()
+    {
+        // Nothing to do
+    }
+
+    @Override
+    public void afterPropertiesSet()
+    {
+        int parallelism = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        executor = Executors.newFixedThreadPool(parallelism);
+        log.info("Batch curation threads: {}", parallelism);
+    }
+
+    @Override
+    public void destroy()
+    {
+        executor.shutdownNow();
+    }
+
+    @Override
+    public BatchCurationReport merge(Project aProject, BatchCurationOptions aOptions,
+            BatchCurationProgress aProgress)
+    {
+        return merge(aProject, documentService.listSourceDocuments(aProject), aOptions,
+                aProgress);
+    }
+
+    @Override
+    public BatchCurationReport merge(Project aProject, List<SourceDocument> aDocuments,
+            BatchCurationOptions aOptions, BatchCurationProgress aProgress)
+    {
+        long start = System.currentTimeMillis();
+        
+        // Collect the finished annotation documents of all source documents in a single query
+        Map<SourceDocument, List<AnnotationDocument>> finished = new HashMap<>();
+        for (AnnotationDocument annDoc : documentService
+                .listFinishedAnnotationDocuments(aProject)) {
+            finished.computeIfAbsent(annDoc.getDocument(), k -> new ArrayList<>()).add(annDoc);
+        }
+        
+        List<AnnotationLayer> layers = listMergeableLayers(aProject);
+
+        aProgress.start(aDocuments);
+        
+        // The workers need the permissions of the calling user to write the curation CASes
+        List<Future<BatchCurationResult>> futures = new ArrayList<>();
+        for (SourceDocument doc : aDocuments) {
+            List<AnnotationDocument> annDocs = finished.getOrDefault(doc, emptyList());
+            futures.add(executor.submit(new DelegatingSecurityContextCallable<>(
+                () -> process(doc, annDocs, layers, aOptions, aProgress))));
+        }
+        
+        List<BatchCurationResult> results = new ArrayList<>();
+        boolean interrupted = false;
+        for (int i = 0; i < futures.size(); i++) {
+            SourceDocument doc = aDocuments.get(i);
+            while (true) {
+                try {
+                    results.add(futures.get(i).get());
+                    break;
+                }
+                catch (InterruptedException e) {
+                    // Documents already being merged are completed and reported as such, the
+                    // others report themselves as cancelled when they are picked up. So we keep
+                    // waiting for all of them.
+                    interrupted = true;
+                    aProgress.cancel();
+                }
+                catch (ExecutionException e) {
+                    log.error("Unable to merge document [{}]({})", doc.getName(), doc.getId(),
+                            e.getCause());
+                    results.add(BatchCurationResult.failed(doc, String.valueOf(e.getCause())));
+                    break;
+                }
+            }
+        }
+        
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        
+        BatchCurationReport report = new BatchCurationReport(results, aOptions.isDryRun(),
+                System.currentTimeMillis() - start);
+        
+        try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
+                String.valueOf(aProject.getId()))) {
+            log.info("Batch curation of project [{}]({}): {}", aProject.getName(),
+                    aProject.getId(), report);
+        }
+        
+        return report;
+    }
+    
+    private BatchCurationResult process(SourceDocument aDocument,
+            List<AnnotationDocument> aAnnotationDocuments, List<AnnotationLayer> aLayers,
+            BatchCurationOptions aOptions, BatchCurationProgress aProgress)
+    {
+        if (aProgress.isCancelled()) {
+            aProgress.update(aDocument, BatchCurationState.CANCELLED);
+            return BatchCurationResult.cancelled(aDocument);
+        }
+        
+        aProgress.update(aDocument, BatchCurationState.RUNNING);
+        
+        BatchCurationResult result;
+        try {
+            result = merge(aDocument, aAnnotationDocuments, aLayers, aOptions);
+        }
+        catch (Exception e) {
+            log.error("Unable to merge document [{}]({})", aDocument.getName(),
+                    aDocument.getId(), e);
+            result = BatchCurationResult.failed(aDocument, e.getMessage());
+        }
+        
+        aProgress.update(aDocument, result.getState());
+        return result;
+    }
+
+    private BatchCurationResult merge(SourceDocument aDocument,
+            List<AnnotationDocument> aAnnotationDocuments, List<AnnotationLayer> aLayers,
+            BatchCurationOptions aOptions)
+        throws Exception
+    {
+        if (SourceDocumentState.CURATION_FINISHED.equals(aDocument.getState())) {
+            return BatchCurationResult.skipped(aDocument, "Curation has already been finished");
+        }
+        
+        if (aAnnotationDocuments.isEmpty()) {
+            return BatchCurationResult.skipped(aDocument, "No finished annotations");
+        }
+        
+        // Avoid the expensive merge if curation has already been started. This is checked again
+        // before writing the curation CAS.
+        if (isCurationStarted(aDocument, aOptions)) {
+            return BatchCurationResult.skipped(aDocument, "Curation has already been started");
+        }
+        
+        // Read the CASes in a stable order so that repeated runs produce the same result
+        List<AnnotationDocument> annDocs = new ArrayList<>(aAnnotationDocuments);
+        annDocs.sort(comparing(AnnotationDocument::getUser));
+        Map<String, CAS> casses = new LinkedHashMap<>();
+        for (AnnotationDocument annDoc : annDocs) {
+            casses.put(annDoc.getUser(),
+                    documentService.readAnnotationCas(annDoc, AUTO_CAS_UPGRADE));
+        }
+        
+        // As on the curation page, the curation CAS is based on the CAS of an annotator. The
+        // merge removes all annotations from it except for the tokens and sentences.
+        CAS targetCas = documentService.readAnnotationCas(annDocs.get(0), AUTO_CAS_UPGRADE);
+        
+        List<Type> entryTypes = new ArrayList<>();
+        for (AnnotationLayer layer : aLayers) {
+            entryTypes.add(annotationService.getAdapter(layer).getAnnotationType(targetCas));
+        }
+        
+        DiffResult diff = CasDiff.doDiffSingle(annotationService, aDocument.getProject(),
+                entryTypes, LINK_ROLE_AS_LABEL, casses, 0,
+                targetCas.getDocumentText().length());
+        
+        int conflicts = 0;
+        for (Position position : diff.getPositions()) {
+            ConfigurationSet cfgSet = diff.getConfigurtionSet(position);
+            if (!diff.isAgreement(cfgSet) || (!aOptions.isMergeIncompleteAnnotations()
+                    && !diff.isComplete(cfgSet))) {
+                conflicts++;
+            }
+        }
+        
+        if (aOptions.isDryRun()) {
+            return new BatchCurationResult(aDocument, BatchCurationState.CHECKED,
+                    casses.size(), diff.getPositions().size(), conflicts, null);
+        }
+        
+        CasMerge casMerge = new CasMerge(annotationService);
+        casMerge.setMergeIncompleteAnnotations(aOptions.isMergeIncompleteAnnotations());
+        casMerge.reMergeCas(diff, aDocument, CURATION_USER, targetCas, casses);
+        
+        // A curator may have opened the document while we were merging, so check again and write
+        // the curation CAS while no one else can access it
+        AtomicBoolean written = new AtomicBoolean();
+        casStorageService.performExclusiveOperation(aDocument, CURATION_USER, () -> {
+            if (!isCurationStarted(aDocument, aOptions)) {
+                curationDocumentService.writeCurationCas(targetCas, aDocument, false);
+                written.set(true);
+            }
+        });
+        
+        if (!written.get()) {
+            return BatchCurationResult.skipped(aDocument, "Curation has already been started");
+        }
+        
+        // As on the curation page, the document is now in curation
+        if (!CURATION_IN_PROGRESS.equals(aDocument.getState())) {
+            documentService.transitionSourceDocumentState(aDocument,
+                    ANNOTATION_IN_PROGRESS_TO_CURATION_IN_PROGRESS);
+        }
+        
+        log.debug("Merged document [{}]({}) - {} of {} positions in conflict",
+                aDocument.getName(), aDocument.getId(), conflicts, diff.getPositions().size());
+        
+        return new BatchCurationResult(aDocument, BatchCurationState.MERGED, casses.size(),
+                diff.getPositions().size(), conflicts, null);
+    }
+    
+    private boolean isCurationStarted(SourceDocument aDocument, BatchCurationOptions aOptions)
+        throws IOException
+    {
+        return !aOptions.isOverwrite() && documentService.existsCas(aDocument, CURATION_USER);
+    }
+    
+    /**
+     * The same layers which are merged when opening a document on the curation page.
+     */
+    private List<AnnotationLayer> listMergeableLayers(Project aProject)
+    {
+        List<AnnotationLayer> layers = new ArrayList<>();
+        for (AnnotationLayer layer : annotationService.listAnnotationLayer(aProject)) {
+            if (!layer.isEnabled()) {
+                continue;
+            }
+            if (layer.getName().equals(Token.class.getName())) {
+                continue;
+            }
+            if (layer.getType().equals(CHAIN_TYPE)) {
+                continue;
+            }
+            layers.add(layer);
+        }
+        return layers;
+    }
+}
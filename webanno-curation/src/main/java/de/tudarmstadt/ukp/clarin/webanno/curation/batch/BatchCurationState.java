@@ -0,0 +1,64 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.curation.batch;
+
+/**
+ * State of a document in a batch curation run.
+ */
+public enum BatchCurationState
+{
+    /**
+     * The document has not been processed yet.
+     */
+    PENDING,
+    
+    /**
+     * The document is currently being processed.
+     */
+    RUNNING,
+    
+    /**
+     * The agreeing annotations have been merged into the curation CAS.
+     */
+    MERGED,
+    
+    /**
+     * The annotations have been compared, but nothing has been written (dry run).
+     */
+    CHECKED,
+    
+    /**
+     * The document has not been merged, e.g. because its curation has already started.
+     */
+    SKIPPED,
+    
+    /**
+     * Merging the document has failed.
+     */
+    FAILED,
+    
+    /**
+     * The run has been cancelled before the document was processed.
+     */
+    CANCELLED;
+    
+    public boolean isDone()
+    {
+        return this != PENDING && this != RUNNING;
+    }
+}
@@ -41,6 +41,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.function.Function;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.uima.cas.ArrayFS;
@@ -56,6 +57,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.ProjectSchema;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter.RelationAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.api.DiffAdapter;
@@ -77,7 +79,10 @@ public class CasDiff
     
     private final Map<Position, ConfigurationSet> configSets = new TreeMap<>();
 
-    private final Map<String, String[]> sortedFeaturesCache = new HashMap<>();
+    private final Map<String, String[]> labelFeaturesCache = new HashMap<>();
+    
+    private final Map<Type, List<Function<FeatureStructure, Object>>> fingerprintCache =
+            new HashMap<>();
 
     private int begin;
     
@@ -489,6 +494,16 @@ public class CasDiff
         private List<Configuration> configurations = new ArrayList<>();
         private Set<String> casGroupIds = new LinkedHashSet<>();
         
+        // Configurations at a primary position indexed by the fingerprint of the FS which
+        // created them. Only configurations in the same bucket can be equal.
+        private final Map<List<Object>, List<Configuration>> configurationsByFingerprint =
+                new HashMap<>();
+        
+        // Configurations at a sub-position indexed by the position of the link target or by the
+        // link role, depending on the link compare behavior.
+        private final Map<Position, Configuration> configurationsByTarget = new TreeMap<>();
+        private final Map<String, Configuration> configurationsByRole = new HashMap<>();
+        
         public ConfigurationSet(Position aPosition)
         {
             position = aPosition;
@@ -501,9 +516,12 @@ public class CasDiff
             }
             
             if (position.getFeature() == null) {
-                // Check if this configuration is already present
+                // Check if this configuration is already present. Only configurations with the
+                // same fingerprint need to be compared in detail.
+                List<Configuration> candidates = configurationsByFingerprint
+                        .computeIfAbsent(fingerprint(aFS), k -> new ArrayList<>());
                 Configuration configuration = null;
-                for (Configuration cfg : configurations) {
+                for (Configuration cfg : candidates) {
                     // Handle main positions
                     if (equalsFS(cfg.getRepresentative(), aFS)) {
                         configuration = cfg;
@@ -515,6 +533,7 @@ public class CasDiff
                 if (configuration == null) {
                     configuration = new Configuration(position);
                     configurations.add(configuration);
+                    candidates.add(configuration);
                 }
                 
                 configuration.add(aCasGroupId, aFS);
@@ -542,19 +561,19 @@ public class CasDiff
                         AnnotationFS target = (AnnotationFS) link.getFeatureValue(link.getType()
                                 .getFeatureByBaseName(decl.getTargetFeature()));
                         
-                        cfgLoop: for (Configuration cfg : configurations) {
-                            FeatureStructure repFS = cfg.getRepresentative();
-                            AID repAID = cfg.getRepresentativeAID();
-                            FeatureStructure repLink = ((ArrayFS) repFS.getFeatureValue(
-                                    repFS.getType().getFeatureByBaseName(decl.getName())))
-                                            .get(repAID.index);
-                            AnnotationFS repTarget = (AnnotationFS) repLink.getFeatureValue(repLink
-                                    .getType().getFeatureByBaseName(decl.getTargetFeature()));
-                            
-                            // Compare targets
-                            if (equalsAnnotationFS(repTarget, target)) {
-                                configuration = cfg;
-                                break cfgLoop;
+                        // Compare targets - links without a target never match
+                        Position targetPosition = null;
+                        if (target != null) {
+                            targetPosition = getAdapter(target.getType().getName())
+                                    .getPosition(0, target);
+                            configuration = configurationsByTarget.get(targetPosition);
+                        }
+                        
+                        if (configuration == null) {
+                            configuration = new Configuration(position);
+                            configurations.add(configuration);
+                            if (targetPosition != null) {
+                                configurationsByTarget.put(targetPosition, configuration);
                             }
                         }
                         break;
@@ -570,20 +589,12 @@ public class CasDiff
                         String role = link.getStringValue(link.getType().getFeatureByBaseName(
                                 decl.getRoleFeature()));
                         
-                        cfgLoop: for (Configuration cfg : configurations) {
-                            FeatureStructure repFS = cfg.getRepresentative();
-                            AID repAID = cfg.getRepresentativeAID();
-                            FeatureStructure repLink = ((ArrayFS) repFS.getFeatureValue(
-                                    repFS.getType().getFeatureByBaseName(decl.getName())))
-                                            .get(repAID.index);
-                            String linkRole = repLink.getStringValue(repLink.getType()
-                                    .getFeatureByBaseName(decl.getRoleFeature()));
-                            
-                            // Compare roles
-                            if (role.equals(linkRole)) {
-                                configuration = cfg;
-                                break cfgLoop;
-                            }
+                        // Compare roles
+                        configuration = configurationsByRole.get(role);
+                        if (configuration == null) {
+                            configuration = new Configuration(position);
+                            configurations.add(configuration);
+                            configurationsByRole.put(role, configuration);
                         }
                         break;
                     }
@@ -592,12 +603,6 @@ public class CasDiff
                                 + linkCompareBehavior + "]");
                     }
                     
-                    // Not found, add new one
-                    if (configuration == null) {
-                        configuration = new Configuration(position);
-                        configurations.add(configuration);
-                    }
-                    
                     configuration.add(aCasGroupId, aFS, position.getFeature(), i);
                 }
             }
@@ -698,41 +703,12 @@ public class CasDiff
 
         assert type1.getNumberOfFeatures() == type2.getNumberOfFeatures();
 
-        // Sort features by name to be independent over implementation details that may change the
-        // order of the features as returned from Type.getFeatures().
-        String[] cachedSortedFeatures = sortedFeaturesCache.get(type1.getName());
-        if (cachedSortedFeatures == null) {
-            cachedSortedFeatures = new String[type1.getNumberOfFeatures()];
-            int i = 0;
-            for (Feature f : aFS1.getType().getFeatures()) {
-                cachedSortedFeatures[i] = f.getShortName();
-                i++;
-            }
-            sortedFeaturesCache.put(type1.getName(), cachedSortedFeatures);
-        }
-        
-        DiffAdapter adapter = typeAdapters.get(type1.getName());
-
-        if (adapter == null) {
+        if (typeAdapters.get(type1.getName()) == null) {
             LOG.warn("No diff adapter for type [" + type1.getName() + "] -- ignoring!");
             return true;
         }
 
-        // Only consider label features. In particular these must not include position features
-        // such as begin, end, etc.
-        List<String> sortedFeatures = new ArrayList<>(asList(cachedSortedFeatures));
-        Set<String> labelFeatures = adapter.getLabelFeatures();
-        sortedFeatures.removeIf(f -> !labelFeatures.contains(f));
-
-        if (!recurseIntoLinkFeatures ) {
-            // #1795 Chili REC: We can/should change CasDiff2 such that it does not recurse into
-            // link features (or rather into any features that are covered by their own
-            // sub-positions). So when when comparing two spans that differ only in their slots
-            // (sub-positions) the main position could still exhibit agreement.
-            sortedFeatures.removeIf(f -> adapter.getLinkFeature(f) != null);
-        }
-        
-        for (String feature : sortedFeatures) {
+        for (String feature : getLabelFeatures(type1)) {
             Feature f1 = type1.getFeatureByBaseName(feature);
             Feature f2 = type2.getFeatureByBaseName(feature);
             
@@ -816,6 +792,100 @@ public class CasDiff
         return true;
     }
     
+    /**
+     * @return the names of the features which are compared by {@link #equalsFS}. These are the
+     *         label features of the type. In particular these must not include position features
+     *         such as begin, end, etc.
+     */
+    private String[] getLabelFeatures(Type aType)
+    {
+        String[] labelFeatures = labelFeaturesCache.get(aType.getName());
+        if (labelFeatures != null) {
+            return labelFeatures;
+        }
+        
+        List<String> features = new ArrayList<>();
+        DiffAdapter adapter = typeAdapters.get(aType.getName());
+        if (adapter != null) {
+            for (Feature f : aType.getFeatures()) {
+                if (!adapter.getLabelFeatures().contains(f.getShortName())) {
+                    continue;
+                }
+                
+                // #1795 Chili REC: We can/should change CasDiff2 such that it does not recurse
+                // into link features (or rather into any features that are covered by their own
+                // sub-positions). So when when comparing two spans that differ only in their
+                // slots (sub-positions) the main position could still exhibit agreement.
+                if (!recurseIntoLinkFeatures && adapter.getLinkFeature(f.getShortName()) != null) {
+                    continue;
+                }
+                
+                features.add(f.getShortName());
+            }
+        }
+        
+        labelFeatures = features.toArray(new String[features.size()]);
+        labelFeaturesCache.put(aType.getName(), labelFeatures);
+        return labelFeatures;
+    }
+    
+    /**
+     * Calculates a fingerprint of the primitive label features of the given feature structure.
+     * Feature structures which are equal according to {@link #equalsFS} always have the same
+     * fingerprint, so only feature structures with the same fingerprint need to be compared.
+     */
+    private List<Object> fingerprint(FeatureStructure aFS)
+    {
+        List<Function<FeatureStructure, Object>> accessors = fingerprintCache
+                .computeIfAbsent(aFS.getType(), this::makeFingerprintAccessors);
+        
+        List<Object> fingerprint = new ArrayList<>(accessors.size() + 1);
+        fingerprint.add(aFS.getType().getName());
+        for (Function<FeatureStructure, Object> accessor : accessors) {
+            fingerprint.add(accessor.apply(aFS));
+        }
+        return fingerprint;
+    }
+    
+    private List<Function<FeatureStructure, Object>> makeFingerprintAccessors(Type aType)
+    {
+        List<Function<FeatureStructure, Object>> accessors = new ArrayList<>();
+        for (String feature : getLabelFeatures(aType)) {
+            Feature f = aType.getFeatureByBaseName(feature);
+            switch (f.getRange().getName()) {
+            case CAS.TYPE_NAME_BOOLEAN:
+                accessors.add(fs -> fs.getBooleanValue(f));
+                break;
+            case CAS.TYPE_NAME_BYTE:
+                accessors.add(fs -> fs.getByteValue(f));
+                break;
+            case CAS.TYPE_NAME_DOUBLE:
+                // Adding 0 turns -0.0 into 0.0 which equalsFS considers to be equal
+                accessors.add(fs -> fs.getDoubleValue(f) + 0.0d);
+                break;
+            case CAS.TYPE_NAME_FLOAT:
+                accessors.add(fs -> fs.getFloatValue(f) + 0.0f);
+                break;
+            case CAS.TYPE_NAME_INTEGER:
+                accessors.add(fs -> fs.getIntValue(f));
+                break;
+            case CAS.TYPE_NAME_LONG:
+                accessors.add(fs -> fs.getLongValue(f));
+                break;
+            case CAS.TYPE_NAME_SHORT:
+                accessors.add(fs -> fs.getShortValue(f));
+                break;
+            case CAS.TYPE_NAME_STRING:
+                accessors.add(fs -> fs.getStringValue(f));
+                break;
+            default:
+                // Feature structure values are left to equalsFS
+                break;
+            }
+        }
+        return accessors;
+    }
+    
     private boolean equalsAnnotationFS(AnnotationFS aFS1, AnnotationFS aFS2)
     {
         // Null check
@@ -845,6 +915,10 @@ public class CasDiff
          * at this position - i.e. a stacked annotation.
          */
         private boolean stacked = false;
+        
+        // The representative is resolved often while building the diff
+        private FeatureStructure representative;
+        private AID representativeAID;
 
         public Set<String> getCasGroupIds()
         {
@@ -880,11 +954,24 @@ public class CasDiff
             }
         }
 
+        /**
+         * @return the feature structure representing this configuration or {@code null} if the
+         *         diff has been {@link DiffResult#detach() detached} from its CASes.
+         */
         public FeatureStructure getRepresentative()
         {
             Entry<String, AID> e = fsAddresses.entrySet().iterator().next();
-            return selectFsByAddr(cases.get(e.getKey()).get(position.getCasId()),
-                    e.getValue().addr);
+            if (representative != null && representativeAID == e.getValue()) {
+                return representative;
+            }
+            
+            CAS cas = cases.get(e.getKey()).get(position.getCasId());
+            if (cas == null) {
+                return null;
+            }
+            representative = selectFsByAddr(cas, e.getValue().addr);
+            representativeAID = e.getValue();
+            return representative;
         }
 
         public AID getRepresentativeAID()
@@ -969,9 +1056,11 @@ public class CasDiff
         private final Map<ConfigurationSet, Boolean> completenessCache = new HashMap<>();
         private final boolean cachedHasDifferences;
         private final Map<String, DiffAdapter> typeDiffAdapters;
+        private final CasDiff diff;
         
         private DiffResult(CasDiff aDiff)
         {
+            diff = aDiff;
             data = Collections.unmodifiableMap(aDiff.configSets);
             casGroupIds = new LinkedHashSet<>(aDiff.cases.keySet());
             cachedHasDifferences = !getDifferingConfigurationSets().isEmpty();
@@ -983,6 +1072,27 @@ public class CasDiff
             return typeDiffAdapters.get(aType);
         }
         
+        /**
+         * Releases the CASes the diff has been calculated on, so the result can be kept without
+         * keeping the CASes in memory. Positions and configurations remain available, but the
+         * feature structures can no longer be resolved through the configurations.
+         */
+        public void detach()
+        {
+            diff.cases.replaceAll((id, casList) -> new ArrayList<>(
+                    Collections.nCopies(casList.size(), (CAS) null)));
+            for (ConfigurationSet cfgSet : diff.configSets.values()) {
+                // The indexes are only needed while building the diff
+                cfgSet.configurationsByFingerprint.clear();
+                cfgSet.configurationsByTarget.clear();
+                cfgSet.configurationsByRole.clear();
+                for (Configuration cfg : cfgSet.configurations) {
+                    cfg.representative = null;
+                    cfg.representativeAID = null;
+                }
+            }
+        }
+        
         public boolean hasDifferences()
         {
             return cachedHasDifferences;
@@ -1018,13 +1128,7 @@ public class CasDiff
          */
         public boolean isAgreement(ConfigurationSet aConfigurationSet)
         {
-            if (!data.containsValue(aConfigurationSet)) {
-                throw new IllegalArgumentException("Configuration set does not belong to this diff");
-            }
-
-            if (data.get(aConfigurationSet.position) != aConfigurationSet) {
-                throw new IllegalArgumentException("Configuration set position mismatch");
-            }
+            checkMember(aConfigurationSet);
             
             // If there is only a single configuration in the set, we call it an agreement
             if (aConfigurationSet.configurations.size() == 1) {
@@ -1054,13 +1158,7 @@ public class CasDiff
          */
         public boolean isComplete(ConfigurationSet aConfigurationSet)
         {
-            if (!data.containsValue(aConfigurationSet)) {
-                throw new IllegalArgumentException("Configuration set does not belong to this diff");
-            }
-
-            if (data.get(aConfigurationSet.position) != aConfigurationSet) {
-                throw new IllegalArgumentException("Configuration set position mismatch");
-            }
+            checkMember(aConfigurationSet);
 
             Boolean complete = completenessCache.get(aConfigurationSet);
             if (complete == null) {
@@ -1075,6 +1173,108 @@ public class CasDiff
             return complete;
         }
         
+        private void checkMember(ConfigurationSet aConfigurationSet)
+        {
+            // Look up the set by its position instead of scanning all sets - this is called for
+            // every set when checking a whole document
+            ConfigurationSet known = data.get(aConfigurationSet.position);
+            
+            if (known == null) {
+                throw new IllegalArgumentException("Configuration set does not belong to this diff");
+            }
+
+            if (known != aConfigurationSet) {
+                throw new IllegalArgumentException("Configuration set position mismatch");
+            }
+        }
+        
+        /**
+         * Assigns the configuration sets to segments of the document, e.g. to sentences. A set is
+         * assigned to every segment covering the annotations of the set. The sets of a segment
+         * are the same as those obtained by calculating a separate diff for each segment, but
+         * the CASes need to be scanned only once. The diff must not be
+         * {@link #detach() detached}.
+         * 
+         * @param aSegments
+         *            the segments as a map from begin to end offset.
+         * @return the configuration sets by the begin offset of the segments. Segments to which no
+         *         set has been assigned are not included.
+         */
+        public Map<Integer, List<ConfigurationSet>> getConfigurationSetsBySegment(
+                Map<Integer, Integer> aSegments)
+        {
+            CoveringSegmentLookup segments = new CoveringSegmentLookup(aSegments);
+            
+            Map<Integer, List<ConfigurationSet>> result = new HashMap<>();
+            for (ConfigurationSet cfgSet : data.values()) {
+                FeatureStructure fs = cfgSet.configurations.get(0).getRepresentative();
+                if (fs == null) {
+                    throw new IllegalStateException("Diff has been detached from its CASes");
+                }
+                
+                if (!(fs instanceof AnnotationFS)) {
+                    continue;
+                }
+                
+                AnnotationFS ann = (AnnotationFS) fs;
+                for (int segBegin : segments.getCoveringSegments(ann.getBegin(), ann.getEnd())) {
+                    result.computeIfAbsent(segBegin, k -> new ArrayList<>()).add(cfgSet);
+                }
+            }
+            
+            return result;
+        }
+        
+        /**
+         * Determines for each of the given segments whether the CASes disagree in it. This is the
+         * case if the segment contains a configuration set which has not been observed in all
+         * CASes or in which a CAS has stacked annotations.
+         * 
+         * @param aSegments
+         *            the segments as a map from begin to end offset.
+         * @return whether there is a disagreement by the begin offset of the segments.
+         * @see #getConfigurationSetsBySegment(Map)
+         */
+        public Map<Integer, Boolean> getDisagreementBySegment(Map<Integer, Integer> aSegments)
+        {
+            Map<Integer, List<ConfigurationSet>> setsBySegment = getConfigurationSetsBySegment(
+                    aSegments);
+            
+            Map<ConfigurationSet, Boolean> cache = new HashMap<>();
+            Map<Integer, Boolean> result = new HashMap<>();
+            for (Integer begin : aSegments.keySet()) {
+                boolean disagreement = false;
+                for (ConfigurationSet cfgSet : setsBySegment.getOrDefault(begin,
+                        Collections.emptyList())) {
+                    if (cache.computeIfAbsent(cfgSet, this::isDisagreement)) {
+                        disagreement = true;
+                        break;
+                    }
+                }
+                result.put(begin, disagreement);
+            }
+            
+            return result;
+        }
+        
+        private boolean isDisagreement(ConfigurationSet aSet)
+        {
+            if (!isComplete(aSet)) {
+                return true;
+            }
+            
+            // Is this set a diff due to stacked annotations (with same configuration)?
+            if (!isAgreement(aSet)) {
+                for (Configuration c : aSet.getConfigurations()) {
+                    if (c.getCasGroupIds().size() != aSet.getCasGroupIds().size()) {
+                        return true;
+                    }
+                }
+            }
+            
+            return false;
+        }
+        
         public Map<Position, ConfigurationSet> getDifferingConfigurationSets()
         {
             Map<Position, ConfigurationSet> diffs = new LinkedHashMap<>();
@@ -1136,10 +1336,11 @@ public class CasDiff
     public static List<DiffAdapter> getAdapters(AnnotationSchemaService annotationService,
             Project project)
     {
+        ProjectSchema schema = annotationService.getProjectSchema(project);
         List<DiffAdapter> adapters = new ArrayList<>();
-        for (AnnotationLayer layer : annotationService.listAnnotationLayer(project)) {
+        for (AnnotationLayer layer : schema.getLayers()) {
             Set<String> labelFeatures = new LinkedHashSet<>();
-            for (AnnotationFeature f : annotationService.listAnnotationFeature(layer)) {
+            for (AnnotationFeature f : schema.getFeatures(layer)) {
                 if (!f.isEnabled()) {
                     continue;
                 }
@@ -1159,7 +1360,7 @@ public class CasDiff
                 break;
             }
             case RELATION_TYPE: {
-                RelationAdapter typeAdpt = (RelationAdapter) annotationService.getAdapter(layer);
+                RelationAdapter typeAdpt = (RelationAdapter) schema.getAdapter(layer);
                 adpt = new RelationDiffAdapter(layer.getName(),
                         typeAdpt.getSourceFeatureName(), typeAdpt.getTargetFeatureName(),
                         labelFeatures);
@@ -1174,7 +1375,7 @@ public class CasDiff
 
             adapters.add(adpt);
 
-            for (AnnotationFeature f : annotationService.listAnnotationFeature(layer)) {
+            for (AnnotationFeature f : schema.getFeatures(layer)) {
                 if (!f.isEnabled()) {
                     continue;
                 }
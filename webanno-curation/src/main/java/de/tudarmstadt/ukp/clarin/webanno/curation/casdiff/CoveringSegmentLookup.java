@@ -0,0 +1,70 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.curation.casdiff;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Looks up the segments of a document, e.g. sentences, which cover a given range. Segments may
+ * overlap.
+ */
+public class CoveringSegmentLookup
+{
+    private final NavigableMap<Integer, Integer> segments;
+    private final int maxLength;
+
+    /**
+     * @param aSegments
+     *            the segments as a map from begin to end offset.
+     */
+    public CoveringSegmentLookup(Map<Integer, Integer> aSegments)
+    {
+        segments = new TreeMap<>(aSegments);
+        int max = 0;
+        for (Entry<Integer, Integer> e : segments.entrySet()) {
+            max = Math.max(max, e.getValue() - e.getKey());
+        }
+        maxLength = max;
+    }
+
+    /**
+     * @return the begin offsets of the segments covering the given range.
+     */
+    public List<Integer> getCoveringSegments(int aBegin, int aEnd)
+    {
+        List<Integer> result = new ArrayList<>();
+        // Only segments beginning before the range and being long enough to reach its end can
+        // cover it
+        for (Entry<Integer, Integer> seg : segments.headMap(aBegin, true).descendingMap()
+                .entrySet()) {
+            if (seg.getKey() < aEnd - maxLength) {
+                break;
+            }
+
+            if (aEnd <= seg.getValue()) {
+                result.add(seg.getKey());
+            }
+        }
+        return result;
+    }
+}
@@ -62,6 +62,7 @@ import de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter.TypeAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.BulkAnnotationEvent;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.exception.AnnotationException;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.LinkWithRoleModel;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.UnitIndex;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.Configuration;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.ConfigurationSet;
@@ -93,6 +94,7 @@ public class CasMerge
     private boolean mergeIncompleteAnnotations = false;
     private boolean silenceEvents = false;
     private Map<AnnotationLayer, List<AnnotationFeature>> featureCache = new HashMap<>();
+    private Map<AnnotationLayer, TypeAdapter> adapterCache = new HashMap<>();
     
     public CasMerge(AnnotationSchemaService aSchemaService)
     {
@@ -539,6 +541,7 @@ public class CasMerge
 
         // Remove all annotations from the target CAS but we keep the type system!
         aCas.reset();
+        UnitIndex.invalidate(aCas);
         
         // Copy over essential information
         if (exists(backup, getType(backup, DocumentMetaData.class))) {
@@ -645,6 +648,16 @@ public class CasMerge
                 .collect(Collectors.toList());
     }
 
+    /**
+     * Adapters are cached for the lifetime of the merge instead of creating a new one for every
+     * merged annotation. The shared adapters from the project schema are not used here because
+     * the merge may silence their events.
+     */
+    private TypeAdapter getAdapter(AnnotationLayer aLayer)
+    {
+        return adapterCache.computeIfAbsent(aLayer, key -> schemaService.getAdapter(key));
+    }
+
     private void copyFeatures(SourceDocument aDocument, String aUsername, TypeAdapter aAdapter,
             FeatureStructure aTargetFS, FeatureStructure aSourceFs)
     {
@@ -696,7 +709,7 @@ public class CasMerge
                     "The annotation already exists in the target document.");
         }
 
-        SpanAdapter adapter = (SpanAdapter) schemaService.getAdapter(aAnnotationLayer);
+        SpanAdapter adapter = (SpanAdapter) getAdapter(aAnnotationLayer);
         if (silenceEvents) {
             adapter.silenceEvents();
         }
@@ -725,7 +738,7 @@ public class CasMerge
             AnnotationFS aSourceFs, boolean aAllowStacking)
         throws AnnotationException
     {
-        RelationAdapter adapter = (RelationAdapter) schemaService.getAdapter(aAnnotationLayer);
+        RelationAdapter adapter = (RelationAdapter) getAdapter(aAnnotationLayer);
         if (silenceEvents) {
             adapter.silenceEvents();
         }
@@ -794,7 +807,7 @@ public class CasMerge
             AnnotationFS aSourceFs, String aSourceFeature, int aSourceSlotIndex)
         throws AnnotationException
     {
-        TypeAdapter adapter = schemaService.getAdapter(aAnnotationLayer);
+        TypeAdapter adapter = getAdapter(aAnnotationLayer);
         if (silenceEvents) {
             adapter.silenceEvents();
         }
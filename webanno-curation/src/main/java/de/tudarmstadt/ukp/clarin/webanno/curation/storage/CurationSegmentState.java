@@ -0,0 +1,92 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.curation.storage;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The segment states of a document as calculated by the {@link CurationSegmentStateService}.
+ * Instances are not modified once they have been created, so they can safely be shared.
+ */
+class CurationSegmentState
+    implements Serializable
+{
+    private static final long serialVersionUID = 2944312530453606232L;
+
+    /**
+     * Identifies the types, diff settings and segments the states have been calculated for.
+     */
+    private final String configuration;
+    
+    /**
+     * The CAS timestamps by user. The timestamp is {@code null} if the CAS had not been stored.
+     */
+    private final Map<String, Long> timestamps;
+    
+    /**
+     * Fingerprints of the annotations of every user in every segment by user and segment begin.
+     */
+    private final Map<String, Map<Integer, Long>> fingerprints;
+    
+    private final Map<Integer, Boolean> disagreements;
+
+    CurationSegmentState(String aConfiguration, Map<String, Long> aTimestamps,
+            Map<String, Map<Integer, Long>> aFingerprints, Map<Integer, Boolean> aDisagreements)
+    {
+        configuration = aConfiguration;
+        timestamps = aTimestamps;
+        fingerprints = aFingerprints;
+        disagreements = aDisagreements;
+    }
+
+    /**
+     * @return whether the states have been calculated for the same configuration and users and
+     *         can thus be updated.
+     */
+    boolean isCompatible(String aConfiguration, Set<String> aUsers)
+    {
+        return configuration.equals(aConfiguration) && timestamps.keySet().equals(aUsers);
+    }
+    
+    String getConfiguration()
+    {
+        return configuration;
+    }
+    
+    Long getTimestamp(String aUser)
+    {
+        return timestamps.get(aUser);
+    }
+
+    Map<Integer, Long> getFingerprints(String aUser)
+    {
+        return fingerprints.get(aUser);
+    }
+    
+    Map<String, Map<Integer, Long>> getFingerprints()
+    {
+        return fingerprints;
+    }
+
+    Map<Integer, Boolean> getDisagreements()
+    {
+        return disagreements;
+    }
+}
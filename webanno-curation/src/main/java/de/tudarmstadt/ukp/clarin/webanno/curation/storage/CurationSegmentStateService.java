@@ -0,0 +1,64 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.curation.storage;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Type;
+
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.DiffResult;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.api.DiffAdapter;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+/**
+ * Keeps track of the segments of a document in which the annotators disagree, e.g. to show them
+ * in the curation sidebar. The states are stored alongside the CASes of the document together
+ * with the timestamps of the annotator CASes they have been calculated from. When the CAS of an
+ * annotator changes, only the segments in which the annotations of that annotator have changed
+ * are re-calculated.
+ */
+public interface CurationSegmentStateService
+{
+    String SERVICE_NAME = "curationSegmentStateService";
+
+    /**
+     * Determines for each of the given segments whether the annotators disagree in it.
+     * 
+     * @param aDocument
+     *            the document.
+     * @param aCasses
+     *            the CASes of the annotators by user name.
+     * @param aEntryTypes
+     *            the types to compare.
+     * @param aAdapters
+     *            the diff adapters for the types.
+     * @param aSegments
+     *            the segments as a map from begin to end offset.
+     * @return whether the annotators disagree by the begin offset of the segments.
+     * @throws IOException
+     *             if the stored states cannot be written.
+     * @see DiffResult#getDisagreementBySegment(Map)
+     */
+    Map<Integer, Boolean> getDisagreementBySegment(SourceDocument aDocument,
+            Map<String, CAS> aCasses, List<Type> aEntryTypes, List<DiffAdapter> aAdapters,
+            Map<Integer, Integer> aSegments)
+        throws IOException;
+}
@@ -0,0 +1,331 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.curation.storage;
+
+import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.LinkCompareBehavior.LINK_ROLE_AS_LABEL;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static org.apache.uima.fit.util.CasUtil.selectCovered;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.uima.cas.ArrayFS;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.CommonArrayFS;
+import org.apache.uima.cas.Feature;
+import org.apache.uima.cas.FeatureStructure;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.DiffResult;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CoveringSegmentLookup;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.api.DiffAdapter;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+@Component(CurationSegmentStateService.SERVICE_NAME)
+public class CurationSegmentStateServiceImpl
+    implements CurationSegmentStateService
+{
+    public static final String STATE_FILE = "CURATION_USER.segments";
+    
+    private static final int LOCK_STRIPES = 64;
+    
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    
+    private @Autowired CasStorageService casStorageService;
+
+    public CurationSegmentStateServiceImpl()
+    {
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+    
+    public CurationSegmentStateServiceImpl(CasStorageService aCasStorageService)
+    {
+        this();
+        casStorageService = aCasStorageService;
+    }
+
+    @Override
+    public Map<Integer, Boolean> getDisagreementBySegment(SourceDocument aDocument,
+            Map<String, CAS> aCasses, List<Type> aEntryTypes, List<DiffAdapter> aAdapters,
+            Map<Integer, Integer> aSegments)
+        throws IOException
+    {
+        String configuration = getConfiguration(aEntryTypes, aAdapters, aSegments);
+        
+        Map<String, Long> timestamps = new HashMap<>();
+        for (String user : aCasses.keySet()) {
+            timestamps.put(user, casStorageService.getCasTimestamp(aDocument, user).orElse(null));
+        }
+        
+        // Curators working on the same document share the stored states
+        synchronized (locks[(int) (Math.abs(aDocument.getId() % LOCK_STRIPES))]) {
+            File stateFile = new File(casStorageService.getAnnotationFolder(aDocument),
+                    STATE_FILE);
+            
+            CurationSegmentState previous = readState(stateFile);
+            if (previous != null && !previous.isCompatible(configuration, aCasses.keySet())) {
+                log.debug("Segment states of document [{}]({}) have been calculated for "
+                        + "different layers, segments or users", aDocument.getName(),
+                        aDocument.getId());
+                previous = null;
+            }
+
+            CoveringSegmentLookup lookup = new CoveringSegmentLookup(aSegments);
+            int rangeBegin = aSegments.isEmpty() ? 0 : Collections.min(aSegments.keySet());
+            int rangeEnd = aSegments.isEmpty() ? 0 : Collections.max(aSegments.values());
+            
+            // Determine the segments in which the annotations of any changed user have changed
+            Map<String, Map<Integer, Long>> fingerprints = new HashMap<>();
+            Set<Integer> dirtySegments = new HashSet<>();
+            for (String user : aCasses.keySet()) {
+                Long timestamp = timestamps.get(user);
+                if (previous != null && timestamp != null
+                        && timestamp.equals(previous.getTimestamp(user))) {
+                    fingerprints.put(user, previous.getFingerprints(user));
+                    continue;
+                }
+                
+                Map<Integer, Long> userFingerprints = fingerprint(aCasses.get(user), aEntryTypes,
+                        lookup, rangeBegin, rangeEnd);
+                fingerprints.put(user, userFingerprints);
+                
+                if (previous == null) {
+                    continue;
+                }
+                
+                Map<Integer, Long> previousFingerprints = previous.getFingerprints(user);
+                for (Integer begin : aSegments.keySet()) {
+                    if (!Objects.equals(userFingerprints.get(begin),
+                            previousFingerprints.get(begin))) {
+                        dirtySegments.add(begin);
+                    }
+                }
+            }
+            
+            Map<Integer, Boolean> disagreements;
+            if (previous == null) {
+                disagreements = calculate(aCasses, aEntryTypes, aAdapters, aSegments);
+                log.debug("Calculated segment states of document [{}]({})", aDocument.getName(),
+                        aDocument.getId());
+            }
+            else {
+                disagreements = new HashMap<>(previous.getDisagreements());
+                if (!dirtySegments.isEmpty()) {
+                    Map<Integer, Integer> segments = new HashMap<>();
+                    for (Integer begin : dirtySegments) {
+                        segments.put(begin, aSegments.get(begin));
+                    }
+                    disagreements.putAll(calculate(aCasses, aEntryTypes, aAdapters, segments));
+                }
+                log.debug("Updated {} of {} segment states of document [{}]({})",
+                        dirtySegments.size(), aSegments.size(), aDocument.getName(),
+                        aDocument.getId());
+            }
+            
+            boolean changed = previous == null;
+            for (String user : aCasses.keySet()) {
+                if (changed) {
+                    break;
+                }
+                changed = !Objects.equals(timestamps.get(user), previous.getTimestamp(user));
+            }
+            
+            if (changed) {
+                writeState(stateFile, new CurationSegmentState(configuration, timestamps,
+                        fingerprints, disagreements));
+            }
+            
+            return Collections.unmodifiableMap(disagreements);
+        }
+    }
+    
+    private Map<Integer, Boolean> calculate(Map<String, CAS> aCasses, List<Type> aEntryTypes,
+            List<DiffAdapter> aAdapters, Map<Integer, Integer> aSegments)
+    {
+        if (aSegments.isEmpty()) {
+            return new HashMap<>();
+        }
+        
+        DiffResult diff = CasDiff.doDiffSingle(aEntryTypes, aAdapters, LINK_ROLE_AS_LABEL,
+                aCasses, Collections.min(aSegments.keySet()),
+                Collections.max(aSegments.values()));
+        return diff.getDisagreementBySegment(aSegments);
+    }
+    
+    private static String getConfiguration(List<Type> aEntryTypes, List<DiffAdapter> aAdapters,
+            Map<Integer, Integer> aSegments)
+    {
+        List<String> types = new ArrayList<>();
+        for (Type type : aEntryTypes) {
+            types.add(type.getName());
+        }
+        Collections.sort(types);
+        
+        Map<String, List<String>> labelFeatures = new TreeMap<>();
+        for (DiffAdapter adapter : aAdapters) {
+            List<String> features = new ArrayList<>(adapter.getLabelFeatures());
+            Collections.sort(features);
+            labelFeatures.put(adapter.getType(), features);
+        }
+        
+        return types + " " + labelFeatures + " " + new TreeMap<>(aSegments);
+    }
+    
+    /**
+     * Calculates a fingerprint of the annotations of a user in each segment. Annotations
+     * covered by multiple segments contribute to each of them. The fingerprint does not depend
+     * on the order of the annotations.
+     */
+    private static Map<Integer, Long> fingerprint(CAS aCas, List<Type> aEntryTypes,
+            CoveringSegmentLookup aLookup, int aBegin, int aEnd)
+    {
+        Map<Integer, Long> fingerprints = new HashMap<>();
+        if (aCas == null) {
+            return fingerprints;
+        }
+        
+        for (Type entryType : aEntryTypes) {
+            Type type = aCas.getTypeSystem().getType(entryType.getName());
+            if (type == null) {
+                continue;
+            }
+            
+            for (AnnotationFS fs : selectCovered(aCas, type, aBegin, aEnd)) {
+                long hash = mix(hash(fs, true));
+                for (int segment : aLookup.getCoveringSegments(fs.getBegin(), fs.getEnd())) {
+                    fingerprints.merge(segment, hash, Long::sum);
+                }
+            }
+        }
+        
+        return fingerprints;
+    }
+    
+    /**
+     * Hashes the feature values of the given feature structure. Annotations referenced from
+     * features are represented by their offsets. If {@code aDeep} is set, the elements of
+     * feature structure arrays (e.g. slot links) are hashed as well.
+     */
+    private static long hash(FeatureStructure aFS, boolean aDeep)
+    {
+        long hash = aFS.getType().getName().hashCode();
+        for (Feature feature : aFS.getType().getFeatures()) {
+            hash = hash * 31 + hash(aFS, feature, aDeep);
+        }
+        return hash;
+    }
+
+    private static long hash(FeatureStructure aFS, Feature aFeature, boolean aDeep)
+    {
+        if (aFeature.getRange().isPrimitive()) {
+            return Objects.hashCode(aFS.getFeatureValueAsString(aFeature));
+        }
+        
+        FeatureStructure value = aFS.getFeatureValue(aFeature);
+        if (value instanceof AnnotationFS) {
+            AnnotationFS annotation = (AnnotationFS) value;
+            return annotation.getBegin() * 31L + annotation.getEnd();
+        }
+        
+        if (value instanceof ArrayFS) {
+            if (!aDeep) {
+                return 0;
+            }
+            
+            long hash = 1;
+            for (FeatureStructure element : ((ArrayFS) value).toArray()) {
+                hash = hash * 31 + (element != null ? hash(element, false) : 0);
+            }
+            return hash;
+        }
+        
+        if (value instanceof CommonArrayFS) {
+            return Arrays.hashCode(((CommonArrayFS) value).toStringArray());
+        }
+        
+        return 0;
+    }
+    
+    private static long mix(long aHash)
+    {
+        // Spread the bits so that summing up the hashes of a segment does not cancel them out
+        long h = aHash;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+    
+    private CurationSegmentState readState(File aFile)
+    {
+        if (!aFile.exists()) {
+            return null;
+        }
+        
+        try (ObjectInputStream is = new ObjectInputStream(
+                new BufferedInputStream(new FileInputStream(aFile)))) {
+            return (CurationSegmentState) is.readObject();
+        }
+        catch (IOException | ClassNotFoundException | ClassCastException e) {
+            log.warn("Unable to read segment states from [{}] - recalculating", aFile, e);
+            return null;
+        }
+    }
+    
+    private void writeState(File aFile, CurationSegmentState aState) throws IOException
+    {
+        // Write to a temporary file first so readers never see a partially written state
+        File tempFile = new File(aFile.getPath() + ".tmp");
+        try (ObjectOutputStream os = new ObjectOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            os.writeObject(aState);
+        }
+        Files.move(tempFile.toPath(), aFile.toPath(), REPLACE_EXISTING, ATOMIC_MOVE);
+    }
+}
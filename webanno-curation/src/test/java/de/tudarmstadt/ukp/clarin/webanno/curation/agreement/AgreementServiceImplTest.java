@@ -0,0 +1,152 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.curation.agreement;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.SPAN_TYPE;
+import static de.tudarmstadt.ukp.clarin.webanno.curation.agreement.AgreementUtils.ConcreteAgreementMeasure.KRIPPENDORFF_ALPHA_NOMINAL_AGREEMENT;
+import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.LinkCompareBehavior.LINK_TARGET_AS_LABEL;
+import static de.tudarmstadt.ukp.clarin.webanno.model.AnchoringMode.TOKENS;
+import static de.tudarmstadt.ukp.clarin.webanno.model.OverlapMode.NO_OVERLAP;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.uima.cas.CAS;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
+import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.api.ProjectSchema;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.dkpro.core.api.ner.type.NamedEntity;
+
+public class AgreementServiceImplTest
+{
+    private @Mock DocumentService documentService;
+    private @Mock AnnotationSchemaService annotationService;
+    private @Mock CasStorageService casStorageService;
+
+    private AgreementServiceImpl sut;
+
+    private Project project;
+    private AnnotationFeature feature;
+    private List<String> annotators;
+
+    @Before
+    public void setup() throws Exception
+    {
+        initMocks(this);
+
+        // Only a single background calculation may run at a time
+        sut = new AgreementServiceImpl(documentService, annotationService, casStorageService,
+                1000, 1, 1);
+
+        project = new Project();
+        project.setId(1l);
+        project.setName("project");
+
+        AnnotationLayer layer = new AnnotationLayer(NamedEntity.class.getName(), "Named entity",
+                SPAN_TYPE, project, true, TOKENS, NO_OVERLAP);
+        layer.setId(1l);
+
+        feature = new AnnotationFeature();
+        feature.setName("value");
+        feature.setEnabled(true);
+        feature.setType(CAS.TYPE_NAME_STRING);
+        feature.setLayer(layer);
+        feature.setProject(project);
+
+        annotators = asList("user1", "user2");
+
+        when(annotationService.getProjectSchema(project)).thenReturn(new ProjectSchema(project,
+                0, emptyList(), emptyList(), emptyList(), l -> null, l -> null));
+    }
+
+    @After
+    public void tearDown()
+    {
+        sut.destroy();
+    }
+
+    @Test
+    public void thatBackgroundCalculationProvidesResult() throws Exception
+    {
+        AgreementCalculation calculation = start();
+
+        calculation.awaitCompletion();
+
+        assertThat(calculation.isDone()).isTrue();
+        assertThat(calculation.getError()).isNull();
+        assertThat(calculation.poll()).isEqualTo(100);
+        assertThat(sut.getCalculation(calculation.getId())).containsSame(calculation);
+        assertThat(calculation.getResult().getRaters()).containsExactly("user1", "user2");
+    }
+
+    @Test
+    public void thatSupersededCalculationIsCancelled() throws Exception
+    {
+        // Keep the first calculation running until it is cancelled
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch never = new CountDownLatch(1);
+        when(documentService.listSourceDocuments(project)).thenAnswer(invocation -> {
+            running.countDown();
+            never.await();
+            return emptyList();
+        }).thenReturn(emptyList());
+
+        AgreementCalculation superseded = start();
+        assertThat(running.await(10, SECONDS)).isTrue();
+
+        // The second calculation has to wait until the first one has released its thread
+        AgreementCalculation current = start();
+        Thread.sleep(100);
+        assertThat(current.isDone()).isFalse();
+        verify(documentService, times(1)).listSourceDocuments(project);
+
+        sut.discardCalculation(superseded.getId());
+
+        current.awaitCompletion();
+        superseded.awaitCompletion();
+
+        assertThat(superseded.isCancelled()).isTrue();
+        assertThat(superseded.getResult()).isNull();
+        assertThat(sut.getCalculation(superseded.getId())).isEmpty();
+        assertThat(current.getError()).isNull();
+        assertThat(current.getResult().getRaters()).containsExactly("user1", "user2");
+    }
+
+    private AgreementCalculation start()
+    {
+        return sut.startPairwiseAgreement(KRIPPENDORFF_ALPHA_NOMINAL_AGREEMENT, false, feature,
+                LINK_TARGET_AS_LABEL, annotators);
+    }
+}
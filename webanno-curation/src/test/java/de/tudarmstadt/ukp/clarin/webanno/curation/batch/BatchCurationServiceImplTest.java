@@ -0,0 +1,300 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.curation.batch;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.CasUpgradeMode.AUTO_CAS_UPGRADE;
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.CURATION_USER;
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.SPAN_TYPE;
+import static de.tudarmstadt.ukp.clarin.webanno.model.AnchoringMode.SINGLE_TOKEN;
+import static de.tudarmstadt.ukp.clarin.webanno.model.OverlapMode.NO_OVERLAP;
+import static de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentState.ANNOTATION_IN_PROGRESS;
+import static de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentStateTransition.ANNOTATION_IN_PROGRESS_TO_CURATION_IN_PROGRESS;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.lang3.reflect.FieldUtils;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.fit.util.CasUtil;
+import org.apache.uima.jcas.JCas;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService.CasStorageOperation;
+import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.api.ProjectSchema;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter.TypeAdapter;
+import de.tudarmstadt.ukp.clarin.webanno.curation.storage.CurationDocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.dkpro.core.api.lexmorph.type.pos.POS;
+
+public class BatchCurationServiceImplTest
+{
+    private @Mock DocumentService documentService;
+    private @Mock AnnotationSchemaService annotationService;
+    private @Mock CurationDocumentService curationDocumentService;
+    private @Mock CasStorageService casStorageService;
+    private @Mock TypeAdapter posAdapter;
+
+    private @InjectMocks BatchCurationServiceImpl sut;
+
+    private Project project;
+    private List<AnnotationDocument> finishedDocuments;
+
+    @Before
+    public void setup() throws Exception
+    {
+        initMocks(this);
+
+        // A single worker makes the order in which the documents are processed predictable
+        FieldUtils.writeField(sut, "threads", 1, true);
+        sut.afterPropertiesSet();
+
+        project = new Project();
+        project.setId(1l);
+        project.setName("project");
+
+        AnnotationLayer posLayer = new AnnotationLayer(POS.class.getName(), "POS", SPAN_TYPE,
+                project, true, SINGLE_TOKEN, NO_OVERLAP);
+        posLayer.setId(1l);
+
+        AnnotationFeature posFeature = new AnnotationFeature();
+        posFeature.setName("PosValue");
+        posFeature.setEnabled(true);
+        posFeature.setType(CAS.TYPE_NAME_STRING);
+        posFeature.setLayer(posLayer);
+        posFeature.setProject(project);
+
+        when(annotationService.listAnnotationLayer(project)).thenReturn(asList(posLayer));
+        when(annotationService.getAdapter(posLayer)).thenReturn(posAdapter);
+        when(annotationService.getProjectSchema(project)).thenReturn(new ProjectSchema(project,
+                0, asList(posLayer), asList(posFeature), emptyList(), l -> posAdapter,
+                l -> null));
+        when(posAdapter.getAnnotationType(any())).thenAnswer(
+            invocation -> CasUtil.getType((CAS) invocation.getArgument(0), POS.class));
+
+        finishedDocuments = new ArrayList<>();
+        when(documentService.listFinishedAnnotationDocuments(project))
+                .thenReturn(finishedDocuments);
+
+        // Run the exclusive operations directly, the locking itself is tested with the storage
+        doAnswer(invocation -> {
+            ((CasStorageOperation) invocation.getArgument(2)).execute();
+            return null;
+        }).when(casStorageService).performExclusiveOperation(any(), any(), any());
+    }
+
+    @After
+    public void tearDown()
+    {
+        sut.destroy();
+    }
+
+    @Test
+    public void thatAgreeingDocumentIsMerged() throws Exception
+    {
+        SourceDocument doc = makeSourceDocument(1l);
+        annotate(doc, "user1");
+        annotate(doc, "user2");
+
+        BatchCurationReport report = sut.merge(project, asList(doc), new BatchCurationOptions(),
+                new BatchCurationProgress());
+
+        assertThat(report.getResults())
+                .extracting(BatchCurationResult::getState)
+                .containsExactly(BatchCurationState.MERGED);
+        assertThat(report.getResults().get(0).getAnnotators()).isEqualTo(2);
+        verify(casStorageService).performExclusiveOperation(eq(doc), eq(CURATION_USER), any());
+        verify(curationDocumentService).writeCurationCas(any(), eq(doc), eq(false));
+        verify(documentService).transitionSourceDocumentState(doc,
+                ANNOTATION_IN_PROGRESS_TO_CURATION_IN_PROGRESS);
+    }
+
+    @Test
+    public void thatDryRunCountsConflictsWithoutWriting() throws Exception
+    {
+        SourceDocument doc = makeSourceDocument(1l);
+        annotate(doc, "user1", "DT");
+        annotate(doc, "user2", "NN");
+
+        BatchCurationOptions options = new BatchCurationOptions();
+        options.setDryRun(true);
+
+        BatchCurationReport report = sut.merge(project, asList(doc), options,
+                new BatchCurationProgress());
+
+        assertThat(report.isDryRun()).isTrue();
+        assertThat(report.getResults())
+                .extracting(BatchCurationResult::getState, BatchCurationResult::getPositions,
+                        BatchCurationResult::getConflicts)
+                .containsExactly(tuple(BatchCurationState.CHECKED, 1, 1));
+        verify(curationDocumentService, never()).writeCurationCas(any(), any(), anyBoolean());
+        verify(documentService, never()).transitionSourceDocumentState(any(), any());
+    }
+
+    @Test
+    public void thatDocumentWithCurationIsSkipped() throws Exception
+    {
+        SourceDocument doc = makeSourceDocument(1l);
+        annotate(doc, "user1");
+        when(documentService.existsCas(doc, CURATION_USER)).thenReturn(true);
+
+        BatchCurationReport report = sut.merge(project, asList(doc), new BatchCurationOptions(),
+                new BatchCurationProgress());
+
+        assertThat(report.getResults())
+                .extracting(BatchCurationResult::getState)
+                .containsExactly(BatchCurationState.SKIPPED);
+        verify(documentService, never()).readAnnotationCas(any(AnnotationDocument.class),
+                any());
+        verify(curationDocumentService, never()).writeCurationCas(any(), any(), anyBoolean());
+    }
+
+    @Test
+    public void thatCurationStartedDuringMergeIsNotOverwritten() throws Exception
+    {
+        SourceDocument doc = makeSourceDocument(1l);
+        annotate(doc, "user1");
+        // The curator opens the document after the first check
+        when(documentService.existsCas(doc, CURATION_USER)).thenReturn(false, true);
+
+        BatchCurationReport report = sut.merge(project, asList(doc), new BatchCurationOptions(),
+                new BatchCurationProgress());
+
+        assertThat(report.getResults())
+                .extracting(BatchCurationResult::getState)
+                .containsExactly(BatchCurationState.SKIPPED);
+        verify(curationDocumentService, never()).writeCurationCas(any(), any(), anyBoolean());
+        verify(documentService, never()).transitionSourceDocumentState(any(), any());
+    }
+
+    @Test
+    public void thatCancellationCompletesRunningDocuments() throws Exception
+    {
+        SourceDocument doc1 = makeSourceDocument(1l);
+        SourceDocument doc2 = makeSourceDocument(2l);
+        SourceDocument doc3 = makeSourceDocument(3l);
+        AnnotationDocument blocking = annotate(doc1, "user1");
+        annotate(doc2, "user1");
+        annotate(doc3, "user1");
+
+        // Keep the first document running until the run has been cancelled
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch released = new CountDownLatch(1);
+        CAS cas = JCasFactory.createText("This is a test .").getCas();
+        when(documentService.readAnnotationCas(blocking, AUTO_CAS_UPGRADE)).thenAnswer(
+            invocation -> {
+                running.countDown();
+                released.await();
+                return cas;
+            });
+
+        BatchCurationProgress progress = new BatchCurationProgress();
+        AtomicReference<BatchCurationReport> report = new AtomicReference<>();
+        AtomicBoolean interrupted = new AtomicBoolean();
+        Thread runner = new Thread(() -> {
+            report.set(sut.merge(project, asList(doc1, doc2, doc3), new BatchCurationOptions(),
+                    progress));
+            interrupted.set(Thread.currentThread().isInterrupted());
+        });
+        runner.start();
+
+        assertThat(running.await(10, SECONDS)).isTrue();
+        runner.interrupt();
+        while (!progress.isCancelled()) {
+            Thread.sleep(10);
+        }
+        released.countDown();
+        runner.join(SECONDS.toMillis(10));
+
+        assertThat(runner.isAlive()).isFalse();
+        assertThat(interrupted.get()).isTrue();
+        assertThat(report.get().getResults())
+                .extracting(BatchCurationResult::getState)
+                .containsExactly(BatchCurationState.MERGED, BatchCurationState.CANCELLED,
+                        BatchCurationState.CANCELLED);
+        assertThat(progress.getState(doc1)).isEqualTo(BatchCurationState.MERGED);
+        assertThat(progress.getState(doc2)).isEqualTo(BatchCurationState.CANCELLED);
+        assertThat(progress.getDone()).isEqualTo(3);
+        verify(curationDocumentService).writeCurationCas(any(), eq(doc1), eq(false));
+        verify(curationDocumentService, never()).writeCurationCas(any(), eq(doc2),
+                anyBoolean());
+    }
+
+    private SourceDocument makeSourceDocument(long aId)
+    {
+        SourceDocument doc = new SourceDocument();
+        doc.setId(aId);
+        doc.setName("doc" + aId);
+        doc.setProject(project);
+        doc.setState(ANNOTATION_IN_PROGRESS);
+        return doc;
+    }
+
+    private AnnotationDocument annotate(SourceDocument aDocument, String aUser,
+            String... aPosValues)
+        throws Exception
+    {
+        AnnotationDocument annDoc = new AnnotationDocument();
+        annDoc.setDocument(aDocument);
+        annDoc.setName(aDocument.getName());
+        annDoc.setProject(project);
+        annDoc.setUser(aUser);
+        finishedDocuments.add(annDoc);
+
+        // Each read returns a fresh CAS, as the merge modifies the CAS it writes
+        when(documentService.readAnnotationCas(annDoc, AUTO_CAS_UPGRADE)).thenAnswer(
+            invocation -> {
+                JCas jcas = JCasFactory.createText("This is a test .");
+                for (String value : aPosValues) {
+                    POS pos = new POS(jcas, 0, 4);
+                    pos.setPosValue(value);
+                    pos.addToIndexes();
+                }
+                return jcas.getCas();
+            });
+
+        return annDoc;
+    }
+}
@@ -33,9 +33,11 @@ import static org.junit.Assert.assertEquals;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 
 import org.apache.uima.cas.CAS;
 import org.apache.uima.cas.Type;
@@ -46,15 +48,20 @@ import org.apache.uima.fit.testing.factory.TokenBuilder;
 import org.apache.uima.fit.util.FSUtil;
 import org.apache.uima.jcas.JCas;
 import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.apache.uima.resource.metadata.impl.TypeSystemDescription_impl;
 import org.apache.uima.util.CasCreationUtils;
 import org.dkpro.core.testing.DkproTestContext;
 import org.junit.Rule;
 import org.junit.Test;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
+import de.tudarmstadt.ukp.clarin.webanno.curation.agreement.AgreementStudyBuilder;
 import de.tudarmstadt.ukp.clarin.webanno.curation.agreement.AgreementUtils;
 import de.tudarmstadt.ukp.clarin.webanno.curation.agreement.AgreementUtils.AgreementResult;
 import de.tudarmstadt.ukp.clarin.webanno.curation.agreement.AgreementUtils.ConcreteAgreementMeasure;
+import de.tudarmstadt.ukp.clarin.webanno.curation.agreement.DiffSummary;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.Configuration;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.ConfigurationSet;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.DiffResult;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.api.DiffAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.relation.RelationDiffAdapter;
@@ -473,6 +480,275 @@ public class CasDiffTest
         assertEquals(0, agreement.getIncompleteSetsByPosition().size());
     }
 
+    @Test
+    public void someDifferencesSummaryTest()
+        throws Exception
+    {
+        Map<String, List<CAS>> casByUser = load(
+                "casdiff/someDifferences/user1.conll",
+                "casdiff/someDifferences/user2.conll");
+
+        List<String> entryTypes = asList(POS.class.getName());
+
+        List<SpanDiffAdapter> diffAdapters = asList(SpanDiffAdapter.POS_DIFF_ADAPTER);
+
+        DiffResult result = CasDiff.doDiff(entryTypes, diffAdapters,
+                LinkCompareBehavior.LINK_TARGET_AS_LABEL, casByUser);
+        
+        DiffSummary summary = AgreementUtils.summarize(result, entryTypes.get(0), casByUser);
+        result.detach();
+        
+        AgreementResult agreement = AgreementUtils.getAgreement(
+                ConcreteAgreementMeasure.COHEN_KAPPA_AGREEMENT, true, asList(summary),
+                entryTypes.get(0), "PosValue", new ArrayList<>(casByUser.keySet()));
+        assertEquals(0.836477987d, agreement.getAgreement(), 0.000001d);
+        assertEquals(26, agreement.getTotalSetCount());
+        assertEquals(0, agreement.getIncompleteSetsByPosition().size());
+    }
+
+    @Test
+    public void disagreementBySegmentTest()
+        throws Exception
+    {
+        JCas user1 = JCasFactory.createJCas();
+        user1.setDocumentText("aaa bbb ccc ddd");
+        makePos(user1, 0, 3, "A");
+        makePos(user1, 4, 7, "B");
+        makePos(user1, 8, 11, "C");
+        makePos(user1, 12, 15, "D");
+
+        JCas user2 = JCasFactory.createJCas();
+        user2.setDocumentText("aaa bbb ccc ddd");
+        makePos(user2, 0, 3, "A");
+        makePos(user2, 4, 7, "X");
+        makePos(user2, 8, 11, "C");
+
+        Map<String, List<CAS>> casByUser = new LinkedHashMap<>();
+        casByUser.put("user1", asList(user1.getCas()));
+        casByUser.put("user2", asList(user2.getCas()));
+
+        Map<Integer, Integer> segments = new HashMap<>();
+        segments.put(0, 3);
+        segments.put(4, 7);
+        segments.put(8, 11);
+        segments.put(12, 15);
+
+        DiffResult result = CasDiff.doDiff(asList(POS.class.getName()), asList(POS_DIFF_ADAPTER),
+                LinkCompareBehavior.LINK_TARGET_AS_LABEL, casByUser);
+
+        Map<Integer, Boolean> disagreements = result.getDisagreementBySegment(segments);
+
+        assertEquals(4, disagreements.size());
+        assertEquals(false, disagreements.get(0));
+        assertEquals(true, disagreements.get(4));
+        assertEquals(false, disagreements.get(8));
+        assertEquals(true, disagreements.get(12));
+    }
+
+    @Test
+    public void configurationSetsBySegmentTest()
+        throws Exception
+    {
+        JCas user1 = JCasFactory.createJCas();
+        user1.setDocumentText("aaa bbb ccc ddd");
+        makePos(user1, 0, 3, "A");
+        makePos(user1, 4, 7, "B");
+        makePos(user1, 8, 15, "C");
+
+        JCas user2 = JCasFactory.createJCas();
+        user2.setDocumentText("aaa bbb ccc ddd");
+        makePos(user2, 0, 3, "A");
+        makePos(user2, 4, 7, "X");
+        makePos(user2, 12, 15, "D");
+
+        Map<String, List<CAS>> casByUser = new LinkedHashMap<>();
+        casByUser.put("user1", asList(user1.getCas()));
+        casByUser.put("user2", asList(user2.getCas()));
+
+        Map<Integer, Integer> segments = new HashMap<>();
+        segments.put(0, 7);
+        segments.put(8, 11);
+        segments.put(12, 15);
+
+        DiffResult result = CasDiff.doDiff(asList(POS.class.getName()), asList(POS_DIFF_ADAPTER),
+                LinkCompareBehavior.LINK_TARGET_AS_LABEL, casByUser);
+
+        Map<Integer, List<ConfigurationSet>> setsBySegment = result
+                .getConfigurationSetsBySegment(segments);
+
+        // The annotation spanning the second and third segment is not covered by any segment
+        assertEquals(2, setsBySegment.size());
+        assertEquals(2, setsBySegment.get(0).size());
+        assertEquals(1, setsBySegment.get(12).size());
+
+        // Same sets as when calculating the diff per segment
+        for (Entry<Integer, List<ConfigurationSet>> e : setsBySegment.entrySet()) {
+            Map<String, CAS> casses = new LinkedHashMap<>();
+            casByUser.forEach((user, casList) -> casses.put(user, casList.get(0)));
+            DiffResult segmentResult = CasDiff.doDiffSingle(
+                    asList(user1.getTypeSystem().getType(POS.class.getName())),
+                    asList(POS_DIFF_ADAPTER), LinkCompareBehavior.LINK_TARGET_AS_LABEL, casses,
+                    e.getKey(), segments.get(e.getKey()));
+            assertEquals(segmentResult.getPositions().size(), e.getValue().size());
+            for (ConfigurationSet cfgSet : e.getValue()) {
+                assertEquals(segmentResult.getConfigurtionSet(cfgSet.getPosition())
+                        .getConfigurations().size(), cfgSet.getConfigurations().size());
+            }
+        }
+    }
+
+    @Test
+    public void someDifferencesIncrementalStudyTest()
+        throws Exception
+    {
+        List<String> entryTypes = asList(POS.class.getName());
+
+        List<SpanDiffAdapter> diffAdapters = asList(SpanDiffAdapter.POS_DIFF_ADAPTER);
+
+        AgreementStudyBuilder builder = new AgreementStudyBuilder(entryTypes.get(0), "PosValue",
+                asList("user1", "user2"), true);
+        
+        // Feed the same document twice as if they were two documents of a project
+        for (int i = 0; i < 2; i++) {
+            Map<String, List<CAS>> casByUser = load(
+                    "casdiff/someDifferences/user1.conll",
+                    "casdiff/someDifferences/user2.conll");
+            
+            DiffResult result = CasDiff.doDiff(entryTypes, diffAdapters,
+                    LinkCompareBehavior.LINK_TARGET_AS_LABEL, casByUser);
+            
+            builder.add(AgreementUtils.summarize(result, entryTypes.get(0), casByUser));
+            result.detach();
+        }
+        
+        AgreementResult agreement = AgreementUtils.calculateAgreement(
+                ConcreteAgreementMeasure.COHEN_KAPPA_AGREEMENT, builder.build());
+        assertEquals(0.836477987d, agreement.getAgreement(), 0.000001d);
+        assertEquals(52, agreement.getTotalSetCount());
+        assertEquals(8, agreement.getDiffSetCount());
+        assertEquals(null, agreement.getDiff());
+    }
+
+    @Test
+    public void doubleFeatureSummaryTest()
+        throws Exception
+    {
+        TypeSystemDescription tsd = new TypeSystemDescription_impl();
+        tsd.addType("webanno.custom.Score", "", CAS.TYPE_NAME_ANNOTATION).addFeature("value", "",
+                CAS.TYPE_NAME_DOUBLE);
+        TypeSystemDescription mergedTsd = CasCreationUtils.mergeTypeSystems(asList(tsd,
+                TypeSystemDescriptionFactory.createTypeSystemDescription()));
+
+        JCas user1 = JCasFactory.createJCas(mergedTsd);
+        user1.setDocumentText("test");
+        Type type = user1.getTypeSystem().getType("webanno.custom.Score");
+        AnnotationFS score1a = user1.getCas().createAnnotation(type, 0, 1);
+        FSUtil.setFeature(score1a, "value", 1.5d);
+        user1.getCas().addFsToIndexes(score1a);
+        AnnotationFS score1b = user1.getCas().createAnnotation(type, 2, 3);
+        FSUtil.setFeature(score1b, "value", 2.5d);
+        user1.getCas().addFsToIndexes(score1b);
+
+        JCas user2 = JCasFactory.createJCas(mergedTsd);
+        user2.setDocumentText("test");
+        AnnotationFS score2a = user2.getCas().createAnnotation(type, 0, 1);
+        FSUtil.setFeature(score2a, "value", 1.5d);
+        user2.getCas().addFsToIndexes(score2a);
+        AnnotationFS score2b = user2.getCas().createAnnotation(type, 2, 3);
+        FSUtil.setFeature(score2b, "value", 3.5d);
+        user2.getCas().addFsToIndexes(score2b);
+
+        Map<String, List<CAS>> casByUser = new LinkedHashMap<>();
+        casByUser.put("user1", asList(user1.getCas()));
+        casByUser.put("user2", asList(user2.getCas()));
+
+        List<String> entryTypes = asList("webanno.custom.Score");
+
+        List<SpanDiffAdapter> diffAdapters = asList(new SpanDiffAdapter("webanno.custom.Score",
+                "value"));
+
+        DiffResult result = CasDiff.doDiff(entryTypes, diffAdapters,
+                LinkCompareBehavior.LINK_TARGET_AS_LABEL, casByUser);
+
+        DiffSummary summary = AgreementUtils.summarize(result, entryTypes.get(0), casByUser);
+        result.detach();
+
+        AgreementResult agreement = AgreementUtils.getAgreement(
+                ConcreteAgreementMeasure.KRIPPENDORFF_ALPHA_NOMINAL_AGREEMENT, false,
+                asList(summary), entryTypes.get(0), "value", new ArrayList<>(casByUser.keySet()));
+
+        assertEquals(2, agreement.getTotalSetCount());
+        assertEquals(1, agreement.getSetsWithDifferences().size());
+        ICodingAnnotationItem item1 = agreement.getStudy().getItem(0);
+        ICodingAnnotationItem item2 = agreement.getStudy().getItem(1);
+        assertEquals(1.5d, item1.getUnit(0).getCategory());
+        assertEquals(1.5d, item1.getUnit(1).getCategory());
+        assertEquals(2.5d, item2.getUnit(0).getCategory());
+        assertEquals(3.5d, item2.getUnit(1).getCategory());
+    }
+
+    @Test
+    public void labelsGroupedByValueTest()
+        throws Exception
+    {
+        Map<String, List<CAS>> casByUser = new LinkedHashMap<>();
+        String[] values = { "NN", "VB", "NN", null, "VB", null };
+        for (int i = 0; i < values.length; i++) {
+            JCas jcas = JCasFactory.createJCas();
+            jcas.setDocumentText("aaa");
+            makePos(jcas, 0, 3, values[i]);
+            casByUser.put("user" + (i + 1), asList(jcas.getCas()));
+        }
+
+        DiffResult result = CasDiff.doDiff(asList(POS.class.getName()), asList(POS_DIFF_ADAPTER),
+                LinkCompareBehavior.LINK_TARGET_AS_LABEL, casByUser);
+
+        assertEquals(1, result.size());
+        List<Configuration> configurations = result.getConfigurationSets().iterator().next()
+                .getConfigurations();
+        assertEquals(3, configurations.size());
+        assertCasGroupIds(configurations.get(0), "user1", "user3");
+        assertCasGroupIds(configurations.get(1), "user2", "user5");
+        assertCasGroupIds(configurations.get(2), "user4", "user6");
+    }
+
+    @Test
+    public void doubleFeatureNegativeZeroTest()
+        throws Exception
+    {
+        TypeSystemDescription tsd = new TypeSystemDescription_impl();
+        tsd.addType("webanno.custom.Score", "", CAS.TYPE_NAME_ANNOTATION).addFeature("value", "",
+                CAS.TYPE_NAME_DOUBLE);
+        TypeSystemDescription mergedTsd = CasCreationUtils.mergeTypeSystems(asList(tsd,
+                TypeSystemDescriptionFactory.createTypeSystemDescription()));
+
+        Map<String, List<CAS>> casByUser = new LinkedHashMap<>();
+        double[] values = { 0.0d, -0.0d, 1.0d };
+        for (int i = 0; i < values.length; i++) {
+            JCas jcas = JCasFactory.createJCas(mergedTsd);
+            jcas.setDocumentText("test");
+            Type type = jcas.getTypeSystem().getType("webanno.custom.Score");
+            AnnotationFS score = jcas.getCas().createAnnotation(type, 0, 1);
+            FSUtil.setFeature(score, "value", values[i]);
+            jcas.getCas().addFsToIndexes(score);
+            casByUser.put("user" + (i + 1), asList(jcas.getCas()));
+        }
+
+        List<SpanDiffAdapter> diffAdapters = asList(new SpanDiffAdapter("webanno.custom.Score",
+                "value"));
+
+        DiffResult result = CasDiff.doDiff(asList("webanno.custom.Score"), diffAdapters,
+                LinkCompareBehavior.LINK_TARGET_AS_LABEL, casByUser);
+
+        // 0.0 and -0.0 are equal labels
+        assertEquals(1, result.size());
+        List<Configuration> configurations = result.getConfigurationSets().iterator().next()
+                .getConfigurations();
+        assertEquals(2, configurations.size());
+        assertCasGroupIds(configurations.get(0), "user1", "user2");
+        assertCasGroupIds(configurations.get(1), "user3");
+    }
+
     @Test
     public void singleNoDifferencesTest()
         throws Exception
@@ -930,6 +1206,77 @@ public class CasDiffTest
 //        assertEquals(0.0, agreement.getAgreement(), 0.00001d);
     }
     
+    @Test
+    public void multiLinkWithRoleGroupedByTargetTest()
+        throws Exception
+    {
+        Map<String, List<CAS>> casByUser = new LinkedHashMap<>();
+        int[] targets = { 0, 10, 0 };
+        for (int i = 0; i < targets.length; i++) {
+            JCas jcas = createJCas(createMultiLinkWithRoleTestTypeSystem());
+            makeLinkHostFS(jcas, 0, 0, makeLinkFS(jcas, "slot1", targets[i], targets[i]));
+            casByUser.put("user" + (i + 1), asList(jcas.getCas()));
+        }
+
+        SpanDiffAdapter adapter = new SpanDiffAdapter(HOST_TYPE);
+        adapter.addLinkFeature("links", "role", "target");
+
+        DiffResult diff = CasDiff.doDiff(asList(HOST_TYPE), asList(adapter),
+                LinkCompareBehavior.LINK_TARGET_AS_LABEL, casByUser);
+
+        assertEquals(2, diff.size());
+        ConfigurationSet linkSet = getLinkConfigurationSet(diff);
+        assertEquals("slot1", linkSet.getPosition().getRole());
+        assertEquals(2, linkSet.getConfigurations().size());
+        assertCasGroupIds(linkSet.getConfigurations().get(0), "user1", "user3");
+        assertCasGroupIds(linkSet.getConfigurations().get(1), "user2");
+    }
+
+    @Test
+    public void multiLinkWithRoleGroupedByRoleTest()
+        throws Exception
+    {
+        Map<String, List<CAS>> casByUser = new LinkedHashMap<>();
+        String[] roles = { "slot1", "slot2", "slot1" };
+        for (int i = 0; i < roles.length; i++) {
+            JCas jcas = createJCas(createMultiLinkWithRoleTestTypeSystem());
+            makeLinkHostFS(jcas, 0, 0, makeLinkFS(jcas, roles[i], 10, 10));
+            casByUser.put("user" + (i + 1), asList(jcas.getCas()));
+        }
+
+        SpanDiffAdapter adapter = new SpanDiffAdapter(HOST_TYPE);
+        adapter.addLinkFeature("links", "role", "target");
+
+        DiffResult diff = CasDiff.doDiff(asList(HOST_TYPE), asList(adapter),
+                LinkCompareBehavior.LINK_ROLE_AS_LABEL, casByUser);
+
+        assertEquals(2, diff.size());
+        ConfigurationSet linkSet = getLinkConfigurationSet(diff);
+        assertEquals(2, linkSet.getConfigurations().size());
+        assertCasGroupIds(linkSet.getConfigurations().get(0), "user1", "user3");
+        assertCasGroupIds(linkSet.getConfigurations().get(1), "user2");
+    }
+    
     @Rule
     public DkproTestContext testContext = new DkproTestContext();
+
+    private static ConfigurationSet getLinkConfigurationSet(DiffResult aDiff)
+    {
+        return aDiff.getConfigurationSets().stream()
+                .filter(cfgSet -> cfgSet.getPosition().getFeature() != null)
+                .findFirst()
+                .get();
+    }
+
+    private static void assertCasGroupIds(Configuration aConfiguration, String... aCasGroupIds)
+    {
+        assertEquals(new HashSet<>(asList(aCasGroupIds)), aConfiguration.getCasGroupIds());
+    }
+
+    private static void makePos(JCas aJCas, int aBegin, int aEnd, String aValue)
+    {
+        POS pos = new POS(aJCas, aBegin, aEnd);
+        pos.setPosValue(aValue);
+        pos.addToIndexes();
+    }
 }
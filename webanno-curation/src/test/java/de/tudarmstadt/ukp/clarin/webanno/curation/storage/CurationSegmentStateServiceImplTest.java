@@ -0,0 +1,224 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.curation.storage;
+
+import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.span.SpanDiffAdapter.POS_DIFF_ADAPTER;
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Type;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.fit.util.CasUtil;
+import org.apache.uima.fit.util.JCasUtil;
+import org.apache.uima.jcas.JCas;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mock;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.api.DiffAdapter;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.dkpro.core.api.lexmorph.type.pos.POS;
+
+public class CurationSegmentStateServiceImplTest
+{
+    private static final String TEXT = "This is one. This is two.";
+
+    public @Rule TemporaryFolder testFolder = new TemporaryFolder();
+
+    private @Mock CasStorageService casStorageService;
+
+    private CurationSegmentStateServiceImpl sut;
+
+    private SourceDocument document;
+    private Map<String, Long> timestamps;
+    private Map<String, JCas> casses;
+    private Map<Integer, Integer> segments;
+    private List<DiffAdapter> adapters;
+
+    @Before
+    public void setup() throws Exception
+    {
+        initMocks(this);
+
+        Project project = new Project();
+        project.setId(1l);
+
+        document = new SourceDocument();
+        document.setId(1l);
+        document.setName("document");
+        document.setProject(project);
+
+        timestamps = new HashMap<>();
+        when(casStorageService.getCasTimestamp(eq(document), anyString())).thenAnswer(
+            invocation -> Optional.ofNullable(timestamps.get(invocation.getArgument(1))));
+        when(casStorageService.getAnnotationFolder(document)).thenReturn(testFolder.getRoot());
+
+        sut = new CurationSegmentStateServiceImpl(casStorageService);
+
+        // Both annotators agree in both sentences
+        casses = new LinkedHashMap<>();
+        for (String user : asList("user1", "user2")) {
+            JCas jcas = JCasFactory.createText(TEXT);
+            addPos(jcas, 0, 4, "DT");
+            addPos(jcas, 13, 17, "DT");
+            casses.put(user, jcas);
+            timestamps.put(user, 1l);
+        }
+
+        segments = new HashMap<>();
+        segments.put(0, 12);
+        segments.put(13, 25);
+
+        adapters = asList(POS_DIFF_ADAPTER);
+    }
+
+    @Test
+    public void thatUnchangedCassesReuseStoredStates() throws Exception
+    {
+        assertThat(getDisagreements()).containsOnly(entry(0, false), entry(13, false));
+
+        // Without a new timestamp, the change is not noticed because the stored states are used
+        setPos("user2", 13, "NN");
+
+        assertThat(getDisagreements()).containsOnly(entry(0, false), entry(13, false));
+    }
+
+    @Test
+    public void thatOnlyDirtySegmentsAreRecalculated() throws Exception
+    {
+        getDisagreements();
+
+        // Tamper with the stored state of the first sentence so we can tell whether it is
+        // recalculated
+        CurationSegmentState state = readState();
+        Map<Integer, Boolean> tampered = new HashMap<>(state.getDisagreements());
+        tampered.put(0, true);
+        Map<String, Long> stateTimestamps = new HashMap<>();
+        stateTimestamps.put("user1", state.getTimestamp("user1"));
+        stateTimestamps.put("user2", state.getTimestamp("user2"));
+        writeState(new CurationSegmentState(state.getConfiguration(), stateTimestamps,
+                state.getFingerprints(), tampered));
+
+        setPos("user2", 13, "NN");
+        timestamps.put("user2", 2l);
+
+        // Only the sentence in which the annotations have changed is recalculated
+        assertThat(getDisagreements()).containsOnly(entry(0, true), entry(13, true));
+    }
+
+    @Test
+    public void thatChangedTimestampUpdatesStoredStates() throws Exception
+    {
+        getDisagreements();
+
+        setPos("user2", 0, "NN");
+        assertThat(getDisagreements()).containsOnly(entry(0, false), entry(13, false));
+
+        timestamps.put("user2", 2l);
+        assertThat(getDisagreements()).containsOnly(entry(0, true), entry(13, false));
+        assertThat(readState().getTimestamp("user2")).isEqualTo(2l);
+
+        // Changing the annotations back is noticed as well
+        setPos("user2", 0, "DT");
+        timestamps.put("user2", 3l);
+        assertThat(getDisagreements()).containsOnly(entry(0, false), entry(13, false));
+    }
+
+    @Test
+    public void thatChangedSegmentsRebuildStoredStates() throws Exception
+    {
+        getDisagreements();
+
+        setPos("user2", 13, "NN");
+
+        // The stored states cannot be used for different segments even if no timestamp changed
+        segments.remove(0);
+        assertThat(getDisagreements()).containsOnly(entry(13, true));
+    }
+
+    private Map<Integer, Boolean> getDisagreements() throws Exception
+    {
+        Map<String, CAS> casByUser = new LinkedHashMap<>();
+        casses.forEach((user, jcas) -> casByUser.put(user, jcas.getCas()));
+
+        Type posType = CasUtil.getType(casses.get("user1").getCas(), POS.class);
+
+        return sut.getDisagreementBySegment(document, casByUser, asList(posType), adapters,
+                segments);
+    }
+
+    private void setPos(String aUser, int aBegin, String aValue)
+    {
+        for (POS pos : new ArrayList<>(JCasUtil.select(casses.get(aUser), POS.class))) {
+            if (pos.getBegin() == aBegin) {
+                pos.removeFromIndexes();
+                pos.setPosValue(aValue);
+                pos.addToIndexes();
+            }
+        }
+    }
+
+    private static void addPos(JCas aJCas, int aBegin, int aEnd, String aValue)
+    {
+        POS pos = new POS(aJCas, aBegin, aEnd);
+        pos.setPosValue(aValue);
+        pos.addToIndexes();
+    }
+
+    private File getStateFile()
+    {
+        return new File(testFolder.getRoot(), CurationSegmentStateServiceImpl.STATE_FILE);
+    }
+
+    private CurationSegmentState readState() throws Exception
+    {
+        try (ObjectInputStream is = new ObjectInputStream(new FileInputStream(getStateFile()))) {
+            return (CurationSegmentState) is.readObject();
+        }
+    }
+
+    private void writeState(CurationSegmentState aState) throws Exception
+    {
+        try (ObjectOutputStream os = new ObjectOutputStream(
+                new FileOutputStream(getStateFile()))) {
+            os.writeObject(aState);
+        }
+    }
+}
@@ -28,6 +28,7 @@ import org.apache.uima.fit.util.FSUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.UnitIndex;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil;
 import de.tudarmstadt.ukp.clarin.webanno.diag.repairs.Repair.Safe;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
@@ -49,6 +50,7 @@ public class RemoveZeroSizeTokensAndSentencesRepair
                         new LogMessage(this, INFO, "Removed sentence with illegal span: %s", s));
             }
         }
+        UnitIndex.invalidate(aCas);
 
         for (AnnotationFS t : WebAnnoCasUtil.selectTokens(aCas)) {
             if (t.getBegin() >= t.getEnd()) {
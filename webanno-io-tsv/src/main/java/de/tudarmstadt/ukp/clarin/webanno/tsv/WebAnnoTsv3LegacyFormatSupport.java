@@ -20,6 +20,7 @@ package de.tudarmstadt.ukp.clarin.webanno.tsv;
 import static org.apache.uima.fit.factory.AnalysisEngineFactory.createEngineDescription;
 import static org.apache.uima.fit.factory.CollectionReaderFactory.createReaderDescription;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -36,6 +37,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
 import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
 import de.tudarmstadt.ukp.clarin.webanno.api.format.FormatSupport;
+import de.tudarmstadt.ukp.clarin.webanno.api.format.FormatWriterSession;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
 import de.tudarmstadt.ukp.clarin.webanno.model.LinkMode;
@@ -158,6 +160,15 @@ public class WebAnnoTsv3LegacyFormatSupport
                 "relationLayers", relationLayers);
     }
     
+    @Override
+    public FormatWriterSession openWriterSession(Project aProject, boolean aStripExtension)
+        throws IOException
+    {
+        // The writer only includes the layers which have annotations in the CAS, so it cannot be
+        // reused for other CASes
+        return new FormatWriterSession(this, aProject, aStripExtension, false);
+    }
+    
     private boolean annotationExists(CAS aCas, String aType) {
 
         Type type = aCas.getTypeSystem().getType(aType);
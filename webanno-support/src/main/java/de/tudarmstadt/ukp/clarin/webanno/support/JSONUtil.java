@@ -29,9 +29,20 @@ import com.fasterxml.jackson.core.SerializableString;
 import com.fasterxml.jackson.core.io.CharacterEscapes;
 import com.fasterxml.jackson.core.io.SerializedString;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 
 public class JSONUtil
 {
+    /**
+     * Creating a mapper is expensive and a mapper caches the serializers and deserializers it has
+     * built, so all JSON conversions share a single mapper. A mapper is thread-safe as long as it
+     * is not reconfigured.
+     */
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    
+    private static final ObjectWriter INTERPRETABLE_WRITER = OBJECT_MAPPER.writer()
+            .with(JavaScriptCharacterEscapes.get());
+    
     /**
      * Convert Java objects into JSON format and write it to a file
      *
@@ -103,19 +114,28 @@ public class JSONUtil
         return toPrettyJsonString(getObjectMapper(), aObject);
     }
     
+    /**
+     * @return the shared mapper. The mapper must not be reconfigured - use
+     *         {@link ObjectMapper#copy()} to obtain a mapper with a different configuration.
+     */
     public static ObjectMapper getObjectMapper()
     {
-        return new ObjectMapper();
+        return OBJECT_MAPPER;
     }
     
+    /**
+     * Convert the given object into JSON which can be safely embedded into JavaScript code.
+     * 
+     * @param aObject
+     *            the object - this can also be a {@link com.fasterxml.jackson.databind.JsonNode}.
+     * @return the JSON string.
+     * @throws IOException
+     *             if the object cannot be converted.
+     */
     public static String toInterpretableJsonString(Object aObject)
         throws IOException
     {
-        StringWriter out = new StringWriter();
-        JsonGenerator jsonGenerator = JSONUtil.getObjectMapper().getFactory().createGenerator(out);
-        jsonGenerator.setCharacterEscapes(JavaScriptCharacterEscapes.get());
-        jsonGenerator.writeObject(aObject);
-        return out.toString();
+        return INTERPRETABLE_WRITER.writeValueAsString(aObject);
     }
     
     private static class JavaScriptCharacterEscapes extends CharacterEscapes {
@@ -83,10 +83,7 @@ public class ZipUtils
         ZipOutputStream zip = null;
         try {
             zip = new ZipOutputStream(new FileOutputStream(destZipFile));
-
-            for (File file : srcFolder.getAbsoluteFile().listFiles()) {
-                addToZip(zip, srcFolder.getAbsoluteFile(), file);
-            }
+            addFolderToZip(zip, srcFolder);
             zip.flush();
         }
         finally {
@@ -94,6 +91,40 @@ public class ZipUtils
         }
     }
 
+    /**
+     * Adds all files in the given folder and its sub-folders to the given ZIP stream. The names of
+     * the entries are the paths of the files relative to the folder.
+     * 
+     * @param aZip the ZIP stream.
+     * @param aFolder the folder.
+     * @throws IOException if an I/O error occurs.
+     */
+    public static void addFolderToZip(ZipOutputStream aZip, File aFolder)
+        throws IOException
+    {
+        for (File file : aFolder.getAbsoluteFile().listFiles()) {
+            addToZip(aZip, aFolder.getAbsoluteFile(), file);
+        }
+    }
+
+    /**
+     * Adds the given file to the given ZIP stream.
+     * 
+     * @param aZip the ZIP stream.
+     * @param aFile the file.
+     * @param aEntryName the name of the entry in the ZIP.
+     * @throws IOException if an I/O error occurs.
+     */
+    public static void addFileToZip(ZipOutputStream aZip, File aFile, String aEntryName)
+        throws IOException
+    {
+        try (InputStream in = new FileInputStream(aFile)) {
+            aZip.putNextEntry(new ZipEntry(aEntryName));
+            IOUtils.copy(in, aZip);
+            aZip.closeEntry();
+        }
+    }
+
     private static void addToZip(ZipOutputStream zip, File aBasePath, File aPath)
         throws IOException
     {
@@ -103,16 +134,8 @@ public class ZipUtils
             }
         }
         else {
-            FileInputStream in = null;
-            try {
-                in = new FileInputStream(aPath);
-                String relativePath = aBasePath.toURI().relativize(aPath.toURI()).getPath();
-                zip.putNextEntry(new ZipEntry(relativePath));
-                IOUtils.copy(in, zip);
-            }
-            finally {
-                closeQuietly(in);
-            }
+            String relativePath = aBasePath.toURI().relativize(aPath.toURI()).getPath();
+            addFileToZip(zip, aPath, relativePath);
         }
     }
 
@@ -1291,6 +1291,9 @@ public abstract class AnnotationDetailEditorPanel
         clearFeatureEditorModels(aTarget);
 
         AnnotatorState state = AnnotationDetailEditorPanel.this.getModelObject();
+        
+        // Share the evaluator between all features so that conditions are evaluated only once
+        Evaluator evaluator = new ValuesGenerator();
 
         // Populate from feature structure
         for (AnnotationFeature feature : annotationService.listAnnotationFeature(aLayer)) {
@@ -1333,7 +1336,7 @@ public abstract class AnnotationDetailEditorPanel
                 if (state.getConstraints() != null
                         && state.getSelection().getAnnotation().isSet()) {
                     // indicator.setRulesExist(true);
-                    populateTagsBasedOnRules(aCas, featureState);
+                    populateTagsBasedOnRules(aCas, featureState, evaluator);
                 }
                 else {
                     // indicator.setRulesExist(false);
@@ -1399,7 +1402,7 @@ public abstract class AnnotationDetailEditorPanel
     /**
      * Adds and sorts tags based on Constraints rules
      */
-    private void populateTagsBasedOnRules(CAS aCas, FeatureState aModel)
+    private void populateTagsBasedOnRules(CAS aCas, FeatureState aModel, Evaluator aEvaluator)
     {
         LOG.trace("populateTagsBasedOnRules(feature: " + aModel.feature.getUiName() + ")");
 
@@ -1429,12 +1432,11 @@ public abstract class AnnotationDetailEditorPanel
             FeatureStructure featureStructure = selectFsByAddr(aCas, state.getSelection()
                 .getAnnotation().getId());
 
-            Evaluator evaluator = new ValuesGenerator();
             //Only show indicator if this feature can be affected by Constraint rules!
-            aModel.indicator.setAffected(evaluator.isThisAffectedByConstraintRules(
+            aModel.indicator.setAffected(aEvaluator.isThisAffectedByConstraintRules(
                 featureStructure, restrictionFeaturePath, state.getConstraints()));
 
-            possibleValues = evaluator.generatePossibleValues(
+            possibleValues = aEvaluator.generatePossibleValues(
                 featureStructure, restrictionFeaturePath, state.getConstraints());
 
             LOG.debug("Possible values for [" + featureStructure.getType().getName() + "] ["
@@ -21,6 +21,7 @@ import static de.tudarmstadt.ukp.clarin.webanno.support.lambda.LambdaBehavior.en
 import static de.tudarmstadt.ukp.clarin.webanno.support.lambda.LambdaBehavior.visibleWhen;
 import static org.apache.commons.lang3.StringUtils.defaultIfEmpty;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -37,7 +38,10 @@ import org.apache.wicket.markup.html.panel.Panel;
 import org.apache.wicket.model.IModel;
 import org.apache.wicket.model.Model;
 import org.apache.wicket.spring.injection.annot.SpringBean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
 import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.api.ProjectService;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.AnnotatorState;
@@ -63,8 +67,11 @@ public class OpenDocumentDialogPanel
 {
     private static final long serialVersionUID = 1299869948010875439L;
 
+    private static final Logger LOG = LoggerFactory.getLogger(OpenDocumentDialogPanel.class);
+
     private @SpringBean ProjectService projectService;
     private @SpringBean DocumentService documentService;
+    private @SpringBean CasStorageService casStorageService;
     private @SpringBean CurationDocumentService curationDocumentService;
     private @SpringBean UserDao userRepository;
 
@@ -345,6 +352,21 @@ public class OpenDocumentDialogPanel
     private void actionOpenDocument(AjaxRequestTarget aTarget)
     {
         if (projectListChoice.getModelObject() != null && docListChoice.getModelObject()  != null) {
+            // Write changes to the document we are leaving which are still held back
+            if (state.getDocument() != null) {
+                try {
+                    casStorageService.flushPendingWrites(state.getDocument());
+                }
+                catch (IOException e) {
+                    LOG.error("Unable to write pending changes of document [{}]({}) in project "
+                            + "[{}]({})", state.getDocument().getName(),
+                            state.getDocument().getId(), state.getProject().getName(),
+                            state.getProject().getId(), e);
+                    error("Unable to write pending changes of document ["
+                            + state.getDocument().getName() + "]: " + e.getMessage());
+                }
+            }
+            
             state.setProject(projectListChoice.getModelObject().get());
             state.setDocument(docListChoice.getModelObject().get(), docListChoice.getChoices()
                     .stream().map(t -> t.get()).collect(Collectors.toList()));
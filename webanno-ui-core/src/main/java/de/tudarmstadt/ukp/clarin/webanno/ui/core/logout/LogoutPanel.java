@@ -19,6 +19,8 @@ package de.tudarmstadt.ukp.clarin.webanno.ui.core.logout;
 
 import static de.tudarmstadt.ukp.clarin.webanno.api.SecurityUtil.isProfileSelfServiceAllowed;
 
+import java.io.IOException;
+
 import javax.servlet.http.HttpSession;
 
 import org.apache.wicket.MarkupContainer;
@@ -39,8 +41,11 @@ import org.apache.wicket.request.Request;
 import org.apache.wicket.request.cycle.RequestCycle;
 import org.apache.wicket.request.mapper.parameter.PageParameters;
 import org.apache.wicket.spring.injection.annot.SpringBean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.security.core.context.SecurityContextHolder;
 
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
 import de.tudarmstadt.ukp.clarin.webanno.security.UserDao;
 import de.tudarmstadt.ukp.clarin.webanno.ui.core.users.ManageUsersPage;
 /**
@@ -52,7 +57,10 @@ public class LogoutPanel
 {
     private static final long serialVersionUID = 3725185820083021070L;
 
+    private static final Logger LOG = LoggerFactory.getLogger(LogoutPanel.class);
+
     private @SpringBean UserDao userRepository;
+    private @SpringBean CasStorageService casStorageService;
 
     public LogoutPanel(String id)
     {
@@ -74,6 +82,17 @@ public class LogoutPanel
             @Override
             public void onClick()
             {
+                // Make sure changes still held back by the CAS storage are written before the
+                // user leaves
+                String username = SecurityContextHolder.getContext().getAuthentication()
+                        .getName();
+                try {
+                    casStorageService.flushPendingWrites(username);
+                }
+                catch (IOException e) {
+                    LOG.error("Unable to write pending changes of user [{}]", username, e);
+                }
+                
                 AuthenticatedWebSession.get().signOut();
                 getSession().invalidate();
                 setResponsePage(getApplication().getHomePage());
@@ -24,6 +24,7 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.AnnotatorState;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
@@ -42,6 +43,11 @@ public class CurationContainer
 
     private AnnotatorState state;
 
+    /**
+     * For each sentence number, the numbers of the sentences with which it shares annotations.
+     */
+    private Map<Integer, Set<Integer>> crossSentenceLists = new HashMap<>();
+
     public List<SourceListView> getCurationViews()
     {
         List<Integer> viewsBegin = new ArrayList<>(curationViewByBegin.keySet());
@@ -63,6 +69,16 @@ public class CurationContainer
         curationViewByBegin = aCurationViewByBegin;
     }
 
+    public Map<Integer, Set<Integer>> getCrossSentenceLists()
+    {
+        return crossSentenceLists;
+    }
+
+    public void setCrossSentenceLists(Map<Integer, Set<Integer>> aCrossSentenceLists)
+    {
+        crossSentenceLists = aCrossSentenceLists;
+    }
+
     public AnnotatorState getState()
     {
         return state;
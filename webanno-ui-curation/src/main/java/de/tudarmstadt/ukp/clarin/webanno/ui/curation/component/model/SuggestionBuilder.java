@@ -28,12 +28,17 @@ import static org.apache.uima.fit.util.CasUtil.selectCovered;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
 import java.util.Set;
+import java.util.TreeMap;
 
 import org.apache.commons.lang3.Validate;
 import org.apache.uima.UIMAException;
@@ -54,12 +59,11 @@ import de.tudarmstadt.ukp.clarin.webanno.api.annotation.exception.AnnotationExce
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.AnnotatorState;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff;
-import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.Configuration;
-import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.ConfigurationSet;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.DiffResult;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.api.DiffAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casmerge.CasMerge;
 import de.tudarmstadt.ukp.clarin.webanno.curation.storage.CurationDocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.curation.storage.CurationSegmentStateService;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
@@ -90,10 +94,9 @@ public class SuggestionBuilder
     private final CurationDocumentService curationDocumentService;
     private final UserDao userRepository;
     private final CasStorageService casStorageService;
+    private final CurationSegmentStateService segmentStateService;
 
     private int diffRangeBegin, diffRangeEnd;
-    private boolean firstload = true;
-    public static Map<Integer, Set<Integer>> crossSentenceLists;
     //
     Map<Integer, Integer> segmentBeginEnd = new HashMap<>();
 
@@ -102,6 +105,22 @@ public class SuggestionBuilder
             CorrectionDocumentService aCorrectionDocumentService,
             CurationDocumentService aCurationDocumentService,
             AnnotationSchemaService aAnnotationService, UserDao aUserDao)
+    {
+        this(aCasStorageService, aDocumentService, aCorrectionDocumentService,
+                aCurationDocumentService, aAnnotationService, aUserDao, null);
+    }
+
+    /**
+     * @param aSegmentStateService
+     *            if set, the states of the curation segments are obtained from this service
+     *            instead of calculating them every time.
+     */
+    public SuggestionBuilder(CasStorageService aCasStorageService,
+            DocumentService aDocumentService,
+            CorrectionDocumentService aCorrectionDocumentService,
+            CurationDocumentService aCurationDocumentService,
+            AnnotationSchemaService aAnnotationService, UserDao aUserDao,
+            CurationSegmentStateService aSegmentStateService)
     {
         documentService = aDocumentService;
         correctionDocumentService = aCorrectionDocumentService;
@@ -109,6 +128,7 @@ public class SuggestionBuilder
         annotationService = aAnnotationService;
         userRepository = aUserDao;
         casStorageService = aCasStorageService;
+        segmentStateService = aSegmentStateService;
     }
 
     public CurationContainer buildCurationContainer(AnnotatorState aBModel)
@@ -175,64 +195,55 @@ public class SuggestionBuilder
         }
 
         // for cross-sentences annotation, update the end of the segment
-        if (firstload) {
-            long start = System.currentTimeMillis();
-            log.debug("Updating cross sentence annotation list...");
-            updateCrossSentAnnoList(segmentBeginEnd, segmentNumber, casses, entryTypes);
-            firstload = false;
-            log.debug("Cross sentence annotation list complete in {}ms",
-                    (System.currentTimeMillis() - start));
-        }
+        long start = System.currentTimeMillis();
+        log.debug("Updating cross sentence annotation list...");
+        curationContainer.setCrossSentenceLists(updateCrossSentAnnoList(segmentBeginEnd,
+                segmentNumber, casses, entryTypes));
+        log.debug("Cross sentence annotation list complete in {}ms",
+                (System.currentTimeMillis() - start));
 
         List<DiffAdapter> adapters = CasDiff.getAdapters(annotationService, aBModel.getProject());
 
         long diffStart = System.currentTimeMillis();
         log.debug("Calculating differences...");
-        int count = 0;
-        for (Integer begin : segmentBeginEnd.keySet()) {
-            Integer end = segmentBeginEnd.get(begin);
-
-            count++;
-            if (count % 100 == 0) {
-                log.debug("Processing differences: {} of {} sentences...", count,
-                        segmentBeginEnd.size());
+        
+        Map<Integer, Boolean> disagreements;
+        if (segmentStateService != null && aBModel.getMode().equals(Mode.CURATION)) {
+            // The states of the segments are stored with the document and only updated where
+            // the annotations of an annotator have changed. All curators of the document share
+            // the states, so they cover all enabled layers of the project instead of only the
+            // layers visible to the current curator.
+            List<AnnotationLayer> projectLayers = new ArrayList<>();
+            for (AnnotationLayer layer : annotationService
+                    .getProjectSchema(aBModel.getProject()).getLayers()) {
+                if (layer.isEnabled()) {
+                    projectLayers.add(layer);
+                }
             }
-
+            disagreements = segmentStateService.getDisagreementBySegment(sourceDocument, casses,
+                    getEntryTypes(mergeCas, projectLayers, annotationService), adapters,
+                    segmentBeginEnd);
+        }
+        else if (!segmentBeginEnd.isEmpty()) {
+            // Calculate a single diff over all segments and then assign the configuration sets
+            // to the segments instead of calculating a separate diff for every segment
             DiffResult diff = CasDiff.doDiffSingle(entryTypes, adapters, LINK_ROLE_AS_LABEL,
-                    casses, begin, end);
-
+                    casses, Collections.min(segmentBeginEnd.keySet()),
+                    Collections.max(segmentBeginEnd.values()));
+            disagreements = diff.getDisagreementBySegment(segmentBeginEnd);
+        }
+        else {
+            disagreements = Collections.emptyMap();
+        }
+        
+        for (Integer begin : segmentBeginEnd.keySet()) {
             SourceListView curationSegment = new SourceListView();
             curationSegment.setBegin(begin);
-            curationSegment.setEnd(end);
+            curationSegment.setEnd(segmentBeginEnd.get(begin));
             curationSegment.setSentenceNumber(segmentNumber.get(begin));
-            if (diff.hasDifferences() || !diff.getIncompleteConfigurationSets().isEmpty()) {
-                // Is this confSet a diff due to stacked annotations (with same configuration)?
-                boolean stackedDiff = false;
-
-                stackedDiffSet: for (ConfigurationSet d : diff.getDifferingConfigurationSets()
-                        .values()) {
-                    for (Configuration c : d.getConfigurations()) {
-                        if (c.getCasGroupIds().size() != d.getCasGroupIds().size()) {
-                            stackedDiff = true;
-                            break stackedDiffSet;
-                        }
-                    }
-                }
-
-                if (stackedDiff) {
-                    curationSegment.setSentenceState(SentenceState.DISAGREE);
-                }
-                else if (!diff.getIncompleteConfigurationSets().isEmpty()) {
-                    curationSegment.setSentenceState(SentenceState.DISAGREE);
-                }
-                else {
-                    curationSegment.setSentenceState(SentenceState.AGREE);
-                }
-            }
-            else {
-                curationSegment.setSentenceState(SentenceState.AGREE);
-            }
-
+            curationSegment.setSentenceState(disagreements.getOrDefault(begin, false)
+                    ? SentenceState.DISAGREE : SentenceState.AGREE);
+            
             for (String username : segmentAdress.keySet()) {
                 curationSegment.getSentenceAddress().put(username,
                         segmentAdress.get(username).get(begin));
@@ -245,90 +256,149 @@ public class SuggestionBuilder
         return curationContainer;
     }
 
-    private void updateCrossSentAnnoList(Map<Integer, Integer> aSegmentBeginEnd,
-            Map<Integer, Integer> aSegmentNumber, Map<String, CAS> aCases, List<Type> aEntryTypes)
+    /**
+     * Extends the segments to cover annotations crossing sentence boundaries.
+     * 
+     * @return for each sentence, the sentences with which it shares annotations.
+     */
+    private Map<Integer, Set<Integer>> updateCrossSentAnnoList(
+            Map<Integer, Integer> aSegmentBeginEnd, Map<Integer, Integer> aSegmentNumber,
+            Map<String, CAS> aCases, List<Type> aEntryTypes)
     {
-        // FIXME Remove this side-effect and instead return this hashmap
-        crossSentenceLists = new HashMap<>();
+        Map<Integer, Set<Integer>> crossSentenceLists = new HashMap<>();
 
-        // Extract the sentences for all the CASes
-        Map<CAS, List<AnnotationFS>> idxSentences = new HashMap<>();
+        // Each annotation is looked up in the segments instead of scanning all annotations for
+        // every segment. The segments are extended only after all annotations have been seen.
+        NavigableMap<Integer, Integer> segments = new TreeMap<>(aSegmentBeginEnd);
+        Map<Integer, Set<Integer>> crossSentsBySegment = new HashMap<>();
+        Map<Integer, Integer> extendedSegmentEnds = new HashMap<>();
+        
         for (CAS c : aCases.values()) {
-            Type sentenceType = getType(c, Sentence.class);
-            idxSentences.put(c, new ArrayList<>(select(c, sentenceType)));
-        }
-
-        Set<Integer> sentenceBegins = aSegmentBeginEnd.keySet();
-        int count = 0;
-        for (int sentBegin : sentenceBegins) {
-            count++;
-
-            if (count % 100 == 0) {
-                log.debug("Updating cross-sentence annoations: {} of {} sentences...", count,
-                        sentenceBegins.size());
-            }
-
-            int sentEnd = aSegmentBeginEnd.get(sentBegin);
-            int currentSentenceNumber = -1;
-
-            Set<Integer> crossSents = new HashSet<>();
-
+            SentenceIndex sentences = new SentenceIndex(c);
+            
             for (Type t : aEntryTypes) {
-                for (CAS c : aCases.values()) {
-                    // Determine sentence number for the current segment begin. This takes quite
-                    // a while, so we only do it for the first CAS in the batch. Will be the
-                    // same for all others anyway.
-                    if (currentSentenceNumber == -1) {
-                        currentSentenceNumber = aSegmentNumber.get(sentBegin);
-                    }
-
-                    // update cross-sentence annotation lists
-                    for (AnnotationFS fs : selectCovered(c, t, diffRangeBegin, diffRangeEnd)) {
-                        // CASE 1. annotation begins here
-                        if (sentBegin <= fs.getBegin() && fs.getBegin() <= sentEnd) {
-                            if (fs.getEnd() < sentBegin || sentEnd < fs.getEnd()) {
-                                AnnotationFS s = getSentenceByAnnoEnd(idxSentences.get(c),
-                                        fs.getEnd());
-                                int thatSent = idxSentences.get(c).indexOf(s) + 1;
-                                crossSents.add(thatSent);
-                            }
-                        }
-                        // CASE 2. Annotation ends here
-                        else if (sentBegin <= fs.getEnd() && fs.getEnd() <= sentEnd) {
-                            if (fs.getBegin() < sentBegin || sentEnd < fs.getBegin()) {
-                                int thatSent = WebAnnoCasUtil.getSentenceNumber(c, fs.getBegin());
-                                crossSents.add(thatSent);
-                            }
+                for (AnnotationFS fs : selectCovered(c, t, diffRangeBegin, diffRangeEnd)) {
+                    List<Entry<Integer, Integer>> beginSegments = getSegmentsAt(segments,
+                            fs.getBegin());
+                    
+                    // CASE 1. annotation begins in a segment but ends outside of it
+                    for (Entry<Integer, Integer> seg : beginSegments) {
+                        if (fs.getEnd() > seg.getValue()) {
+                            int thatSent = sentences.getIndexByAnnoEnd(fs.getEnd());
+                            crossSentsBySegment.computeIfAbsent(seg.getKey(), k -> new HashSet<>())
+                                    .add(thatSent + 1);
+                            // The segment needs to be extended to cover the annotation
+                            extendedSegmentEnds.merge(seg.getKey(), sentences.getEnd(thatSent),
+                                    Math::max);
                         }
                     }
-
-                    for (AnnotationFS fs : selectCovered(c, t, sentBegin, diffRangeEnd)) {
-                        if (fs.getBegin() <= sentEnd && fs.getEnd() > sentEnd) {
-                            AnnotationFS s = getSentenceByAnnoEnd(idxSentences.get(c), fs.getEnd());
-                            aSegmentBeginEnd.put(sentBegin, s.getEnd());
+                    
+                    // CASE 2. Annotation ends in a segment but begins outside of it
+                    for (Entry<Integer, Integer> seg : getSegmentsAt(segments, fs.getEnd())) {
+                        if (!beginSegments.contains(seg)) {
+                            crossSentsBySegment.computeIfAbsent(seg.getKey(), k -> new HashSet<>())
+                                    .add(sentences.getSentenceNumber(fs.getBegin()));
                         }
                     }
                 }
             }
-            crossSentenceLists.put(currentSentenceNumber, crossSents);
         }
+        
+        aSegmentBeginEnd.putAll(extendedSegmentEnds);
+        
+        for (int sentBegin : segments.keySet()) {
+            crossSentenceLists.put(aSegmentNumber.get(sentBegin),
+                    crossSentsBySegment.getOrDefault(sentBegin, new HashSet<>()));
+        }
+        
+        return crossSentenceLists;
+    }
+
+    /**
+     * @return the segments containing the given offset. The segments must not overlap, but may
+     *         touch.
+     */
+    private static List<Entry<Integer, Integer>> getSegmentsAt(
+            NavigableMap<Integer, Integer> aSegments, int aOffset)
+    {
+        List<Entry<Integer, Integer>> result = new ArrayList<>();
+        for (Entry<Integer, Integer> seg : aSegments.headMap(aOffset, true).descendingMap()
+                .entrySet()) {
+            if (seg.getValue() < aOffset) {
+                break;
+            }
+            result.add(seg);
+        }
+        return result;
     }
 
     /**
-     * Get a sentence at the end of an annotation
+     * Offsets of the sentences in a CAS for looking up sentences by offset. The sentences must
+     * not overlap.
      */
-    private static AnnotationFS getSentenceByAnnoEnd(List<AnnotationFS> aSentences, int aEnd)
+    private static class SentenceIndex
     {
-        int prevEnd = 0;
-        AnnotationFS sent = null;
-        for (AnnotationFS sentence : aSentences) {
-            if (prevEnd >= aEnd) {
-                return sent;
+        private final int[] begins;
+        private final int[] ends;
+        
+        public SentenceIndex(CAS aCas)
+        {
+            Collection<AnnotationFS> sentences = select(aCas, getType(aCas, Sentence.class));
+            begins = new int[sentences.size()];
+            ends = new int[sentences.size()];
+            int i = 0;
+            for (AnnotationFS sentence : sentences) {
+                begins[i] = sentence.getBegin();
+                ends[i] = sentence.getEnd();
+                i++;
+            }
+        }
+        
+        /**
+         * @return the index of the first sentence ending at or after the given offset or the
+         *         number of sentences if there is no such sentence.
+         */
+        private int firstEndingAtOrAfter(int aOffset)
+        {
+            int low = 0;
+            int high = ends.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (ends[mid] < aOffset) {
+                    low = mid + 1;
+                }
+                else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+        
+        /**
+         * @return the index of the sentence in which an annotation ending at the given offset
+         *         ends or the index of the last sentence.
+         */
+        public int getIndexByAnnoEnd(int aEnd)
+        {
+            return Math.min(firstEndingAtOrAfter(aEnd), ends.length - 1);
+        }
+        
+        public int getEnd(int aIndex)
+        {
+            return ends[aIndex];
+        }
+        
+        /**
+         * @see WebAnnoCasUtil#getSentenceNumber(CAS, int)
+         */
+        public int getSentenceNumber(int aOffset)
+        {
+            int i = firstEndingAtOrAfter(aOffset);
+            if (i < ends.length && begins[i] <= aOffset) {
+                return i + 1;
             }
-            sent = sentence;
-            prevEnd = sent.getEnd();
+            return ends.length;
         }
-        return sent;
     }
 
     private Map<String, CAS> listCasesforCorrection(AnnotationDocument randomAnnotationDocument,
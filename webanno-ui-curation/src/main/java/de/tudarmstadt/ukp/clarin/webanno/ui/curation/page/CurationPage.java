@@ -77,6 +77,7 @@ import de.tudarmstadt.ukp.clarin.webanno.api.annotation.preferences.BratProperti
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.event.RenderAnnotationsEvent;
 import de.tudarmstadt.ukp.clarin.webanno.constraints.ConstraintsService;
 import de.tudarmstadt.ukp.clarin.webanno.curation.storage.CurationDocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.curation.storage.CurationSegmentStateService;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
 import de.tudarmstadt.ukp.clarin.webanno.model.Mode;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
@@ -120,6 +121,7 @@ public class CurationPage
     private @SpringBean DocumentService documentService;
     private @SpringBean CorrectionDocumentService correctionDocumentService;
     private @SpringBean CurationDocumentService curationDocumentService;
+    private @SpringBean CurationSegmentStateService curationSegmentStateService;
     private @SpringBean ProjectService projectService;
     private @SpringBean ConstraintsService constraintsService;
     private @SpringBean BratProperties defaultPreferences;
@@ -642,7 +644,7 @@ public class CurationPage
     
             SuggestionBuilder builder = new SuggestionBuilder(casStorageService, documentService,
                     correctionDocumentService, curationDocumentService, annotationService,
-                    userRepository);
+                    userRepository, curationSegmentStateService);
             curationContainer = builder.buildCurationContainer(state);
             curationContainer.setState(state);
             curationPanel.getEditor().reset(aTarget);
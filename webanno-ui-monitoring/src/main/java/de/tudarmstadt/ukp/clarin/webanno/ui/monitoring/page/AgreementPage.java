@@ -24,18 +24,15 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.TreeMap;
+import java.util.stream.Collectors;
 
 import javax.persistence.NoResultException;
 
 import org.apache.commons.lang3.exception.ExceptionUtils;
-import org.apache.uima.cas.CAS;
-import org.apache.uima.cas.FeatureStructure;
-import org.apache.uima.fit.util.FSUtil;
 import org.apache.wicket.Component;
 import org.apache.wicket.ajax.AjaxRequestTarget;
 import org.apache.wicket.ajax.form.OnChangeAjaxBehavior;
@@ -65,31 +62,28 @@ import org.apache.wicket.util.string.StringValue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.wicketstuff.annotation.mount.MountPath;
+import org.wicketstuff.progressbar.ProgressBar;
+import org.wicketstuff.progressbar.Progression;
+import org.wicketstuff.progressbar.ProgressionModel;
 
 import de.agilecoders.wicket.core.markup.html.bootstrap.components.PopoverBehavior;
 import de.agilecoders.wicket.core.markup.html.bootstrap.components.PopoverConfig;
 import de.agilecoders.wicket.core.markup.html.bootstrap.components.TooltipConfig.Placement;
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
-import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.api.ProjectService;
 import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
-import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil;
+import de.tudarmstadt.ukp.clarin.webanno.curation.agreement.AgreementCalculation;
+import de.tudarmstadt.ukp.clarin.webanno.curation.agreement.AgreementService;
 import de.tudarmstadt.ukp.clarin.webanno.curation.agreement.AgreementUtils;
 import de.tudarmstadt.ukp.clarin.webanno.curation.agreement.AgreementUtils.AgreementReportExportFormat;
 import de.tudarmstadt.ukp.clarin.webanno.curation.agreement.AgreementUtils.AgreementResult;
 import de.tudarmstadt.ukp.clarin.webanno.curation.agreement.AgreementUtils.ConcreteAgreementMeasure;
 import de.tudarmstadt.ukp.clarin.webanno.curation.agreement.PairwiseAnnotationResult;
-import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff;
-import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.DiffResult;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.LinkCompareBehavior;
-import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.api.DiffAdapter;
-import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
-import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
 import de.tudarmstadt.ukp.clarin.webanno.model.LinkMode;
 import de.tudarmstadt.ukp.clarin.webanno.model.PermissionLevel;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
-import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
 import de.tudarmstadt.ukp.clarin.webanno.security.UserDao;
 import de.tudarmstadt.ukp.clarin.webanno.security.model.User;
 import de.tudarmstadt.ukp.clarin.webanno.support.AJAXDownload;
@@ -107,10 +101,10 @@ public class AgreementPage
 
     private static final Logger LOG = LoggerFactory.getLogger(AgreementPage.class);
 
-    private @SpringBean DocumentService documentService;
     private @SpringBean ProjectService projectService;
     private @SpringBean AnnotationSchemaService annotationService;
     private @SpringBean UserDao userRepository;
+    private @SpringBean AgreementService agreementService;
 
     private ProjectSelectionForm projectSelectionForm;
     private AgreementForm agreementForm;
@@ -158,12 +152,10 @@ public class AgreementPage
         add(agreementForm = new AgreementForm("agreementForm"));
     }
     
-    private void updateAgreementTable(AjaxRequestTarget aTarget, boolean aClearCache)
+    private void updateAgreementTable(AjaxRequestTarget aTarget)
     {
         try {
-            if (aClearCache) {
-                cachedCASes = null;
-            }
+            agreementForm.startCalculation(aTarget);
             agreementForm.agreementTable2.getDefaultModel().detach();
             if (aTarget != null && agreementForm.agreementTable2.isVisibleInHierarchy()) {
                 aTarget.add(agreementForm.agreementTable2);
@@ -178,71 +170,15 @@ public class AgreementPage
         }
     }
 
-    // The CASes cannot be serialized, so we make them transient here. However, it does not matter
-    // as we do not access the field directly but via getCases() which will re-load them if
-    // necessary, e.g. if the transient field is empty after a session is restored from a
-    // persisted state.
-    private transient Map<String, List<CAS>> cachedCASes;
-
     /**
-     * Get the finished CASes used to compute agreement.
+     * Get the names of the annotators between which agreement is computed.
      */
-    private Map<String, List<CAS>> getCases()
+    private List<String> getAnnotators()
     {
-        // Avoid reloading the CASes when switching features.
-        if (cachedCASes != null) {
-            return cachedCASes;
-        }
-
         Project project = projectSelectionForm.getModelObject().project;
 
-        List<User> users = projectService.listProjectUsersWithPermissions(project,
-                PermissionLevel.ANNOTATOR);
-
-        List<SourceDocument> sourceDocuments = documentService.listSourceDocuments(project);
-
-        cachedCASes = new LinkedHashMap<>();
-        for (User user : users) {
-            List<CAS> cases = new ArrayList<>();
-
-            for (SourceDocument document : sourceDocuments) {
-                CAS cas = null;
-
-                // Load the CAS if there is a finished one.
-                if (documentService.existsAnnotationDocument(document, user)) {
-                    AnnotationDocument annotationDocument = documentService
-                            .getAnnotationDocument(document, user);
-                    if (annotationDocument.getState().equals(AnnotationDocumentState.FINISHED)) {
-                        try {
-                            cas = documentService.readAnnotationCas(annotationDocument);
-                            annotationService.upgradeCasIfRequired(cas, annotationDocument);
-                            // REC: I think there is no need to write the CASes here. We would not
-                            // want to interfere with currently active annotator users
-
-                            // Set the CAS name in the DocumentMetaData so that we can pick it
-                            // up in the Diff position for the purpose of debugging / transparency.
-                            FeatureStructure dmd = WebAnnoCasUtil.getDocumentMetadata(cas);
-                            FSUtil.setFeature(dmd, "documentId",
-                                    annotationDocument.getDocument().getName());
-                            FSUtil.setFeature(dmd, "collectionId",
-                                    annotationDocument.getProject().getName());
-                        }
-                        catch (Exception e) {
-                            LOG.error("Unable to load data", e);
-                            error("Unable to load data: " + ExceptionUtils.getRootCauseMessage(e));
-                        }
-                    }
-                }
-
-                // The next line can enter null values into the list if a user didn't work on this
-                // source document yet.
-                cases.add(cas);
-            }
-
-            cachedCASes.put(user.getUsername(), cases);
-        }
-
-        return cachedCASes;
+        return projectService.listProjectUsersWithPermissions(project, PermissionLevel.ANNOTATOR)
+                .stream().map(User::getUsername).collect(Collectors.toList());
     }
 
     private class AgreementForm
@@ -254,6 +190,12 @@ public class AgreementPage
 
         private AgreementTable agreementTable2;
 
+        private ProgressBar progressBar;
+
+        // The calculation itself is kept by the agreement service, so it survives the
+        // serialization of the page
+        private String calculationId;
+
         private DropDownChoice<ConcreteAgreementMeasure> measureDropDown;
 
         private DropDownChoice<LinkCompareBehavior> linkCompareBehaviorDropDown;
@@ -390,6 +332,46 @@ public class AgreementPage
             });
             addUpdateAgreementTableBehavior(featureList);
 
+            progressBar = new ProgressBar("progress", new ProgressionModel()
+            {
+                private static final long serialVersionUID = -5236385458013577040L;
+
+                @Override
+                protected Progression getProgression()
+                {
+                    return new Progression(getCalculation().map(AgreementCalculation::poll)
+                            .orElse(100));
+                }
+            })
+            {
+                private static final long serialVersionUID = 2803452418466417637L;
+
+                @Override
+                protected void onFinished(AjaxRequestTarget aTarget)
+                {
+                    setVisible(false);
+                    
+                    Optional<AgreementCalculation> calculation = getCalculation();
+                    if (!calculation.isPresent()) {
+                        error("The agreement calculation is no longer available. Please select "
+                                + "the feature again.");
+                    }
+                    else if (calculation.get().getError() != null) {
+                        error("Unable to load data: " + calculation.get().getError());
+                    }
+                    else if (calculation.get().getResult() == null) {
+                        warn("The agreement calculation has been cancelled. Please select the "
+                                + "feature again.");
+                    }
+
+                    aTarget.addChildren(getPage(), IFeedback.class);
+                    aTarget.add(AgreementForm.this);
+                }
+            };
+            progressBar.setOutputMarkupPlaceholderTag(true);
+            progressBar.setVisible(false);
+            agreementResults.add(progressBar);
+            
             agreementResults.add(agreementTable2 = new AgreementTable("agreementTable", getModel(),
                     new LoadableDetachableModel<PairwiseAnnotationResult>()
                     {
@@ -398,27 +380,9 @@ public class AgreementPage
                         @Override
                         protected PairwiseAnnotationResult load()
                         {
-                            AnnotationFeature feature = featureList.getModelObject();
-
-                            // Do not do any agreement if no feature has been selected yet.
-                            if (feature == null) {
-                                return null;
-                            }
-
-                            Map<String, List<CAS>> casMap = getCases();
-
-                            Project project = projectSelectionForm.getModelObject().project;
-                            List<DiffAdapter> adapters = CasDiff.getAdapters(annotationService,
-                                    project);
-
-                            AgreementFormModel pref = AgreementForm.this.getModelObject();
-
-                            DiffResult diff = CasDiff.doDiff(asList(feature.getLayer().getName()),
-                                    adapters, pref.linkCompareBehavior, casMap);
-                            return AgreementUtils.getPairwiseAgreement(
-                                    AgreementForm.this.getModelObject().measure,
-                                    pref.excludeIncomplete, diff, feature.getLayer().getName(),
-                                    feature.getName(), casMap);
+                            // Do not show anything until the calculation is complete
+                            return getCalculation().filter(AgreementCalculation::isDone)
+                                    .map(AgreementCalculation::getResult).orElse(null);
                         }
                     }));
 
@@ -451,22 +415,13 @@ public class AgreementPage
                                         return null;
                                     }
 
-                                    Map<String, List<CAS>> casMap = getCases();
-
-                                    Project project = projectSelectionForm.getModelObject().project;
-                                    List<DiffAdapter> adapters = CasDiff
-                                            .getAdapters(annotationService, project);
-
                                     AgreementFormModel pref = AgreementForm.this.getModelObject();
 
-                                    DiffResult diff = CasDiff.doDiff(
-                                            asList(feature.getLayer().getName()), adapters,
-                                            pref.linkCompareBehavior, casMap);
-
-                                    AgreementResult agreementResult = AgreementUtils.makeStudy(diff,
-                                            feature.getLayer().getName(), feature.getName(),
-                                            pref.excludeIncomplete, casMap);
                                     try {
+                                        AgreementResult agreementResult = agreementService
+                                                .getStudy(feature, pref.excludeIncomplete,
+                                                        pref.linkCompareBehavior,
+                                                        getAnnotators());
                                         return AgreementUtils.generateCsvReport(agreementResult);
                                     }
                                     catch (Exception e) {
@@ -517,6 +472,59 @@ public class AgreementPage
             setVisible(model != null && model.project != null);
         }
 
+        private Optional<AgreementCalculation> getCalculation()
+        {
+            if (calculationId == null) {
+                return Optional.empty();
+            }
+            
+            return agreementService.getCalculation(calculationId);
+        }
+        
+        /**
+         * Cancels the current agreement calculation (if any) and starts a new calculation for the
+         * selected feature in the background.
+         */
+        private void startCalculation(AjaxRequestTarget aTarget)
+        {
+            if (calculationId != null) {
+                agreementService.discardCalculation(calculationId);
+                calculationId = null;
+            }
+            
+            AnnotationFeature feature = featureList.getModelObject();
+
+            // Do not do any agreement if no feature has been selected yet.
+            if (feature == null) {
+                return;
+            }
+
+            AgreementFormModel pref = getModelObject();
+            AgreementCalculation calculation = agreementService.startPairwiseAgreement(
+                    pref.measure, pref.excludeIncomplete, feature, pref.linkCompareBehavior,
+                    getAnnotators());
+            calculationId = calculation.getId();
+            
+            if (aTarget != null) {
+                progressBar.setVisible(true);
+                progressBar.start(aTarget);
+            }
+            else {
+                // Without an AJAX request, we cannot poll the progress
+                try {
+                    calculation.awaitCompletion();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    agreementService.discardCalculation(calculationId);
+                }
+                
+                if (calculation.getError() != null) {
+                    error("Unable to load data: " + calculation.getError());
+                }
+            }
+        }
+
         private void addUpdateAgreementTableBehavior(Component aComponent)
         {
             aComponent.add(new OnChangeAjaxBehavior()
@@ -530,7 +538,7 @@ public class AgreementPage
                     // add the feedback panel to the cycle, so let's do it here.
                     aTarget.add(getFeedbackPanel());
 
-                    updateAgreementTable(aTarget, false);
+                    updateAgreementTable(aTarget);
                     // // Adding this as well because when choosing a different measure, it may
                     // affect
                     // // the ability to exclude incomplete configurations.
@@ -639,9 +647,7 @@ public class AgreementPage
             getModelObject().project = aProject;
             agreementForm.setModelObject(new AgreementFormModel());
 
-            // Clear the cached CASes. When we switch to another project, we'll have to reload them.
-            updateAgreementTable(RequestCycle.get().find(AjaxRequestTarget.class).orElse(null),
-                    true);
+            updateAgreementTable(RequestCycle.get().find(AjaxRequestTarget.class).orElse(null));
         }
     }
 
@@ -22,7 +22,6 @@ import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.PAGE_PARAM_PROJ
 import static de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentStateTransition.ANNOTATION_FINISHED_TO_ANNOTATION_IN_PROGRESS;
 import static de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentStateTransition.ANNOTATION_IN_PROGRESS_TO_ANNOTATION_FINISHED;
 import static de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentStateTransition.IGNORE_TO_NEW;
-import static de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentStateTransition.NEW_TO_ANNOTATION_IN_PROGRESS;
 import static de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentStateTransition.NEW_TO_IGNORE;
 import static de.tudarmstadt.ukp.clarin.webanno.model.PermissionLevel.ANNOTATOR;
 import static de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentState.ANNOTATION_FINISHED;
@@ -35,8 +34,6 @@ import static de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentStateTransit
 import static de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentStateTransition.CURATION_IN_PROGRESS_TO_CURATION_FINISHED;
 import static java.util.Collections.emptyMap;
 import static java.util.Objects.isNull;
-import static java.util.stream.Collectors.groupingBy;
-import static java.util.stream.Collectors.toMap;
 
 import java.awt.Color;
 import java.io.Serializable;
@@ -51,7 +48,6 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Optional;
 import java.util.TreeMap;
-import java.util.function.BinaryOperator;
 
 import javax.persistence.NoResultException;
 
@@ -66,6 +62,7 @@ import org.apache.wicket.extensions.markup.html.repeater.data.grid.ICellPopulato
 import org.apache.wicket.extensions.markup.html.repeater.data.table.AbstractColumn;
 import org.apache.wicket.extensions.markup.html.repeater.data.table.DefaultDataTable;
 import org.apache.wicket.extensions.markup.html.repeater.data.table.IColumn;
+import org.apache.wicket.feedback.IFeedback;
 import org.apache.wicket.markup.html.basic.Label;
 import org.apache.wicket.markup.html.form.ChoiceRenderer;
 import org.apache.wicket.markup.html.form.Form;
@@ -104,10 +101,16 @@ import org.wicketstuff.annotation.mount.MountPath;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
 import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.api.DocumentStateMatrix;
+import de.tudarmstadt.ukp.clarin.webanno.api.ProjectProgress;
 import de.tudarmstadt.ukp.clarin.webanno.api.ProjectService;
 import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
 import de.tudarmstadt.ukp.clarin.webanno.automation.model.MiraTemplate;
 import de.tudarmstadt.ukp.clarin.webanno.automation.service.AutomationService;
+import de.tudarmstadt.ukp.clarin.webanno.curation.batch.BatchCurationOptions;
+import de.tudarmstadt.ukp.clarin.webanno.curation.batch.BatchCurationProgress;
+import de.tudarmstadt.ukp.clarin.webanno.curation.batch.BatchCurationReport;
+import de.tudarmstadt.ukp.clarin.webanno.curation.batch.BatchCurationService;
 import de.tudarmstadt.ukp.clarin.webanno.curation.storage.CurationDocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
@@ -120,6 +123,7 @@ import de.tudarmstadt.ukp.clarin.webanno.security.UserDao;
 import de.tudarmstadt.ukp.clarin.webanno.security.model.User;
 import de.tudarmstadt.ukp.clarin.webanno.support.EntityModel;
 import de.tudarmstadt.ukp.clarin.webanno.support.jfreechart.SvgChart;
+import de.tudarmstadt.ukp.clarin.webanno.support.lambda.LambdaAjaxLink;
 import de.tudarmstadt.ukp.clarin.webanno.ui.core.page.ApplicationPageBase;
 import de.tudarmstadt.ukp.clarin.webanno.ui.monitoring.support.EmbeddableImage;
 import de.tudarmstadt.ukp.clarin.webanno.ui.monitoring.support.TableDataProvider;
@@ -156,6 +160,7 @@ public class MonitoringPage
     private @SpringBean ProjectService projectService;
     private @SpringBean UserDao userRepository;
     private @SpringBean CurationDocumentService curationService;
+    private @SpringBean BatchCurationService batchCurationService;
     
     private ProjectSelectionForm projectSelectionForm;
     private MonitoringDetailForm monitoringDetailForm;
@@ -166,6 +171,14 @@ public class MonitoringPage
 
     private Panel annotationDocumentStatusTable;
 
+    /**
+     * The states of all annotation documents of the selected project. Loaded once per request
+     * instead of querying the state of each cell of the status table separately.
+     */
+    private IModel<DocumentStateMatrix> documentStates = LoadableDetachableModel
+            .of(() -> documentService
+                    .getDocumentStateMatrix(projectSelectionForm.getModelObject().project));
+
     private String result;
 
     private static final ResourceReference ICON_FINISHED = new PackageResourceReference(
@@ -309,6 +322,14 @@ public class MonitoringPage
         }
     }
     
+    @Override
+    protected void onDetach()
+    {
+        super.onDetach();
+        
+        documentStates.detach();
+    }
+    
     private JFreeChart renderProjectProgress()
     {
         Map<String, Integer> data = getOverallProjectProgress();
@@ -523,22 +544,18 @@ public class MonitoringPage
             return emptyMap();
         }
 
-        Map<String, List<AnnotationDocument>> docsPerUser = documentService
-                .listFinishedAnnotationDocuments(aProject).stream()
-                .collect(groupingBy(AnnotationDocument::getUser));
-
-        // We explicitly use HashMap::new below since we *really* want a mutable map and 
-        // Collectors.toMap(...) doesn't make guarantees about the mutability of the map type it
-        // internally creates.
-        Map<String, Integer> finishedDocumentsPerUser = docsPerUser.entrySet().stream()
-                .collect(toMap(Entry::getKey, e -> e.getValue().size(), throwingMerger(), 
-                        HashMap::new));
+        ProjectProgress progress = documentService.getProjectProgress(aProject);
 
         // Make sure we also have all annotators in the map who have not actually annotated
         // anything
+        Map<String, Integer> finishedDocumentsPerUser = new HashMap<>();
+        for (String user : progress.getAnnotators()) {
+            finishedDocumentsPerUser.put(user, progress.getFinished(user));
+        }
         projectService.listProjectUsersWithPermissions(aProject, ANNOTATOR).stream()
                 .map(User::getUsername)
-                .forEach(user -> finishedDocumentsPerUser.computeIfAbsent(user, _it -> 0));
+                .forEach(user -> finishedDocumentsPerUser.computeIfAbsent(user,
+                    progress::getFinished));
 
         // Add the finished documents for the curation user
         List<SourceDocument> curatedDocuments = curationService.listCuratedDocuments(aProject);
@@ -555,22 +572,16 @@ public class MonitoringPage
             return emptyMap();
         }
 
+        // The progress is cached by the document service, so obtaining it here again after
+        // getFinishedDocumentsPerUser does not hit the database
+        ProjectProgress progress = documentService.getProjectProgress(aProject);
         Map<String, Integer> finishedDocumentsPerUser = getFinishedDocumentsPerUser(aProject);
-        
+
         Map<String, Integer> percentageFinishedPerUser = new HashMap<>();
-        List<User> annotators = new ArrayList<>(projectService.listProjectUsersWithPermissions(
-                aProject, ANNOTATOR));
-        
-        // Little hack: to ensure that the curation user comes first on screen, add a space
-        annotators.add(new User(CURATION_USER));
-        
-        for (User annotator : annotators) {
-            Map<SourceDocument, AnnotationDocument> docsForUser = documentService
-                    .listAnnotatableDocuments(aProject, annotator);
-            
-            int finished = finishedDocumentsPerUser.get(annotator.getUsername());
-            int annotatableDocs = docsForUser.size();
-            percentageFinishedPerUser.put(annotator.getUsername(),
+        for (Entry<String, Integer> e : finishedDocumentsPerUser.entrySet()) {
+            int finished = e.getValue();
+            int annotatableDocs = progress.getAnnotatable(e.getKey());
+            percentageFinishedPerUser.put(e.getKey(),
                     (int) Math.round((double) (finished * 100) / annotatableDocs));
         }
         
@@ -585,10 +596,8 @@ public class MonitoringPage
         for (Project project : projectService.listProjects()) {
             if (projectService.isCurator(project, user)
                     || projectService.isManager(project, user)) {
-                int annoFinished = documentService.listFinishedAnnotationDocuments(project).size();
-                int allAnno = documentService.numberOfExpectedAnnotationDocuments(project);
-                int progress = (int) Math.round((double) (annoFinished * 100) / (allAnno));
-                overallProjectProgress.put(project.getName(), progress);
+                ProjectProgress progress = documentService.getProjectProgress(project);
+                overallProjectProgress.put(project.getName(), progress.getPercentage());
             }
         }
         return overallProjectProgress;
@@ -623,6 +632,25 @@ public class MonitoringPage
             super(id, new CompoundPropertyModel<>(new EntityModel<>(new Project())));
             
             add(new Label("name"));
+            
+            // Merging writes the curation documents, so only project managers may start it
+            add(new LambdaAjaxLink("mergeAgreeingAnnotations", this::actionMerge)
+                    .onConfigure(_this -> _this.setVisible(getModelObject().getId() != null
+                            && projectService.isManager(getModelObject(),
+                                    userRepository.getCurrentUser()))));
+        }
+        
+        private void actionMerge(AjaxRequestTarget aTarget)
+        {
+            BatchCurationReport report = batchCurationService.merge(getModelObject(),
+                    new BatchCurationOptions(), new BatchCurationProgress());
+            
+            LOG.info("Batch curation of project [{}]({}): {}", getModelObject().getName(),
+                    getModelObject().getId(), report);
+            info(report.toString());
+            
+            aTarget.add(this);
+            aTarget.addChildren(getPage(), IFeedback.class);
         }
     }
     
@@ -925,10 +953,6 @@ public class MonitoringPage
         public void populateItem(final Item<ICellPopulator<List<String>>> aCellItem,
                 final String componentId, final IModel<List<String>> rowModel)
         {
-            String username = SecurityContextHolder.getContext().getAuthentication()
-                    .getName();
-            final User user = userRepository.get(username);
-
             int rowNumber = aCellItem.getIndex();
             aCellItem.setOutputMarkupId(true);
 
@@ -941,7 +965,7 @@ public class MonitoringPage
                 aCellItem.add(AttributeModifier.append("class", "centering"));
             }
             else if (value.substring(0, value.indexOf(":")).equals(WebAnnoConst.CURATION_USER)) {
-                SourceDocument document = documentService.getSourceDocument(project,
+                SourceDocument document = getSourceDocument(
                         value.substring(value.indexOf(":") + 1));
                 SourceDocumentState state = document.getState();
                 EmbeddableImage icon = new EmbeddableImage(componentId, ICONS.get(state));
@@ -955,6 +979,7 @@ public class MonitoringPage
                     @Override
                     protected void onEvent(AjaxRequestTarget aTarget)
                     {
+                        User user = userRepository.getCurrentUser();
                         if (!projectService.isCurator(project, user)) {
                             aTarget.appendJavaScript(
                                     "alert('the state can only be changed explicitly by the curator')");
@@ -982,27 +1007,13 @@ public class MonitoringPage
                 });
             }
             else {
-                SourceDocument document = documentService.getSourceDocument(project,
+                SourceDocument document = getSourceDocument(
                         value.substring(value.indexOf(":") + 1));
-                User annotator = userRepository.get(value.substring(0, value.indexOf(":")));
 
-                AnnotationDocumentState state;
-                AnnotationDocument annoDoc = null;
-                if (documentService.existsAnnotationDocument(document, annotator)) {
-                    annoDoc = documentService.getAnnotationDocument(document, annotator);
-                    state = annoDoc.getState();
-                }
-                // user didn't even start working on it
-                else {
-                    state = AnnotationDocumentState.NEW;
-                    AnnotationDocument annotationDocument = new AnnotationDocument();
-                    annotationDocument.setDocument(document);
-                    annotationDocument.setName(document.getName());
-                    annotationDocument.setProject(project);
-                    annotationDocument.setUser(annotator.getUsername());
-                    annotationDocument.setState(state);
-                    documentService.createAnnotationDocument(annotationDocument);
-                }
+                // If the user didn't even start working on the document, there is no annotation
+                // document yet and the state is NEW
+                AnnotationDocumentState state = documentStates.getObject().getState(document,
+                        value.substring(0, value.indexOf(":")));
 
                 EmbeddableImage icon = new EmbeddableImage(componentId, ICONS.get(state));
                 icon.add(new AttributeAppender("style", "cursor: pointer", ";"));
@@ -1043,16 +1054,18 @@ public class MonitoringPage
                                 changeAnnotationDocumentState(document, user, IGNORE_TO_NEW);
                             }
                         }
-                        // user didn't even start working on it
+                        // user didn't even start working on it - the cell shows the document
+                        // as NEW, so clicking it ignores the document
                         else {
                             AnnotationDocument annotationDocument = new AnnotationDocument();
                             annotationDocument.setDocument(document);
                             annotationDocument.setName(document.getName());
                             annotationDocument.setProject(project);
                             annotationDocument.setUser(user.getUsername());
+                            annotationDocument.setState(AnnotationDocumentState.NEW);
                             documentService.createAnnotationDocument(annotationDocument);
                             documentService.transitionAnnotationDocumentState(annotationDocument,
-                                    NEW_TO_ANNOTATION_IN_PROGRESS);
+                                    NEW_TO_IGNORE);
                         }
                         
                         aTarget.add(aCellItem);
@@ -1062,8 +1075,16 @@ public class MonitoringPage
             }
         }
 
+        private SourceDocument getSourceDocument(String aName)
+        {
+            return documentStates.getObject().getDocument(aName)
+                    .orElseGet(() -> documentService.getSourceDocument(project, aName));
+        }
+
         private void updateStats(AjaxRequestTarget aTarget, ProjectSelectionModel aModel)
         {
+            documentStates.detach();
+
             aModel.annotatorsProgress.clear();
             aModel.annotatorsProgress.putAll(getFinishedDocumentsPerUser(project));
             aTarget.add(annotatorsProgressImage);
@@ -1131,11 +1152,4 @@ public class MonitoringPage
             return Optional.empty();
         }
     }
-    
-    private static <T> BinaryOperator<T> throwingMerger()
-    {
-        return (u, v) -> {
-            throw new IllegalStateException(String.format("Duplicate key %s", u));
-        };
-    }
 }
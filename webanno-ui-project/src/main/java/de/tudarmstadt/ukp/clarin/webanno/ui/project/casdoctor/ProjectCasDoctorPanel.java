@@ -150,6 +150,9 @@ public class ProjectCasDoctorPanel
         throws IOException, UIMAException, ClassNotFoundException
     {
         casStorageService.disableCache();
+        // The repairs work on the files directly
+        casStorageService.flushPendingWrites();
+        casStorageService.mergeJournals();
         
         CasDoctor casDoctor = new CasDoctor();
         casDoctor.setApplicationContext(ApplicationContextProvider.getApplicationContext());
@@ -276,6 +279,9 @@ public class ProjectCasDoctorPanel
         throws IOException, UIMAException, ClassNotFoundException
     {
         casStorageService.disableCache();
+        // The checks work on the files directly
+        casStorageService.flushPendingWrites();
+        casStorageService.mergeJournals();
         
         CasDoctor casDoctor = new CasDoctor();
         casDoctor.setApplicationContext(ApplicationContextProvider.getApplicationContext());
@@ -31,6 +31,7 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Queue;
+import java.util.concurrent.CancellationException;
 import java.util.stream.Collectors;
 
 import org.apache.commons.io.FileUtils;
@@ -58,6 +59,7 @@ import org.wicketstuff.progressbar.Progression;
 import org.wicketstuff.progressbar.ProgressionModel;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
 import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.api.ImportExportService;
 import de.tudarmstadt.ukp.clarin.webanno.api.ProjectService;
@@ -67,6 +69,7 @@ import de.tudarmstadt.ukp.clarin.webanno.api.format.FormatSupport;
 import de.tudarmstadt.ukp.clarin.webanno.constraints.ConstraintsService;
 import de.tudarmstadt.ukp.clarin.webanno.export.ExportUtil;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
 import de.tudarmstadt.ukp.clarin.webanno.security.UserDao;
 import de.tudarmstadt.ukp.clarin.webanno.support.AJAXDownload;
 import de.tudarmstadt.ukp.clarin.webanno.support.ZipUtils;
@@ -90,6 +93,7 @@ public class ProjectExportPanel
 
     private @SpringBean AnnotationSchemaService annotationService;
     private @SpringBean DocumentService documentService;
+    private @SpringBean CasStorageService casStorageService;
     private @SpringBean ProjectService projectService;
     //private @SpringBean ExportService exportService;
     private @SpringBean ProjectExportService exportService;
@@ -331,6 +335,11 @@ public class ProjectExportPanel
                 } else {
                     ProjectExportRequest request = ProjectExportForm.this.getModelObject();
                     request.setProject(project);
+                    for (SourceDocument document : documentService
+                            .listSourceDocuments(project)) {
+                        casStorageService.flushPendingWrites(document);
+                        casStorageService.mergeJournals(document);
+                    }
                     ExportUtil.exportCuratedDocuments(documentService, importExportService, request,
                             exportTempDir, false);
                     ZipUtils.zipFolder(exportTempDir, new File(
@@ -403,7 +412,7 @@ public class ProjectExportPanel
                 projectName = model.getProject().getName();
                 state = State.COMPLETED;
             }
-            catch (ClosedByInterruptException e) {
+            catch (ClosedByInterruptException | CancellationException e) {
                 cancel();
             }
             catch (Throwable e) {
@@ -424,6 +433,8 @@ public class ProjectExportPanel
 
         public void cancel()
         {
+            // Stops the export at the next document even if it is not blocked in an I/O operation
+            model.cancel();
             state = State.CANCELLED;
             model.progress = 100;
         }